@@ -0,0 +1,131 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.fieldtypes.FieldType;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputField;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Klasa pomocnicza dostarczajaca pliki wejsciowe dla benchmarkow.
+ * Oprocz plikow z katalogu {@code src/test/samples} generuje pliki
+ * JPEG z bardzo duzym segmentem EXIF oraz z wieloma katalogami IFD.
+ * */
+final class BenchmarkSamples {
+    /**
+     * Katalog z przykladowymi plikami testowymi.
+     * */
+    static final File SAMPLES_DIR = new File("src/test/samples");
+    /**
+     * Nazwa generowanego pliku z duzym segmentem EXIF.
+     * */
+    static final String LARGE_EXIF = "large-exif";
+    /**
+     * Nazwa generowanego pliku z wieloma katalogami IFD.
+     * */
+    static final String MANY_IFD = "many-ifd";
+    /**
+     * Plik bazowy dla generowanych probek.
+     * */
+    private static final String BASE_SAMPLE = "withExif.jpg";
+    /**
+     * Rozmiar wartosci UserComment w pliku z duzym segmentem EXIF.
+     * Segment APP1 nie moze przekroczyc 64 KB.
+     * */
+    private static final int LARGE_VALUE_LENGTH = 56 * 1024;
+    /**
+     * Liczba dodatkowych katalogow IFD w lancuchu.
+     * */
+    private static final int EXTRA_IFD_COUNT = 7;
+    /**
+     * Liczba znacznikow dodawanych do kazdego katalogu IFD.
+     * */
+    private static final int FIELDS_PER_IFD = 60;
+
+    private BenchmarkSamples() {
+    }
+
+    /**
+     * Zwraca plik odpowiadajacy nazwie probki. Probki generowane
+     * sa tworzone w podanym katalogu tymczasowym.
+     *
+     * @param name Nazwa pliku z katalogu probek lub nazwa probki generowanej.
+     * @param workDir Katalog na pliki generowane.
+     * @return Plik wejsciowy benchmarku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych pliku bazowego sie nie powiodl.
+     * @throws ImageWriteException Jesli zapis metadanych sie nie powiodl.
+     * */
+    static File resolve(String name, File workDir) throws IOException, ImageReadException, ImageWriteException {
+        switch (name) {
+            case LARGE_EXIF:
+                return generate(workDir, name, BenchmarkSamples::addLargeValues);
+            case MANY_IFD:
+                return generate(workDir, name, BenchmarkSamples::addManyDirectories);
+            default:
+                File src = new File(SAMPLES_DIR, name);
+                if (!src.isFile()) {
+                    throw new FileNotFoundException(src.getPath());
+                }
+                return src;
+        }
+    }
+
+    /**
+     * Interfejs modyfikatora zbioru metadanych wyjsciowych.
+     * */
+    private interface OutputSetCustomizer {
+        void customize(TiffOutputSet outputSet) throws ImageWriteException;
+    }
+
+    private static File generate(File workDir, String name, OutputSetCustomizer customizer)
+            throws IOException, ImageReadException, ImageWriteException {
+        File base = new File(SAMPLES_DIR, BASE_SAMPLE);
+        JpegImageMetadata metadata = (JpegImageMetadata) Imaging.getMetadata(base);
+        TiffOutputSet outputSet = metadata.getExif().getOutputSet();
+        customizer.customize(outputSet);
+        File dest = new File(workDir, name + ".jpg");
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(dest.toPath()))) {
+            new ExifRewriter().updateExifMetadataLossless(base, os, outputSet);
+        }
+        return dest;
+    }
+
+    private static void addLargeValues(TiffOutputSet outputSet) throws ImageWriteException {
+        TiffOutputDirectory exifDir = outputSet.getOrCreateExifDirectory();
+        byte[] comment = new byte[LARGE_VALUE_LENGTH];
+        byte[] pattern = "ASCII\0\0\0large user comment ".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < comment.length; i++) {
+            comment[i] = pattern[i % pattern.length];
+        }
+        exifDir.removeField(ExifTagConstants.EXIF_TAG_USER_COMMENT);
+        exifDir.add(new TiffOutputField(ExifTagConstants.EXIF_TAG_USER_COMMENT,
+                FieldType.UNDEFINED, comment.length, comment));
+    }
+
+    private static void addManyDirectories(TiffOutputSet outputSet) throws ImageWriteException {
+        byte[] value = Arrays.copyOf("value".getBytes(StandardCharsets.US_ASCII), 8);
+        for (int type = 1; type <= EXTRA_IFD_COUNT; type++) {
+            TiffOutputDirectory dir = outputSet.findDirectory(type);
+            if (dir == null) {
+                dir = new TiffOutputDirectory(type, outputSet.byteOrder);
+                outputSet.addDirectory(dir);
+            }
+            for (int i = 0; i < FIELDS_PER_IFD; i++) {
+                dir.add(new TiffOutputField(0xC000 + i, TiffTagConstants.TIFF_TAG_UNKNOWN,
+                        FieldType.ASCII, value.length, value));
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarki JMH dla operacji odczytu, zapisu i usuwania metadanych
+ * realizowanych przez klase {@link ExifEditor}. Tryb {@code Throughput}
+ * mierzy przepustowosc, a tryb {@code SampleTime} dostarcza percentyle
+ * opoznien. Profil {@code gc} wlaczony w pom.xml raportuje tempo alokacji.
+ * */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+@State(Scope.Benchmark)
+public class ExifEditorBenchmark {
+
+    /**
+     * Nazwa pliku wejsciowego lub generowanej probki.
+     * */
+    @Param({"withExif.jpg", "sample1.jpg", "sample2.jpg",
+            BenchmarkSamples.LARGE_EXIF, BenchmarkSamples.MANY_IFD})
+    public String sample;
+
+    /**
+     * Katalog roboczy na probki generowane i pliki wynikowe.
+     * */
+    private File workDir;
+    /**
+     * Plik wejsciowy benchmarku.
+     * */
+    private File src;
+    /**
+     * Aktualne wartosci znacznikow pliku wejsciowego przekazywane do zapisu.
+     * */
+    private Vector<String> tagValues;
+
+    /**
+     * Stan watku zawierajacy wlasny plik docelowy, aby rownolegle
+     * watki benchmarku nie zapisywaly do tego samego pliku.
+     * */
+    @State(Scope.Thread)
+    public static class Destination {
+        /**
+         * Plik docelowy dla operacji zapisu.
+         * */
+        File dest;
+
+        @Setup(Level.Trial)
+        public void create() throws IOException {
+            dest = File.createTempFile("exif-bench-", ".jpg");
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            Files.deleteIfExists(dest.toPath());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ImageReadException, ImageWriteException {
+        workDir = Files.createTempDirectory("exif-bench").toFile();
+        src = BenchmarkSamples.resolve(sample, workDir);
+        tagValues = new Vector<>();
+        for (Vector<String> row : ExifEditor.readEXIFDataFromFile(src)) {
+            tagValues.add(row.get(2));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        File[] files = workDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(workDir.toPath());
+    }
+
+    @Benchmark
+    public Vector<Vector<String>> read() throws IOException, ImageReadException {
+        return ExifEditor.readEXIFDataFromFile(src);
+    }
+
+    @Benchmark
+    public File write(Destination destination) throws IOException, ImageReadException, ImageWriteException {
+        ExifEditor.writeEXIFDataToFile(src, destination.dest, tagValues);
+        return destination.dest;
+    }
+
+    @Benchmark
+    public File remove(Destination destination) throws IOException, ImageReadException, ImageWriteException {
+        ExifEditor.removeEXIFDataFromFile(src, destination.dest);
+        return destination.dest;
+    }
+}
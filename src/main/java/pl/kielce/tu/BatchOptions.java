@@ -0,0 +1,445 @@
+package pl.kielce.tu;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Klasa przechowujaca parametry przetwarzania wsadowego przekazane
+ * w linii polecen. Odpowiada za ich sprawdzenie i zamiane na wartosci
+ * uzywane przez {@link BatchProcessor}.
+ * */
+public class BatchOptions {
+    /**
+     * Operacja wykonywana na kazdym pliku.
+     * */
+    private BatchProcessor.Operation operation;
+    /**
+     * Katalog glowny przeszukiwanego drzewa plikow.
+     * */
+    private Path root;
+    /**
+     * Katalog na pliki wynikowe (dla operacji modyfikujacych pliki).
+     * */
+    private Path outputDir;
+    /**
+     * Liczba watkow roboczych.
+     * */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Maksymalna liczba plikow przetwarzanych jednoczesnie
+     * (uwzgledniajac pliki oczekujace w kolejce).
+     * */
+    private int maxInFlight = -1;
+    /**
+     * Rozszerzenia plikow, ktore maja byc przetwarzane (malymi literami).
+     * */
+    private final Set<String> extensions = new HashSet<>(Arrays.asList("jpg", "jpeg", "tif", "tiff", "png", "webp"));
+    /**
+     * Nowe wartosci znacznikow.
+     * */
+    private final Map<TagKey, String> tagValues = new LinkedHashMap<>();
+    /**
+     * Liczba watkow etapow odczytu, przygotowania zmian i zapisu
+     * (dla operacji {@code apply}), -1 oznacza liczbe watkow roboczych.
+     * */
+    private int readThreads = -1;
+    private int transformThreads = -1;
+    private int writeThreads = -1;
+    /**
+     * Plik wynikowy eksportu lub {@code null} dla standardowego wyjscia.
+     * */
+    private Path outputFile;
+    /**
+     * Format eksportu.
+     * */
+    private MetadataExporter.Format format = MetadataExporter.Format.JSONL;
+    /**
+     * Czy eksport ma zachowac kolejnosc plikow z drzewa katalogow.
+     * */
+    private boolean ordered;
+    /**
+     * Katalog indeksu znacznikow (dla operacji {@code index} i {@code query}).
+     * */
+    private Path indexDir;
+    /**
+     * Warunki zapytania do indeksu.
+     * */
+    private final List<TagIndex.Condition> conditions = new ArrayList<>();
+    /**
+     * Czas bez zmian pliku w milisekundach, po ktorym plik jest przetwarzany
+     * (dla operacji {@code watch}).
+     * */
+    private long debounceMillis = 1000;
+    /**
+     * Czy po zakonczeniu przetwarzania wypisac zestawienie pomiarow operacji.
+     * */
+    private boolean stats;
+    /**
+     * Czy utrwalac dane plikow wynikowych na dysku przed ich zamknieciem.
+     * */
+    private boolean fsync;
+    /**
+     * Czy sprawdzac, ze dane obrazu plikow wynikowych sa identyczne
+     * z danymi plikow zrodlowych.
+     * */
+    private boolean verify;
+    /**
+     * Katalog glowny drzewa porownywanego z drzewem katalogu glownego
+     * (dla operacji {@code diff}).
+     * */
+    private Path againstDir;
+    /**
+     * Polityka usuwania znacznikow (dla operacji {@code scrub}).
+     * */
+    private ScrubPolicy scrubPolicy = ScrubPolicy.DEFAULT;
+
+    /**
+     * Tekst pomocy opisujacy dostepne parametry.
+     * */
+    public static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -jar EXIFEditor.jar <command> [options] <directory>",
+            "Commands:",
+            "  dump    print directory, tag and value of every EXIF field",
+            "  strip   remove EXIF metadata (requires --out)",
+            "  set     change tag values (requires --out and at least one --tag)",
+            "  apply   apply the same tag values to every file using a read/transform/write pipeline",
+            "          (requires --out and at least one --tag or --template)",
+            "  index   create or update the tag index of the directory",
+            "  query   print files from the tag index matching all --where conditions",
+            "  export  write directory, tag and value of every EXIF field as JSON Lines or CSV",
+            "  diff    print EXIF fields added, removed or changed in the --against tree (files paired by relative path)",
+            "  scrub   remove only GPS, serial number and owner tags (see --policy) by patching the files in place,",
+            "          or patched copies in --out when given",
+            "  watch   keep watching the directory and remove EXIF metadata from new files (requires --out)",
+            "Options:",
+            "  --out <dir>            directory for result files (source tree layout is kept)",
+            "  --threads <n>          number of worker threads (default: number of cores)",
+            "  --max-in-flight <n>    maximum number of files queued or in progress (default: 4 x threads)",
+            "  --ext <list>           comma separated file extensions (default: jpg,jpeg,tif,tiff,png,webp;",
+            "                         the format itself is detected from the file content)",
+            "  --tag <Dir:Tag=value>  new tag value, e.g. --tag Root:Artist=John or --tag Exif:0x9286=text",
+            "  --template <file>      file with one Dir:Tag=value line per tag ('#' starts a comment)",
+            "  --read-threads <n>     apply: threads reading EXIF headers (default: --threads)",
+            "  --transform-threads <n> apply: threads preparing changes (default: --threads)",
+            "  --write-threads <n>    apply: threads writing result files (default: --threads)",
+            "  --output <file>        export result file (default: standard output)",
+            "  --format <jsonl|csv>   export format (default: jsonl)",
+            "  --ordered              export files in directory walk order (default: in completion order)",
+            "  --index <dir>          tag index directory (default: <directory>/.exif-index)",
+            "  --where <condition>    Dir:Tag, Dir:* or Dir:Tag followed by =, <, <=, >, >= and a value,",
+            "                         e.g. --where Root:Model=X --where \"Exif:DateTimeOriginal>=2020:01:01\" --where Gps:*",
+            "  --debounce <ms>        watch: time without changes before a new file is processed (default: 1000)",
+            "  --stats                print counters and latency histograms of file operations when finished",
+            "  --against <dir>        diff: directory tree compared with <directory>",
+            "  --fsync                force result files to disk before closing them (watch always does)",
+            "  --policy <list>        scrub: comma separated directories (Gps, Exif, Interoperability), Dir:Tag keys",
+            "                         and 'default' (Gps, serial numbers, owner, MakerNote, ImageUniqueID, HostComputer)",
+            "  --verify               strip, set, scrub, watch: fail files whose image data (SHA-256 from SOS to the end)",
+            "                         differs from the source after writing");
+
+    /**
+     * Publiczna i statyczna metoda tworzaca parametry na podstawie
+     * argumentow linii polecen.
+     *
+     * @param args Argumenty linii polecen.
+     * @return Zwraca sprawdzone parametry przetwarzania.
+     * @throws IllegalArgumentException Jesli argumenty sa niepoprawne.
+     * */
+    public static BatchOptions parse(String[] args) {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("No command given.");
+        }
+        BatchOptions options = new BatchOptions();
+        try {
+            options.operation = BatchProcessor.Operation.valueOf(args[0].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown command: " + args[0]);
+        }
+        boolean templateGiven = false;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--out":
+                    options.outputDir = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--threads":
+                    options.threads = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--max-in-flight":
+                    options.maxInFlight = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--ext":
+                    options.extensions.clear();
+                    for (String ext : value(args, ++i, arg).split(",")) {
+                        options.extensions.add(ext.trim().toLowerCase(Locale.ROOT));
+                    }
+                    break;
+                case "--tag":
+                    options.putTagValue(value(args, ++i, arg));
+                    break;
+                case "--template":
+                    templateGiven = true;
+                    options.readTemplate(Paths.get(value(args, ++i, arg)));
+                    break;
+                case "--read-threads":
+                    options.readThreads = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--transform-threads":
+                    options.transformThreads = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--write-threads":
+                    options.writeThreads = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--output":
+                    options.outputFile = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--format":
+                    String format = value(args, ++i, arg);
+                    try {
+                        options.format = MetadataExporter.Format.valueOf(format.toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Invalid value for " + arg + ": " + format);
+                    }
+                    break;
+                case "--ordered":
+                    options.ordered = true;
+                    break;
+                case "--index":
+                    options.indexDir = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--where":
+                    options.conditions.add(TagIndex.Condition.parse(value(args, ++i, arg)));
+                    break;
+                case "--against":
+                    options.againstDir = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--fsync":
+                    options.fsync = true;
+                    break;
+                case "--verify":
+                    options.verify = true;
+                    break;
+                case "--stats":
+                    options.stats = true;
+                    break;
+                case "--policy":
+                    options.scrubPolicy = ScrubPolicy.parse(value(args, ++i, arg));
+                    break;
+                case "--debounce":
+                    options.debounceMillis = positive(value(args, ++i, arg), arg);
+                    break;
+                default:
+                    if (arg.startsWith("--") || options.root != null) {
+                        throw new IllegalArgumentException("Unknown argument: " + arg);
+                    }
+                    options.root = Paths.get(arg);
+            }
+        }
+        if (options.root == null) {
+            throw new IllegalArgumentException("No directory given.");
+        }
+        if (options.operation.modifiesFiles() && options.outputDir == null) {
+            throw new IllegalArgumentException("Option --out is required for " + args[0] + ".");
+        }
+        // katalog wynikowy w przegladanym drzewie bylby przetwarzany razem z nim
+        if (options.outputDir != null && options.outputDir.toAbsolutePath().normalize()
+                .startsWith(options.root.toAbsolutePath().normalize())) {
+            throw new IllegalArgumentException("Output directory must be outside of " + options.root + ".");
+        }
+        if (options.operation == BatchProcessor.Operation.SET && options.tagValues.isEmpty()) {
+            throw new IllegalArgumentException("At least one --tag is required for " + args[0] + ".");
+        }
+        // szablon wystarcza dla apply, nawet jesli zawiera same komentarze
+        if (options.operation == BatchProcessor.Operation.APPLY && options.tagValues.isEmpty() && !templateGiven) {
+            throw new IllegalArgumentException("At least one --tag or --template is required for " + args[0] + ".");
+        }
+        if (options.operation == BatchProcessor.Operation.DIFF && options.againstDir == null) {
+            throw new IllegalArgumentException("Option --against is required for diff.");
+        }
+        if (options.operation == BatchProcessor.Operation.QUERY && options.conditions.isEmpty()) {
+            throw new IllegalArgumentException("At least one --where is required for query.");
+        }
+        if (options.indexDir == null) {
+            options.indexDir = options.root.resolve(".exif-index");
+        }
+        if (options.maxInFlight < 0) {
+            options.maxInFlight = options.threads * 4;
+        }
+        if (options.readThreads < 0) {
+            options.readThreads = options.threads;
+        }
+        if (options.transformThreads < 0) {
+            options.transformThreads = options.threads;
+        }
+        if (options.writeThreads < 0) {
+            options.writeThreads = options.threads;
+        }
+        return options;
+    }
+
+    private void putTagValue(String tag) {
+        int separator = tag.indexOf('=');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Invalid tag value: " + tag);
+        }
+        tagValues.put(TagKey.parse(tag.substring(0, separator).trim()), tag.substring(separator + 1));
+    }
+
+    /**
+     * Prywatna metoda odczytujaca wartosci znacznikow z pliku szablonu.
+     * Puste wiersze i wiersze zaczynajace sie od znaku '#' sa pomijane.
+     *
+     * @param file Plik szablonu.
+     * @throws IllegalArgumentException Jesli odczyt pliku sie nie powiodl
+     * lub wiersz szablonu jest niepoprawny.
+     * */
+    private void readTemplate(Path file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read template " + file + ": " + e.getMessage());
+        }
+        for (String line : lines) {
+            if (!line.isBlank() && !line.trim().startsWith("#")) {
+                putTagValue(line.trim());
+            }
+        }
+    }
+
+    private static String value(String[] args, int index, String name) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + name + ".");
+        }
+        return args[index];
+    }
+
+    private static int positive(String value, String name) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+    }
+
+    /**
+     * Publiczna metoda sprawdzajaca, czy plik ma byc przetwarzany
+     * na podstawie jego rozszerzenia.
+     *
+     * @param file Sciezka do pliku.
+     * @return Zwraca {@code true} jesli rozszerzenie pliku jest na liscie.
+     * */
+    public boolean accepts(Path file) {
+        String name = file.getFileName().toString();
+        int index = name.lastIndexOf('.');
+        return index >= 0 && extensions.contains(name.substring(index + 1).toLowerCase(Locale.ROOT));
+    }
+
+    public BatchProcessor.Operation getOperation() {
+        return operation;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public Path getOutputDir() {
+        return outputDir;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public Map<TagKey, String> getTagValues() {
+        return Collections.unmodifiableMap(tagValues);
+    }
+
+    public int getReadThreads() {
+        return readThreads;
+    }
+
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    public int getWriteThreads() {
+        return writeThreads;
+    }
+
+    public Path getOutputFile() {
+        return outputFile;
+    }
+
+    public MetadataExporter.Format getFormat() {
+        return format;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    public Path getIndexDir() {
+        return indexDir;
+    }
+
+    public List<TagIndex.Condition> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+
+    /**
+     * @return Zwraca czas bez zmian pliku w milisekundach, po ktorym plik jest przetwarzany.
+     * */
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    /**
+     * @return Zwraca {@code true} jesli po zakonczeniu przetwarzania
+     * ma zostac wypisane zestawienie pomiarow operacji.
+     * */
+    public boolean isStats() {
+        return stats;
+    }
+
+    /**
+     * @return Zwraca {@code true} jesli dane plikow wynikowych maja byc
+     * utrwalane na dysku przed ich zamknieciem.
+     * */
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    /**
+     * @return Zwraca katalog drzewa porownywanego lub {@code null}.
+     * */
+    public Path getAgainstDir() {
+        return againstDir;
+    }
+
+    /**
+     * @return Zwraca {@code true} jesli dane obrazu plikow wynikowych maja
+     * byc porownywane z danymi plikow zrodlowych.
+     * */
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * @return Zwraca polityke usuwania znacznikow operacji {@code scrub}.
+     * */
+    public ScrubPolicy getScrubPolicy() {
+        return scrubPolicy;
+    }
+}
@@ -0,0 +1,376 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Klasa realizujaca przetwarzanie wsadowe drzewa katalogow bez
+ * interfejsu graficznego. Pliki sa przetwarzane rownolegle przez
+ * pule watkow, a liczba plikow oczekujacych i przetwarzanych
+ * jednoczesnie jest ograniczona semaforem, dzieki czemu zuzycie
+ * pamieci nie zalezy od wielkosci drzewa.
+ * */
+public class BatchProcessor {
+
+    /**
+     * Operacje dostepne w trybie wsadowym.
+     * */
+    public enum Operation {
+        /**
+         * Wypisanie metadanych EXIF.
+         * */
+        DUMP,
+        /**
+         * Usuniecie metadanych EXIF.
+         * */
+        STRIP,
+        /**
+         * Zmiana wartosci wybranych znacznikow.
+         * */
+        SET,
+        /**
+         * Naniesienie szablonu wartosci znacznikow przez potok etapow.
+         * */
+        APPLY,
+        /**
+         * Utworzenie lub aktualizacja indeksu znacznikow.
+         * */
+        INDEX,
+        /**
+         * Wyszukanie plikow w indeksie znacznikow.
+         * */
+        QUERY,
+        /**
+         * Eksport metadanych do formatu JSON Lines lub CSV.
+         * */
+        EXPORT,
+        /**
+         * Porownanie metadanych plikow dwoch drzew katalogow.
+         * */
+        DIFF,
+        /**
+         * Usuniecie wybranych znacznikow bezposrednio w plikach lub w ich kopiach.
+         * */
+        SCRUB,
+        /**
+         * Obserwacja katalogu i usuwanie metadanych EXIF z nowych plikow.
+         * */
+        WATCH;
+
+        /**
+         * @return Zwraca {@code true} jesli operacja tworzy pliki wynikowe.
+         * */
+        public boolean modifiesFiles() {
+            return this == STRIP || this == SET || this == APPLY || this == WATCH;
+        }
+    }
+
+    /**
+     * Parametry przetwarzania.
+     * */
+    private final BatchOptions options;
+    /**
+     * Strumien na dane wynikowe operacji {@code dump}.
+     * */
+    private final PrintStream out;
+    /**
+     * Strumien na komunikaty o bledach.
+     * */
+    private final PrintStream err;
+    /**
+     * Pamiec podreczna metadanych odczytywanych przez operacje {@code dump}.
+     * */
+    private final MetadataCache cache;
+    /**
+     * Silnik operacji na plikach z pula buforow dla watkow roboczych.
+     * */
+    private final ExifEngine engine;
+    /**
+     * Licznik plikow przetworzonych poprawnie.
+     * */
+    private final AtomicLong succeeded = new AtomicLong();
+    /**
+     * Licznik plikow zakonczonych bledem.
+     * */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Konstruktor klasy przetwarzania wsadowego.
+     *
+     * @param options Parametry przetwarzania.
+     * @param out Strumien na dane wynikowe.
+     * @param err Strumien na komunikaty o bledach.
+     * */
+    public BatchProcessor(BatchOptions options, PrintStream out, PrintStream err) {
+        this(options, out, err, new MetadataCache());
+    }
+
+    /**
+     * Konstruktor klasy przetwarzania wsadowego korzystajacy z podanej
+     * pamieci podrecznej metadanych. Pozwala na wspoldzielenie pamieci
+     * podrecznej przez kolejne przebiegi w ramach jednego procesu.
+     *
+     * @param options Parametry przetwarzania.
+     * @param out Strumien na dane wynikowe.
+     * @param err Strumien na komunikaty o bledach.
+     * @param cache Pamiec podreczna metadanych.
+     * */
+    public BatchProcessor(BatchOptions options, PrintStream out, PrintStream err, MetadataCache cache) {
+        this.options = options;
+        this.out = out;
+        this.err = err;
+        this.cache = cache;
+        this.engine = new ExifEngine(options.getThreads(), options.isFsync(), options.isVerify());
+    }
+
+    /**
+     * Publiczna i statyczna metoda uruchamiajaca przetwarzanie wsadowe
+     * na podstawie argumentow linii polecen.
+     *
+     * @param args Argumenty linii polecen.
+     * @return Zwraca kod zakonczenia programu: 0 gdy wszystkie pliki
+     * zostaly przetworzone, 1 gdy wystapily bledy, 2 gdy argumenty
+     * sa niepoprawne.
+     * */
+    public static int run(String[] args) {
+        BatchOptions options;
+        try {
+            options = BatchOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(BatchOptions.USAGE);
+            return 2;
+        }
+        try {
+            BatchSummary summary = new BatchProcessor(options, System.out, System.err).process();
+            System.err.println(summary);
+            if (options.isStats()) {
+                System.err.print(ExifMetrics.getStats().dump());
+            }
+            return summary.getFailed() == 0 ? 0 : 1;
+        } catch (IOException | InterruptedException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        } catch (UncheckedIOException e) {
+            // blad iteratora Files.walk, np. katalog bez prawa odczytu
+            System.err.println(e.getCause().getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Publiczna metoda przetwarzajaca wszystkie pliki drzewa katalogow.
+     * Drzewo jest przegladane leniwie, a kolejny plik jest przekazywany
+     * do puli watkow dopiero po zwolnieniu miejsca w limicie plikow
+     * przetwarzanych jednoczesnie.
+     *
+     * @return Zwraca podsumowanie przetwarzania.
+     * @throws IOException W przypadku bledu podczas przegladania drzewa katalogow.
+     * @throws InterruptedException Jesli watek zostal przerwany podczas oczekiwania.
+     * */
+    public BatchSummary process() throws IOException, InterruptedException {
+        if (options.getOperation() == Operation.INDEX) {
+            try (TagIndex index = TagIndex.open(options.getIndexDir())) {
+                return index.update(options.getRoot(), options::accepts, options.getThreads());
+            }
+        }
+        if (options.getOperation() == Operation.QUERY) {
+            return query();
+        }
+        if (options.getOperation() == Operation.EXPORT) {
+            return new MetadataExporter(options, err).export(out);
+        }
+        if (options.getOperation() == Operation.APPLY) {
+            TemplatePipeline pipeline = new TemplatePipeline(options, engine, err);
+            BatchSummary summary = pipeline.process();
+            err.print(pipeline.getStageStats(summary.getElapsedNanos()));
+            return summary;
+        }
+        if (options.getOperation() == Operation.WATCH) {
+            return watch();
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+        Semaphore inFlight = new Semaphore(options.getMaxInFlight());
+        try (Stream<Path> files = Files.walk(options.getRoot())) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).filter(options::accepts).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        processFile(file);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        if (options.getOperation() == Operation.DIFF) {
+            reportOnlyInAgainst();
+        }
+        return new BatchSummary(succeeded.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Prywatna metoda wykonujaca wybrana operacje na jednym pliku
+     * i aktualizujaca liczniki.
+     *
+     * @param file Plik do przetworzenia.
+     * */
+    private void processFile(Path file) {
+        try {
+            switch (options.getOperation()) {
+                case DUMP:
+                    dump(file);
+                    break;
+                case STRIP:
+                    engine.removeExif(file.toFile(), prepareDestination(file).toFile());
+                    break;
+                case SET:
+                    setTags(file);
+                    break;
+                case DIFF:
+                    diff(file);
+                    break;
+                case SCRUB:
+                    scrub(file);
+                    break;
+            }
+            succeeded.incrementAndGet();
+        } catch (IOException | ImageReadException | ImageWriteException | RuntimeException e) {
+            failed.incrementAndGet();
+            err.println(file + ": " + e.getMessage());
+        }
+    }
+
+    private void dump(Path file) throws IOException, ImageReadException {
+        StringBuilder builder = new StringBuilder();
+        for (Vector<String> row : cache.readEXIFDataFromFile(file.toFile())) {
+            builder.append(file).append('\t').append(row.get(0)).append('\t')
+                    .append(row.get(1)).append('\t').append(row.get(2)).append(System.lineSeparator());
+        }
+        out.print(builder);
+    }
+
+    /**
+     * Prywatna metoda wypisujaca sciezki plikow z indeksu znacznikow
+     * spelniajacych wszystkie warunki zapytania.
+     *
+     * @return Zwraca podsumowanie, w ktorym liczba przetworzonych plikow
+     * jest liczba znalezionych plikow.
+     * */
+    private BatchSummary query() throws IOException {
+        long start = System.nanoTime();
+        try (TagIndex index = TagIndex.open(options.getIndexDir())) {
+            List<String> paths = index.query(options.getConditions());
+            StringBuilder builder = new StringBuilder();
+            for (String path : paths) {
+                builder.append(path).append(System.lineSeparator());
+            }
+            out.print(builder);
+            return new BatchSummary(paths.size(), 0, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Prywatna metoda obserwujaca katalog do czasu zakonczenia programu.
+     * Zatrzymanie nastepuje w watku zamykania maszyny wirtualnej, wiec
+     * pliki, ktorych przetwarzanie sie rozpoczelo, sa zapisywane do konca.
+     *
+     * @return Zwraca podsumowanie przetwarzania.
+     * */
+    private BatchSummary watch() throws IOException, InterruptedException {
+        WatchDaemon daemon = new WatchDaemon(options, err);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "watch-shutdown"));
+        daemon.start();
+        err.println("Watching " + options.getRoot() + ", press Ctrl+C to stop.");
+        return daemon.awaitClose();
+    }
+
+    /**
+     * Prywatna metoda wypisujaca roznice metadanych pliku i pliku o tej
+     * samej sciezce wzglednej w drzewie porownywanym. Wiersze pliku sa
+     * wypisywane razem, w kolejnosci zakonczenia porownan.
+     *
+     * @param file Plik z drzewa katalogu glownego.
+     * */
+    private void diff(Path file) throws IOException, ImageReadException {
+        Path relative = options.getRoot().relativize(file);
+        Path other = options.getAgainstDir().resolve(relative);
+        if (!Files.isRegularFile(other)) {
+            out.print(relative + "\tONLY_IN\t" + options.getRoot() + System.lineSeparator());
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (MetadataDiff.Change change : MetadataDiff.compare(file.toFile(), other.toFile(), engine)) {
+            builder.append(relative).append('\t').append(change).append(System.lineSeparator());
+        }
+        out.print(builder);
+    }
+
+    /**
+     * Prywatna metoda wypisujaca pliki drzewa porownywanego, ktore nie
+     * maja odpowiednika w drzewie katalogu glownego.
+     * */
+    private void reportOnlyInAgainst() throws IOException {
+        try (Stream<Path> files = Files.walk(options.getAgainstDir())) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).filter(options::accepts).iterator();
+            while (iterator.hasNext()) {
+                Path relative = options.getAgainstDir().relativize(iterator.next());
+                if (!Files.isRegularFile(options.getRoot().resolve(relative))) {
+                    out.print(relative + "\tONLY_IN\t" + options.getAgainstDir() + System.lineSeparator());
+                }
+            }
+        }
+    }
+
+    /**
+     * Prywatna metoda usuwajaca znaczniki wskazane przez polityke: w kopii
+     * pliku, jesli podano katalog wynikowy, a w przeciwnym razie
+     * bezposrednio w pliku.
+     * */
+    private void scrub(Path file) throws IOException, ImageReadException {
+        if (options.getOutputDir() == null) {
+            engine.scrubInPlace(file.toFile(), options.getScrubPolicy());
+        } else {
+            engine.scrub(file.toFile(), prepareDestination(file).toFile(), options.getScrubPolicy());
+        }
+    }
+
+    private void setTags(Path file) throws IOException, ImageReadException, ImageWriteException {
+        engine.writeTags(file.toFile(), prepareDestination(file).toFile(), options.getTagValues());
+    }
+
+    /**
+     * Prywatna metoda wyznaczajaca plik wynikowy o tej samej sciezce
+     * wzglednej co plik zrodlowy i tworzaca brakujace katalogi.
+     *
+     * @param file Plik zrodlowy.
+     * @return Zwraca sciezke pliku wynikowego.
+     * @throws IOException Jesli utworzenie katalogow sie nie powiodlo.
+     * */
+    private Path prepareDestination(Path file) throws IOException {
+        Path dest = options.getOutputDir().resolve(options.getRoot().relativize(file));
+        Files.createDirectories(dest.getParent());
+        return dest;
+    }
+}
@@ -0,0 +1,63 @@
+package pl.kielce.tu;
+
+import java.util.Locale;
+
+/**
+ * Klasa przechowujaca wynik przetwarzania wsadowego: liczbe
+ * przetworzonych plikow, liczbe bledow i czas trwania.
+ * */
+public class BatchSummary {
+    /**
+     * Liczba plikow przetworzonych poprawnie.
+     * */
+    private final long succeeded;
+    /**
+     * Liczba plikow, ktorych przetwarzanie sie nie powiodlo.
+     * */
+    private final long failed;
+    /**
+     * Czas przetwarzania w nanosekundach.
+     * */
+    private final long elapsedNanos;
+
+    /**
+     * Konstruktor klasy podsumowania.
+     *
+     * @param succeeded Liczba plikow przetworzonych poprawnie.
+     * @param failed Liczba plikow zakonczonych bledem.
+     * @param elapsedNanos Czas przetwarzania w nanosekundach.
+     * */
+    public BatchSummary(long succeeded, long failed, long elapsedNanos) {
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getSucceeded() {
+        return succeeded;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return Zwraca liczbe wszystkich plikow przetworzonych w ciagu sekundy.
+     * */
+    public double getFilesPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return (succeeded + failed) * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Processed %d files in %.3f s (%.1f files/s), %d failed.",
+                succeeded + failed, elapsedNanos / 1e9, getFilesPerSecond(), failed);
+    }
+}
@@ -0,0 +1,74 @@
+package pl.kielce.tu;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Klasa puli buforow bezposrednich ({@link ByteBuffer#allocateDirect})
+ * o stalym rozmiarze. Bufory sa tworzone przy pierwszym uzyciu i zwracane
+ * do puli po zakonczeniu operacji, wiec liczba buforow nie przekracza
+ * podanego limitu, a kolejne operacje nie alokuja nowej pamieci. Gdy
+ * wszystkie bufory sa w uzyciu, pobranie bufora czeka na zwrot innego.
+ * */
+final class BufferPool {
+    private final int bufferSize;
+    private final Semaphore available;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * Konstruktor puli buforow.
+     *
+     * @param bufferSize Rozmiar kazdego bufora w bajtach.
+     * @param maxBuffers Maksymalna liczba buforow.
+     * */
+    BufferPool(int bufferSize, int maxBuffers) {
+        if (bufferSize <= 0 || maxBuffers <= 0) {
+            throw new IllegalArgumentException("Buffer size and count must be positive.");
+        }
+        this.bufferSize = bufferSize;
+        this.available = new Semaphore(maxBuffers);
+    }
+
+    /**
+     * Pakietowa metoda pobierajaca wyczyszczony bufor z puli.
+     *
+     * @return Zwraca bufor, ktory nalezy zwrocic metoda {@link #release(ByteBuffer)}.
+     * @throws InterruptedIOException Jesli watek zostal przerwany podczas
+     * oczekiwania na wolny bufor.
+     * */
+    ByteBuffer acquire() throws InterruptedIOException {
+        try {
+            available.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an I/O buffer.");
+        }
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * Pakietowa metoda zwracajaca bufor do puli.
+     *
+     * @param buffer Bufor pobrany metoda {@link #acquire()}.
+     * */
+    void release(ByteBuffer buffer) {
+        free.offer(buffer);
+        available.release();
+    }
+
+    /**
+     * @return Zwraca liczbe buforow utworzonych przez pule.
+     * */
+    int getAllocated() {
+        return allocated.get();
+    }
+}
@@ -17,11 +17,16 @@ public class EXIFEditorApp {
 
     /**
      * Metoda stanowiaca glowny punkt wejsciowy programu.
-     * Odpowiada za wywolanie konstruktora aplikacji.
+     * Bez parametrow uruchamiany jest interfejs graficzny, w przeciwnym
+     * przypadku program dziala w trybie wsadowym bez interfejsu.
      *
-     * @param args Dodatkowe parametry. (Nie sa wykorzystywane)
+     * @param args Dodatkowe parametry trybu wsadowego (opisane w {@link BatchOptions#USAGE}).
      * */
     public static void main(String[] args) {
-        new EXIFEditorApp();
+        if (args.length == 0) {
+            new EXIFEditorApp();
+        } else {
+            System.exit(BatchProcessor.run(args));
+        }
     }
 }
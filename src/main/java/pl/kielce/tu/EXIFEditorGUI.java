@@ -1,14 +1,20 @@
 package pl.kielce.tu;
 
-import org.apache.commons.imaging.ImageReadException;
-import org.apache.commons.imaging.ImageWriteException;
-
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Image;
 import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.IOException;
-import java.util.Vector;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Klasa tworzaca glowne okno aplikacji i implementujaca
@@ -57,14 +63,46 @@ public class EXIFEditorGUI extends JFrame {
      * Uchwyt dla tabeli wyswietlajacej i przechowujacej metadane pliku.
      * */
     private JTable table;
+    /**
+     * Panel zawierajacy pasek postepu i przycisk "Cancel".
+     * */
+    private JPanel progressPanel;
+    /**
+     * Pasek postepu wyswietlany podczas operacji na plikach.
+     * */
+    private JProgressBar progressBar;
+    /**
+     * Uchwyt dla przycisku "Cancel" przerywajacego operacje na pliku.
+     * */
+    private JButton buttonCancel;
+    /**
+     * Pole wyswietlajace miniature zapisana w metadanych pliku.
+     * */
+    private JLabel previewLabel;
+    /**
+     * Aktualnie wykonywana operacja na pliku lub {@code null}.
+     * */
+    private SwingWorker<?, ?> worker;
+    /**
+     * Stan przyciskow i tabeli sprzed rozpoczecia operacji na pliku.
+     * */
+    private boolean[] enabledBeforeTask;
     /**
      * Zmienna prywatna przechowujaca aktualnie modyfikowany plik.
      * */
     private File srcFile;
     /**
-     * Zmienna prywatna ze stalymi nazwami kolumn tabeli.
+     * Pamiec podreczna ostatnio odczytanych metadanych plikow.
      * */
-    private static final String[] columnNames = { "Directory", "Tag name", "Extracted value"};
+    private final MetadataCache metadataCache = new MetadataCache();
+    /**
+     * Model tabeli metadanych.
+     * */
+    private final ExifTableModel tableModel = new ExifTableModel();
+    /**
+     * Pamiec podreczna miniatur plikow.
+     * */
+    private final ThumbnailCache thumbnailCache = new ThumbnailCache();
     /**
      * Stala prywatna zawierajaca nazwe programu.
      * */
@@ -76,12 +114,19 @@ public class EXIFEditorGUI extends JFrame {
      * metody obslugujace zdarzenia dla przyciskow.
      *  */
     private void initComponents() {
-        table.setModel(new DefaultTableModel(columnNames, 0));
+        table.setModel(tableModel);
         table.setRowHeight(25);
         int columnWidth = table.getParent().getWidth()/3;
         table.getColumnModel().getColumn(2).setPreferredWidth(columnWidth);
         table.getTableHeader().setReorderingAllowed(false);
         table.setEnabled(false);
+        table.getColumnModel().getColumn(ExifTableModel.VALUE_COLUMN).setCellEditor(new FullValueCellEditor());
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                tableMouseClicked(e);
+            }
+        });
 
         buttonOpen.addActionListener(this::buttonOpenActionListener);
         buttonEdit.addActionListener(this::buttonEditActionListener);
@@ -90,6 +135,25 @@ public class EXIFEditorGUI extends JFrame {
         buttonSave.setEnabled(false);
         buttonRemove.addActionListener(this::buttonRemoveActionListener);
         buttonRemove.setEnabled(false);
+        buttonCancel.addActionListener(this::buttonCancelActionListener);
+        buttonCancel.setEnabled(false);
+        getRootPane().registerKeyboardAction(this::showStatistics, KeyStroke.getKeyStroke(KeyEvent.VK_F12, 0),
+                JComponent.WHEN_IN_FOCUSED_WINDOW);
+    }
+
+    /**
+     * Prywatna metoda obslugujaca wcisniecie klawisza F12. Wyswietla
+     * zestawienie licznikow i czasow operacji na plikach wykonanych
+     * od uruchomienia programu.
+     *
+     * @param e Zawiera dane dotyczace wykrytego zdarzenia.
+     * */
+    private void showStatistics(ActionEvent e) {
+        String dump = ExifMetrics.getStats().dump();
+        JTextArea textArea = new JTextArea(dump.isEmpty() ? "No file operations yet." : dump, 20, 100);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        textArea.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(textArea), "Statistics", JOptionPane.PLAIN_MESSAGE);
     }
 
     /**
@@ -108,29 +172,281 @@ public class EXIFEditorGUI extends JFrame {
     }
 
     /**
-     * Prywatna metoda sluzaca do zaladowania odczytanych metadanych
-     * z pliku zrodlowego do tabeli. W momencie wystapienia bledu
-     * odczytu wyswietlany jest odpowiedni komunikat o bledzie.
+     * Prywatna metoda rozpoczynajaca operacje na pliku w watku tla.
+     * Na czas jej trwania przyciski i tabela sa blokowane, a pasek
+     * postepu i przycisk "Cancel" sa aktywne.
+     *
+     * @param task Operacja do wykonania.
+     * @param description Opis operacji wyswietlany na pasku postepu.
+     * */
+    private void startTask(SwingWorker<?, ?> task, String description) {
+        enabledBeforeTask = new boolean[] { buttonOpen.isEnabled(), buttonEdit.isEnabled(),
+                buttonSave.isEnabled(), buttonRemove.isEnabled(), table.isEnabled() };
+        buttonOpen.setEnabled(false);
+        buttonEdit.setEnabled(false);
+        buttonSave.setEnabled(false);
+        buttonRemove.setEnabled(false);
+        table.setEnabled(false);
+        progressBar.setIndeterminate(true);
+        progressBar.setString(description);
+        buttonCancel.setEnabled(true);
+        worker = task;
+        task.execute();
+    }
+
+    /**
+     * Prywatna metoda konczaca operacje na pliku. Przywraca stan
+     * przyciskow i tabeli sprzed rozpoczecia operacji.
+     * */
+    private void finishTask() {
+        worker = null;
+        buttonCancel.setEnabled(false);
+        progressBar.setIndeterminate(false);
+        progressBar.setString("");
+        buttonOpen.setEnabled(enabledBeforeTask[0]);
+        buttonEdit.setEnabled(enabledBeforeTask[1]);
+        buttonSave.setEnabled(enabledBeforeTask[2]);
+        buttonRemove.setEnabled(enabledBeforeTask[3]);
+        table.setEnabled(enabledBeforeTask[4]);
+    }
+
+    /**
+     * Prywatna metoda obslugujaca zdarzenia klikniecia przycisku
+     * "Cancel". Przerywa aktualnie wykonywana operacje na pliku.
      *
-     * @return Zwraca {@code true} jesli operacja odczytu i zapisu
-     * metadanych w tabeli sie powiodla lub {@code false}
-     * w przeciwnym przypadku.
+     * @param e Zawiera dane dotyczace wykrytego zdarzenia klikniecia
+     *          na przycisk.
+     * */
+    private void buttonCancelActionListener(ActionEvent e) {
+        if (worker != null) {
+            worker.cancel(true);
+        }
+    }
+
+    /**
+     * Prywatna metoda rozpoczynajaca odczyt metadanych z pliku zrodlowego
+     * do tabeli w watku tla.
      * */
-    private boolean readAndLoadMetadataToTable() {
-        DefaultTableModel tableModel = (DefaultTableModel) table.getModel();
-        tableModel.setRowCount(0);
+    private void readAndLoadMetadataToTable() {
+        tableModel.setMetadata(null);
         labelDisplayFileName.setText(null);
+        buttonEdit.setEnabled(false);
+        buttonSave.setEnabled(false);
+        buttonRemove.setEnabled(false);
+        previewLabel.setIcon(null);
+        previewLabel.setText(null);
+        new ThumbnailWorker(srcFile).execute();
+        startTask(new ReadWorker(srcFile), "Reading " + srcFile.getName());
+    }
+
+    /**
+     * Klasa odczytujaca miniature pliku w watku tla. Miniatura jest
+     * wyswietlana tylko wtedy, gdy plik jest nadal plikiem zrodlowym.
+     * Bledy odczytu nie sa zglaszane, poniewaz zglasza je odczyt metadanych.
+     * */
+    private final class ThumbnailWorker extends SwingWorker<Icon, Void> {
+        /**
+         * Plik, ktorego miniatura jest odczytywana.
+         * */
+        private final File file;
+
+        ThumbnailWorker(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected Icon doInBackground() throws Exception {
+            Image image = thumbnailCache.getThumbnail(file);
+            return image == null ? null : new ImageIcon(image);
+        }
+
+        @Override
+        protected void done() {
+            if (file != srcFile) {
+                return;
+            }
+            Icon icon = null;
+            try {
+                icon = get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // blad odczytu zglasza odczyt metadanych
+            }
+            previewLabel.setIcon(icon);
+            previewLabel.setText(icon == null ? "No thumbnail" : null);
+        }
+    }
+
+    /**
+     * Klasa odczytujaca metadane pliku w watku tla. Pola kolejnych
+     * katalogow IFD sa dopisywane do tabeli zaraz po ich przetworzeniu.
+     * Przerwanie operacji przerywa odczyt z kanalu pliku. W momencie
+     * wystapienia bledu odczytu wyswietlany jest odpowiedni komunikat.
+     * */
+    private final class ReadWorker extends SwingWorker<ExifMetadata, ExifMetadata> {
+        /**
+         * Plik z metadanymi do odczytu.
+         * */
+        private final File file;
+
+        ReadWorker(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected ExifMetadata doInBackground() throws Exception {
+            return metadataCache.readEXIFMetadata(file, part -> {
+                if (isCancelled()) {
+                    throw new CancellationException();
+                }
+                publish(part);
+            });
+        }
+
+        @Override
+        protected void process(List<ExifMetadata> parts) {
+            if (worker == this && !isCancelled()) {
+                parts.forEach(tableModel::appendMetadata);
+            }
+        }
+
+        @Override
+        protected void done() {
+            finishTask();
+            try {
+                tableModel.setMetadata(get());
+                labelDisplayFileName.setText("Detailed EXIF metadata for file: " + file.getName());
+                table.setEnabled(false);
+                buttonSave.setEnabled(false);
+                buttonEdit.setEnabled(true);
+                buttonRemove.setEnabled(true);
+            } catch (CancellationException e) {
+                tableModel.setMetadata(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                tableModel.setMetadata(null);
+                JOptionPane.showMessageDialog(EXIFEditorGUI.this, e.getCause().getMessage(),
+                        "File read", JOptionPane.WARNING_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Klasa wykonujaca zapis pliku docelowego w watku tla. Jesli
+     * operacja zostanie przerwana, niekompletny plik docelowy jest
+     * usuwany. W momencie wystapienia problemow wyswietlany jest
+     * odpowiedni komunikat o bledzie.
+     * */
+    private abstract class WriteWorker extends SwingWorker<Void, Void> {
+        /**
+         * Plik docelowy.
+         * */
+        protected final File dest;
+        /**
+         * Tytul okna z komunikatem o bledzie.
+         * */
+        private final String errorTitle;
+
+        WriteWorker(File dest, String errorTitle) {
+            this.dest = dest;
+            this.errorTitle = errorTitle;
+        }
+
+        /**
+         * Metoda zapisujaca plik docelowy.
+         *
+         * @throws Exception W przypadku bledu odczytu lub zapisu.
+         * */
+        protected abstract void write() throws Exception;
+
+        /**
+         * Metoda wywolywana w watku interfejsu po pomyslnym zapisie.
+         * */
+        protected void written() {
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            try {
+                write();
+            } finally {
+                if (isCancelled()) {
+                    Files.deleteIfExists(dest.toPath());
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void done() {
+            finishTask();
+            try {
+                get();
+                written();
+            } catch (CancellationException e) {
+                // niekompletny plik docelowy zostal usuniety
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(EXIFEditorGUI.this, e.getCause().getMessage(),
+                        errorTitle, JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Klasa edytora komorek z wartoscia znacznika. Jesli w tabeli
+     * wyswietlany jest podglad duzej wartosci, do edycji odczytywana
+     * jest pelna wartosc. Gdy odczyt sie nie powiedzie, edycja jest
+     * przerywana, aby nie zapisac podgladu zamiast wartosci.
+     * */
+    private final class FullValueCellEditor extends DefaultCellEditor {
+        FullValueCellEditor() {
+            super(new JTextField());
+        }
+
+        @Override
+        public Component getTableCellEditorComponent(JTable table, Object value, boolean isSelected, int row, int column) {
+            try {
+                value = tableModel.getFullValueText(table.convertRowIndexToModel(row));
+            } catch (IOException exception) {
+                SwingUtilities.invokeLater(() -> {
+                    cancelCellEditing();
+                    JOptionPane.showMessageDialog(EXIFEditorGUI.this, exception.getMessage(),
+                            "File read", JOptionPane.WARNING_MESSAGE);
+                });
+            }
+            return super.getTableCellEditorComponent(table, value, isSelected, row, column);
+        }
+    }
+
+    /**
+     * Prywatna metoda obslugujaca zdarzenia klikniecia w tabele.
+     * Podwojne klikniecie komorki z wartoscia poza trybem edycji
+     * wyswietla pelna wartosc znacznika w osobnym oknie.
+     *
+     * @param e Zawiera dane dotyczace wykrytego zdarzenia klikniecia.
+     * */
+    private void tableMouseClicked(MouseEvent e) {
+        int row = table.rowAtPoint(e.getPoint());
+        int column = table.columnAtPoint(e.getPoint());
+        if (e.getClickCount() != 2 || table.isEnabled() || worker != null || row < 0
+                || table.convertColumnIndexToModel(column) != ExifTableModel.VALUE_COLUMN) {
+            return;
+        }
+        int modelRow = table.convertRowIndexToModel(row);
+        String tagName = tableModel.getValueAt(modelRow, 1).toString();
         try {
-            Vector<Vector<String>> metadata = ExifEditor.readEXIFDataFromFile(srcFile);
-            metadata.forEach(tableModel::addRow);
-        } catch (IOException | ImageReadException e) {
-            JOptionPane.showMessageDialog(this, e.getMessage(),
+            JTextArea textArea = new JTextArea(tableModel.getFullValueText(modelRow), 15, 60);
+            textArea.setEditable(false);
+            textArea.setLineWrap(true);
+            JOptionPane.showMessageDialog(this, new JScrollPane(textArea), tagName, JOptionPane.PLAIN_MESSAGE);
+        } catch (IOException exception) {
+            JOptionPane.showMessageDialog(this, exception.getMessage(),
                     "File read", JOptionPane.WARNING_MESSAGE);
-            return false;
         }
-        table.setModel(tableModel);
-        labelDisplayFileName.setText("Detailed EXIF metadata for file: " + srcFile.getName());
-        return true;
     }
 
     /**
@@ -146,15 +462,8 @@ public class EXIFEditorGUI extends JFrame {
         JFileChooser fileChooser = new JFileChooser();
         int retVal = fileChooser.showOpenDialog(this);
         if (retVal == JFileChooser.APPROVE_OPTION) {
-            buttonEdit.setEnabled(false);
-            buttonRemove.setEnabled(false);
             srcFile = fileChooser.getSelectedFile();
-            if (readAndLoadMetadataToTable()) {
-                table.setEnabled(false);
-                buttonSave.setEnabled(false);
-                buttonEdit.setEnabled(true);
-                buttonRemove.setEnabled(true);
-            }
+            readAndLoadMetadataToTable();
         }
     }
 
@@ -184,6 +493,27 @@ public class EXIFEditorGUI extends JFrame {
         return fileName.substring(index);
     }
 
+    /**
+     * Prywatna metoda wyznaczajaca rozszerzenie pliku docelowego. Jesli
+     * rozszerzenie pliku zrodlowego nie odpowiada formatowi rozpoznanemu
+     * na podstawie zawartosci pliku lub plik go nie ma, uzywane jest
+     * domyslne rozszerzenie formatu.
+     *
+     * @return Zwraca rozszerzenie z kropka lub pusty ciag znakow.
+     * */
+    private String destFileExtension() {
+        ImageFormat format;
+        try {
+            format = ImageFormat.of(srcFile);
+        } catch (IOException exception) {
+            format = null;
+        }
+        if (format != null && !format.hasExtension(srcFile.getName())) {
+            return "." + format.getExtension();
+        }
+        return srcFile.getName().lastIndexOf('.') >= 0 ? extractFileExtension(srcFile.getName()) : "";
+    }
+
     /**
      * Prywatna metoda sluzaca do wyboru pliku docelowego
      * w ktorym maja byc zapisane dane wynikowe.
@@ -196,7 +526,7 @@ public class EXIFEditorGUI extends JFrame {
         int retVal = fileChooser.showSaveDialog(this);
         if (retVal == JFileChooser.APPROVE_OPTION) {
             File dest;
-            String srcFileExt = extractFileExtension(srcFile.getName());
+            String srcFileExt = destFileExtension();
             if (!fileChooser.getSelectedFile().getName().endsWith(srcFileExt)) {
                 dest = new File(fileChooser.getSelectedFile() + srcFileExt);
             } else {
@@ -221,28 +551,32 @@ public class EXIFEditorGUI extends JFrame {
     }
 
     /**
-     * Prywatna metoda sluzaca do zapisu zmodyfikowanych danych
-     * w tabeli do pliku docelowego. W momencie wystapienia problemow
-     * wyswietlany jest odpowiedni komunikat o bledzie.
+     * Prywatna metoda rozpoczynajaca zapis zmodyfikowanych danych
+     * w tabeli do pliku docelowego w watku tla. Po pomyslnym zapisie
+     * plik docelowy staje sie plikiem zrodlowym, a jego metadane sa
+     * ponownie wczytywane do tabeli.
      *
      * @param dest Plik w ktorym zostana zapisane zmodyfikowane metadane.
-     * @return Zwraca {@code true} jesli operacja odczytu i zapisu
-     * metadanych w tabeli sie powiodla lub {@code false}
-     * w przeciwnym przypadku.
-     * */
-    private boolean writeMetadataFromTableToFile(File dest) {
-        Vector<String> newTagValues = new Vector<>();
-        for (int i = 0; i < table.getRowCount(); i++) {
-            newTagValues.add((String) table.getValueAt(i, 2));
-        }
-        try {
-            ExifEditor.writeEXIFDataToFile(srcFile, dest, newTagValues);
-        } catch (ImageReadException | IOException | ImageWriteException e) {
-            JOptionPane.showMessageDialog(this, e.getMessage(),
-                    "Save file", JOptionPane.ERROR_MESSAGE);
-            return false;
+     * */
+    private void writeMetadataFromTableToFile(File dest) {
+        if (table.isEditing()) {
+            table.getCellEditor().stopCellEditing();
         }
-        return true;
+        File src = srcFile;
+        Map<TagKey, String> changes = tableModel.getChanges();
+        startTask(new WriteWorker(dest, "Save file") {
+            @Override
+            protected void write() throws Exception {
+                ExifEditor.writeEXIFDataToFile(src, dest, changes);
+            }
+
+            @Override
+            protected void written() {
+                table.clearSelection();
+                srcFile = dest;
+                readAndLoadMetadataToTable();
+            }
+        }, "Saving " + dest.getName());
     }
 
     /**
@@ -258,37 +592,25 @@ public class EXIFEditorGUI extends JFrame {
         File dest = chooseDestFile();
         if (dest == null)
             return;
-        if (writeMetadataFromTableToFile(dest)) {
-            table.setEnabled(false);
-            table.clearSelection();
-            table.editCellAt(-1,-1);
-            buttonSave.setEnabled(false);
-            buttonEdit.setEnabled(true);
-            srcFile = dest;
-            if (readAndLoadMetadataToTable()) {
-                table.setEnabled(false);
-                buttonSave.setEnabled(false);
-                buttonEdit.setEnabled(true);
-                buttonRemove.setEnabled(true);
-            }
-        }
+        writeMetadataFromTableToFile(dest);
     }
 
     /**
-     * Prywatna metoda ktora obsluguje operacje usuwania metadanych
-     * exif z pliku zrodlowego i zapisu pozostalych danych w pliku
-     * docelowym. Jesli podczas tej operacji wystapia problemy
+     * Prywatna metoda ktora rozpoczyna w watku tla operacje usuwania
+     * metadanych exif z pliku zrodlowego i zapisu pozostalych danych
+     * w pliku docelowym. Jesli podczas tej operacji wystapia problemy
      * to zostanie wyswietlone okno z informacja o bledzie.
      *
      * @param dest Plik wynikowy bez metadanych exif.
      * */
     private void removeExifMetadataFromSrcFile(File dest) {
-        try {
-            ExifEditor.removeEXIFDataFromFile(srcFile, dest);
-        } catch (IOException | ImageReadException | ImageWriteException e) {
-            JOptionPane.showMessageDialog(this, e.getMessage(),
-                    "Exif remove", JOptionPane.ERROR_MESSAGE);
-        }
+        File src = srcFile;
+        startTask(new WriteWorker(dest, "Exif remove") {
+            @Override
+            protected void write() throws Exception {
+                ExifEditor.removeEXIFDataFromFile(src, dest);
+            }
+        }, "Removing EXIF from " + src.getName());
     }
 
     /**
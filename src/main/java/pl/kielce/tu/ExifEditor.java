@@ -6,22 +6,42 @@ import org.apache.commons.imaging.Imaging;
 import org.apache.commons.imaging.common.GenericImageMetadata;
 import org.apache.commons.imaging.common.ImageMetadata;
 import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
-import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
 import org.apache.commons.imaging.formats.tiff.TiffDirectory;
 import org.apache.commons.imaging.formats.tiff.TiffField;
 import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
 import org.apache.commons.imaging.formats.tiff.fieldtypes.FieldType;
+import org.apache.commons.imaging.formats.tiff.taginfos.TagInfo;
 import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
 import org.apache.commons.imaging.formats.tiff.write.TiffOutputField;
 import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.function.Consumer;
 
 /**
  * Klasa implementujaca operacje na metadanych plikow graficznych.
+ * Metody statyczne korzystaja ze wspoldzielonego silnika {@link ExifEngine};
+ * przetwarzanie wymagajace wlasnej puli buforow lub utrwalania plikow
+ * na dysku moze uzywac osobnej instancji silnika.
  * */
 public class ExifEditor {
+    /**
+     * Wspoldzielony silnik, do ktorego delegowane sa operacje odczytu,
+     * zmiany znacznikow i usuwania metadanych.
+     * */
+    static final ExifEngine ENGINE = new ExifEngine(Runtime.getRuntime().availableProcessors() * 2, false);
 
     /**
      * Publiczna i statyczna metoda sluzaca do odczytu metadanych z podanego
@@ -38,37 +58,65 @@ public class ExifEditor {
      * zrodlowego sie nie powiodl.
      * */
     public static Vector<Vector<String>> readEXIFDataFromFile(File src) throws IOException, ImageReadException {
+        return readEXIFMetadata(src).toRows();
+    }
+
+    /**
+     * Publiczna i statyczna metoda odczytujaca metadane z podanego pliku
+     * do zwartego modelu {@link ExifMetadata}. Tekst wartosci pol jest
+     * tworzony dopiero przy odwolaniu do nich.
+     *
+     * @param src Docelowy plik z metadanymi do odczytu.
+     * @return Zwraca model odczytanych metadanych.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * */
+    public static ExifMetadata readEXIFMetadata(File src) throws IOException, ImageReadException {
+        return readEXIFMetadata(src, part -> { });
+    }
+
+    /**
+     * Publiczna i statyczna metoda odczytujaca metadane z podanego pliku
+     * i przekazujaca pola kolejnych katalogow IFD do odbiorcy zaraz po
+     * ich przetworzeniu. Pozwala na stopniowe wyswietlanie metadanych.
+     * Odbiorca moze przerwac odczyt zglaszajac wyjatek niekontrolowany.
+     * Dla plikow JPEG, PNG i WebP odczytywany jest wylacznie segment
+     * z danymi EXIF, a dla plikow TIFF lancuch katalogow IFD, bez
+     * przetwarzania danych obrazu (zob. {@link ImageFormat}), a z duzych wartosci
+     * zapamietywany jest tylko podglad (zob. {@link ExifMetadata}).
+     *
+     * @param src Docelowy plik z metadanymi do odczytu.
+     * @param directoryListener Odbiorca pol kolejnych katalogow IFD.
+     * @return Zwraca model wszystkich odczytanych metadanych.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * */
+    public static ExifMetadata readEXIFMetadata(File src, Consumer<ExifMetadata> directoryListener) throws IOException, ImageReadException {
+        return ENGINE.readMetadata(src, directoryListener);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda odczytujaca metadane EXIF z pliku
+     * w formacie nierozpoznanym przez {@link ImageFormat} przy pomocy
+     * biblioteki commons-imaging.
+     *
+     * @param src Plik z metadanymi do odczytu.
+     * @return Zwraca metadane EXIF.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * */
+    static TiffImageMetadata readExifMetadata(File src) throws IOException, ImageReadException {
         ImageMetadata imageMetadata = Imaging.getMetadata(src);
-        JpegImageMetadata jpegMetadata = null;
-        Vector<Vector<String>> metadata = null;
         if (imageMetadata == null || imageMetadata instanceof GenericImageMetadata) {
             throw new ImageReadException("No metadata found.");
         }
-        if (imageMetadata instanceof JpegImageMetadata) {
-            jpegMetadata = (JpegImageMetadata) imageMetadata;
-        }
-        if (jpegMetadata != null) {
-            TiffImageMetadata exif = jpegMetadata.getExif();
-            if (exif == null) {
-                throw new ImageReadException("No exif data found.");
-            }
-            metadata = new Vector<>();
-            Vector<String> row;
-            for(TiffDirectory dir : exif.contents.directories) {
-                for(TiffField field : dir.entries) {
-                    row = new Vector<>();
-                    row.add(dir.description());
-                    row.add(field.getTagName());
-                    if (field.getFieldType().equals(FieldType.ASCII)) {
-                        row.add(String.valueOf(field.getValue()));
-                    } else {
-                        row.add(field.getValueDescription());
-                    }
-                    metadata.add(row);
-                }
-            }
+        if (!(imageMetadata instanceof JpegImageMetadata)) {
+            throw new ImageReadException("Not supported image format.");
         }
-        return metadata;
+        return ((JpegImageMetadata) imageMetadata).getExif();
     }
 
     /**
@@ -77,7 +125,11 @@ public class ExifEditor {
      * wartosci znacznikow bedacych w formacie ASCII. Reszta wartosci jest pobierana
      * z pliku zrodlowego i sie nie zmienia. W momencie wystapienia problemow
      * z odczytem pliku zrodlowego lub zapisem do pliku docelowego zwracane sa
-     * odpowiednie wyjatki.
+     * odpowiednie wyjatki. Jesli zmienione wartosci mieszcza sie w miejscu
+     * dotychczasowych, plik docelowy jest kopia pliku zrodlowego z nadpisanymi
+     * bajtami tych wartosci. Dluzsze wartosci sa dopisywane na koncu segmentu
+     * EXIF (a w pliku TIFF na koncu pliku), a plik jest przepisywany.
+     * Format pliku jest rozpoznawany tak jak w {@link ExifEngine}.
      *
      * @param src Plik zrodlowy zawierajacy oryginalne metadane.
      * @param dest Plik docelowy w ktorym maja zostac zapisane zmodyfikowane metadane.
@@ -90,39 +142,338 @@ public class ExifEditor {
      * docelowego sie nie powiedzie.
      * */
     public static void writeEXIFDataToFile(File src, File dest, Vector<String> newTagValues) throws IOException, ImageReadException, ImageWriteException {
-        TiffOutputSet outputSet = null;
-        ImageMetadata metadata = Imaging.getMetadata(src);
-        JpegImageMetadata jpegMetadata = (JpegImageMetadata) metadata;
-        if (jpegMetadata != null) {
-            TiffImageMetadata exif = jpegMetadata.getExif();
-            if (exif != null) {
-                outputSet = exif.getOutputSet();
-                if (exif.getAllFields().size() != newTagValues.size()) {
-                    throw new IllegalArgumentException("Too few tag values given.");
+        ENGINE.writeValues(src, dest, newTagValues);
+    }
+
+    /**
+     * Publiczna i statyczna metoda pozwalajaca na utworzenie pliku docelowego,
+     * w ktorym zmienione zostaly tylko podane znaczniki. Pozostale znaczniki
+     * sa kopiowane z pliku zrodlowego bez zmian. Jesli wszystkie podane
+     * znaczniki istnieja w pliku zrodlowym, ich nowe wartosci sa zapisywane
+     * w miejscu dotychczasowych lub dopisywane na koncu segmentu EXIF.
+     * Znaczniki nieobecne w pliku sa dodawane przez zapis calego zbioru
+     * metadanych metoda {@link JpegExifRewriter#updateExif}.
+     *
+     * @param src Plik zrodlowy zawierajacy oryginalne metadane.
+     * @param dest Plik docelowy w ktorym maja zostac zapisane zmodyfikowane metadane.
+     * @param tagValues Mapa kluczy zmienianych znacznikow na ich nowe wartosci.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * @throws ImageWriteException Jesli zapis metadanych do pliku
+     * docelowego sie nie powiedzie.
+     * */
+    public static void writeEXIFDataToFile(File src, File dest, Map<TagKey, String> tagValues) throws IOException, ImageReadException, ImageWriteException {
+        ENGINE.writeTags(src, dest, tagValues);
+    }
+
+    /**
+     * Klasa opisujaca przygotowana zmiane metadanych pliku: plan nadpisania
+     * bajtow wartosci w kopii pliku albo nowe dane TIFF segmentu EXIF.
+     * Pozwala na oddzielenie przygotowania zmiany od zapisu pliku.
+     * */
+    static final class Update {
+        /**
+         * Plan zmian w kopii pliku lub {@code null}.
+         * */
+        final ExifPatcher.Plan plan;
+        /**
+         * Pozycja w pliku poczatku danych TIFF, do ktorych odnosi sie plan.
+         * */
+        final long tiffOffset;
+        /**
+         * Nowe dane TIFF segmentu EXIF lub {@code null}.
+         * */
+        final byte[] tiffData;
+
+        Update(ExifPatcher.Plan plan, long tiffOffset, byte[] tiffData) {
+            this.plan = plan;
+            this.tiffOffset = tiffOffset;
+            this.tiffData = tiffData;
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda przygotowujaca zmiane podanych znacznikow
+     * bez dostepu do pliku. Jesli wszystkie znaczniki istnieja w pliku,
+     * nowe wartosci sa zapisywane w miejscu dotychczasowych lub dopisywane
+     * na koncu segmentu, a w przeciwnym przypadku kodowany jest caly zbior
+     * metadanych z naniesionymi zmianami.
+     *
+     * @param segment Segment EXIF pliku zrodlowego lub {@code null}.
+     * @param exif Metadane odczytane z segmentu lub {@code null}.
+     * @param tagValues Mapa kluczy zmienianych znacznikow na ich nowe wartosci.
+     * @return Zwraca przygotowana zmiane.
+     * @throws IOException W przypadku bledu kodowania metadanych.
+     * @throws ImageReadException Jesli odczyt wartosci pola sie nie powiodl.
+     * @throws ImageWriteException Jesli wartosci nie da sie zakodowac lub
+     * nie mieszcza sie w jednym segmencie.
+     * */
+    static Update prepareUpdate(ExifSegment segment, TiffImageMetadata exif, Map<TagKey, String> tagValues)
+            throws IOException, ImageReadException, ImageWriteException {
+        Map<TiffField, String> changed = new IdentityHashMap<>();
+        if (exif != null && findFields(exif, tagValues, changed)) {
+            Update update = preparePatch(segment, exif, changed);
+            if (update != null) {
+                return update;
+            }
+        }
+        return new Update(null, -1, JpegExifRewriter.encode(applyDelta(exif, tagValues), segment));
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plik docelowy z przygotowana
+     * zmiana. Plik docelowy jest kopia pliku zrodlowego z nadpisanymi
+     * bajtami wartosci albo z podmienionym segmentem EXIF. Zapis uzywa
+     * podanego bufora bezposredniego, a dane pliku docelowego moga zostac
+     * utrwalone na dysku przed jego zamknieciem. Jesli podano skrot, dane obrazu
+     * pliku zrodlowego sa do niego przekazywane podczas kopiowania.
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param update Przygotowana zmiana.
+     * @param dest Plik docelowy.
+     * @param buffer Bufor do odczytu naglowkow i zapisu segmentu lub {@code null}.
+     * @param sync Czy utrwalic dane pliku docelowego przed jego zamknieciem.
+     * @param payloadDigest Skrot danych obrazu pliku zrodlowego lub {@code null}.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli plik zrodlowy nie jest poprawnym plikiem JPEG.
+     * */
+    static void writeUpdate(FileChannel in, Update update, File dest, ByteBuffer buffer, boolean sync,
+                            MessageDigest payloadDigest) throws IOException, ImageReadException {
+        if (update.plan == null) {
+            JpegExifRewriter.rewrite(in, ExifSegment.findAll(in, buffer), update.tiffData, dest.toPath(),
+                    buffer, sync, payloadDigest);
+            return;
+        }
+        ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+        long scanStart = payloadDigest == null ? in.size() : ExifSegment.findScanStart(in);
+        try (FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            JpegExifRewriter.transfer(in, 0, scanStart, out);
+            JpegExifRewriter.transfer(in, scanStart, in.size() - scanStart, out, payloadDigest);
+            ExifPatcher.apply(out, update.tiffOffset, update.plan);
+            ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+            if (sync) {
+                out.force(true);
+            }
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda przygotowujaca nowe wartosci istniejacych
+     * pol. Jesli wartosci mieszcza sie w miejscu dotychczasowych, zwracany
+     * jest plan nadpisania ich bajtow w kopii pliku. Dluzsze wartosci sa
+     * dopisywane na koncu danych TIFF segmentu EXIF.
+     *
+     * @param segment Segment EXIF pliku zrodlowego.
+     * @param exif Metadane odczytane z segmentu.
+     * @param changed Mapa zmienionych pol na nowe wartosci.
+     * @return Zwraca przygotowana zmiane lub {@code null} jesli typ ktoregos
+     * z pol nie jest obslugiwany.
+     * @throws ImageWriteException Jesli wartosci nie da sie zakodowac lub
+     * nie mieszcza sie w jednym segmencie.
+     * */
+    static Update preparePatch(ExifSegment segment, TiffImageMetadata exif, Map<TiffField, String> changed)
+            throws ImageWriteException {
+        int tiffLength = segment.getTiffData().length;
+        ExifPatcher.Plan plan = ExifPatcher.plan(exif, tiffLength, changed, false);
+        if (plan != null) {
+            return new Update(plan, segment.getTiffOffset(), null);
+        }
+        plan = ExifPatcher.plan(exif, tiffLength, changed, true);
+        if (plan == null) {
+            return null;
+        }
+        byte[] tiffData = ExifPatcher.apply(segment.getTiffData(), plan);
+        if (tiffData.length > ExifSegment.MAX_TIFF_DATA_LENGTH) {
+            throw new ImageWriteException("EXIF metadata too large for a single APP1 segment.");
+        }
+        return new Update(null, -1, tiffData);
+    }
+
+    /**
+     * Prywatna i statyczna metoda wyszukujaca pola odpowiadajace podanym
+     * kluczom. Pola, ktorych wartosc tekstowa sie nie zmienia, sa pomijane.
+     *
+     * @param exif Metadane odczytane z pliku.
+     * @param tagValues Mapa kluczy znacznikow na nowe wartosci.
+     * @param changed Mapa uzupelniana zmienionymi polami i ich nowymi wartosciami.
+     * @return Zwraca {@code true} jesli dla kazdego klucza odnaleziono pole.
+     * @throws ImageReadException Jesli odczyt wartosci pola sie nie powiodl.
+     * */
+    private static boolean findFields(TiffImageMetadata exif, Map<TagKey, String> tagValues,
+                                      Map<TiffField, String> changed) throws ImageReadException {
+        Set<TagKey> found = new HashSet<>();
+        for (TiffDirectory dir : exif.contents.directories) {
+            for (TiffField field : dir.entries) {
+                TagKey key = TagKey.of(field);
+                String value = tagValues.get(key);
+                if (value == null) {
+                    continue;
+                }
+                found.add(key);
+                if (!field.getFieldType().equals(FieldType.ASCII)
+                        || !value.equals(String.valueOf(field.getValue()))) {
+                    changed.put(field, value);
+                }
+            }
+        }
+        return found.size() == tagValues.size();
+    }
+
+    /**
+     * Pakietowa i statyczna metoda przygotowujaca plan zmiany podanych
+     * znacznikow bez kopii danych TIFF w pamieci (np. dla pliku TIFF,
+     * w ktorym danymi TIFF jest caly plik). Wartosci dluzsze od
+     * dotychczasowych sa dopisywane na koncu danych.
+     *
+     * @param exif Metadane odczytane z danych TIFF.
+     * @param tiffLength Dlugosc danych TIFF.
+     * @param tagValues Mapa kluczy zmienianych znacznikow na ich nowe wartosci.
+     * @return Zwraca plan zapisow lub {@code null} jesli ktoregos ze
+     * znacznikow nie ma w danych lub typ pola nie jest obslugiwany.
+     * @throws ImageReadException Jesli odczyt wartosci pola sie nie powiodl.
+     * @throws ImageWriteException Jesli wartosci nie da sie zakodowac.
+     * */
+    static ExifPatcher.Plan preparePlan(TiffImageMetadata exif, int tiffLength, Map<TagKey, String> tagValues)
+            throws ImageReadException, ImageWriteException {
+        Map<TiffField, String> changed = new IdentityHashMap<>();
+        if (!findFields(exif, tagValues, changed)) {
+            return null;
+        }
+        return planChanges(exif, tiffLength, changed);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda przygotowujaca plan zapisu nowych wartosci
+     * podanych pol tak jak {@link #preparePlan(TiffImageMetadata, int, Map)}.
+     *
+     * @param exif Metadane odczytane z danych TIFF.
+     * @param tiffLength Dlugosc danych TIFF.
+     * @param changed Mapa zmienionych pol na nowe wartosci.
+     * @return Zwraca plan zapisow lub {@code null} jesli typ ktoregos
+     * z pol nie jest obslugiwany.
+     * @throws ImageWriteException Jesli wartosci nie da sie zakodowac.
+     * */
+    static ExifPatcher.Plan planChanges(TiffImageMetadata exif, int tiffLength, Map<TiffField, String> changed)
+            throws ImageWriteException {
+        ExifPatcher.Plan plan = ExifPatcher.plan(exif, tiffLength, changed, false);
+        return plan != null ? plan : ExifPatcher.plan(exif, tiffLength, changed, true);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda tworzaca zbior metadanych do zapisu,
+     * w ktorym podane znaczniki zostaly zastapione nowymi wartosciami.
+     * Typ istniejacego pola jest zachowywany, a dla nowego pola uzywany
+     * jest pierwszy typ z definicji znacznika (ASCII dla nieznanych).
+     *
+     * @param exif Metadane odczytane z pliku lub {@code null}.
+     * @param tagValues Mapa kluczy znacznikow na nowe wartosci.
+     * @return Zwraca zbior metadanych z naniesionymi zmianami.
+     * @throws ImageWriteException Jesli wartosci nie da sie zakodowac.
+     * */
+    static TiffOutputSet applyDelta(TiffImageMetadata exif, Map<TagKey, String> tagValues) throws ImageWriteException {
+        TiffOutputSet outputSet = exif == null ? new TiffOutputSet() : exif.getOutputSet();
+        for (Map.Entry<TagKey, String> entry : tagValues.entrySet()) {
+            TagKey key = entry.getKey();
+            TiffField field = exif == null ? null : findField(exif, key);
+            TagInfo tagInfo = field != null ? field.getTagInfo() : key.findTagInfo();
+            if (tagInfo != null && tagInfo.isOffset()) {
+                throw new IllegalArgumentException("Can't change offset tag " + key + ".");
+            }
+            FieldType fieldType = field != null ? field.getFieldType()
+                    : tagInfo != null && !tagInfo.dataTypes.isEmpty() ? tagInfo.dataTypes.get(0) : FieldType.ASCII;
+            if (tagInfo == null) {
+                tagInfo = new TagInfo("Unknown", key.getTag(), fieldType);
+            }
+            byte[] data = ExifPatcher.encode(fieldType, entry.getValue(), outputSet.byteOrder);
+            if (data == null) {
+                throw new ImageWriteException("Not supported field type " + fieldType.getName() + " for tag " + key + ".");
+            }
+            TiffOutputDirectory dir = getOrCreateDirectory(outputSet, key.getDirectoryType());
+            dir.removeField(key.getTag());
+            int count = data.length / fieldType.getSize();
+            // zapis bezstratny biblioteki uszkadza wartosci o nieparzystej dlugosci
+            if (data.length > 4 && data.length % 2 != 0) {
+                data = Arrays.copyOf(data, data.length + 1);
+            }
+            dir.add(new TiffOutputField(key.getTag(), tagInfo, fieldType, count, data));
+        }
+        return outputSet;
+    }
+
+    private static TiffField findField(TiffImageMetadata exif, TagKey key) {
+        for (TiffDirectory dir : exif.contents.directories) {
+            for (TiffField field : dir.entries) {
+                if (key.matches(field)) {
+                    return field;
                 }
             }
         }
-        if (outputSet == null) {
-            outputSet = new TiffOutputSet();
+        return null;
+    }
+
+    private static TiffOutputDirectory getOrCreateDirectory(TiffOutputSet outputSet, int directoryType) throws ImageWriteException {
+        switch (directoryType) {
+            case TiffDirectoryConstants.DIRECTORY_TYPE_ROOT:
+                return outputSet.getOrCreateRootDirectory();
+            case TiffDirectoryConstants.DIRECTORY_TYPE_EXIF:
+                return outputSet.getOrCreateExifDirectory();
+            case TiffDirectoryConstants.DIRECTORY_TYPE_GPS:
+                return outputSet.getOrCreateGPSDirectory();
+            default:
+                TiffOutputDirectory dir = outputSet.findDirectory(directoryType);
+                if (dir == null) {
+                    dir = new TiffOutputDirectory(directoryType, outputSet.byteOrder);
+                    outputSet.addDirectory(dir);
+                }
+                return dir;
         }
+    }
+
+    /**
+     * Publiczna i statyczna metoda modyfikujaca wartosci znacznikow ASCII
+     * bezposrednio w podanym pliku. Parametry maja takie samo znaczenie jak
+     * w metodzie {@link #writeEXIFDataToFile(File, File, Vector)}. Plik jest
+     * modyfikowany tylko wtedy, gdy kazda zmieniona wartosc miesci sie
+     * w miejscu zajmowanym przez dotychczasowa wartosc.
+     *
+     * @param file Plik JPEG, TIFF, PNG lub WebP z metadanymi do modyfikacji.
+     * @param newTagValues Wektor z nowymi wartosciami dla wszystkich znacznikow exif.
+     * @return Zwraca {@code true} jesli plik zostal zmodyfikowany lub nie
+     * wymagal zmian, {@code false} jesli konieczny jest pelny zapis pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku sie nie powiodl.
+     * @throws ImageWriteException Jesli nowych wartosci nie da sie zakodowac.
+     * */
+    public static boolean patchEXIFDataInPlace(File file, Vector<String> newTagValues) throws IOException, ImageReadException, ImageWriteException {
+        return ENGINE.patchInPlace(file, newTagValues);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wybierajaca pola ASCII, ktorych wartosci
+     * w wektorze roznia sie od wartosci odczytanych z pliku.
+     *
+     * @param exif Metadane odczytane z pliku.
+     * @param newTagValues Nowe wartosci w kolejnosci pol.
+     * @return Zwraca mape zmienionych pol na nowe wartosci.
+     * @throws ImageReadException Jesli odczyt wartosci pola sie nie powiodl.
+     * */
+    static Map<TiffField, String> changedAsciiValues(TiffImageMetadata exif, Vector<String> newTagValues) throws ImageReadException {
+        Map<TiffField, String> changed = new IdentityHashMap<>();
         int i = 0;
-        for (TiffOutputDirectory dir : outputSet.getDirectories()) {
-            for (TiffOutputField field : dir.getFields()) {
-                dir.removeField(field.tag);
-                if (field.fieldType.equals(FieldType.ASCII)) {
+        for (TiffDirectory dir : exif.contents.directories) {
+            for (TiffField field : dir.entries) {
+                if (field.getFieldType().equals(FieldType.ASCII)) {
                     String value = String.valueOf(newTagValues.get(i));
-                    TiffOutputField newField = new TiffOutputField(field.tag, field.tagInfo,
-                            field.fieldType, field.count, value.getBytes());
-                    dir.add(newField);
-                } else {
-                    dir.add(field);
+                    if (!value.equals(String.valueOf(field.getValue()))) {
+                        changed.put(field, value);
+                    }
                 }
                 i++;
             }
         }
-        FileOutputStream fos = new FileOutputStream(dest);
-        OutputStream os = new BufferedOutputStream(fos);
-        new ExifRewriter().updateExifMetadataLossless(src, os, outputSet);
+        return changed;
     }
 
     /**
@@ -139,8 +490,40 @@ public class ExifEditor {
      * docelowego sie nie powiedzie.
      * */
     public static void removeEXIFDataFromFile(File src, File dest) throws IOException, ImageWriteException, ImageReadException {
-        FileOutputStream fos = new FileOutputStream(dest);
-        OutputStream os = new BufferedOutputStream(fos);
-        new ExifRewriter().removeExifMetadata(src, os);
+        ENGINE.removeExif(src, dest);
+    }
+
+    /**
+     * Publiczna i statyczna metoda usuwajaca z podanego pliku tylko znaczniki
+     * wskazane przez polityke (np. katalog GPS i numery seryjne), bez
+     * przepisywania pliku. Pozostale metadane, m.in. orientacja, przestrzen
+     * barw i prawa autorskie, sa zachowywane.
+     *
+     * @param file Plik z metadanymi do oczyszczenia.
+     * @param policy Polityka usuwania znacznikow, np. {@link ScrubPolicy#DEFAULT}.
+     * @return Zwraca {@code true} jesli plik zostal zmieniony w miejscu,
+     * {@code false} jesli musial zostac przepisany (kilka segmentow EXIF).
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku sie nie powiodl.
+     * */
+    public static boolean scrubEXIFDataInPlace(File file, ScrubPolicy policy) throws IOException, ImageReadException {
+        return ENGINE.scrubInPlace(file, policy);
+    }
+
+    /**
+     * Publiczna i statyczna metoda tworzaca plik wynikowy bez znacznikow
+     * wskazanych przez polityke. Dziala tak jak
+     * {@link #scrubEXIFDataInPlace(File, ScrubPolicy)}, ale zmiany sa
+     * zapisywane w kopii pliku zrodlowego.
+     *
+     * @param src Plik zrodlowy zawierajacy metadane exif.
+     * @param dest Plik wynikowy.
+     * @param policy Polityka usuwania znacznikow.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * */
+    public static void scrubEXIFDataFromFile(File src, File dest, ScrubPolicy policy) throws IOException, ImageReadException {
+        ENGINE.scrub(src, dest, policy);
     }
 }
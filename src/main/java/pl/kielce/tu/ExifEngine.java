@@ -0,0 +1,690 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.tiff.TiffDirectory;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.function.Consumer;
+
+/**
+ * Klasa silnika operacji na metadanych, ktory moze byc wspoldzielony
+ * przez wiele watkow. Silnik nie przechowuje stanu operacji, a jedynie
+ * pule buforow bezposrednich: kazda operacja pobiera bufor, wczytuje
+ * do niego porcjami tylko naglowki segmentow i segment EXIF (bez danych
+ * skanu) i zapisuje przez niego nowy segment, a na koniec zwraca bufor
+ * do puli. Liczba buforow jest ograniczona, wiec dlugotrwale
+ * przetwarzanie nie alokuje pamieci dla kazdego pliku. Pliki sa zawsze
+ * zamykane przed zakonczeniem operacji, a w trybie synchronicznym dane
+ * pliku docelowego sa dodatkowo utrwalane na dysku. W trybie sprawdzania
+ * skrot danych obrazu pliku zrodlowego JPEG jest obliczany podczas
+ * zapisu i porownywany ze skrotem danych zapisanych w pliku docelowym
+ * (zob. {@link PayloadDigest}). Format pliku jest rozpoznawany na
+ * podstawie jego zawartosci ({@link ImageFormat}), a kazdy format ma
+ * wlasny odczyt i bezstratny zapis segmentu EXIF, wiec pliki roznych
+ * formatow moga byc przetwarzane przez jeden silnik. Kazdy zapis
+ * i modyfikacja pliku usuwa jego wpis z pamieci podrecznych metadanych
+ * ({@link MetadataCache}).
+ * */
+public class ExifEngine {
+    /**
+     * Rozmiar bufora, ktory miesci najwiekszy segment EXIF.
+     * */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Klasa opisujaca odczytane metadane pliku, przekazywane pomiedzy
+     * odczytem a zapisem wykonywanymi w osobnych krokach
+     * (zob. {@link #readExif(File)} i {@link #writeUpdate(File, Parsed, ExifEditor.Update, Map, File)}).
+     * */
+    static final class Parsed {
+        /**
+         * Format pliku.
+         * */
+        final ImageFormat format;
+        /**
+         * Pierwszy segment EXIF lub {@code null} dla plikow TIFF i plikow
+         * bez metadanych.
+         * */
+        final ExifSegment segment;
+        /**
+         * Zdekodowane metadane lub {@code null}.
+         * */
+        final TiffImageMetadata exif;
+
+        private Parsed(ImageFormat format, ExifSegment segment, TiffImageMetadata exif) {
+            this.format = format;
+            this.segment = segment;
+            this.exif = exif;
+        }
+    }
+
+    /**
+     * Pula buforow bezposrednich.
+     * */
+    private final BufferPool pool;
+    /**
+     * Czy utrwalac dane plikow docelowych przed ich zamknieciem.
+     * */
+    private final boolean sync;
+    /**
+     * Czy sprawdzac dane obrazu plikow docelowych.
+     * */
+    private final boolean verify;
+
+    /**
+     * Konstruktor silnika bez sprawdzania danych obrazu.
+     *
+     * @param maxBuffers Maksymalna liczba buforow, a tym samym operacji
+     *                   wykonywanych jednoczesnie.
+     * @param sync Czy utrwalac dane plikow docelowych na dysku.
+     * */
+    public ExifEngine(int maxBuffers, boolean sync) {
+        this(maxBuffers, sync, false);
+    }
+
+    /**
+     * Konstruktor silnika.
+     *
+     * @param maxBuffers Maksymalna liczba buforow, a tym samym operacji
+     *                   wykonywanych jednoczesnie.
+     * @param sync Czy utrwalac dane plikow docelowych na dysku
+     *             ({@link FileChannel#force}) przed ich zamknieciem.
+     * @param verify Czy po zapisie sprawdzac, ze dane obrazu pliku
+     *               docelowego sa identyczne z danymi pliku zrodlowego.
+     * */
+    public ExifEngine(int maxBuffers, boolean sync, boolean verify) {
+        this.pool = new BufferPool(BUFFER_SIZE, maxBuffers);
+        this.sync = sync;
+        this.verify = verify;
+    }
+
+    /**
+     * Publiczna metoda odczytujaca metadane z podanego pliku. Dziala tak
+     * jak {@link ExifEditor#readEXIFMetadata(File, Consumer)}.
+     *
+     * @param src Docelowy plik z metadanymi do odczytu.
+     * @param directoryListener Odbiorca pol kolejnych katalogow IFD.
+     * @return Zwraca model wszystkich odczytanych metadanych.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * */
+    public ExifMetadata readMetadata(File src, Consumer<ExifMetadata> directoryListener) throws IOException, ImageReadException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("read", src)) {
+            BasicFileAttributes attributes = Files.readAttributes(src.toPath(), BasicFileAttributes.class);
+            TiffImageMetadata exif;
+            long tiffOffset = -1;
+            ByteBuffer buffer = pool.acquire();
+            try (FileChannel channel = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+                ImageFormat format = ImageFormat.sniff(channel);
+                if (format == null) {
+                    ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                    ExifMetrics.bytesRead(attributes.size());
+                    exif = ExifEditor.readExifMetadata(src);
+                } else if (format == ImageFormat.TIFF) {
+                    ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                    exif = TiffExifRewriter.read(src);
+                    tiffOffset = 0;
+                } else {
+                    List<ExifSegment> segments = findSegments(format, channel, buffer, false);
+                    ExifSegment segment = segments.isEmpty() ? null : segments.get(0);
+                    ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                    exif = segment == null ? null : segment.parse();
+                    tiffOffset = segment == null ? -1 : segment.getTiffOffset();
+                }
+            } finally {
+                pool.release(buffer);
+            }
+            if (exif == null) {
+                throw new ImageReadException("No exif data found.");
+            }
+            ExifMetadata.Source source = tiffOffset < 0 ? null : new ExifMetadata.Source(src, attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), exif.contents.header.byteOrder, tiffOffset);
+            List<ExifMetadata> parts = new ArrayList<>(exif.contents.directories.size());
+            for (TiffDirectory dir : exif.contents.directories) {
+                ExifMetadata part = ExifMetadata.of(Collections.singletonList(dir), source);
+                directoryListener.accept(part);
+                parts.add(part);
+            }
+            ExifMetadata metadata = ExifMetadata.concat(parts);
+            operation.succeeded();
+            return metadata;
+        }
+    }
+
+    /**
+     * Publiczna metoda tworzaca plik docelowy, w ktorym zmienione zostaly
+     * tylko podane znaczniki. Dziala tak jak
+     * {@link ExifEditor#writeEXIFDataToFile(File, File, Map)}.
+     *
+     * @param src Plik zrodlowy zawierajacy oryginalne metadane.
+     * @param dest Plik docelowy w ktorym maja zostac zapisane zmodyfikowane metadane.
+     * @param tagValues Mapa kluczy zmienianych znacznikow na ich nowe wartosci.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku
+     * lub gdy w trybie sprawdzania dane obrazu pliku docelowego sa inne.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * @throws ImageWriteException Jesli zapis metadanych do pliku
+     * docelowego sie nie powiedzie.
+     * */
+    public void writeTags(File src, File dest, Map<TagKey, String> tagValues) throws IOException, ImageReadException, ImageWriteException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("write", src)) {
+            MessageDigest digest = null;
+            ByteBuffer buffer = pool.acquire();
+            try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+                ImageFormat format = requireFormat(in);
+                if (format == ImageFormat.TIFF) {
+                    ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                    TiffImageMetadata exif = TiffExifRewriter.read(src);
+                    JpegExifRewriter.checkDistinct(src, dest);
+                    ExifMetrics.phase(ExifMetrics.Phase.BUILD);
+                    TiffExifRewriter.writeTags(in, exif, tagValues, dest.toPath(), sync);
+                } else {
+                    List<ExifSegment> segments = findSegments(format, in, buffer, false);
+                    ExifSegment segment = segments.isEmpty() ? null : segments.get(0);
+                    ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                    TiffImageMetadata exif = segment == null ? null : segment.parse();
+                    JpegExifRewriter.checkDistinct(src, dest);
+                    ExifMetrics.phase(ExifMetrics.Phase.BUILD);
+                    digest = write(format, in, buffer, segment, ExifEditor.prepareUpdate(segment, exif, tagValues), dest);
+                }
+            } finally {
+                pool.release(buffer);
+                MetadataCache.invalidateAll(dest);
+            }
+            if (digest != null) {
+                PayloadDigest.check(digest.digest(), dest);
+            }
+            operation.succeeded();
+        }
+    }
+
+    /**
+     * Pakietowa metoda odczytujaca i dekodujaca metadane pliku
+     * obslugiwanego formatu bez budowania modelu {@link ExifMetadata}.
+     * Zmiane metadanych mozna nastepnie przygotowac metoda
+     * {@link ExifEditor#prepareUpdate(ExifSegment, TiffImageMetadata, Map)}
+     * i zapisac metoda {@link #writeUpdate(File, Parsed, ExifEditor.Update, Map, File)}.
+     *
+     * @param src Plik zrodlowy.
+     * @return Zwraca format pliku, jego pierwszy segment EXIF i metadane.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli format pliku nie jest obslugiwany
+     * lub metadane sa niepoprawne.
+     * */
+    Parsed readExif(File src) throws IOException, ImageReadException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("read", src)) {
+            Parsed parsed;
+            ByteBuffer buffer = pool.acquire();
+            try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+                ImageFormat format = requireFormat(in);
+                if (format == ImageFormat.TIFF) {
+                    ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                    parsed = new Parsed(format, null, TiffExifRewriter.read(src));
+                } else {
+                    List<ExifSegment> segments = findSegments(format, in, buffer, false);
+                    ExifSegment segment = segments.isEmpty() ? null : segments.get(0);
+                    ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                    parsed = new Parsed(format, segment, segment == null ? null : segment.parse());
+                }
+            } finally {
+                pool.release(buffer);
+            }
+            operation.succeeded();
+            return parsed;
+        }
+    }
+
+    /**
+     * Pakietowa metoda tworzaca plik docelowy z przygotowana zmiana
+     * metadanych odczytanych metoda {@link #readExif(File)}. Plik jest
+     * zapisywany tak jak w {@link #writeTags(File, File, Map)}, z
+     * utrwalaniem danych i sprawdzaniem danych obrazu zgodnie
+     * z ustawieniami silnika. Dla plikow TIFF zmiana jest budowana
+     * podczas zapisu z podanych wartosci znacznikow.
+     *
+     * @param src Plik zrodlowy.
+     * @param parsed Metadane pliku zrodlowego.
+     * @param update Zmiana przygotowana dla plikow JPEG, PNG i WebP
+     *               lub {@code null} dla plikow TIFF.
+     * @param tagValues Mapa kluczy zmienianych znacznikow na ich nowe wartosci.
+     * @param dest Plik docelowy.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku
+     * lub gdy w trybie sprawdzania dane obrazu pliku docelowego sa inne.
+     * @throws ImageReadException Jesli odczyt pliku zrodlowego sie nie powiodl.
+     * @throws ImageWriteException Jesli zapis metadanych do pliku
+     * docelowego sie nie powiedzie.
+     * */
+    void writeUpdate(File src, Parsed parsed, ExifEditor.Update update, Map<TagKey, String> tagValues, File dest)
+            throws IOException, ImageReadException, ImageWriteException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("write", src)) {
+            JpegExifRewriter.checkDistinct(src, dest);
+            MessageDigest digest = null;
+            ByteBuffer buffer = pool.acquire();
+            try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+                ExifMetrics.phase(ExifMetrics.Phase.BUILD);
+                if (parsed.format == ImageFormat.TIFF) {
+                    TiffExifRewriter.writeTags(in, parsed.exif, tagValues, dest.toPath(), sync);
+                } else {
+                    digest = write(parsed.format, in, buffer, parsed.segment, update, dest);
+                }
+            } finally {
+                pool.release(buffer);
+                MetadataCache.invalidateAll(dest);
+            }
+            if (digest != null) {
+                PayloadDigest.check(digest.digest(), dest);
+            }
+            operation.succeeded();
+        }
+    }
+
+    /**
+     * Publiczna metoda tworzaca plik docelowy ze zmienionymi wartosciami
+     * znacznikow ASCII. Dziala tak jak
+     * {@link ExifEditor#writeEXIFDataToFile(File, File, Vector)}.
+     *
+     * @param src Plik zrodlowy zawierajacy oryginalne metadane.
+     * @param dest Plik docelowy w ktorym maja zostac zapisane zmodyfikowane metadane.
+     * @param newTagValues Wektor z nowymi wartosciami dla wszystkich znacznikow exif.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku
+     * lub gdy w trybie sprawdzania dane obrazu pliku docelowego sa inne.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * @throws ImageWriteException Jesli zapis metadanych do pliku
+     * docelowego sie nie powiedzie.
+     * */
+    public void writeValues(File src, File dest, Vector<String> newTagValues) throws IOException, ImageReadException, ImageWriteException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("write", src)) {
+            MessageDigest digest = null;
+            ByteBuffer buffer = pool.acquire();
+            try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+                ImageFormat format = requireFormat(in);
+                List<ExifSegment> segments = format == ImageFormat.TIFF ? Collections.emptyList()
+                        : findSegments(format, in, buffer, false);
+                ExifSegment segment = segments.isEmpty() ? null : segments.get(0);
+                ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                TiffImageMetadata exif = format == ImageFormat.TIFF ? TiffExifRewriter.read(src)
+                        : segment == null ? null : segment.parse();
+                if (exif != null && exif.getAllFields().size() != newTagValues.size()) {
+                    throw new IllegalArgumentException("Too few tag values given.");
+                }
+                JpegExifRewriter.checkDistinct(src, dest);
+                ExifMetrics.phase(ExifMetrics.Phase.BUILD);
+                if (format == ImageFormat.TIFF) {
+                    TiffExifRewriter.writeValues(in, exif, ExifEditor.changedAsciiValues(exif, newTagValues),
+                            dest.toPath(), sync);
+                } else {
+                    // plik bez metadanych otrzymuje pusty segment EXIF
+                    ExifEditor.Update update = exif == null
+                            ? ExifEditor.prepareUpdate(null, null, Collections.emptyMap())
+                            : ExifEditor.preparePatch(segment, exif, ExifEditor.changedAsciiValues(exif, newTagValues));
+                    if (update == null) {
+                        throw new ImageWriteException("Can't patch tag values.");
+                    }
+                    digest = write(format, in, buffer, segment, update, dest);
+                }
+            } finally {
+                pool.release(buffer);
+                MetadataCache.invalidateAll(dest);
+            }
+            if (digest != null) {
+                PayloadDigest.check(digest.digest(), dest);
+            }
+            operation.succeeded();
+        }
+    }
+
+    /**
+     * Publiczna metoda modyfikujaca wartosci znacznikow ASCII bezposrednio
+     * w podanym pliku. Dziala tak jak
+     * {@link ExifEditor#patchEXIFDataInPlace(File, Vector)}; w pliku PNG
+     * uaktualniana jest rowniez suma kontrolna bloku eXIf.
+     *
+     * @param file Plik z metadanymi do modyfikacji.
+     * @param newTagValues Wektor z nowymi wartosciami dla wszystkich znacznikow exif.
+     * @return Zwraca {@code true} jesli plik zostal zmodyfikowany lub nie
+     * wymagal zmian, {@code false} jesli konieczny jest pelny zapis pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku sie nie powiodl.
+     * @throws ImageWriteException Jesli nowych wartosci nie da sie zakodowac.
+     * */
+    public boolean patchInPlace(File file, Vector<String> newTagValues) throws IOException, ImageReadException, ImageWriteException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("patch", file)) {
+            ByteBuffer buffer = pool.acquire();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ImageFormat format = requireFormat(channel);
+                List<ExifSegment> segments = format == ImageFormat.TIFF ? Collections.emptyList()
+                        : findSegments(format, channel, buffer, false);
+                ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                TiffImageMetadata exif = format == ImageFormat.TIFF ? TiffExifRewriter.read(file)
+                        : segments.isEmpty() ? null : segments.get(0).parse();
+                if (exif == null) {
+                    throw new ImageReadException("No exif data found.");
+                }
+                if (exif.getAllFields().size() != newTagValues.size()) {
+                    throw new IllegalArgumentException("Too few tag values given.");
+                }
+                ExifMetrics.phase(ExifMetrics.Phase.BUILD);
+                long tiffLength = segments.isEmpty() ? channel.size() : segments.get(0).getTiffData().length;
+                ExifPatcher.Plan plan = tiffLength > Integer.MAX_VALUE ? null
+                        : ExifPatcher.plan(exif, (int) tiffLength, ExifEditor.changedAsciiValues(exif, newTagValues), false);
+                if (plan == null) {
+                    operation.succeeded();
+                    return false;
+                }
+                ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+                patch(format, channel, segments, plan);
+                ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+                if (sync) {
+                    channel.force(true);
+                }
+            } finally {
+                pool.release(buffer);
+                MetadataCache.invalidateAll(file);
+            }
+            operation.succeeded();
+            return true;
+        }
+    }
+
+    /**
+     * Publiczna metoda tworzaca plik docelowy bez segmentow EXIF pliku
+     * zrodlowego. Dziala tak jak {@link ExifEditor#removeEXIFDataFromFile(File, File)}.
+     *
+     * @param src Plik zrodlowy JPEG.
+     * @param dest Plik docelowy.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku
+     * lub gdy w trybie sprawdzania dane obrazu pliku docelowego sa inne.
+     * @throws ImageReadException Jesli plik zrodlowy nie jest poprawnym plikiem
+     * obslugiwanego formatu.
+     * @throws ImageWriteException Jesli katalogow pliku TIFF nie da sie zapisac.
+     * */
+    public void removeExif(File src, File dest) throws IOException, ImageReadException, ImageWriteException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("remove", src)) {
+            JpegExifRewriter.checkDistinct(src, dest);
+            MessageDigest digest = null;
+            ByteBuffer buffer = pool.acquire();
+            try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+                ImageFormat format = requireFormat(in);
+                if (format == ImageFormat.TIFF) {
+                    ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+                    TiffExifRewriter.removeExif(in, TiffExifRewriter.read(src), dest.toPath(), sync);
+                } else if (format == ImageFormat.JPEG) {
+                    digest = verify ? PayloadDigest.newDigest() : null;
+                    JpegExifRewriter.rewrite(in, ExifSegment.findAll(in, buffer), null, dest.toPath(), buffer, sync, digest);
+                } else {
+                    rewrite(format, in, buffer, null, dest);
+                }
+            } finally {
+                pool.release(buffer);
+                MetadataCache.invalidateAll(dest);
+            }
+            if (digest != null) {
+                PayloadDigest.check(digest.digest(), dest);
+            }
+            operation.succeeded();
+        }
+    }
+
+    /**
+     * Publiczna metoda usuwajaca znaczniki wskazane przez polityke
+     * bezposrednio w pliku. Plik bez metadanych nie jest zmieniany.
+     * Usuwane wpisy sa wycinane z katalogow, a ich wartosci
+     * i odlaczone katalogi sa zerowane (zob. {@link ScrubPolicy}),
+     * wiec zapisywane sa tylko zmienione bajty danych TIFF (a dla plikow
+     * PNG rowniez suma kontrolna bloku). Jesli plik zawiera kilka
+     * segmentow EXIF, jest przepisywany do pliku tymczasowego z jednym
+     * oczyszczonym segmentem i przenoszony atomowo w miejsce pliku.
+     *
+     * @param file Plik z metadanymi do oczyszczenia.
+     * @param policy Polityka usuwania znacznikow.
+     * @return Zwraca {@code true} jesli plik zostal zmieniony w miejscu,
+     * {@code false} jesli zostal przepisany.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku
+     * lub gdy w trybie sprawdzania dane obrazu przepisanego pliku sa inne.
+     * @throws ImageReadException Jesli format pliku nie jest obslugiwany
+     * lub katalogi metadanych sa niepoprawne.
+     * */
+    public boolean scrubInPlace(File file, ScrubPolicy policy) throws IOException, ImageReadException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("scrub", file)) {
+            Path temp = file.toPath().resolveSibling("." + file.getName() + ".tmp");
+            boolean inPlace;
+            MessageDigest digest = null;
+            // plik tymczasowy jest usuwany rowniez po nieudanym przepisaniu
+            try {
+                ByteBuffer buffer = pool.acquire();
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ImageFormat format = requireFormat(channel);
+                    List<ExifSegment> segments = format == ImageFormat.TIFF ? Collections.emptyList()
+                            : findSegments(format, channel, buffer, true);
+                    ExifPatcher.Plan plan = planScrub(format, channel, segments, policy);
+                    inPlace = segments.size() <= 1;
+                    if (inPlace) {
+                        ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+                        patch(format, channel, segments, plan);
+                        ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+                        if (sync) {
+                            channel.force(true);
+                        }
+                    } else {
+                        digest = verify && format == ImageFormat.JPEG ? PayloadDigest.newDigest() : null;
+                        rewrite(format, channel, buffer, segments, ExifPatcher.apply(segments.get(0).getTiffData(), plan),
+                                temp.toFile(), digest);
+                    }
+                } finally {
+                    pool.release(buffer);
+                }
+                if (digest != null) {
+                    PayloadDigest.check(digest.digest(), temp.toFile());
+                }
+                if (!inPlace) {
+                    Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+                MetadataCache.invalidateAll(file);
+            }
+            operation.succeeded();
+            return inPlace;
+        }
+    }
+
+    /**
+     * Publiczna metoda tworzaca kopie pliku bez znacznikow wskazanych
+     * przez polityke. Plik jest kopiowany metoda {@link FileChannel#transferTo},
+     * a w kopii zapisywane sa tylko bajty zmienione tak jak w
+     * {@link #scrubInPlace(File, ScrubPolicy)}. Plik z kilkoma segmentami
+     * EXIF jest przepisywany z jednym oczyszczonym segmentem.
+     *
+     * @param src Plik zrodlowy z metadanymi.
+     * @param dest Plik docelowy.
+     * @param policy Polityka usuwania znacznikow.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku
+     * lub gdy w trybie sprawdzania dane obrazu pliku docelowego sa inne.
+     * @throws ImageReadException Jesli format pliku nie jest obslugiwany
+     * lub katalogi metadanych sa niepoprawne.
+     * */
+    public void scrub(File src, File dest, ScrubPolicy policy) throws IOException, ImageReadException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("scrub", src)) {
+            JpegExifRewriter.checkDistinct(src, dest);
+            MessageDigest digest = null;
+            ByteBuffer buffer = pool.acquire();
+            try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+                ImageFormat format = requireFormat(in);
+                List<ExifSegment> segments = format == ImageFormat.TIFF ? Collections.emptyList()
+                        : findSegments(format, in, buffer, true);
+                ExifPatcher.Plan plan = planScrub(format, in, segments, policy);
+                digest = verify && format == ImageFormat.JPEG ? PayloadDigest.newDigest() : null;
+                if (segments.size() <= 1) {
+                    ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+                    try (FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                        long scanStart = digest == null ? in.size() : ExifSegment.findScanStart(in);
+                        JpegExifRewriter.transfer(in, 0, scanStart, out);
+                        JpegExifRewriter.transfer(in, scanStart, in.size() - scanStart, out, digest);
+                        patch(format, out, segments, plan);
+                        ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+                        if (sync) {
+                            out.force(true);
+                        }
+                    }
+                } else {
+                    rewrite(format, in, buffer, segments, ExifPatcher.apply(segments.get(0).getTiffData(), plan),
+                            dest, digest);
+                }
+            } finally {
+                pool.release(buffer);
+                MetadataCache.invalidateAll(dest);
+            }
+            if (digest != null) {
+                PayloadDigest.check(digest.digest(), dest);
+            }
+            operation.succeeded();
+        }
+    }
+
+    /**
+     * Prywatna i statyczna metoda przygotowujaca plan oczyszczenia
+     * pierwszego segmentu EXIF, a dla plikow TIFF calego pliku
+     * odwzorowanego w pamieci. Plan dla pliku bez metadanych jest pusty.
+     * */
+    private static ExifPatcher.Plan planScrub(ImageFormat format, FileChannel channel, List<ExifSegment> segments,
+                                              ScrubPolicy policy) throws IOException, ImageReadException {
+        ByteBuffer tiff;
+        if (format == ImageFormat.TIFF) {
+            tiff = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+        } else if (segments.isEmpty()) {
+            return new ExifPatcher.Plan(Collections.emptyList(), new byte[0]);
+        } else {
+            tiff = ByteBuffer.wrap(segments.get(0).getTiffData());
+        }
+        ExifMetrics.phase(ExifMetrics.Phase.BUILD);
+        return ExifScrubber.plan(tiff, policy);
+    }
+
+    /**
+     * Prywatna i statyczna metoda zapisujaca plan oczyszczenia w pliku,
+     * ktorego dane TIFF znajduja sie w tym samym miejscu co w pliku
+     * zrodlowym.
+     * */
+    private static void patch(ImageFormat format, FileChannel channel, List<ExifSegment> segments, ExifPatcher.Plan plan)
+            throws IOException {
+        ExifSegment segment = segments.isEmpty() ? null : segments.get(0);
+        ExifPatcher.apply(channel, segment == null ? 0 : segment.getTiffOffset(), plan);
+        if (format == ImageFormat.PNG && !plan.writes.isEmpty()) {
+            PngExifRewriter.updateCrc(channel, segment, ExifPatcher.apply(segment.getTiffData(), plan));
+        }
+    }
+
+    /**
+     * Prywatna metoda zapisujaca plik docelowy JPEG, PNG lub WebP
+     * z przygotowana zmiana.
+     *
+     * @return Zwraca skrot danych obrazu pliku zrodlowego do sprawdzenia
+     * lub {@code null}.
+     * */
+    private MessageDigest write(ImageFormat format, FileChannel in, ByteBuffer buffer, ExifSegment segment,
+                                ExifEditor.Update update, File dest) throws IOException, ImageReadException {
+        if (format == ImageFormat.JPEG) {
+            MessageDigest digest = verify ? PayloadDigest.newDigest() : null;
+            ExifEditor.writeUpdate(in, update, dest, buffer, sync, digest);
+            return digest;
+        }
+        byte[] tiffData = update.plan == null ? update.tiffData : ExifPatcher.apply(segment.getTiffData(), update.plan);
+        rewrite(format, in, buffer, tiffData, dest);
+        return null;
+    }
+
+    /**
+     * Prywatna i statyczna metoda wyszukujaca segmenty EXIF pliku JPEG,
+     * PNG lub WebP.
+     * */
+    private static List<ExifSegment> findSegments(ImageFormat format, FileChannel channel, ByteBuffer buffer, boolean all)
+            throws IOException, ImageReadException {
+        switch (format) {
+            case JPEG:
+                if (all) {
+                    return ExifSegment.findAll(channel, buffer);
+                }
+                ExifSegment segment = ExifSegment.find(channel, buffer);
+                return segment == null ? Collections.emptyList() : Collections.singletonList(segment);
+            case PNG:
+                return PngExifRewriter.findAll(channel);
+            case WEBP:
+                return WebpExifRewriter.findAll(channel);
+            default:
+                throw new IllegalArgumentException("No EXIF segments in " + format + " files.");
+        }
+    }
+
+    /**
+     * Prywatna metoda zapisujaca kopie pliku PNG lub WebP z nowym
+     * segmentem EXIF lub bez segmentow EXIF.
+     * */
+    private void rewrite(ImageFormat format, FileChannel in, ByteBuffer buffer, byte[] tiffData, File dest)
+            throws IOException, ImageReadException {
+        rewrite(format, in, buffer, findSegments(format, in, buffer, true), tiffData, dest, null);
+    }
+
+    /**
+     * Prywatna metoda zapisujaca kopie pliku JPEG, PNG lub WebP, w ktorej
+     * podane segmenty EXIF sa zastapione jednym nowym segmentem lub usuniete.
+     * Skrot danych obrazu jest obliczany tylko dla plikow JPEG.
+     * */
+    private void rewrite(ImageFormat format, FileChannel in, ByteBuffer buffer, List<ExifSegment> segments,
+                         byte[] tiffData, File dest, MessageDigest digest) throws IOException, ImageReadException {
+        if (format == ImageFormat.JPEG) {
+            JpegExifRewriter.rewrite(in, segments, tiffData, dest.toPath(), buffer, sync, digest);
+        } else if (format == ImageFormat.PNG) {
+            PngExifRewriter.rewrite(in, segments, tiffData, dest.toPath(), sync);
+        } else {
+            WebpExifRewriter.rewrite(in, tiffData, dest.toPath(), sync);
+        }
+    }
+
+    private static ImageFormat requireFormat(FileChannel channel) throws IOException, ImageReadException {
+        ImageFormat format = ImageFormat.sniff(channel);
+        if (format == null) {
+            throw new ImageReadException("Not supported image format.");
+        }
+        return format;
+    }
+
+    /**
+     * @return Zwraca {@code true} jesli dane plikow docelowych sa utrwalane na dysku.
+     * */
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * @return Zwraca {@code true} jesli dane obrazu plikow docelowych sa sprawdzane.
+     * */
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * @return Zwraca liczbe buforow utworzonych przez pule silnika.
+     * */
+    public int getAllocatedBuffers() {
+        return pool.getAllocated();
+    }
+}
@@ -0,0 +1,549 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.common.RationalNumber;
+import org.apache.commons.imaging.formats.tiff.TiffDirectory;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.fieldtypes.FieldType;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Klasa przechowujaca odczytane metadane EXIF w zwartej i niezmiennej
+ * postaci. Dane kazdego pola sa zapisane w tablicach indeksowanych
+ * numerem wiersza: typ katalogu, numer i nazwa znacznika (wspoldzielone
+ * przez wszystkie pliki), typ i licznik pola oraz surowa wartosc
+ * w postaci tablicy typu prostego. Wartosci wymierne sa przechowywane
+ * jako pary licznik/mianownik. Tekst wartosci jest tworzony dopiero
+ * przy pierwszym odwolaniu i ma taka sama postac jak w
+ * {@link ExifEditor#readEXIFDataFromFile(java.io.File)}.
+ * Z wartosci wiekszych niz {@link #LARGE_VALUE_BYTES} przechowywany
+ * jest tylko poczatek potrzebny do podgladu w tabeli oraz polozenie
+ * wartosci w pliku, z ktorego pelna wartosc jest odczytywana na zadanie
+ * ({@link #getFullValueText(int)}, {@link #toRows()}).
+ * */
+public final class ExifMetadata {
+    /**
+     * Maksymalna liczba elementow tablicy wypisywanych w tekscie wartosci
+     * (tak samo jak w {@link TiffField#getValueDescription()}).
+     * */
+    private static final int MAX_ITEMS = 50;
+    /**
+     * Rozmiar wartosci w bajtach, powyzej ktorego przechowywany jest
+     * tylko podglad wartosci.
+     * */
+    public static final int LARGE_VALUE_BYTES = 1024;
+    /**
+     * Liczba znakow podgladu dlugich wartosci tekstowych.
+     * */
+    private static final int PREVIEW_CHARS = 256;
+    /**
+     * Rodzaje przechowywanych wartosci.
+     * */
+    private static final byte KIND_TEXT = 0;
+    private static final byte KIND_NUMBERS = 1;
+    private static final byte KIND_RATIONALS = 2;
+
+    /**
+     * Typy katalogow poszczegolnych pol.
+     * */
+    private final int[] directoryTypes;
+    /**
+     * Numery znacznikow.
+     * */
+    private final int[] tags;
+    /**
+     * Nazwy znacznikow (ciagi wspoldzielone przez {@link String#intern()}).
+     * */
+    private final String[] tagNames;
+    /**
+     * Typy pol TIFF.
+     * */
+    private final short[] fieldTypes;
+    /**
+     * Liczniki pol.
+     * */
+    private final long[] counts;
+    /**
+     * Rodzaje wartosci pol.
+     * */
+    private final byte[] kinds;
+    /**
+     * Wartosci pol: tekst lub tablica typu prostego.
+     * */
+    private final Object[] values;
+    /**
+     * Teksty wartosci tworzone przy pierwszym odwolaniu.
+     * */
+    private final String[] texts;
+    /**
+     * Polozenie w pliku wartosci, z ktorych przechowywany jest tylko
+     * podglad, lub -1 dla wartosci przechowywanych w calosci.
+     * */
+    private final long[] valueOffsets;
+    /**
+     * Plik, z ktorego odczytano metadane, lub {@code null} jesli nie jest znany.
+     * */
+    private final Source source;
+
+    /**
+     * Klasa opisujaca plik, z ktorego odczytano metadane. Pozwala na
+     * odczyt pelnych wartosci, o ile plik nie zmienil sie od odczytu.
+     * */
+    static final class Source {
+        final File file;
+        final long size;
+        final long lastModified;
+        final ByteOrder byteOrder;
+        /**
+         * Pozycja w pliku poczatku danych TIFF.
+         * */
+        final long tiffOffset;
+
+        Source(File file, long size, long lastModified, ByteOrder byteOrder, long tiffOffset) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.byteOrder = byteOrder;
+            this.tiffOffset = tiffOffset;
+        }
+    }
+
+    private ExifMetadata(int size, Source source) {
+        this.source = source;
+        valueOffsets = new long[size];
+        directoryTypes = new int[size];
+        tags = new int[size];
+        tagNames = new String[size];
+        fieldTypes = new short[size];
+        counts = new long[size];
+        kinds = new byte[size];
+        values = new Object[size];
+        texts = new String[size];
+    }
+
+    /**
+     * Publiczna i statyczna metoda tworzaca model na podstawie
+     * zdekodowanych metadanych TIFF.
+     *
+     * @param exif Zdekodowane metadane.
+     * @return Zwraca model metadanych.
+     * */
+    public static ExifMetadata of(TiffImageMetadata exif) {
+        return of(exif.contents.directories);
+    }
+
+    /**
+     * Publiczna i statyczna metoda tworzaca model zawierajacy pola
+     * podanych katalogow IFD, w ktorym przechowywane sa pelne wartosci.
+     *
+     * @param directories Katalogi IFD.
+     * @return Zwraca model metadanych.
+     * */
+    public static ExifMetadata of(List<TiffDirectory> directories) {
+        return of(directories, null);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda tworzaca model zawierajacy pola
+     * podanych katalogow IFD. Jesli znany jest plik zrodlowy, z duzych
+     * wartosci przechowywany jest tylko podglad.
+     *
+     * @param directories Katalogi IFD.
+     * @param source Plik, z ktorego odczytano katalogi, lub {@code null}.
+     * @return Zwraca model metadanych.
+     * */
+    static ExifMetadata of(List<TiffDirectory> directories, Source source) {
+        int size = 0;
+        for (TiffDirectory dir : directories) {
+            size += dir.entries.size();
+        }
+        ExifMetadata metadata = new ExifMetadata(size, source);
+        int i = 0;
+        for (TiffDirectory dir : directories) {
+            for (TiffField field : dir.entries) {
+                metadata.set(i++, dir.type, field);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda laczaca modele w jeden, zachowujac
+     * kolejnosc pol.
+     *
+     * @param parts Modele do polaczenia.
+     * @return Zwraca model zawierajacy pola wszystkich modeli.
+     * */
+    static ExifMetadata concat(List<ExifMetadata> parts) {
+        int size = 0;
+        for (ExifMetadata part : parts) {
+            size += part.size();
+        }
+        ExifMetadata metadata = new ExifMetadata(size, parts.isEmpty() ? null : parts.get(0).source);
+        int offset = 0;
+        for (ExifMetadata part : parts) {
+            int n = part.size();
+            System.arraycopy(part.directoryTypes, 0, metadata.directoryTypes, offset, n);
+            System.arraycopy(part.tags, 0, metadata.tags, offset, n);
+            System.arraycopy(part.tagNames, 0, metadata.tagNames, offset, n);
+            System.arraycopy(part.fieldTypes, 0, metadata.fieldTypes, offset, n);
+            System.arraycopy(part.counts, 0, metadata.counts, offset, n);
+            System.arraycopy(part.kinds, 0, metadata.kinds, offset, n);
+            System.arraycopy(part.values, 0, metadata.values, offset, n);
+            System.arraycopy(part.texts, 0, metadata.texts, offset, n);
+            System.arraycopy(part.valueOffsets, 0, metadata.valueOffsets, offset, n);
+            offset += n;
+        }
+        return metadata;
+    }
+
+    private void set(int i, int directoryType, TiffField field) {
+        directoryTypes[i] = directoryType;
+        tags[i] = field.getTag();
+        tagNames[i] = field.getTagName().intern();
+        fieldTypes[i] = (short) field.getFieldType().getType();
+        counts[i] = field.getCount();
+        valueOffsets[i] = -1;
+        Object value = getValue(field);
+        kinds[i] = kindOf(field, value);
+        values[i] = toStored(field, value, kinds[i]);
+        if (source != null && !field.isLocalValue() && field.getBytesLength() > LARGE_VALUE_BYTES
+                && setPreview(i)) {
+            valueOffsets[i] = source.tiffOffset + field.getOffset();
+        }
+    }
+
+    /**
+     * Prywatna metoda zastepujaca duza wartosc jej podgladem: poczatkiem
+     * tekstu lub tyloma elementami tablicy, ile jest wypisywanych
+     * w tekscie wartosci.
+     *
+     * @return Zwraca {@code false} jesli wartosc jest na tyle krotka,
+     * ze przechowywana jest w calosci.
+     * */
+    private boolean setPreview(int i) {
+        if (kinds[i] == KIND_TEXT) {
+            String text = (String) values[i];
+            if (text.length() <= PREVIEW_CHARS) {
+                return false;
+            }
+            values[i] = text.substring(0, PREVIEW_CHARS) + "... (" + counts[i] + ")";
+            return true;
+        }
+        int items = (MAX_ITEMS + 1) * (kinds[i] == KIND_RATIONALS ? 2 : 1);
+        int length = Array.getLength(values[i]);
+        if (length <= items) {
+            return false;
+        }
+        Object preview = Array.newInstance(values[i].getClass().getComponentType(), items);
+        System.arraycopy(values[i], 0, preview, 0, items);
+        values[i] = preview;
+        return true;
+    }
+
+    /**
+     * Prywatna i statyczna metoda odczytujaca wartosc pola tak jak
+     * {@link TiffField#getValue()}, czyli z uwzglednieniem opisu znacznika
+     * ({@link org.apache.commons.imaging.formats.tiff.taginfos.TagInfo}),
+     * np. tekst komentarza uzytkownika.
+     *
+     * @return Zwraca wartosc pola lub {@code null} jesli odczyt sie nie powiodl.
+     * */
+    private static Object getValue(TiffField field) {
+        try {
+            return field.getValue();
+        } catch (ImageReadException e) {
+            return null;
+        }
+    }
+
+    private static byte kindOf(TiffField field, Object value) {
+        if (field.getFieldType().equals(FieldType.ASCII)) {
+            return KIND_TEXT;
+        } else if (value instanceof RationalNumber || value instanceof RationalNumber[]) {
+            return KIND_RATIONALS;
+        } else if (value instanceof Number || value != null && value.getClass().isArray()
+                && value.getClass().getComponentType().isPrimitive()) {
+            return KIND_NUMBERS;
+        }
+        return KIND_TEXT;
+    }
+
+    /**
+     * Prywatna i statyczna metoda zamieniajaca wartosc pola na postac
+     * przechowywana w modelu: tekst, tablice typu prostego lub pary
+     * licznik/mianownik wartosci wymiernych.
+     * */
+    private static Object toStored(TiffField field, Object value, byte kind) {
+        if (kind == KIND_RATIONALS) {
+            RationalNumber[] rationals = value instanceof RationalNumber
+                    ? new RationalNumber[] { (RationalNumber) value } : (RationalNumber[]) value;
+            long[] pairs = new long[rationals.length * 2];
+            for (int j = 0; j < rationals.length; j++) {
+                pairs[2 * j] = rationals[j].numerator;
+                pairs[2 * j + 1] = rationals[j].divisor;
+            }
+            return pairs;
+        } else if (kind == KIND_NUMBERS) {
+            return value instanceof Number ? toArray((Number) value) : value;
+        } else if (field.getFieldType().equals(FieldType.ASCII)) {
+            return String.valueOf(value);
+        }
+        return field.getValueDescription();
+    }
+
+    private static Object toArray(Number number) {
+        if (number instanceof Byte) {
+            return new byte[] { number.byteValue() };
+        } else if (number instanceof Short) {
+            return new short[] { number.shortValue() };
+        } else if (number instanceof Integer) {
+            return new int[] { number.intValue() };
+        } else if (number instanceof Float) {
+            return new float[] { number.floatValue() };
+        } else if (number instanceof Double) {
+            return new double[] { number.doubleValue() };
+        }
+        return new long[] { number.longValue() };
+    }
+
+    /**
+     * @return Zwraca liczbe pol.
+     * */
+    public int size() {
+        return tags.length;
+    }
+
+    /**
+     * @param i Numer pola.
+     * @return Zwraca typ katalogu pola.
+     * */
+    public int getDirectoryType(int i) {
+        return directoryTypes[i];
+    }
+
+    /**
+     * @param i Numer pola.
+     * @return Zwraca nazwe katalogu pola.
+     * */
+    public String getDirectoryName(int i) {
+        return TiffDirectory.description(directoryTypes[i]);
+    }
+
+    /**
+     * @param i Numer pola.
+     * @return Zwraca numer znacznika pola.
+     * */
+    public int getTag(int i) {
+        return tags[i];
+    }
+
+    /**
+     * @param i Numer pola.
+     * @return Zwraca nazwe znacznika pola.
+     * */
+    public String getTagName(int i) {
+        return tagNames[i];
+    }
+
+    /**
+     * @param i Numer pola.
+     * @return Zwraca klucz znacznika pola.
+     * */
+    public TagKey getKey(int i) {
+        return new TagKey(directoryTypes[i], tags[i]);
+    }
+
+    /**
+     * @param i Numer pola.
+     * @return Zwraca typ pola TIFF (np. 2 dla ASCII).
+     * */
+    public int getFieldType(int i) {
+        return fieldTypes[i];
+    }
+
+    /**
+     * @param i Numer pola.
+     * @return Zwraca licznik pola.
+     * */
+    public long getCount(int i) {
+        return counts[i];
+    }
+
+    /**
+     * Publiczna metoda zwracajaca tekst wartosci pola. Tekst jest tworzony
+     * przy pierwszym odwolaniu i zapamietywany. Dla duzych wartosci
+     * zwracany jest podglad (zob. {@link #isPreview(int)}).
+     *
+     * @param i Numer pola.
+     * @return Zwraca tekst wartosci pola.
+     * */
+    public String getValueText(int i) {
+        String text = texts[i];
+        if (text == null) {
+            text = format(kinds[i], values[i], isPreview(i) ? counts[i] : -1, MAX_ITEMS);
+            texts[i] = text;
+        }
+        return text;
+    }
+
+    /**
+     * @param i Numer pola.
+     * @return Zwraca {@code true} jesli przechowywany jest tylko podglad
+     * wartosci pola, a pelna wartosc musi zostac odczytana z pliku.
+     * */
+    public boolean isPreview(int i) {
+        return valueOffsets[i] >= 0;
+    }
+
+    /**
+     * Publiczna metoda zwracajaca pelny tekst wartosci pola, bez skracania
+     * tablic. Jesli przechowywany jest tylko podglad wartosci, wartosc jest
+     * odczytywana z pliku zrodlowego.
+     *
+     * @param i Numer pola.
+     * @return Zwraca pelny tekst wartosci pola.
+     * @throws IOException Jesli odczyt wartosci sie nie powiodl lub plik
+     * zmienil sie od odczytu metadanych.
+     * */
+    public String getFullValueText(int i) throws IOException {
+        return format(kinds[i], isPreview(i) ? readValue(i) : values[i], -1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Pakietowa metoda zwracajaca tekst wartosci pola w postaci zwracanej
+     * przez {@link ExifEditor#readEXIFDataFromFile(java.io.File)}: pelny
+     * tekst i tablice skracane tak jak w {@link TiffField#getValueDescription()}.
+     * Jesli przechowywany jest tylko podglad wartosci, wartosc jest
+     * odczytywana z pliku zrodlowego.
+     *
+     * @param i Numer pola.
+     * @return Zwraca tekst wartosci pola.
+     * @throws IOException Jesli odczyt wartosci sie nie powiodl lub plik
+     * zmienil sie od odczytu metadanych.
+     * */
+    String getRowValueText(int i) throws IOException {
+        return isPreview(i) ? format(kinds[i], readValue(i), -1, MAX_ITEMS) : getValueText(i);
+    }
+
+    /**
+     * Prywatna metoda odczytujaca z pliku zrodlowego pelna wartosc pola,
+     * z ktorego przechowywany jest tylko podglad. Wartosc jest dekodowana
+     * tak samo jak przy odczycie metadanych.
+     *
+     * @return Zwraca wartosc w postaci przechowywanej w modelu.
+     * @throws IOException Jesli odczyt wartosci sie nie powiodl lub plik
+     * zmienil sie od odczytu metadanych.
+     * */
+    private Object readValue(int i) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source.file.toPath(), BasicFileAttributes.class);
+        if (attributes.size() != source.size || attributes.lastModifiedTime().toMillis() != source.lastModified) {
+            throw new IOException("File " + source.file.getName() + " changed since it was read.");
+        }
+        ByteBuffer raw = ByteBuffer.allocate((int) (counts[i] * IfdLayout.typeSize(fieldTypes[i])));
+        try (FileChannel channel = FileChannel.open(source.file.toPath(), StandardOpenOption.READ)) {
+            ExifSegment.readFully(channel, raw, valueOffsets[i]);
+        }
+        FieldType fieldType;
+        try {
+            fieldType = FieldType.getFieldType(fieldTypes[i]);
+        } catch (ImageReadException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        TiffField field = new TiffField(tags[i], directoryTypes[i], fieldType, counts[i],
+                valueOffsets[i] - source.tiffOffset, raw.array(), source.byteOrder, 0);
+        return toStored(field, getValue(field), kinds[i]);
+    }
+
+    /**
+     * Prywatna i statyczna metoda tworzaca tekst wartosci.
+     *
+     * @param kind Rodzaj wartosci.
+     * @param value Wartosc (tekst lub tablica typu prostego).
+     * @param count Liczba wszystkich elementow wartosci lub -1 jesli
+     *              tablica zawiera wszystkie elementy.
+     * @param maxItems Numer ostatniego wypisywanego elementu.
+     * */
+    private static String format(byte kind, Object value, long count, int maxItems) {
+        if (kind == KIND_TEXT) {
+            return (String) value;
+        }
+        int length = kind == KIND_RATIONALS ? Array.getLength(value) / 2 : Array.getLength(value);
+        long total = Math.max(count, length);
+        StringBuilder builder = new StringBuilder();
+        for (int j = 0; j < length; j++) {
+            if (j > maxItems) {
+                break;
+            }
+            if (j > 0) {
+                builder.append(", ");
+            }
+            if (kind == KIND_RATIONALS) {
+                long[] pairs = (long[]) value;
+                builder.append(new RationalNumber((int) pairs[2 * j], (int) pairs[2 * j + 1]));
+            } else {
+                builder.append(Array.get(value, j));
+            }
+        }
+        if (total > (long) maxItems + 1) {
+            builder.append("... (").append(total).append(')');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Publiczna metoda tworzaca wiersze tabeli w postaci zwracanej przez
+     * {@link ExifEditor#readEXIFDataFromFile(java.io.File)}. Wiersze
+     * zawieraja pelne wartosci, a nie ich podglady, wiec moga zostac
+     * przekazane z powrotem do
+     * {@link ExifEditor#writeEXIFDataToFile(java.io.File, java.io.File, Vector)}.
+     *
+     * @return Zwraca nowy wektor wierszy z nazwa katalogu, znacznika i wartoscia.
+     * @throws IOException Jesli odczyt pelnej wartosci z pliku sie nie
+     * powiodl lub plik zmienil sie od odczytu metadanych.
+     * */
+    public Vector<Vector<String>> toRows() throws IOException {
+        Vector<Vector<String>> rows = new Vector<>(size());
+        for (int i = 0; i < size(); i++) {
+            Vector<String> row = new Vector<>(3);
+            row.add(getDirectoryName(i));
+            row.add(getTagName(i));
+            row.add(getRowValueText(i));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Publiczna metoda szacujaca rozmiar modelu w pamieci.
+     *
+     * @return Zwraca szacowany rozmiar w bajtach.
+     * */
+    public long estimateBytes() {
+        long bytes = 16 + (long) size() * (4 + 4 + 8 + 2 + 8 + 1 + 8 + 8 + 8);
+        for (int i = 0; i < size(); i++) {
+            Object value = values[i];
+            if (value instanceof String) {
+                bytes += 40 + ((String) value).length();
+            } else {
+                bytes += 16 + (long) Array.getLength(value) * 8;
+            }
+            if (texts[i] != null && texts[i] != value) {
+                bytes += 40 + texts[i].length();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,319 @@
+package pl.kielce.tu;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Klasa zbierajaca pomiary operacji klasy {@link ExifEditor}: liczbe
+ * odczytanych i zapisanych bajtow, liczbe przetworzonych katalogow IFD
+ * i pol oraz czas poszczegolnych etapow operacji. Pomiary kazdej operacji
+ * sa przekazywane do odbiorcy {@link MetricsSink} (domyslnie do
+ * {@link #getStats()}) oraz zapisywane jako zdarzenia JFR
+ * {@code pl.kielce.tu.ExifOperation} i {@code pl.kielce.tu.ExifPhase},
+ * wiec wolne pliki i najdluzsze etapy mozna wskazac na podstawie nagrania
+ * (np. {@code -XX:StartFlightRecording}) bez uzycia profilera.
+ * Biezaca operacja jest przechowywana dla watku, dzieki czemu metody
+ * pomocnicze moga zglaszac pomiary bez przekazywania jej w parametrach.
+ * */
+public final class ExifMetrics {
+
+    /**
+     * Etapy operacji na pliku.
+     * */
+    public enum Phase {
+        /**
+         * Otwarcie pliku i wyszukanie segmentu EXIF.
+         * */
+        OPEN,
+        /**
+         * Dekodowanie katalogow IFD.
+         * */
+        PARSE,
+        /**
+         * Przygotowanie nowych metadanych do zapisu.
+         * */
+        BUILD,
+        /**
+         * Zapis pliku docelowego.
+         * */
+        REWRITE,
+        /**
+         * Zamkniecie i oproznienie buforow pliku docelowego.
+         * */
+        FLUSH,
+        /**
+         * Sprawdzenie danych obrazu zapisanych w pliku docelowym.
+         * */
+        VERIFY;
+
+        private final String key = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Zdarzenie JFR opisujace cala operacje na pliku.
+     * */
+    @Name("pl.kielce.tu.ExifOperation")
+    @Label("EXIF Operation")
+    @Category("EXIFEditor")
+    @Description("Read, write or removal of EXIF metadata of a single file")
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("File")
+        String path;
+        @Label("Success")
+        boolean success;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+        @Label("Directories")
+        int directories;
+        @Label("Fields")
+        int fields;
+        @Label("Open")
+        @Timespan
+        long open;
+        @Label("Parse")
+        @Timespan
+        long parse;
+        @Label("Build")
+        @Timespan
+        long build;
+        @Label("Rewrite")
+        @Timespan
+        long rewrite;
+        @Label("Flush")
+        @Timespan
+        long flush;
+        @Label("Verify")
+        @Timespan
+        long verify;
+    }
+
+    /**
+     * Zdarzenie JFR opisujace jeden etap operacji na pliku.
+     * */
+    @Name("pl.kielce.tu.ExifPhase")
+    @Label("EXIF Phase")
+    @Category("EXIFEditor")
+    @Description("Single phase of an EXIF metadata operation")
+    static final class PhaseEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("File")
+        String path;
+        @Label("Phase")
+        String phase;
+    }
+
+    /**
+     * Klasa operacji na pliku. Operacja jest konczona metoda {@link #close()},
+     * ktora przekazuje pomiary do odbiorcy i zapisuje zdarzenia JFR.
+     * Operacja rozpoczeta wewnatrz innej operacji tego samego watku jest
+     * pomijana, a jej pomiary trafiaja do operacji zewnetrznej.
+     * */
+    public static final class Operation implements AutoCloseable {
+        private final String name;
+        private final File file;
+        private final OperationEvent event;
+        private final long start;
+        private final long[] phaseNanos = new long[Phase.values().length];
+        private Phase phase;
+        private long phaseStart;
+        private PhaseEvent phaseEvent;
+        private long bytesRead;
+        private long bytesWritten;
+        private int directories;
+        private int fields;
+        private boolean success;
+
+        private Operation(String name, File file) {
+            this.name = name;
+            this.file = file;
+            this.event = name == null ? null : new OperationEvent();
+            this.start = System.nanoTime();
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        private void phase(Phase next) {
+            long now = System.nanoTime();
+            if (phase != null) {
+                phaseNanos[phase.ordinal()] += now - phaseStart;
+                if (phaseEvent.shouldCommit()) {
+                    phaseEvent.operation = name;
+                    phaseEvent.path = file.getPath();
+                    phaseEvent.phase = phase.key;
+                    phaseEvent.commit();
+                }
+            }
+            phase = next;
+            phaseStart = now;
+            if (next != null) {
+                phaseEvent = new PhaseEvent();
+                phaseEvent.begin();
+            }
+        }
+
+        /**
+         * Metoda oznaczajaca operacje jako zakonczona powodzeniem.
+         * Operacja zamknieta bez wywolania tej metody jest liczona jako blad.
+         * */
+        public void succeeded() {
+            success = true;
+        }
+
+        @Override
+        public void close() {
+            if (name == null) {
+                return;
+            }
+            phase(null);
+            CURRENT.remove();
+            long nanos = System.nanoTime() - start;
+            MetricsSink target = sink;
+            target.increment(name + ".count", 1);
+            if (!success) {
+                target.increment(name + ".errors", 1);
+            }
+            target.increment(name + ".bytesRead", bytesRead);
+            target.increment(name + ".bytesWritten", bytesWritten);
+            target.increment(name + ".directories", directories);
+            target.increment(name + ".fields", fields);
+            target.record(name + ".nanos", nanos);
+            for (Phase p : Phase.values()) {
+                if (phaseNanos[p.ordinal()] > 0) {
+                    target.record(name + "." + p.key + ".nanos", phaseNanos[p.ordinal()]);
+                }
+            }
+            target.record(name + ".bytesRead.perFile", bytesRead);
+            if (bytesWritten > 0) {
+                target.record(name + ".bytesWritten.perFile", bytesWritten);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = name;
+                event.path = file.getPath();
+                event.success = success;
+                event.bytesRead = bytesRead;
+                event.bytesWritten = bytesWritten;
+                event.directories = directories;
+                event.fields = fields;
+                event.open = phaseNanos[Phase.OPEN.ordinal()];
+                event.parse = phaseNanos[Phase.PARSE.ordinal()];
+                event.build = phaseNanos[Phase.BUILD.ordinal()];
+                event.rewrite = phaseNanos[Phase.REWRITE.ordinal()];
+                event.flush = phaseNanos[Phase.FLUSH.ordinal()];
+                event.verify = phaseNanos[Phase.VERIFY.ordinal()];
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Operacja zwracana dla operacji zagniezdzonych.
+     * */
+    private static final Operation NESTED = new Operation(null, null);
+    /**
+     * Biezaca operacja watku.
+     * */
+    private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<>();
+    /**
+     * Wbudowany odbiorca przechowujacy pomiary w pamieci procesu.
+     * */
+    private static final StatsSink STATS = new StatsSink();
+    private static volatile MetricsSink sink = STATS;
+
+    private ExifMetrics() {
+    }
+
+    /**
+     * Publiczna i statyczna metoda ustawiajaca odbiorce pomiarow.
+     *
+     * @param metricsSink Nowy odbiorca pomiarow, {@link MetricsSink#NONE}
+     *                    wylacza zbieranie pomiarow (zdarzenia JFR sa
+     *                    zapisywane niezaleznie od odbiorcy).
+     * */
+    public static void setSink(MetricsSink metricsSink) {
+        sink = metricsSink;
+    }
+
+    /**
+     * @return Zwraca aktualnego odbiorce pomiarow.
+     * */
+    public static MetricsSink getSink() {
+        return sink;
+    }
+
+    /**
+     * @return Zwraca wbudowanego odbiorce pomiarow, ktory jest domyslnie
+     * ustawiony i pozwala na wypisanie zestawienia w trybie wsadowym
+     * i w interfejsie graficznym.
+     * */
+    public static StatsSink getStats() {
+        return STATS;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda rozpoczynajaca operacje na pliku
+     * w biezacym watku. Pierwszym etapem operacji jest {@link Phase#OPEN}.
+     *
+     * @param name Nazwa operacji uzywana jako przedrostek nazw miar.
+     * @param file Plik, na ktorym wykonywana jest operacja.
+     * @return Zwraca operacje, ktora nalezy zamknac po jej zakonczeniu.
+     * */
+    static Operation begin(String name, File file) {
+        if (CURRENT.get() != null) {
+            return NESTED;
+        }
+        Operation operation = new Operation(name, file);
+        CURRENT.set(operation);
+        operation.phase(Phase.OPEN);
+        return operation;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda konczaca biezacy etap operacji watku
+     * i rozpoczynajaca kolejny.
+     * */
+    static void phase(Phase phase) {
+        Operation operation = CURRENT.get();
+        if (operation != null && operation.phase != phase) {
+            operation.phase(phase);
+        }
+    }
+
+    static void bytesRead(long count) {
+        Operation operation = CURRENT.get();
+        if (operation != null) {
+            operation.bytesRead += count;
+        }
+    }
+
+    static void bytesWritten(long count) {
+        Operation operation = CURRENT.get();
+        if (operation != null) {
+            operation.bytesWritten += count;
+        }
+    }
+
+    static void parsed(int directories, int fields) {
+        Operation operation = CURRENT.get();
+        if (operation != null) {
+            operation.directories += directories;
+            operation.fields += fields;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.tiff.TiffDirectory;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.fieldtypes.FieldType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Klasa pozwalajaca na modyfikacje wartosci znacznikow przez
+ * nadpisanie pojedynczych bajtow danych TIFF, bez przebudowy calego
+ * zbioru metadanych. Jesli nowa wartosc miesci sie w miejscu
+ * dotychczasowej, jest w nim zapisywana, a pozostale bajty sa
+ * wypelniane zerami. Licznik pola jest aktualizowany, aby czytniki
+ * widzialy tylko nowa wartosc. Wartosci dluzsze od dotychczasowych
+ * moga zostac dopisane na koncu danych TIFF. Zapisy planu sa
+ * uporzadkowane tak, ze bajty wartosci poprzedzaja licznik pola,
+ * a stara wartosc jest zerowana dopiero po zmianie wpisu.
+ * */
+final class ExifPatcher {
+    /**
+     * Rozmiar pola wartosci we wpisie katalogu IFD.
+     * */
+    private static final int ENTRY_VALUE_SIZE = 4;
+    /**
+     * Rozmiar wpisu katalogu IFD.
+     * */
+    private static final int ENTRY_SIZE = 12;
+
+    /**
+     * Klasa opisujaca pojedynczy zapis bajtow pod wskazana pozycja
+     * liczona od poczatku danych TIFF.
+     * */
+    static final class Write {
+        /**
+         * Pozycja zapisu wzgledem poczatku danych TIFF.
+         * */
+        final long position;
+        /**
+         * Zapisywane bajty.
+         * */
+        final byte[] bytes;
+
+        Write(long position, byte[] bytes) {
+            this.position = position;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Klasa opisujaca zestaw zapisow realizujacych modyfikacje oraz
+     * bajty dopisywane na koncu danych TIFF.
+     * */
+    static final class Plan {
+        /**
+         * Zapisy nadpisujace istniejace bajty danych TIFF.
+         * */
+        final List<Write> writes;
+        /**
+         * Bajty dopisywane na koncu danych TIFF (moze byc pusta tablica).
+         * */
+        final byte[] appended;
+
+        Plan(List<Write> writes, byte[] appended) {
+            this.writes = writes;
+            this.appended = appended;
+        }
+
+        /**
+         * @return Zwraca {@code true} jesli plan nie wymaga powiekszenia danych TIFF.
+         * */
+        boolean isInPlace() {
+            return appended.length == 0;
+        }
+    }
+
+    private ExifPatcher() {
+    }
+
+    /**
+     * Pakietowa i statyczna metoda przygotowujaca zapisy dla podanych
+     * nowych wartosci pol. Pola musza pochodzic z metadanych odczytanych
+     * z danych TIFF o podanej dlugosci. Typ kazdego pola pozostaje bez
+     * zmian, a wartosci sa kodowane metoda {@link #encode}.
+     *
+     * @param exif Metadane odczytane z danych TIFF.
+     * @param tiffLength Dlugosc danych TIFF.
+     * @param values Nowe wartosci pol.
+     * @param allowGrowth Czy wartosci dluzsze od dotychczasowych moga
+     *                    zostac dopisane na koncu danych TIFF.
+     * @return Zwraca plan zapisow lub {@code null} jesli typ ktoregos
+     * z pol nie jest obslugiwany albo (gdy {@code allowGrowth} jest
+     * falszywe) wartosc nie miesci sie w dotychczasowym miejscu.
+     * @throws ImageWriteException Jesli wartosci nie da sie zakodowac.
+     * */
+    static Plan plan(TiffImageMetadata exif, int tiffLength, Map<TiffField, String> values, boolean allowGrowth)
+            throws ImageWriteException {
+        ByteOrder byteOrder = exif.contents.header.byteOrder;
+        List<Write> writes = new ArrayList<>(values.size() * 2);
+        ByteArrayOutputStream appended = new ByteArrayOutputStream();
+        int planned = 0;
+        for (TiffDirectory dir : exif.contents.directories) {
+            for (TiffField field : dir.entries) {
+                String value = values.get(field);
+                if (value == null) {
+                    continue;
+                }
+                FieldType fieldType = field.getFieldType();
+                byte[] data = encode(fieldType, value, byteOrder);
+                if (data == null) {
+                    return null;
+                }
+                long oldLength = field.getCount() * fieldType.getSize();
+                long entryPosition = dir.offset + 2 + (long) ENTRY_SIZE * field.getSortHint();
+                int count = data.length / fieldType.getSize();
+                // licznik jest zapisywany po bajtach, ktore opisuje, a razem z nim
+                // (jednym zapisem) wartosc lub polozenie wartosci we wpisie
+                if (data.length <= ENTRY_VALUE_SIZE) {
+                    writes.add(new Write(entryPosition + 4,
+                            toEntry(count, Arrays.copyOf(data, ENTRY_VALUE_SIZE), byteOrder)));
+                    clearOldValue(field, writes);
+                } else if (data.length <= oldLength) {
+                    writes.add(new Write(field.getOffset(), Arrays.copyOf(data, (int) oldLength)));
+                    writes.add(new Write(entryPosition + 4, toBytes(count, byteOrder)));
+                } else if (allowGrowth) {
+                    if (((tiffLength + appended.size()) & 1) != 0) {
+                        appended.write(0);
+                    }
+                    int offset = tiffLength + appended.size();
+                    appended.writeBytes(data);
+                    writes.add(new Write(entryPosition + 4, toEntry(count, toBytes(offset, byteOrder), byteOrder)));
+                    clearOldValue(field, writes);
+                } else {
+                    return null;
+                }
+                planned++;
+            }
+        }
+        return planned == values.size() ? new Plan(writes, appended.toByteArray()) : null;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda kodujaca wartosc podana jako tekst
+     * do postaci bajtow pola TIFF o podanym typie. Wartosci liczbowe
+     * tablic sa oddzielone przecinkami, a wartosci wymierne moga byc
+     * podane w postaci "licznik/mianownik" (tak jak w opisie wartosci
+     * zwracanym przez {@link TiffField#getValueDescription()}).
+     *
+     * @param fieldType Typ pola.
+     * @param value Nowa wartosc pola.
+     * @param byteOrder Kolejnosc bajtow danych TIFF.
+     * @return Zwraca zakodowana wartosc lub {@code null} jesli typ pola
+     * nie jest obslugiwany.
+     * @throws ImageWriteException Jesli tekst nie jest poprawna wartoscia pola.
+     * */
+    static byte[] encode(FieldType fieldType, String value, ByteOrder byteOrder) throws ImageWriteException {
+        if (fieldType.equals(FieldType.ASCII)) {
+            return FieldType.ASCII.writeData(value, byteOrder);
+        }
+        if (!isNumeric(fieldType)) {
+            return null;
+        }
+        String[] items = value.split(",");
+        ByteBuffer buffer = ByteBuffer.allocate(items.length * fieldType.getSize()).order(byteOrder);
+        try {
+            for (String item : items) {
+                putNumber(buffer, fieldType, item.trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new ImageWriteException("Invalid " + fieldType.getName() + " value: " + value);
+        }
+        return buffer.array();
+    }
+
+    private static boolean isNumeric(FieldType fieldType) {
+        switch (fieldType.getType()) {
+            case 1: case 3: case 4: case 5: case 6: case 8: case 9: case 10: case 11: case 12:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void putNumber(ByteBuffer buffer, FieldType fieldType, String item) {
+        switch (fieldType.getType()) {
+            case 1: // BYTE
+            case 6: // SBYTE
+                buffer.put((byte) Integer.parseInt(item));
+                break;
+            case 3: // SHORT
+            case 8: // SSHORT
+                buffer.putShort((short) Integer.parseInt(item));
+                break;
+            case 4: // LONG
+            case 9: // SLONG
+                buffer.putInt((int) Long.parseLong(item));
+                break;
+            case 5: // RATIONAL
+            case 10: // SRATIONAL
+                int description = item.indexOf('(');
+                String rational = description < 0 ? item : item.substring(0, description).trim();
+                int separator = rational.indexOf('/');
+                if (separator < 0) {
+                    buffer.putInt((int) Long.parseLong(rational)).putInt(1);
+                } else {
+                    buffer.putInt((int) Long.parseLong(rational.substring(0, separator).trim()))
+                            .putInt((int) Long.parseLong(rational.substring(separator + 1).trim()));
+                }
+                break;
+            case 11: // FLOAT
+                buffer.putFloat(Float.parseFloat(item));
+                break;
+            default: // DOUBLE
+                buffer.putDouble(Double.parseDouble(item));
+        }
+    }
+
+    private static void clearOldValue(TiffField field, List<Write> writes) {
+        if (!field.isLocalValue()) {
+            writes.add(new Write(field.getOffset(), new byte[(int) field.getCount() * field.getFieldType().getSize()]));
+        }
+    }
+
+    private static byte[] toEntry(int count, byte[] value, ByteOrder byteOrder) {
+        return ByteBuffer.allocate(8).order(byteOrder).putInt(count).put(value).array();
+    }
+
+    private static byte[] toBytes(int value, ByteOrder byteOrder) {
+        return ByteBuffer.allocate(4).order(byteOrder).putInt(value).array();
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plan nie wymagajacy
+     * powiekszenia danych bezposrednio w pliku, przy uzyciu zapisow
+     * pozycyjnych.
+     *
+     * @param channel Kanal pliku otwarty do zapisu.
+     * @param tiffOffset Pozycja w pliku poczatku danych TIFF.
+     * @param plan Plan zapisow.
+     * @throws IOException W przypadku wystapienia bledu z zapisem pliku.
+     * */
+    static void apply(FileChannel channel, long tiffOffset, Plan plan) throws IOException {
+        if (!plan.isInPlace()) {
+            throw new IllegalArgumentException("Plan requires appending data.");
+        }
+        for (Write write : plan.writes) {
+            ByteBuffer buffer = ByteBuffer.wrap(write.bytes);
+            long position = tiffOffset + write.position;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            ExifMetrics.bytesWritten(write.bytes.length);
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plan bezposrednio w pliku,
+     * w ktorym dane TIFF koncza sie na koncu pliku (plik TIFF). Bajty
+     * dopisywane przez plan sa zapisywane na koncu pliku.
+     *
+     * @param channel Kanal pliku otwarty do zapisu.
+     * @param tiffOffset Pozycja w pliku poczatku danych TIFF.
+     * @param tiffLength Dlugosc danych TIFF.
+     * @param plan Plan zapisow.
+     * @throws IOException W przypadku wystapienia bledu z zapisem pliku.
+     * */
+    static void apply(FileChannel channel, long tiffOffset, long tiffLength, Plan plan) throws IOException {
+        ByteBuffer appended = ByteBuffer.wrap(plan.appended);
+        long position = tiffOffset + tiffLength;
+        while (appended.hasRemaining()) {
+            position += channel.write(appended, position);
+        }
+        ExifMetrics.bytesWritten(plan.appended.length);
+        apply(channel, tiffOffset, new Plan(plan.writes, new byte[0]));
+    }
+
+    /**
+     * Pakietowa i statyczna metoda tworzaca nowe dane TIFF przez
+     * zastosowanie planu do kopii danych oryginalnych.
+     *
+     * @param tiffData Oryginalne dane TIFF.
+     * @param plan Plan zapisow.
+     * @return Zwraca zmodyfikowane dane TIFF.
+     * */
+    static byte[] apply(byte[] tiffData, Plan plan) {
+        byte[] result = Arrays.copyOf(tiffData, tiffData.length + plan.appended.length);
+        System.arraycopy(plan.appended, 0, result, tiffData.length, plan.appended.length);
+        for (Write write : plan.writes) {
+            System.arraycopy(write.bytes, 0, result, (int) write.position, write.bytes.length);
+        }
+        return result;
+    }
+}
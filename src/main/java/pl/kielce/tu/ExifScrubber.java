@@ -0,0 +1,185 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Klasa przygotowujaca plan usuniecia wybranych znacznikow bezposrednio
+ * w danych TIFF (zob. {@link ScrubPolicy}). Katalogi sa odczytywane
+ * z surowych danych, bez dekodowania wartosci. Usuwane wpisy sa
+ * wycinane z katalogu: pozostale wpisy i wskazanie nastepnego katalogu
+ * sa przesuwane w miejsce usunietych, licznik wpisow jest zmniejszany,
+ * a zwolnione bajty na koncu katalogu sa zerowane. Wartosci usunietych
+ * wpisow zapisane poza katalogiem sa zerowane, a katalogi odlaczone od
+ * katalogu nadrzednego (np. GPS) sa zerowane w calosci razem ze swoimi
+ * wartosciami. Plan nie zmienia dlugosci danych, wiec moze zostac
+ * zapisany w pliku metoda {@link ExifPatcher#apply(java.nio.channels.FileChannel, long, ExifPatcher.Plan)}.
+ * */
+final class ExifScrubber {
+    /**
+     * Klasa opisujaca katalog oczekujacy na przetworzenie.
+     * */
+    private static final class Directory {
+        final long offset;
+        final int type;
+
+        Directory(long offset, int type) {
+            this.offset = offset;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Dane TIFF w kolejnosci bajtow pliku.
+     * */
+    private final ByteBuffer tiff;
+    private final ScrubPolicy policy;
+    private final List<ExifPatcher.Write> writes = new ArrayList<>();
+    private final Deque<Directory> pending = new ArrayDeque<>();
+    /**
+     * Polozenia napotkanych katalogow, do wykrywania petli.
+     * */
+    private final Set<Long> visited = new HashSet<>();
+
+    private ExifScrubber(ByteBuffer tiff, ScrubPolicy policy) {
+        this.tiff = tiff;
+        this.policy = policy;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda przygotowujaca plan usuniecia
+     * znacznikow wskazanych przez polityke.
+     *
+     * @param tiff Dane TIFF (od pozycji zero do limitu).
+     * @param policy Polityka usuwania znacznikow.
+     * @return Zwraca plan zapisow; plan nie dopisuje danych i jest pusty,
+     * jesli dane nie zawieraja usuwanych znacznikow.
+     * @throws ImageReadException Jesli naglowek TIFF lub katalog jest
+     * niepoprawny albo katalogi tworza petle.
+     * */
+    static ExifPatcher.Plan plan(ByteBuffer tiff, ScrubPolicy policy) throws ImageReadException {
+        ExifScrubber scrubber = new ExifScrubber(tiff, policy);
+        scrubber.scan();
+        return new ExifPatcher.Plan(scrubber.writes, new byte[0]);
+    }
+
+    private void scan() throws ImageReadException {
+        IfdLayout.readHeader(tiff);
+        enqueue(unsignedInt(4), TiffDirectoryConstants.DIRECTORY_TYPE_ROOT);
+        while (!pending.isEmpty()) {
+            scrubDirectory(pending.poll());
+        }
+    }
+
+    /**
+     * Prywatna metoda wycinajaca z katalogu usuwane wpisy i dodajaca do
+     * kolejki katalogi wskazywane przez pozostale wpisy. Zmiana katalogu
+     * w miejscu nie jest atomowa: system moze utrwalic zapisane bajty
+     * w dowolnej kolejnosci, wiec awaria podczas zapisu moze pozostawic
+     * niespojny katalog. Bezpieczna zmiane zapewnia zapis oczyszczonej
+     * kopii pliku (zob. {@link ExifEngine#scrub(java.io.File, java.io.File, ScrubPolicy)}).
+     * */
+    private void scrubDirectory(Directory directory) throws ImageReadException {
+        int entries = countEntries(directory.offset);
+        if (entries < 0) {
+            throw new ImageReadException("Invalid IFD at offset " + directory.offset + ".");
+        }
+        int start = (int) directory.offset + 2;
+        ByteBuffer kept = ByteBuffer.allocate(IfdLayout.ENTRY_LENGTH * entries + 4).order(tiff.order());
+        int keptEntries = 0;
+        for (int i = 0; i < entries; i++) {
+            int entry = start + IfdLayout.ENTRY_LENGTH * i;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int pointed = IfdLayout.pointedDirectory(tag);
+            if (pointed != 0 && policy.removesDirectory(pointed)) {
+                zeroDirectory(unsignedInt(entry + 8));
+            } else if (policy.removesTag(new TagKey(directory.type, tag))) {
+                zeroValue(entry);
+            } else {
+                if (pointed != 0) {
+                    enqueue(unsignedInt(entry + 8), pointed);
+                }
+                kept.put(tiff.duplicate().position(entry).limit(entry + IfdLayout.ENTRY_LENGTH));
+                keptEntries++;
+            }
+        }
+        long next = unsignedInt(start + IfdLayout.ENTRY_LENGTH * entries);
+        if (directory.type >= 0) {
+            enqueue(next, directory.type + 1);
+        }
+        if (keptEntries < entries) {
+            kept.putInt((int) next);
+            writes.add(new ExifPatcher.Write(start, kept.array()));
+            writes.add(new ExifPatcher.Write(directory.offset,
+                    ByteBuffer.allocate(2).order(tiff.order()).putShort((short) keptEntries).array()));
+        }
+    }
+
+    /**
+     * Prywatna metoda zerujaca odlaczony katalog, wartosci jego wpisow
+     * oraz katalogi przez niego wskazywane. Katalog wykraczajacy poza
+     * dane TIFF jest tylko odlaczany.
+     * */
+    private void zeroDirectory(long offset) {
+        int entries = countEntries(offset);
+        if (entries < 0 || !visited.add(offset)) {
+            return;
+        }
+        int start = (int) offset + 2;
+        for (int i = 0; i < entries; i++) {
+            int entry = start + IfdLayout.ENTRY_LENGTH * i;
+            if (IfdLayout.pointedDirectory(tiff.getShort(entry) & 0xFFFF) != 0) {
+                zeroDirectory(unsignedInt(entry + 8));
+            } else {
+                zeroValue(entry);
+            }
+        }
+        writes.add(new ExifPatcher.Write(offset, new byte[2 + IfdLayout.ENTRY_LENGTH * entries + 4]));
+    }
+
+    /**
+     * Prywatna metoda zerujaca wartosc wpisu zapisana poza katalogiem.
+     * Wartosci wskazujace poza dane TIFF sa pomijane.
+     * */
+    private void zeroValue(int entry) {
+        long length = (tiff.getInt(entry + 4) & 0xFFFFFFFFL) * IfdLayout.typeSize(tiff.getShort(entry + 2) & 0xFFFF);
+        if (length <= 4) {
+            return;
+        }
+        long offset = unsignedInt(entry + 8);
+        if (offset + length <= tiff.limit()) {
+            writes.add(new ExifPatcher.Write(offset, new byte[(int) length]));
+        }
+    }
+
+    /**
+     * Prywatna metoda sprawdzajaca, czy katalog miesci sie w danych TIFF.
+     *
+     * @return Zwraca liczbe wpisow katalogu lub -1, jesli katalog
+     * wykracza poza dane TIFF.
+     * */
+    private int countEntries(long offset) {
+        int entries = IfdLayout.entryCount(tiff, offset);
+        return entries < 0 || offset + 2 + (long) IfdLayout.ENTRY_LENGTH * entries + 4 > tiff.limit() ? -1 : entries;
+    }
+
+    private void enqueue(long offset, int type) throws ImageReadException {
+        if (offset == 0) {
+            return;
+        }
+        IfdLayout.visit(visited, offset);
+        pending.add(new Directory(offset, type));
+    }
+
+    private long unsignedInt(int position) {
+        return tiff.getInt(position) & 0xFFFFFFFFL;
+    }
+}
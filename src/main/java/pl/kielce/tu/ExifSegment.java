@@ -0,0 +1,493 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.common.bytesource.ByteSource;
+import org.apache.commons.imaging.common.bytesource.ByteSourceArray;
+import org.apache.commons.imaging.formats.tiff.TiffDirectory;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.TiffImageParser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Klasa reprezentujaca segment APP1 z metadanymi EXIF odnaleziony
+ * w pliku JPEG. Wyszukiwanie segmentu odbywa sie przez odczyty
+ * pozycyjne z kanalu pliku: czytane sa tylko naglowki kolejnych
+ * segmentow, a skanowanie konczy sie najpozniej na znaczniku SOS,
+ * wiec dane obrazu nigdy nie sa odczytywane. Segmentem jest rowniez
+ * fragment EXIF innych kontenerow (zob. {@link ImageFormat}), np. blok
+ * eXIf pliku PNG lub blok EXIF pliku WebP.
+ * */
+public final class ExifSegment {
+    /**
+     * Znacznik poczatku obrazu (SOI).
+     * */
+    static final int SOI = 0xD8;
+    /**
+     * Znacznik konca obrazu (EOI).
+     * */
+    static final int EOI = 0xD9;
+    /**
+     * Znacznik poczatku danych skanu (SOS).
+     * */
+    static final int SOS = 0xDA;
+    /**
+     * Znacznik segmentu APP0.
+     * */
+    static final int APP0 = 0xE0;
+    /**
+     * Znacznik segmentu APP1.
+     * */
+    static final int APP1 = 0xE1;
+    /**
+     * Naglowek identyfikujacy segment APP1 z danymi EXIF.
+     * */
+    static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+    /**
+     * Liczba bajtow od poczatku segmentu do poczatku danych TIFF
+     * (znacznik, dlugosc i naglowek EXIF).
+     * */
+    static final int TIFF_DATA_OFFSET = 4 + EXIF_HEADER.length;
+    /**
+     * Maksymalna dlugosc danych TIFF, ktore mieszcza sie w jednym segmencie.
+     * */
+    static final int MAX_TIFF_DATA_LENGTH = 0xFFFF - 2 - EXIF_HEADER.length;
+    /**
+     * Liczba bajtow, o ktora zwiekszany jest poczatek pliku wczytany do
+     * bufora. Naglowki segmentow zwykle mieszcza sie w pierwszej porcji,
+     * wiec dane skanu nie sa odczytywane.
+     * */
+    static final int PREFIX_STEP = 4096;
+
+    /**
+     * Pozycja w pliku bajtu 0xFF rozpoczynajacego segment.
+     * */
+    private final long offset;
+    /**
+     * Calkowita dlugosc segmentu razem ze znacznikiem.
+     * */
+    private final int length;
+    /**
+     * Liczba bajtow od poczatku segmentu do poczatku danych TIFF.
+     * */
+    private final int headerLength;
+    /**
+     * Dane TIFF zawarte w segmencie (bez naglowka EXIF).
+     * */
+    private final byte[] tiffData;
+
+    private ExifSegment(long offset, int length, byte[] tiffData) {
+        this(offset, length, TIFF_DATA_OFFSET, tiffData);
+    }
+
+    /**
+     * Pakietowy konstruktor segmentu dowolnego kontenera.
+     *
+     * @param offset Pozycja poczatku segmentu w pliku.
+     * @param length Calkowita dlugosc segmentu.
+     * @param headerLength Liczba bajtow od poczatku segmentu do danych TIFF.
+     * @param tiffData Dane TIFF segmentu.
+     * */
+    ExifSegment(long offset, int length, int headerLength, byte[] tiffData) {
+        this.offset = offset;
+        this.length = length;
+        this.headerLength = headerLength;
+        this.tiffData = tiffData;
+    }
+
+    /**
+     * Publiczna i statyczna metoda sprawdzajaca, czy kanal zawiera
+     * plik JPEG (znacznik SOI na poczatku pliku).
+     *
+     * @param channel Kanal pliku do sprawdzenia.
+     * @return Zwraca {@code true} jesli plik rozpoczyna sie znacznikiem SOI.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * */
+    public static boolean isJpeg(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return (buffer.get(0) & 0xFF) == 0xFF && (buffer.get(1) & 0xFF) == SOI;
+    }
+
+    /**
+     * Publiczna i statyczna metoda wyszukujaca pierwszy segment APP1
+     * z danymi EXIF. Odczytywane sa wylacznie naglowki segmentow
+     * poprzedzajacych znacznik SOS oraz zawartosc samego segmentu EXIF.
+     *
+     * @param channel Kanal pliku JPEG.
+     * @return Zwraca odnaleziony segment lub {@code null} jesli plik
+     * nie zawiera metadanych EXIF.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem JPEG.
+     * */
+    public static ExifSegment find(FileChannel channel) throws IOException, ImageReadException {
+        return find(channel, null);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wyszukujaca pierwszy segment APP1
+     * z danymi EXIF. Jesli podano bufor, poczatek pliku jest wczytywany
+     * do niego porcjami po {@link #PREFIX_STEP} bajtow, tylko do konca
+     * ostatniego potrzebnego naglowka lub segmentu EXIF, a naglowki
+     * i segment mieszczace sie w buforze sa odczytywane z pamieci.
+     *
+     * @param channel Kanal pliku JPEG.
+     * @param prefix Bufor na poczatek pliku lub {@code null}.
+     * @return Zwraca odnaleziony segment lub {@code null} jesli plik
+     * nie zawiera metadanych EXIF.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem JPEG.
+     * */
+    static ExifSegment find(FileChannel channel, ByteBuffer prefix) throws IOException, ImageReadException {
+        List<ExifSegment> segments = scan(channel, false, prefix);
+        return segments.isEmpty() ? null : segments.get(0);
+    }
+
+    /**
+     * Publiczna i statyczna metoda wyszukujaca wszystkie segmenty APP1
+     * z danymi EXIF znajdujace sie przed znacznikiem SOS.
+     *
+     * @param channel Kanal pliku JPEG.
+     * @return Zwraca liste segmentow w kolejnosci wystepowania w pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem JPEG.
+     * */
+    public static List<ExifSegment> findAll(FileChannel channel) throws IOException, ImageReadException {
+        return scan(channel, true, null);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wyszukujaca wszystkie segmenty APP1
+     * z danymi EXIF przy uzyciu bufora na poczatek pliku
+     * (zob. {@link #find(FileChannel, ByteBuffer)}).
+     *
+     * @param channel Kanal pliku JPEG.
+     * @param prefix Bufor na poczatek pliku lub {@code null}.
+     * @return Zwraca liste segmentow w kolejnosci wystepowania w pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem JPEG.
+     * */
+    static List<ExifSegment> findAll(FileChannel channel, ByteBuffer prefix) throws IOException, ImageReadException {
+        return scan(channel, true, prefix);
+    }
+
+    /**
+     * Publiczna i statyczna metoda wyznaczajaca miejsce, w ktorym nalezy
+     * wstawic nowy segment EXIF do pliku, ktory go nie zawiera: za
+     * segmentem APP0 (JFIF) jesli wystepuje on bezposrednio po SOI,
+     * w przeciwnym przypadku bezposrednio za znacznikiem SOI.
+     *
+     * @param channel Kanal pliku JPEG.
+     * @return Zwraca pozycje w pliku dla nowego segmentu.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * */
+    public static long findInsertPosition(FileChannel channel) throws IOException {
+        if (channel.size() < 6) {
+            return 2;
+        }
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(channel, header, 2);
+        if ((header.get(0) & 0xFF) == 0xFF && (header.get(1) & 0xFF) == APP0) {
+            return 4 + (header.getShort(2) & 0xFFFF);
+        }
+        return 2;
+    }
+
+    /**
+     * Publiczna i statyczna metoda wyszukujaca poczatek danych obrazu,
+     * czyli pozycje znacznika SOS, za ktorym znajduja sie dane skanu
+     * zakonczone znacznikiem EOI. Odczytywane sa tylko naglowki segmentow.
+     *
+     * @param channel Kanal pliku JPEG.
+     * @return Zwraca pozycje znacznika SOS w pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem JPEG
+     * lub nie zawiera danych obrazu.
+     * */
+    public static long findScanStart(FileChannel channel) throws IOException, ImageReadException {
+        if (!isJpeg(channel)) {
+            throw new ImageReadException("Not a JPEG file.");
+        }
+        ByteBuffer header = ByteBuffer.allocate(4);
+        long position = 2;
+        long size = channel.size();
+        while (position + 4 <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            if ((header.get(0) & 0xFF) != 0xFF) {
+                throw new ImageReadException("Invalid JPEG marker at offset " + position + ".");
+            }
+            int marker = header.get(1) & 0xFF;
+            if (marker == 0xFF) {
+                position++;
+            } else if (marker == SOS) {
+                return position;
+            } else if (marker == EOI) {
+                break;
+            } else if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                position += 2;
+            } else {
+                int segmentLength = header.getShort(2) & 0xFFFF;
+                if (segmentLength < 2) {
+                    throw new ImageReadException("Invalid JPEG segment length at offset " + position + ".");
+                }
+                position += 2 + segmentLength;
+            }
+        }
+        throw new ImageReadException("No image data found.");
+    }
+
+    private static List<ExifSegment> scan(FileChannel channel, boolean all, ByteBuffer prefix) throws IOException, ImageReadException {
+        if (prefix != null) {
+            prefix.clear().limit(0);
+            fill(channel, prefix, 2);
+        }
+        boolean jpeg = prefix == null ? isJpeg(channel)
+                : prefix.limit() >= 2 && (prefix.get(0) & 0xFF) == 0xFF && (prefix.get(1) & 0xFF) == SOI;
+        if (!jpeg) {
+            throw new ImageReadException("Not a JPEG file.");
+        }
+        List<ExifSegment> segments = new ArrayList<>(1);
+        ByteBuffer header = ByteBuffer.allocate(4 + EXIF_HEADER.length);
+        long position = 2;
+        long size = channel.size();
+        while (position + 4 <= size) {
+            header.clear().limit(2);
+            read(channel, prefix, header, position);
+            if ((header.get(0) & 0xFF) != 0xFF) {
+                throw new ImageReadException("Invalid JPEG marker at offset " + position + ".");
+            }
+            int marker = header.get(1) & 0xFF;
+            if (marker == 0xFF) {
+                position++;
+                continue;
+            }
+            if (marker == SOS || marker == EOI) {
+                break;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                position += 2;
+                continue;
+            }
+            header.clear().limit(4);
+            read(channel, prefix, header, position);
+            int segmentLength = header.getShort(2) & 0xFFFF;
+            if (segmentLength < 2) {
+                throw new ImageReadException("Invalid JPEG segment length at offset " + position + ".");
+            }
+            if (marker == APP1 && segmentLength >= 2 + EXIF_HEADER.length) {
+                header.clear();
+                read(channel, prefix, header, position);
+                byte[] id = Arrays.copyOfRange(header.array(), 4, 4 + EXIF_HEADER.length);
+                if (Arrays.equals(id, EXIF_HEADER)) {
+                    ByteBuffer tiff = ByteBuffer.allocate(segmentLength - 2 - EXIF_HEADER.length);
+                    read(channel, prefix, tiff, position + TIFF_DATA_OFFSET);
+                    segments.add(new ExifSegment(position, segmentLength + 2, tiff.array()));
+                    if (!all) {
+                        break;
+                    }
+                }
+            }
+            position += 2 + segmentLength;
+        }
+        return segments;
+    }
+
+    /**
+     * Prywatna i statyczna metoda wypelniajaca bufor danymi z poczatku
+     * pliku wczytanego do bufora {@code prefix}, a jesli dane wykraczaja
+     * poza niego, danymi odczytanymi z kanalu.
+     * */
+    private static void read(FileChannel channel, ByteBuffer prefix, ByteBuffer buffer, long position) throws IOException {
+        long end = position + buffer.remaining();
+        if (prefix != null && end <= prefix.capacity()) {
+            fill(channel, prefix, (int) end);
+        }
+        if (prefix != null && end <= prefix.limit()) {
+            ByteBuffer slice = prefix.duplicate();
+            slice.limit((int) end).position((int) position);
+            buffer.put(slice).flip();
+            return;
+        }
+        readFully(channel, buffer, position);
+    }
+
+    /**
+     * Prywatna i statyczna metoda dopisujaca do bufora {@code prefix}
+     * kolejne porcje pliku, az bufor obejmie podana pozycje, zapelni sie
+     * lub skonczy sie plik.
+     * */
+    private static void fill(FileChannel channel, ByteBuffer prefix, int end) throws IOException {
+        if (end <= prefix.limit()) {
+            return;
+        }
+        int start = prefix.limit();
+        int target = Math.min(prefix.capacity(), (end + PREFIX_STEP - 1) / PREFIX_STEP * PREFIX_STEP);
+        ByteBuffer chunk = prefix.duplicate().limit(target).position(start);
+        while (chunk.hasRemaining() && channel.read(chunk, chunk.position()) >= 0) {
+            // odczyt do zapelnienia porcji lub konca pliku
+        }
+        ExifMetrics.bytesRead(chunk.position() - start);
+        prefix.limit(chunk.position());
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wypelniajaca bufor danymi z kanalu
+     * rozpoczynajac od podanej pozycji w pliku.
+     *
+     * @param channel Kanal pliku.
+     * @param buffer Bufor do wypelnienia.
+     * @param position Pozycja w pliku od ktorej rozpoczyna sie odczyt.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku
+     * lub gdy plik konczy sie przed wypelnieniem bufora.
+     * */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at offset " + current + ".");
+            }
+            current += read;
+        }
+        ExifMetrics.bytesRead(current - position);
+        buffer.flip();
+    }
+
+    /**
+     * Publiczna metoda dekodujaca katalogi IFD zawarte w segmencie.
+     * Parsowane sa tylko dane TIFF segmentu, bez odwolan do pliku.
+     *
+     * @return Zwraca zdekodowane metadane TIFF.
+     * @throws IOException W przypadku wystapienia bledu z odczytem danych.
+     * @throws ImageReadException Jesli dane TIFF sa niepoprawne.
+     * */
+    public TiffImageMetadata parse() throws IOException, ImageReadException {
+        return parse(new ByteSourceArray(tiffData));
+    }
+
+    /**
+     * Pakietowa i statyczna metoda dekodujaca katalogi IFD danych TIFF
+     * bez odczytu danych obrazu.
+     *
+     * @param source Zrodlo danych TIFF.
+     * @return Zwraca zdekodowane metadane TIFF.
+     * @throws IOException W przypadku wystapienia bledu z odczytem danych.
+     * @throws ImageReadException Jesli dane TIFF sa niepoprawne.
+     * */
+    static TiffImageMetadata parse(ByteSource source) throws IOException, ImageReadException {
+        TiffImageMetadata exif = (TiffImageMetadata) new TiffImageParser().getMetadata(source, null);
+        int fields = 0;
+        for (TiffDirectory dir : exif.contents.directories) {
+            fields += dir.entries.size();
+        }
+        ExifMetrics.parsed(exif.contents.directories.size(), fields);
+        return exif;
+    }
+
+    /**
+     * @return Zwraca pozycje w pliku bajtu rozpoczynajacego segment.
+     * */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Zwraca calkowita dlugosc segmentu razem ze znacznikiem.
+     * */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Zwraca pozycje w pliku pierwszego bajtu za segmentem.
+     * */
+    public long getEndOffset() {
+        return offset + length;
+    }
+
+    /**
+     * @return Zwraca pozycje w pliku poczatku danych TIFF.
+     * */
+    public long getTiffOffset() {
+        return offset + headerLength;
+    }
+
+    /**
+     * @return Zwraca dane TIFF zawarte w segmencie.
+     * */
+    public byte[] getTiffData() {
+        return tiffData;
+    }
+
+    /**
+     * Publiczna metoda wyodrebniajaca miniature JPEG zapisana w katalogu
+     * IFD1 (znaczniki JPEGInterchangeFormat i JPEGInterchangeFormatLength).
+     * Odczytywane sa tylko wpisy katalogow IFD0 i IFD1 z danych segmentu,
+     * bez dekodowania pozostalych metadanych i bez dostepu do pliku.
+     *
+     * @return Zwraca dane miniatury JPEG lub {@code null}, jesli segment
+     * jej nie zawiera lub jej polozenie jest niepoprawne.
+     * */
+    public byte[] getThumbnailData() {
+        if (tiffData.length < 8) {
+            return null;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(tiffData);
+        if (tiffData[0] == 'I' && tiffData[1] == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiffData[0] != 'M' || tiffData[1] != 'M') {
+            return null;
+        }
+        long ifd1 = nextDirectory(tiff, tiff.getInt(4) & 0xFFFFFFFFL);
+        int entries = IfdLayout.entryCount(tiff, ifd1);
+        if (entries < 0) {
+            return null;
+        }
+        long start = -1;
+        long length = -1;
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) ifd1 + 2 + IfdLayout.ENTRY_LENGTH * i;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int type = tiff.getShort(entry + 2) & 0xFFFF;
+            long value = type == 3 ? tiff.getShort(entry + 8) & 0xFFFF : tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+            if (tag == 0x0201) {
+                start = value;
+            } else if (tag == 0x0202) {
+                length = value;
+            }
+        }
+        if (start <= 0 || length < 4 || start + length > tiffData.length
+                || (tiffData[(int) start] & 0xFF) != 0xFF || (tiffData[(int) start + 1] & 0xFF) != SOI) {
+            return null;
+        }
+        return Arrays.copyOfRange(tiffData, (int) start, (int) (start + length));
+    }
+
+    /**
+     * Prywatna i statyczna metoda zwracajaca pozycje katalogu IFD
+     * nastepujacego po katalogu o podanej pozycji lub 0, jesli go nie ma.
+     * */
+    private static long nextDirectory(ByteBuffer tiff, long directory) {
+        int entries = IfdLayout.entryCount(tiff, directory);
+        if (entries < 0) {
+            return 0;
+        }
+        long next = directory + 2 + (long) IfdLayout.ENTRY_LENGTH * entries;
+        if (next + 4 > tiff.limit()) {
+            return 0;
+        }
+        return tiff.getInt((int) next) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,168 @@
+package pl.kielce.tu;
+
+import javax.swing.table.AbstractTableModel;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Klasa modelu tabeli metadanych oparta bezposrednio na
+ * {@link ExifMetadata}. Tabela nie kopiuje wartosci pol, a tekst
+ * wartosci jest tworzony dopiero dla wyswietlanych wierszy. Wartosci
+ * zmienione przez uzytkownika sa przechowywane osobno, tylko dla
+ * zmienionych wierszy, i moga zostac przekazane do
+ * {@link ExifEditor#writeEXIFDataToFile(java.io.File, java.io.File, Map)}.
+ * JTable tworzy tekst tylko dla widocznych wierszy, a dla duzych wartosci
+ * wyswietlany jest podglad. Pelna wartosc jest odczytywana dopiero przy
+ * edycji lub podgladzie komorki ({@link #getFullValueText(int)}).
+ * */
+public class ExifTableModel extends AbstractTableModel {
+    /**
+     * Nazwy kolumn tabeli.
+     * */
+    private static final String[] columnNames = { "Directory", "Tag name", "Extracted value"};
+    /**
+     * Numer kolumny z wartoscia znacznika.
+     * */
+    public static final int VALUE_COLUMN = 2;
+
+    /**
+     * Wyswietlane metadane.
+     * */
+    private ExifMetadata metadata;
+    /**
+     * Wartosci zmienione przez uzytkownika (numer wiersza -> wartosc).
+     * */
+    private final Map<Integer, String> edits = new TreeMap<>();
+    /**
+     * Odczytane pelne wartosci pol, dla ktorych wyswietlany jest podglad.
+     * */
+    private final Map<Integer, String> fullValues = new HashMap<>();
+
+    /**
+     * Publiczna metoda ustawiajaca wyswietlane metadane. Zmiany
+     * wprowadzone dla poprzednich metadanych sa odrzucane.
+     *
+     * @param metadata Metadane do wyswietlenia lub {@code null} aby wyczyscic tabele.
+     * */
+    public void setMetadata(ExifMetadata metadata) {
+        this.metadata = metadata;
+        edits.clear();
+        fullValues.clear();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Publiczna metoda dopisujaca pola na koncu tabeli. Sluzy do
+     * stopniowego wyswietlania metadanych podczas odczytu pliku.
+     *
+     * @param part Pola do dopisania.
+     * */
+    public void appendMetadata(ExifMetadata part) {
+        if (part.size() == 0) {
+            return;
+        }
+        int first = getRowCount();
+        metadata = metadata == null ? part : ExifMetadata.concat(Arrays.asList(metadata, part));
+        fireTableRowsInserted(first, getRowCount() - 1);
+    }
+
+    public ExifMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Publiczna metoda zwracajaca zmienione wartosci znacznikow.
+     *
+     * @return Zwraca mape kluczy zmienionych znacznikow na nowe wartosci
+     * w kolejnosci wierszy tabeli.
+     * */
+    public Map<TagKey, String> getChanges() {
+        Map<TagKey, String> changes = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> edit : edits.entrySet()) {
+            changes.put(metadata.getKey(edit.getKey()), edit.getValue());
+        }
+        return Collections.unmodifiableMap(changes);
+    }
+
+    /**
+     * Publiczna metoda zwracajaca pelna wartosc komorki z wartoscia
+     * znacznika. Jesli wyswietlany jest podglad wartosci, pelna wartosc
+     * jest odczytywana z pliku i zapamietywana.
+     *
+     * @param row Numer wiersza.
+     * @return Zwraca zmieniona lub pelna wartosc znacznika.
+     * @throws IOException Jesli odczyt wartosci z pliku sie nie powiodl.
+     * */
+    public String getFullValueText(int row) throws IOException {
+        String edited = edits.get(row);
+        if (edited != null) {
+            return edited;
+        }
+        if (!metadata.isPreview(row)) {
+            return metadata.getValueText(row);
+        }
+        String full = fullValues.get(row);
+        if (full == null) {
+            full = metadata.getFullValueText(row);
+            fullValues.put(row, full);
+        }
+        return full;
+    }
+
+    @Override
+    public int getRowCount() {
+        return metadata == null ? 0 : metadata.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column == VALUE_COLUMN;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case 0:
+                return metadata.getDirectoryName(row);
+            case 1:
+                return metadata.getTagName(row);
+            default:
+                String edited = edits.get(row);
+                return edited != null ? edited : metadata.getValueText(row);
+        }
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        if (column != VALUE_COLUMN) {
+            return;
+        }
+        String text = String.valueOf(value);
+        if (text.equals(metadata.getValueText(row)) || text.equals(fullValues.get(row))) {
+            edits.remove(row);
+        } else {
+            edits.put(row, text);
+        }
+        fireTableCellUpdated(row, column);
+    }
+}
@@ -0,0 +1,151 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Set;
+
+/**
+ * Klasa z metodami pomocniczymi do odczytu surowych danych TIFF bez
+ * dekodowania wartosci: naglowka, rozmiarow typow pol, znacznikow
+ * wskazujacych podkatalogi oraz sprawdzania granic i petli katalogow IFD.
+ * Wspoldzielona przez {@link IfdScanner}, {@link ExifScrubber},
+ * {@link ExifSegment} i {@link ExifMetadata}.
+ * */
+final class IfdLayout {
+    /**
+     * Liczba bajtow naglowka TIFF (kolejnosc bajtow, liczba 42
+     * i polozenie pierwszego katalogu).
+     * */
+    static final int HEADER_LENGTH = 8;
+    /**
+     * Liczba bajtow jednego wpisu katalogu.
+     * */
+    static final int ENTRY_LENGTH = 12;
+    /**
+     * Typy katalogow wskazywanych przez znaczniki.
+     * */
+    private static final int[] POINTED_DIRECTORIES = { TiffDirectoryConstants.DIRECTORY_TYPE_EXIF,
+            TiffDirectoryConstants.DIRECTORY_TYPE_GPS, TiffDirectoryConstants.DIRECTORY_TYPE_INTEROPERABILITY };
+
+    private IfdLayout() {
+    }
+
+    /**
+     * Pakietowa i statyczna metoda sprawdzajaca naglowek TIFF i ustawiajaca
+     * kolejnosc bajtow bufora zgodnie z naglowkiem.
+     *
+     * @param tiff Dane TIFF (od pozycji zero do limitu).
+     * @throws ImageReadException Jesli naglowek jest za krotki lub niepoprawny.
+     * */
+    static void readHeader(ByteBuffer tiff) throws ImageReadException {
+        if (tiff.limit() < HEADER_LENGTH) {
+            throw new ImageReadException("TIFF header too short.");
+        }
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) == 'M' && tiff.get(1) == 'M') {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new ImageReadException("Invalid TIFF byte order.");
+        }
+        if (tiff.getShort(2) != 42) {
+            throw new ImageReadException("Invalid TIFF header.");
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zwracajaca rozmiar elementu pola.
+     *
+     * @param fieldType Numer typu pola.
+     * @return Zwraca liczbe bajtow jednego elementu (dla nieznanych typow 1).
+     * */
+    static int typeSize(int fieldType) {
+        switch (fieldType) {
+            case 3:
+            case 8:
+                return 2;
+            case 4:
+            case 9:
+            case 11:
+            case 13:
+                return 4;
+            case 5:
+            case 10:
+            case 12:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zwracajaca numer znacznika wskazujacego
+     * katalog danego typu.
+     *
+     * @param directoryType Typ katalogu.
+     * @return Zwraca numer znacznika lub 0, jesli katalog nie jest
+     * wskazywany przez znacznik (np. katalogi obrazu).
+     * */
+    static int pointerTag(int directoryType) {
+        switch (directoryType) {
+            case TiffDirectoryConstants.DIRECTORY_TYPE_EXIF:
+                return 0x8769;
+            case TiffDirectoryConstants.DIRECTORY_TYPE_GPS:
+                return 0x8825;
+            case TiffDirectoryConstants.DIRECTORY_TYPE_INTEROPERABILITY:
+                return 0xA005;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zwracajaca typ katalogu wskazywanego
+     * przez znacznik.
+     *
+     * @param tag Numer znacznika.
+     * @return Zwraca typ katalogu lub 0, jesli znacznik nie wskazuje katalogu.
+     * */
+    static int pointedDirectory(int tag) {
+        for (int type : POINTED_DIRECTORIES) {
+            if (pointerTag(type) == tag) {
+                return type;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda sprawdzajaca, czy licznik i wpisy
+     * katalogu mieszcza sie w danych TIFF za naglowkiem.
+     *
+     * @param tiff Dane TIFF.
+     * @param offset Polozenie katalogu.
+     * @return Zwraca liczbe wpisow katalogu lub -1, jesli katalog
+     * wykracza poza dane TIFF.
+     * */
+    static int entryCount(ByteBuffer tiff, long offset) {
+        if (offset < HEADER_LENGTH || offset + 2 > tiff.limit()) {
+            return -1;
+        }
+        int entries = tiff.getShort((int) offset) & 0xFFFF;
+        return offset + 2 + (long) ENTRY_LENGTH * entries > tiff.limit() ? -1 : entries;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda oznaczajaca katalog jako odczytany.
+     *
+     * @param visited Polozenia katalogow odczytanych dotychczas.
+     * @param offset Polozenie katalogu.
+     * @throws ImageReadException Jesli katalog byl juz odczytany
+     * (katalogi tworza petle).
+     * */
+    static void visit(Set<Long> visited, long offset) throws ImageReadException {
+        if (!visited.add(offset)) {
+            throw new ImageReadException("IFD offset cycle at offset " + offset + ".");
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
+import org.apache.commons.imaging.formats.tiff.fieldtypes.FieldType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Klasa odczytujaca wpisy katalogow IFD jeden po drugim, na zadanie
+ * wywolujacego. W przeciwienstwie do {@link ExifEditor#readEXIFMetadata(File)}
+ * nie tworzy zadnych katalogow ani pol przed zwroceniem pierwszego
+ * wpisu, a wartosci wpisow sa odczytywane dopiero przy odwolaniu do nich.
+ * Koszt odczytu jest ograniczony przez {@link Limits}: liczbe odczytanych
+ * bajtow, liczbe wpisow i glebokosc zagniezdzenia katalogow. Powtorne
+ * wskazanie tego samego katalogu (petla w lancuchu IFD) konczy odczyt
+ * bledem. Odczyt mozna przerwac w dowolnym momencie, np. po znalezieniu
+ * szukanego znacznika, wiec pliki z niezaufanych zrodel moga byc
+ * sprawdzane z przewidywalnym kosztem.
+ * */
+public final class IfdScanner {
+    /**
+     * Klasa opisujaca ograniczenia kosztu odczytu.
+     * */
+    public static final class Limits {
+        /**
+         * Ograniczenia domyslne: 1 MiB odczytanych danych, 4096 wpisow
+         * i katalogi zagniezdzone najwyzej dwukrotnie (np. IFD0, EXIF,
+         * Interoperability).
+         * */
+        public static final Limits DEFAULT = new Limits(1 << 20, 4096, 2);
+
+        private final long maxBytes;
+        private final int maxEntries;
+        private final int maxDepth;
+
+        /**
+         * Konstruktor ograniczen.
+         *
+         * @param maxBytes Najwieksza liczba bajtow odczytanych z katalogow
+         *                 i wartosci (a dla plikow PNG i WebP rowniez
+         *                 najwieksza dlugosc bloku EXIF).
+         * @param maxEntries Najwieksza liczba odczytanych wpisow.
+         * @param maxDepth Najwieksza glebokosc zagniezdzenia katalogow
+         *                 (0 oznacza tylko lancuch katalogow obrazu).
+         * @throws IllegalArgumentException Jesli ktores ograniczenie jest ujemne.
+         * */
+        public Limits(long maxBytes, int maxEntries, int maxDepth) {
+            if (maxBytes < 0 || maxEntries < 0 || maxDepth < 0) {
+                throw new IllegalArgumentException("Limits must not be negative.");
+            }
+            this.maxBytes = maxBytes;
+            this.maxEntries = maxEntries;
+            this.maxDepth = maxDepth;
+        }
+
+        /**
+         * @return Zwraca najwieksza liczbe odczytanych bajtow.
+         * */
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        /**
+         * @return Zwraca najwieksza liczbe odczytanych wpisow.
+         * */
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        /**
+         * @return Zwraca najwieksza glebokosc zagniezdzenia katalogow.
+         * */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+    }
+
+    /**
+     * Klasa reprezentujaca jeden wpis katalogu IFD. Przechowuje tylko
+     * naglowek wpisu i polozenie wartosci; wartosc jest odczytywana
+     * przez {@link #readValue()} i wliczana do limitu bajtow skanera.
+     * */
+    public final class Entry {
+        private final int directoryType;
+        private final int tag;
+        private final int fieldType;
+        private final long count;
+        /**
+         * Pozycja wartosci w danych TIFF.
+         * */
+        private final long valueOffset;
+
+        private Entry(int directoryType, int tag, int fieldType, long count, long valueOffset) {
+            this.directoryType = directoryType;
+            this.tag = tag;
+            this.fieldType = fieldType;
+            this.count = count;
+            this.valueOffset = valueOffset;
+        }
+
+        /**
+         * Publiczna metoda odczytujaca surowe bajty wartosci wpisu.
+         *
+         * @return Zwraca bajty wartosci w kolejnosci bajtow pliku.
+         * @throws ImageReadException Jesli wartosc wykracza poza dane TIFF
+         * lub przekracza limit bajtow.
+         * */
+        public byte[] readValue() throws ImageReadException {
+            long length = getValueLength();
+            if (length > Integer.MAX_VALUE || valueOffset + length > tiff.limit()) {
+                throw new ImageReadException("Invalid value of tag 0x" + Integer.toHexString(tag)
+                        + " at offset " + valueOffset + ".");
+            }
+            charge(length);
+            byte[] value = new byte[(int) length];
+            tiff.get((int) valueOffset, value);
+            return value;
+        }
+
+        /**
+         * Publiczna metoda tworzaca pole biblioteki commons-imaging
+         * z odczytana wartoscia wpisu.
+         *
+         * @return Zwraca pole wpisu.
+         * @throws ImageReadException Jesli typ pola nie jest znany lub
+         * odczyt wartosci sie nie powiodl.
+         * */
+        public TiffField toField() throws ImageReadException {
+            FieldType type = FieldType.getFieldType(fieldType);
+            return new TiffField(tag, directoryType, type, count, valueOffset, readValue(), tiff.order(), 0);
+        }
+
+        /**
+         * @return Zwraca klucz znacznika wpisu.
+         * */
+        public TagKey getKey() {
+            return new TagKey(directoryType, tag);
+        }
+
+        /**
+         * @return Zwraca typ katalogu IFD wpisu.
+         * */
+        public int getDirectoryType() {
+            return directoryType;
+        }
+
+        /**
+         * @return Zwraca numer znacznika.
+         * */
+        public int getTag() {
+            return tag;
+        }
+
+        /**
+         * @return Zwraca typ pola TIFF (1 - BYTE, 2 - ASCII, 3 - SHORT itd.).
+         * */
+        public int getFieldType() {
+            return fieldType;
+        }
+
+        /**
+         * @return Zwraca licznik elementow wartosci.
+         * */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return Zwraca pozycje wartosci w danych TIFF.
+         * */
+        public long getValueOffset() {
+            return valueOffset;
+        }
+
+        /**
+         * @return Zwraca dlugosc wartosci w bajtach (dla nieznanych typow
+         * pola przyjmowany jest jeden bajt na element).
+         * */
+        public long getValueLength() {
+            return count * IfdLayout.typeSize(fieldType);
+        }
+    }
+
+    /**
+     * Klasa opisujaca katalog oczekujacy na odczyt.
+     * */
+    private static final class Directory {
+        final long offset;
+        final int type;
+        final int depth;
+
+        Directory(long offset, int type, int depth) {
+            this.offset = offset;
+            this.type = type;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Dane TIFF w kolejnosci bajtow pliku.
+     * */
+    private final ByteBuffer tiff;
+    private final Limits limits;
+    /**
+     * Katalogi oczekujace na odczyt.
+     * */
+    private final Deque<Directory> pending = new ArrayDeque<>();
+    /**
+     * Polozenia wszystkich napotkanych katalogow, do wykrywania petli.
+     * */
+    private final Set<Long> visited = new HashSet<>();
+    private Directory current;
+    /**
+     * Liczba wpisow biezacego katalogu i indeks nastepnego wpisu.
+     * */
+    private int entries;
+    private int index;
+    private long bytesRead;
+    private int entriesRead;
+
+    private IfdScanner(ByteBuffer tiff, Limits limits) throws ImageReadException {
+        this.tiff = tiff;
+        this.limits = limits;
+        IfdLayout.readHeader(tiff);
+        charge(IfdLayout.HEADER_LENGTH);
+        enqueue(tiff.getInt(4) & 0xFFFFFFFFL, TiffDirectoryConstants.DIRECTORY_TYPE_ROOT, 0);
+    }
+
+    /**
+     * Publiczna i statyczna metoda tworzaca skaner metadanych podanego
+     * pliku. Dla plikow JPEG, PNG i WebP odczytywany jest segment EXIF
+     * (bloki PNG i WebP dluzsze niz limit bajtow nie sa odczytywane),
+     * a plik TIFF jest odwzorowywany w pamieci ({@link FileChannel#map}),
+     * wiec wczytywane sa tylko strony zawierajace odczytywane katalogi
+     * i wartosci.
+     *
+     * @param src Plik z metadanymi.
+     * @param limits Ograniczenia kosztu odczytu.
+     * @return Zwraca skaner ustawiony przed pierwszym wpisem katalogu IFD0.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli format pliku nie jest obslugiwany,
+     * plik nie zawiera metadanych lub naglowek TIFF jest niepoprawny.
+     * */
+    public static IfdScanner open(File src, Limits limits) throws IOException, ImageReadException {
+        try (FileChannel channel = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            ImageFormat format = ImageFormat.sniff(channel);
+            if (format == null) {
+                throw new ImageReadException("Not supported image format.");
+            }
+            ByteBuffer tiff;
+            if (format == ImageFormat.TIFF) {
+                tiff = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            } else {
+                List<ExifSegment> segments;
+                if (format == ImageFormat.PNG) {
+                    segments = PngExifRewriter.findAll(channel, limits.maxBytes);
+                } else if (format == ImageFormat.WEBP) {
+                    segments = WebpExifRewriter.findAll(channel, limits.maxBytes);
+                } else {
+                    ExifSegment segment = ExifSegment.find(channel);
+                    segments = segment == null ? List.of() : List.of(segment);
+                }
+                if (segments.isEmpty()) {
+                    throw new ImageReadException("No exif data found.");
+                }
+                tiff = ByteBuffer.wrap(segments.get(0).getTiffData());
+            }
+            return new IfdScanner(tiff, limits);
+        }
+    }
+
+    /**
+     * Publiczna i statyczna metoda wyszukujaca pierwszy wpis o podanym
+     * kluczu. Odczyt konczy sie na znalezionym wpisie.
+     *
+     * @param src Plik z metadanymi.
+     * @param key Klucz szukanego znacznika.
+     * @param limits Ograniczenia kosztu odczytu.
+     * @return Zwraca pole znalezionego wpisu lub {@code null}, jesli
+     * plik go nie zawiera.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt sie nie powiodl lub
+     * przekroczono ograniczenia.
+     * */
+    public static TiffField find(File src, TagKey key, Limits limits) throws IOException, ImageReadException {
+        IfdScanner scanner = open(src, limits);
+        for (Entry entry = scanner.next(); entry != null; entry = scanner.next()) {
+            if (entry.getKey().equals(key)) {
+                return entry.toField();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Publiczna metoda odczytujaca nastepny wpis. Katalogi sa odczytywane
+     * w kolejnosci: IFD0, katalogi wskazane przez jego wpisy, IFD1 itd.
+     *
+     * @return Zwraca nastepny wpis lub {@code null}, jesli odczytano
+     * juz wszystkie wpisy.
+     * @throws ImageReadException Jesli katalog jest niepoprawny, wskazuje
+     * na juz odczytany katalog lub przekroczono ograniczenia.
+     * */
+    public Entry next() throws ImageReadException {
+        while (current == null || index == entries) {
+            if (current != null) {
+                finishDirectory();
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+            startDirectory(pending.poll());
+        }
+        if (entriesRead == limits.maxEntries) {
+            throw new ImageReadException("More than " + limits.maxEntries + " IFD entries.");
+        }
+        int position = (int) current.offset + 2 + IfdLayout.ENTRY_LENGTH * index++;
+        charge(IfdLayout.ENTRY_LENGTH);
+        entriesRead++;
+        int tag = tiff.getShort(position) & 0xFFFF;
+        int fieldType = tiff.getShort(position + 2) & 0xFFFF;
+        long count = tiff.getInt(position + 4) & 0xFFFFFFFFL;
+        long valueOffset = count * IfdLayout.typeSize(fieldType) <= 4 ? position + 8 : tiff.getInt(position + 8) & 0xFFFFFFFFL;
+        int subDirectory = IfdLayout.pointedDirectory(tag);
+        if (subDirectory != 0 && count == 1 && (fieldType == FieldType.LONG.getType() || fieldType == FieldType.IFD.getType())) {
+            if (current.depth == limits.maxDepth) {
+                throw new ImageReadException("IFD nesting deeper than " + limits.maxDepth + " levels.");
+            }
+            enqueue(tiff.getInt(position + 8) & 0xFFFFFFFFL, subDirectory, current.depth + 1);
+        }
+        return new Entry(current.type, tag, fieldType, count, valueOffset);
+    }
+
+    /**
+     * Publiczna metoda tworzaca {@link Spliterator} kolejnych wpisow.
+     * Bledy odczytu sa zglaszane jako {@link UncheckedIOException}.
+     *
+     * @return Zwraca uporzadkowany, sekwencyjny spliterator wpisow.
+     * */
+    public Spliterator<Entry> spliterator() {
+        return new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Entry> action) {
+                Entry entry;
+                try {
+                    entry = next();
+                } catch (ImageReadException e) {
+                    throw new UncheckedIOException(new IOException(e.getMessage(), e));
+                }
+                if (entry == null) {
+                    return false;
+                }
+                action.accept(entry);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Publiczna metoda tworzaca strumien kolejnych wpisow, np. do
+     * wyszukania znacznika przez {@link Stream#filter} i
+     * {@link Stream#findFirst()}, ktore koncza odczyt po pierwszym trafieniu.
+     *
+     * @return Zwraca sekwencyjny strumien wpisow.
+     * */
+    public Stream<Entry> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return Zwraca liczbe bajtow odczytanych dotychczas z katalogow i wartosci.
+     * */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return Zwraca liczbe dotychczas odczytanych wpisow.
+     * */
+    public int getEntriesRead() {
+        return entriesRead;
+    }
+
+    private void startDirectory(Directory directory) throws ImageReadException {
+        int count = IfdLayout.entryCount(tiff, directory.offset);
+        if (count < 0) {
+            throw new ImageReadException("Invalid IFD at offset " + directory.offset + ".");
+        }
+        charge(2);
+        current = directory;
+        entries = count;
+        index = 0;
+    }
+
+    /**
+     * Prywatna metoda dodajaca do kolejki katalog nastepujacy po
+     * katalogu obrazu (IFD1 po IFD0 itd.).
+     * */
+    private void finishDirectory() throws ImageReadException {
+        Directory directory = current;
+        current = null;
+        if (directory.type < 0) {
+            return;
+        }
+        long position = directory.offset + 2 + (long) IfdLayout.ENTRY_LENGTH * entries;
+        if (position + 4 > tiff.limit()) {
+            return;
+        }
+        charge(4);
+        enqueue(tiff.getInt((int) position) & 0xFFFFFFFFL, directory.type + 1, directory.depth);
+    }
+
+    private void enqueue(long offset, int type, int depth) throws ImageReadException {
+        if (offset == 0) {
+            return;
+        }
+        IfdLayout.visit(visited, offset);
+        pending.add(new Directory(offset, type, depth));
+    }
+
+    private void charge(long bytes) throws ImageReadException {
+        if (bytes > limits.maxBytes - bytesRead) {
+            throw new ImageReadException("More than " + limits.maxBytes + " bytes of IFD data.");
+        }
+        bytesRead += bytes;
+    }
+}
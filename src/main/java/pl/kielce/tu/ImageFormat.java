@@ -0,0 +1,145 @@
+package pl.kielce.tu;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Formaty plikow graficznych, w ktorych obslugiwane sa metadane EXIF.
+ * Format jest rozpoznawany na podstawie pierwszych bajtow pliku, a nie
+ * jego rozszerzenia, wiec pliki o blednych rozszerzeniach lub bez nich
+ * sa przetwarzane tak samo jak pozostale.
+ * */
+public enum ImageFormat {
+    /**
+     * Plik JPEG z segmentem APP1 (zob. {@link JpegExifRewriter}).
+     * */
+    JPEG("jpg", "jpeg", "jpe"),
+    /**
+     * Plik TIFF, ktorego katalogi IFD sa jednoczesnie metadanymi
+     * (zob. {@link TiffExifRewriter}).
+     * */
+    TIFF("tif", "tiff"),
+    /**
+     * Plik PNG z blokiem eXIf (zob. {@link PngExifRewriter}).
+     * */
+    PNG("png"),
+    /**
+     * Plik WebP z blokiem EXIF (zob. {@link WebpExifRewriter}).
+     * */
+    WEBP("webp");
+
+    /**
+     * Liczba bajtow poczatku pliku potrzebna do rozpoznania formatu.
+     * */
+    static final int MAGIC_LENGTH = 12;
+
+    private final List<String> extensions;
+
+    ImageFormat(String... extensions) {
+        this.extensions = Arrays.asList(extensions);
+    }
+
+    /**
+     * Publiczna i statyczna metoda rozpoznajaca format pliku.
+     *
+     * @param file Plik do sprawdzenia.
+     * @return Zwraca format pliku lub {@code null}, jesli nie jest obslugiwany.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * */
+    public static ImageFormat of(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return sniff(channel);
+        }
+    }
+
+    /**
+     * Publiczna i statyczna metoda rozpoznajaca format pliku na podstawie
+     * jego pierwszych bajtow.
+     *
+     * @param channel Kanal pliku do sprawdzenia.
+     * @return Zwraca format pliku lub {@code null}, jesli nie jest obslugiwany.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * */
+    public static ImageFormat sniff(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC_LENGTH);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) >= 0) {
+            // odczyt do zapelnienia bufora lub konca pliku
+        }
+        magic.flip();
+        return sniff(magic);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda rozpoznajaca format na podstawie
+     * poczatku pliku zapisanego w buforze (od pozycji zero do limitu).
+     *
+     * @param magic Poczatek pliku.
+     * @return Zwraca format pliku lub {@code null}, jesli nie jest obslugiwany.
+     * */
+    static ImageFormat sniff(ByteBuffer magic) {
+        int length = magic.limit();
+        if (length >= 2 && (magic.get(0) & 0xFF) == 0xFF && (magic.get(1) & 0xFF) == ExifSegment.SOI) {
+            return JPEG;
+        }
+        if (length >= 4 && (startsWith(magic, 0, 'I', 'I', 42, 0) || startsWith(magic, 0, 'M', 'M', 0, 42))) {
+            return TIFF;
+        }
+        if (length >= PngExifRewriter.SIGNATURE.length && startsWith(magic, 0, PngExifRewriter.SIGNATURE)) {
+            return PNG;
+        }
+        if (length >= 12 && startsWith(magic, 0, 'R', 'I', 'F', 'F') && startsWith(magic, 8, 'W', 'E', 'B', 'P')) {
+            return WEBP;
+        }
+        return null;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int position, int... bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if ((buffer.get(position + i) & 0xFF) != (bytes[i] & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int position, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Zwraca domyslne rozszerzenie plikow formatu (bez kropki).
+     * */
+    public String getExtension() {
+        return extensions.get(0);
+    }
+
+    /**
+     * @return Zwraca wszystkie rozszerzenia plikow formatu (bez kropki).
+     * */
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * Publiczna metoda sprawdzajaca, czy nazwa pliku ma jedno z rozszerzen
+     * formatu.
+     *
+     * @param fileName Nazwa pliku.
+     * @return Zwraca {@code true} jesli rozszerzenie nalezy do formatu.
+     * */
+    public boolean hasExtension(String fileName) {
+        int index = fileName.lastIndexOf('.');
+        return index >= 0 && extensions.contains(fileName.substring(index + 1).toLowerCase(Locale.ROOT));
+    }
+}
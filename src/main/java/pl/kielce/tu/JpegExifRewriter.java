@@ -0,0 +1,262 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.tiff.write.TiffImageWriterLossless;
+import org.apache.commons.imaging.formats.tiff.write.TiffImageWriterLossy;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Klasa realizujaca bezstratna podmiane lub usuniecie segmentu EXIF
+ * w pliku JPEG. Do pliku docelowego zapisywany jest tylko nowy segment
+ * APP1, a pozostale fragmenty pliku zrodlowego (w tym dane obrazu)
+ * sa kopiowane metoda {@link FileChannel#transferTo}, wiec kopiowanie
+ * wykonuje jadro systemu bez przenoszenia danych przez sterte.
+ * */
+public final class JpegExifRewriter {
+
+    private JpegExifRewriter() {
+    }
+
+    /**
+     * Publiczna i statyczna metoda zapisujaca do pliku docelowego kopie
+     * pliku zrodlowego z metadanymi EXIF zastapionymi podanym zbiorem.
+     * Jesli plik zrodlowy nie zawiera segmentu EXIF, nowy segment jest
+     * wstawiany za segmentem JFIF.
+     *
+     * @param src Plik zrodlowy JPEG.
+     * @param dest Plik docelowy.
+     * @param outputSet Nowe metadane EXIF.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli plik zrodlowy nie jest poprawnym plikiem JPEG.
+     * @throws ImageWriteException Jesli metadanych nie da sie zapisac w segmencie APP1.
+     * */
+    public static void updateExif(File src, File dest, TiffOutputSet outputSet)
+            throws IOException, ImageReadException, ImageWriteException {
+        checkDistinct(src, dest);
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            List<ExifSegment> segments = ExifSegment.findAll(in);
+            ExifMetrics.phase(ExifMetrics.Phase.BUILD);
+            byte[] tiffData = encode(outputSet, segments.isEmpty() ? null : segments.get(0));
+            rewrite(in, segments, tiffData, dest.toPath());
+        }
+    }
+
+    /**
+     * Publiczna i statyczna metoda zapisujaca do pliku docelowego kopie
+     * pliku zrodlowego bez segmentow EXIF.
+     *
+     * @param src Plik zrodlowy JPEG.
+     * @param dest Plik docelowy.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli plik zrodlowy nie jest poprawnym plikiem JPEG.
+     * */
+    public static void removeExif(File src, File dest) throws IOException, ImageReadException {
+        checkDistinct(src, dest);
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            rewrite(in, ExifSegment.findAll(in), null, dest.toPath());
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda kodujaca zbior metadanych do postaci
+     * danych TIFF segmentu APP1. Jesli znany jest oryginalny segment,
+     * uzywany jest zapis bezstratny, ktory zachowuje polozenie
+     * niezmienionych wartosci (np. MakerNote).
+     *
+     * @param outputSet Metadane do zapisania.
+     * @param original Oryginalny segment EXIF lub {@code null}.
+     * @return Zwraca dane TIFF nowego segmentu.
+     * @throws IOException W przypadku bledu zapisu do bufora.
+     * @throws ImageWriteException Jesli metadane sa niepoprawne lub nie
+     * mieszcza sie w jednym segmencie.
+     * */
+    static byte[] encode(TiffOutputSet outputSet, ExifSegment original) throws IOException, ImageWriteException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        if (original != null) {
+            new TiffImageWriterLossless(outputSet.byteOrder, original.getTiffData()).write(os, outputSet);
+        } else {
+            new TiffImageWriterLossy(outputSet.byteOrder).write(os, outputSet);
+        }
+        if (os.size() > ExifSegment.MAX_TIFF_DATA_LENGTH) {
+            throw new ImageWriteException("EXIF metadata too large for a single APP1 segment ("
+                    + os.size() + " bytes).");
+        }
+        return os.toByteArray();
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plik docelowy: fragmenty
+     * pliku zrodlowego pomiedzy segmentami EXIF sa przenoszone bez zmian,
+     * a w miejscu pierwszego segmentu (lub za segmentem JFIF) zapisywany
+     * jest nowy segment. Plik docelowy jest zawsze zamykany.
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param segments Segmenty EXIF pliku zrodlowego.
+     * @param tiffData Dane TIFF nowego segmentu lub {@code null}
+     *                 jesli segmenty maja zostac jedynie usuniete.
+     * @param dest Plik docelowy.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli plik zrodlowy nie jest poprawnym plikiem JPEG.
+     * */
+    static void rewrite(FileChannel in, List<ExifSegment> segments, byte[] tiffData, Path dest)
+            throws IOException, ImageReadException {
+        rewrite(in, segments, tiffData, dest, null, false, null);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plik docelowy tak jak
+     * {@link #rewrite(FileChannel, List, byte[], Path)}. Nowy segment jest
+     * zapisywany przez podany bufor bezposredni, a na zadanie dane pliku
+     * docelowego sa utrwalane na dysku przed jego zamknieciem. Jesli podano
+     * skrot, dane obrazu (od znacznika SOS do konca pliku) sa kopiowane
+     * przez odwzorowanie pliku zrodlowego w pamieci i jednoczesnie
+     * przekazywane do skrotu (zob. {@link PayloadDigest}).
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param segments Segmenty EXIF pliku zrodlowego.
+     * @param tiffData Dane TIFF nowego segmentu lub {@code null}
+     *                 jesli segmenty maja zostac jedynie usuniete.
+     * @param dest Plik docelowy.
+     * @param buffer Bufor do zapisu segmentu lub {@code null}.
+     * @param sync Czy utrwalic dane pliku docelowego ({@link FileChannel#force}).
+     * @param payloadDigest Skrot danych obrazu pliku zrodlowego lub {@code null}.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli w pliku zrodlowym nie ma danych obrazu.
+     * */
+    static void rewrite(FileChannel in, List<ExifSegment> segments, byte[] tiffData, Path dest,
+                        ByteBuffer buffer, boolean sync, MessageDigest payloadDigest) throws IOException, ImageReadException {
+        ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+        long position = segments.isEmpty() ? ExifSegment.findInsertPosition(in) : segments.get(0).getOffset();
+        long scanStart = payloadDigest == null ? in.size() : ExifSegment.findScanStart(in);
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            transfer(in, 0, position, out);
+            if (tiffData != null) {
+                writeSegment(out, tiffData, buffer);
+            }
+            for (ExifSegment segment : segments) {
+                transfer(in, position, segment.getOffset() - position, out);
+                position = segment.getEndOffset();
+            }
+            transfer(in, position, scanStart - position, out);
+            transfer(in, scanStart, in.size() - scanStart, out, payloadDigest);
+            ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+            if (sync) {
+                out.force(true);
+            }
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda sprawdzajaca, czy plik docelowy
+     * nie jest plikiem zrodlowym. Kopiowanie fragmentow pliku do niego
+     * samego zniszczyloby jego zawartosc.
+     *
+     * @param src Plik zrodlowy.
+     * @param dest Plik docelowy.
+     * @throws IOException Jesli oba pliki wskazuja na ten sam plik.
+     * */
+    static void checkDistinct(File src, File dest) throws IOException {
+        if (dest.exists() && Files.isSameFile(src.toPath(), dest.toPath())) {
+            throw new IOException("Can't overwrite source file.");
+        }
+    }
+
+    private static void writeSegment(FileChannel out, byte[] tiffData, ByteBuffer buffer) throws IOException {
+        if (buffer != null) {
+            buffer.clear();
+            buffer.put((byte) 0xFF).put((byte) ExifSegment.APP1)
+                    .putShort((short) (2 + ExifSegment.EXIF_HEADER.length + tiffData.length))
+                    .put(ExifSegment.EXIF_HEADER);
+            int written = 0;
+            while (written < tiffData.length || buffer.position() > 0) {
+                int chunk = Math.min(buffer.remaining(), tiffData.length - written);
+                buffer.put(tiffData, written, chunk).flip();
+                written += chunk;
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            ExifMetrics.bytesWritten(ExifSegment.TIFF_DATA_OFFSET + tiffData.length);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(ExifSegment.TIFF_DATA_OFFSET);
+        header.put((byte) 0xFF).put((byte) ExifSegment.APP1)
+                .putShort((short) (2 + ExifSegment.EXIF_HEADER.length + tiffData.length))
+                .put(ExifSegment.EXIF_HEADER)
+                .flip();
+        ByteBuffer[] buffers = { header, ByteBuffer.wrap(tiffData) };
+        while (buffers[1].hasRemaining()) {
+            out.write(buffers);
+        }
+        ExifMetrics.bytesWritten(ExifSegment.TIFF_DATA_OFFSET + tiffData.length);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda kopiujaca fragment pliku zrodlowego
+     * na koniec pliku docelowego przy uzyciu {@link FileChannel#transferTo}.
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param position Pozycja poczatku fragmentu w pliku zrodlowym.
+     * @param count Liczba bajtow do skopiowania.
+     * @param out Kanal pliku docelowego.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * */
+    static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long n = in.transferTo(position + transferred, count - transferred, out);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of file at offset " + (position + transferred) + ".");
+            }
+            transferred += n;
+        }
+        ExifMetrics.bytesWritten(count);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda kopiujaca fragment pliku zrodlowego
+     * na koniec pliku docelowego i przekazujaca jego bajty do skrotu.
+     * Fragment jest odwzorowywany w pamieci oknami, wiec kazdy bajt jest
+     * odczytywany z pliku tylko raz. Bez skrotu dziala tak jak
+     * {@link #transfer(FileChannel, long, long, FileChannel)}.
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param position Pozycja poczatku fragmentu w pliku zrodlowym.
+     * @param count Liczba bajtow do skopiowania.
+     * @param out Kanal pliku docelowego.
+     * @param digest Skrot aktualizowany kopiowanymi bajtami lub {@code null}.
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * */
+    static void transfer(FileChannel in, long position, long count, FileChannel out, MessageDigest digest) throws IOException {
+        if (digest == null) {
+            transfer(in, position, count, out);
+            return;
+        }
+        for (long done = 0; done < count; ) {
+            long window = Math.min(PayloadDigest.WINDOW, count - done);
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, position + done, window);
+            digest.update(map.duplicate());
+            while (map.hasRemaining()) {
+                out.write(map);
+            }
+            done += window;
+        }
+        ExifMetrics.bytesRead(count);
+        ExifMetrics.bytesWritten(count);
+    }
+}
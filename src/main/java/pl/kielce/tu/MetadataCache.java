@@ -0,0 +1,263 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Klasa przechowujaca ostatnio odczytane metadane plikow, aby ponowne
+ * otwarcie niezmienionego pliku nie wymagalo jego odczytu i dekodowania.
+ * Wpis jest identyfikowany kanoniczna sciezka pliku, a jego waznosc jest
+ * sprawdzana na podstawie rozmiaru i czasu ostatniej modyfikacji pliku.
+ * Liczba wpisow i ich szacowany rozmiar w pamieci sa ograniczone, a po
+ * przekroczeniu limitu usuwane sa najdawniej uzywane wpisy (LRU).
+ * Zapis lub modyfikacja pliku przez {@link ExifEngine} usuwa jego wpis
+ * ze wszystkich pamieci podrecznych, bo zmiana w miejscu zachowuje
+ * rozmiar pliku, a czas modyfikacji moze miec niska rozdzielczosc.
+ * Metody klasy moga byc wywolywane z wielu watkow.
+ * */
+public class MetadataCache {
+    /**
+     * Domyslna maksymalna liczba wpisow.
+     * */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    /**
+     * Domyslny maksymalny szacowany rozmiar wpisow w bajtach.
+     * */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    /**
+     * Wszystkie utworzone pamieci podreczne (przechowywane przez slabe
+     * odwolania), z ktorych usuwane sa wpisy plikow zmienionych przez silnik.
+     * */
+    private static final Set<MetadataCache> INSTANCES = Collections.newSetFromMap(new WeakHashMap<>());
+    /**
+     * Klasa opisujaca wpis z metadanymi pliku i atrybutami pliku,
+     * dla ktorych zostaly odczytane.
+     * */
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final ExifMetadata metadata;
+        final long bytes;
+
+        Entry(long size, long lastModified, ExifMetadata metadata) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.metadata = metadata;
+            this.bytes = metadata.estimateBytes();
+        }
+    }
+
+    /**
+     * Maksymalna liczba wpisow.
+     * */
+    private final int maxEntries;
+    /**
+     * Maksymalny szacowany rozmiar wpisow w bajtach.
+     * */
+    private final long maxBytes;
+    /**
+     * Wpisy w kolejnosci od najdawniej do ostatnio uzywanego.
+     * */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Szacowany rozmiar wszystkich wpisow w bajtach.
+     * */
+    private long bytes;
+    /**
+     * Liczniki trafien, chybien i usunietych wpisow.
+     * */
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Konstruktor pamieci podrecznej z domyslnymi limitami.
+     * */
+    public MetadataCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Konstruktor pamieci podrecznej.
+     *
+     * @param maxEntries Maksymalna liczba wpisow.
+     * @param maxBytes Maksymalny szacowany rozmiar wpisow w bajtach.
+     * */
+    public MetadataCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        synchronized (INSTANCES) {
+            INSTANCES.add(this);
+        }
+    }
+
+    /**
+     * Publiczna metoda zwracajaca metadane pliku. Jesli plik nie zmienil
+     * sie od ostatniego odczytu, metadane sa zwracane z pamieci podrecznej.
+     * Zwracany model jest niezmienny, wiec moze byc wspoldzielony.
+     *
+     * @param src Plik z metadanymi do odczytu.
+     * @return Zwraca model metadanych pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * */
+    public ExifMetadata readEXIFMetadata(File src) throws IOException, ImageReadException {
+        return readEXIFMetadata(src, part -> { });
+    }
+
+    /**
+     * Publiczna metoda zwracajaca metadane pliku i przekazujaca je do
+     * odbiorcy w czesciach. Przy odczycie z pliku odbiorca otrzymuje pola
+     * kolejnych katalogow IFD, a przy trafieniu od razu caly model.
+     * Metadane sa zapamietywane tylko po pomyslnym odczycie calego pliku.
+     *
+     * @param src Plik z metadanymi do odczytu.
+     * @param partListener Odbiorca kolejnych czesci metadanych.
+     * @return Zwraca model metadanych pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * */
+    public ExifMetadata readEXIFMetadata(File src, Consumer<ExifMetadata> partListener) throws IOException, ImageReadException {
+        String path = src.getCanonicalPath();
+        BasicFileAttributes attributes = Files.readAttributes(src.toPath(), BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                hits++;
+                partListener.accept(entry.metadata);
+                return entry.metadata;
+            }
+            misses++;
+        }
+        ExifMetadata metadata = ExifEditor.readEXIFMetadata(src, partListener);
+        put(path, new Entry(size, lastModified, metadata));
+        return metadata;
+    }
+
+    /**
+     * Publiczna metoda zwracajaca metadane pliku w postaci takiej jak
+     * {@link ExifEditor#readEXIFDataFromFile(File)}, korzystajac z pamieci
+     * podrecznej. Zwracany wektor jest nowa kopia, wiec moze byc modyfikowany.
+     *
+     * @param src Plik z metadanymi do odczytu.
+     * @return Zwraca wektor wierszy z nazwa katalogu, znacznika i wartoscia.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli odczyt metadanych z pliku
+     * zrodlowego sie nie powiodl.
+     * */
+    public Vector<Vector<String>> readEXIFDataFromFile(File src) throws IOException, ImageReadException {
+        return readEXIFMetadata(src).toRows();
+    }
+
+    private synchronized void put(String path, Entry entry) {
+        Entry previous = entries.put(path, entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            bytes -= evicted.bytes;
+            evictions++;
+        }
+    }
+
+    /**
+     * Publiczna metoda usuwajaca wpis pliku z pamieci podrecznej.
+     *
+     * @param src Plik, ktorego wpis ma zostac usuniety.
+     * @throws IOException Jesli nie udalo sie wyznaczyc sciezki kanonicznej.
+     * */
+    public void invalidate(File src) throws IOException {
+        remove(src.getCanonicalPath());
+    }
+
+    /**
+     * Pakietowa i statyczna metoda usuwajaca wpis pliku ze wszystkich
+     * pamieci podrecznych. Wywolywana przez {@link ExifEngine} po kazdym
+     * zapisie lub modyfikacji pliku.
+     *
+     * @param src Zmieniony plik.
+     * */
+    static void invalidateAll(File src) {
+        List<MetadataCache> caches;
+        synchronized (INSTANCES) {
+            caches = new ArrayList<>(INSTANCES);
+        }
+        if (caches.isEmpty()) {
+            return;
+        }
+        String path;
+        try {
+            path = src.getCanonicalPath();
+        } catch (IOException e) {
+            path = src.getAbsolutePath();
+        }
+        for (MetadataCache cache : caches) {
+            cache.remove(path);
+        }
+    }
+
+    private synchronized void remove(String path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * Publiczna metoda usuwajaca wszystkie wpisy.
+     * */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Cache: %d entries (%d bytes), %d hits, %d misses, %d evictions",
+                entries.size(), bytes, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,211 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.formats.tiff.TiffDirectory;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Klasa porownujaca metadane EXIF dwoch plikow (JPEG, PNG, WebP lub TIFF,
+ * zob. {@link ImageFormat}). Pola sa
+ * porownywane wedlug katalogu i znacznika ({@link TagKey}), a wynikiem
+ * sa pola dodane, usuniete i zmienione w drugim pliku. Wartosci pol sa
+ * porownywane jako surowe bajty (typ, licznik i dane), a ich tekst
+ * sluzy tylko do wypisania roznicy. Jesli dane TIFF
+ * segmentow EXIF obu plikow sa identyczne, porownanie konczy sie bez
+ * dekodowania katalogow IFD. Pliki sa odczytywane przez {@link ExifEngine}.
+ * */
+public final class MetadataDiff {
+
+    /**
+     * Rodzaje roznic.
+     * */
+    public enum Kind {
+        /**
+         * Pole wystepuje tylko w drugim pliku.
+         * */
+        ADDED,
+        /**
+         * Pole wystepuje tylko w pierwszym pliku.
+         * */
+        REMOVED,
+        /**
+         * Pole ma rozne wartosci w obu plikach.
+         * */
+        CHANGED
+    }
+
+    /**
+     * Klasa opisujaca roznice jednego pola.
+     * */
+    public static final class Change {
+        private final Kind kind;
+        private final TagKey key;
+        private final String name;
+        private final String oldValue;
+        private final String newValue;
+
+        Change(Kind kind, TagKey key, String name, String oldValue, String newValue) {
+            this.kind = kind;
+            this.key = key;
+            this.name = name;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public TagKey getKey() {
+            return key;
+        }
+
+        /**
+         * @return Zwraca nazwe pola w postaci {@code Katalog:Znacznik}.
+         * */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Zwraca wartosc w pierwszym pliku lub {@code null} dla pola dodanego.
+         * */
+        public String getOldValue() {
+            return oldValue;
+        }
+
+        /**
+         * @return Zwraca wartosc w drugim pliku lub {@code null} dla pola usunietego.
+         * */
+        public String getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "\t" + name + "\t" + (oldValue == null ? "" : oldValue) + "\t" + (newValue == null ? "" : newValue);
+        }
+    }
+
+    private MetadataDiff() {
+    }
+
+    /**
+     * Publiczna i statyczna metoda porownujaca metadane dwoch plikow
+     * przy uzyciu wspolnego silnika biblioteki. Dziala tak jak
+     * {@link #compare(File, File, ExifEngine)}.
+     *
+     * @param original Plik oryginalny.
+     * @param copy Plik porownywany z oryginalem.
+     * @return Zwraca roznice w kolejnosci pol pierwszego pliku, a po nich
+     * pola dodane w kolejnosci drugiego pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli format pliku nie jest obslugiwany
+     * lub metadane sa niepoprawne.
+     * */
+    public static List<Change> compare(File original, File copy) throws IOException, ImageReadException {
+        return compare(original, copy, ExifEditor.ENGINE);
+    }
+
+    /**
+     * Publiczna i statyczna metoda porownujaca metadane dwoch plikow.
+     * Format kazdego pliku jest rozpoznawany na podstawie jego zawartosci.
+     * Plik bez segmentu EXIF jest traktowany jak plik bez pol.
+     *
+     * @param original Plik oryginalny.
+     * @param copy Plik porownywany z oryginalem.
+     * @param engine Silnik odczytujacy metadane.
+     * @return Zwraca roznice w kolejnosci pol pierwszego pliku, a po nich
+     * pola dodane w kolejnosci drugiego pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli format pliku nie jest obslugiwany
+     * lub metadane sa niepoprawne.
+     * */
+    public static List<Change> compare(File original, File copy, ExifEngine engine) throws IOException, ImageReadException {
+        ExifEngine.Parsed before = engine.readExif(original);
+        ExifEngine.Parsed after = engine.readExif(copy);
+        if (before.exif == null && after.exif == null || before.segment != null && after.segment != null
+                && Arrays.equals(before.segment.getTiffData(), after.segment.getTiffData())) {
+            return Collections.emptyList();
+        }
+        Map<TagKey, Integer> afterRows = new LinkedHashMap<>();
+        List<TiffField> afterFields = new ArrayList<>();
+        ExifMetadata afterMetadata = toMetadata(after.exif, afterRows, afterFields);
+        Map<TagKey, Integer> beforeRows = new LinkedHashMap<>();
+        List<TiffField> beforeFields = new ArrayList<>();
+        ExifMetadata beforeMetadata = toMetadata(before.exif, beforeRows, beforeFields);
+        List<Change> changes = new ArrayList<>();
+        for (Map.Entry<TagKey, Integer> entry : beforeRows.entrySet()) {
+            int row = entry.getValue();
+            String name = beforeMetadata.getDirectoryName(row) + ":" + beforeMetadata.getTagName(row);
+            Integer afterRow = afterRows.get(entry.getKey());
+            if (afterRow == null) {
+                changes.add(new Change(Kind.REMOVED, entry.getKey(), name, beforeMetadata.getFullValueText(row), null));
+            } else if (!sameValue(beforeFields.get(row), afterFields.get(afterRow))) {
+                changes.add(new Change(Kind.CHANGED, entry.getKey(), name, beforeMetadata.getFullValueText(row),
+                        afterMetadata.getFullValueText(afterRow)));
+            }
+        }
+        for (Map.Entry<TagKey, Integer> entry : afterRows.entrySet()) {
+            if (!beforeRows.containsKey(entry.getKey())) {
+                int row = entry.getValue();
+                changes.add(new Change(Kind.ADDED, entry.getKey(),
+                        afterMetadata.getDirectoryName(row) + ":" + afterMetadata.getTagName(row),
+                        null, afterMetadata.getFullValueText(row)));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Prywatna i statyczna metoda porownujaca wartosci pol: typ, licznik
+     * i surowe bajty wartosci.
+     * */
+    private static boolean sameValue(TiffField before, TiffField after) {
+        return before.getFieldType().getType() == after.getFieldType().getType()
+                && before.getCount() == after.getCount()
+                && Arrays.equals(before.getByteArrayValue(), after.getByteArrayValue());
+    }
+
+    /**
+     * Prywatna i statyczna metoda przeksztalcajaca metadane w model z pelnymi
+     * wartosciami i wypelniajaca mape kluczy pol na numery wierszy modelu
+     * oraz liste pol w kolejnosci wierszy. Pola z przesunieciami
+     * (np. ExifOffset) sa pomijane, poniewaz ich wartosci zaleza tylko
+     * od ukladu danych w pliku.
+     * */
+    private static ExifMetadata toMetadata(TiffImageMetadata exif, Map<TagKey, Integer> rows, List<TiffField> fields)
+            throws ImageReadException {
+        if (exif == null) {
+            return null;
+        }
+        Set<TagKey> offsets = new HashSet<>();
+        for (TiffDirectory dir : exif.contents.directories) {
+            for (TiffField field : dir.entries) {
+                if (field.getTagInfo() != null && field.getTagInfo().isOffset()) {
+                    offsets.add(TagKey.of(field));
+                }
+                fields.add(field);
+            }
+        }
+        ExifMetadata metadata = ExifMetadata.of(exif);
+        for (int i = 0; i < metadata.size(); i++) {
+            if (!offsets.contains(metadata.getKey(i))) {
+                rows.putIfAbsent(metadata.getKey(i), i);
+            }
+        }
+        return metadata;
+    }
+}
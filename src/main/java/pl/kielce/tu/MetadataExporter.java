@@ -0,0 +1,288 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Klasa eksportujaca metadane plikow z drzewa katalogow do formatu
+ * JSON Lines lub CSV. Pliki sa odczytywane rownolegle przez pule
+ * watkow, a wiersze kazdego pliku (katalog, znacznik, wartosc) sa
+ * przekazywane przez ograniczona kolejke do jednego watku zapisujacego
+ * je do buforowanego strumienia. Liczba plikow odczytywanych
+ * i oczekujacych na zapis jest ograniczona, wiec zuzycie pamieci
+ * nie zalezy od liczby plikow.
+ * */
+public class MetadataExporter {
+
+    /**
+     * Formaty eksportu.
+     * */
+    public enum Format {
+        /**
+         * Jeden obiekt JSON w wierszu dla kazdego pola.
+         * */
+        JSONL,
+        /**
+         * Plik CSV z naglowkiem {@code file,directory,tag,value}.
+         * */
+        CSV
+    }
+
+    /**
+     * Klasa opisujaca wiersze jednego pliku przekazywane do zapisu.
+     * */
+    private static final class Chunk {
+        final long sequence;
+        final String text;
+
+        Chunk(long sequence, String text) {
+            this.sequence = sequence;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Znacznik konca kolejki.
+     * */
+    private static final Chunk END = new Chunk(-1, "");
+
+    /**
+     * Parametry przetwarzania.
+     * */
+    private final BatchOptions options;
+    /**
+     * Strumien na komunikaty o bledach.
+     * */
+    private final PrintStream err;
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Konstruktor klasy eksportu.
+     *
+     * @param options Parametry przetwarzania.
+     * @param err Strumien na komunikaty o bledach.
+     * */
+    public MetadataExporter(BatchOptions options, PrintStream err) {
+        this.options = options;
+        this.err = err;
+    }
+
+    /**
+     * Publiczna metoda eksportujaca metadane do pliku podanego w parametrach
+     * lub, jesli nie zostal podany, do podanego strumienia.
+     *
+     * @param out Strumien uzywany, gdy nie podano pliku wynikowego.
+     * @return Zwraca podsumowanie przetwarzania.
+     * @throws IOException W przypadku bledu przegladania drzewa lub zapisu.
+     * @throws InterruptedException Jesli watek zostal przerwany podczas oczekiwania.
+     * */
+    public BatchSummary export(OutputStream out) throws IOException, InterruptedException {
+        Path file = options.getOutputFile();
+        if (file == null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            return export(writer);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), 1 << 16)) {
+            return export(writer);
+        }
+    }
+
+    /**
+     * Prywatna metoda eksportujaca metadane do podanego strumienia.
+     * Kolejne pliki otrzymuja numery w kolejnosci przegladania drzewa.
+     * W trybie uporzadkowanym watek zapisujacy przechowuje wiersze plikow,
+     * ktore zostaly odczytane przed poprzednimi, az do zapisu poprzednich.
+     * Miejsce w limicie plikow przetwarzanych jednoczesnie jest zwalniane
+     * dopiero po zapisie, wiec liczba przechowywanych plikow jest ograniczona.
+     * */
+    private BatchSummary export(Writer writer) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Format format = options.getFormat();
+        boolean ordered = options.isOrdered();
+        int maxInFlight = options.getMaxInFlight();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(maxInFlight + 1);
+        IOException[] writeError = new IOException[1];
+        Thread writerThread = new Thread(() -> {
+            Map<Long, String> pending = new HashMap<>();
+            long next = 0;
+            try {
+                if (format == Format.CSV) {
+                    write(writer, "file,directory,tag,value\n", writeError);
+                }
+                for (Chunk chunk = queue.take(); chunk != END; chunk = queue.take()) {
+                    if (!ordered) {
+                        write(writer, chunk.text, writeError);
+                        inFlight.release();
+                        continue;
+                    }
+                    pending.put(chunk.sequence, chunk.text);
+                    for (String text = pending.remove(next); text != null; text = pending.remove(next)) {
+                        write(writer, text, writeError);
+                        inFlight.release();
+                        next++;
+                    }
+                }
+                if (writeError[0] == null) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                writeError[0] = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "metadata-export-writer");
+        writerThread.start();
+        ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+        try (Stream<Path> files = Files.walk(options.getRoot())) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).filter(options::accepts).iterator();
+            long sequence = 0;
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                long number = sequence++;
+                inFlight.acquire();
+                executor.execute(() -> queue.add(new Chunk(number, format(file, format))));
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            queue.put(END);
+            writerThread.join();
+        }
+        if (writeError[0] != null) {
+            throw writeError[0];
+        }
+        return new BatchSummary(succeeded.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Prywatna i statyczna metoda zapisujaca tekst. Po pierwszym bledzie
+     * zapisu kolejne teksty sa pomijane, ale watek zapisujacy nadal
+     * odbiera je z kolejki, aby nie zablokowac watkow odczytujacych.
+     * */
+    private static void write(Writer writer, String text, IOException[] error) {
+        if (error[0] != null) {
+            return;
+        }
+        try {
+            writer.write(text);
+        } catch (IOException e) {
+            error[0] = e;
+        }
+    }
+
+    /**
+     * Prywatna metoda tworzaca wiersze wynikowe dla wszystkich pol pliku.
+     * Wartosci sa zapisywane w calosci, bez skracania tablic i dlugich
+     * tekstow (zob. {@link ExifMetadata#getFullValueText(int)}).
+     * W przypadku bledu odczytu zwracany jest pusty tekst, a blad jest
+     * wypisywany do strumienia bledow.
+     *
+     * @param file Plik do odczytu.
+     * @param format Format wierszy.
+     * @return Zwraca wiersze pliku zakonczone znakiem nowej linii.
+     * */
+    private String format(Path file, Format format) {
+        try {
+            ExifMetadata metadata = ExifEditor.readEXIFMetadata(file.toFile());
+            StringBuilder builder = new StringBuilder(metadata.size() * 64);
+            String name = file.toString();
+            for (int i = 0; i < metadata.size(); i++) {
+                if (format == Format.JSONL) {
+                    builder.append("{\"file\":");
+                    appendJson(builder, name);
+                    builder.append(",\"directory\":");
+                    appendJson(builder, metadata.getDirectoryName(i));
+                    builder.append(",\"tag\":");
+                    appendJson(builder, metadata.getTagName(i));
+                    builder.append(",\"value\":");
+                    appendJson(builder, metadata.getFullValueText(i));
+                    builder.append("}\n");
+                } else {
+                    appendCsv(builder, name).append(',');
+                    appendCsv(builder, metadata.getDirectoryName(i)).append(',');
+                    appendCsv(builder, metadata.getTagName(i)).append(',');
+                    appendCsv(builder, metadata.getFullValueText(i)).append('\n');
+                }
+            }
+            succeeded.incrementAndGet();
+            return builder.toString();
+        } catch (IOException | ImageReadException | RuntimeException e) {
+            failed.incrementAndGet();
+            err.println(file + ": " + e.getMessage());
+            return "";
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda dopisujaca tekst jako napis JSON.
+     * */
+    static StringBuilder appendJson(StringBuilder builder, String text) {
+        builder.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"');
+    }
+
+    /**
+     * Pakietowa i statyczna metoda dopisujaca tekst jako pole CSV
+     * (w cudzyslowach, jesli zawiera przecinek, cudzyslow lub znak nowej linii).
+     * */
+    static StringBuilder appendCsv(StringBuilder builder, String text) {
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return builder.append(text);
+        }
+        return builder.append('"').append(text.replace("\"", "\"\"")).append('"');
+    }
+}
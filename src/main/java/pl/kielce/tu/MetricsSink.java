@@ -0,0 +1,38 @@
+package pl.kielce.tu;
+
+/**
+ * Interfejs odbiorcy pomiarow operacji na metadanych. Implementacja jest
+ * ustawiana metoda {@link ExifMetrics#setSink(MetricsSink)} i moze
+ * przekazywac pomiary do zewnetrznego systemu monitorowania. Metody sa
+ * wywolywane rownolegle przez wiele watkow.
+ * */
+public interface MetricsSink {
+    /**
+     * Odbiorca ignorujacy wszystkie pomiary.
+     * */
+    MetricsSink NONE = new MetricsSink() {
+        @Override
+        public void increment(String counter, long delta) {
+        }
+
+        @Override
+        public void record(String histogram, long value) {
+        }
+    };
+
+    /**
+     * Metoda zwiekszajaca licznik o podana wartosc.
+     *
+     * @param counter Nazwa licznika, np. {@code read.bytesRead}.
+     * @param delta Wartosc, o ktora licznik ma zostac zwiekszony.
+     * */
+    void increment(String counter, long delta);
+
+    /**
+     * Metoda zapisujaca pojedynczy pomiar w histogramie.
+     *
+     * @param histogram Nazwa histogramu, np. {@code read.parse.nanos}.
+     * @param value Zmierzona wartosc.
+     * */
+    void record(String histogram, long value);
+}
@@ -0,0 +1,145 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Klasa sprawdzajaca, czy dane obrazu pliku JPEG nie zmienily sie po
+ * zapisie metadanych. Porownywany jest skrot SHA-256 danych od znacznika
+ * SOS do konca pliku (dane skanu zakonczone znacznikiem EOI), ktore
+ * zapis i usuniecie metadanych kopiuja bez zmian. Dane sa odczytywane
+ * przez odwzorowanie pliku w pamieci, wiec obraz nie jest dekodowany.
+ * */
+public final class PayloadDigest {
+    /**
+     * Algorytm skrotu danych obrazu.
+     * */
+    public static final String ALGORITHM = "SHA-256";
+    /**
+     * Maksymalny rozmiar fragmentu pliku odwzorowywanego w pamieci naraz.
+     * */
+    static final long WINDOW = 1L << 26;
+
+    private PayloadDigest() {
+    }
+
+    /**
+     * Publiczna i statyczna metoda obliczajaca skrot danych obrazu pliku.
+     *
+     * @param src Plik JPEG.
+     * @return Zwraca skrot danych od znacznika SOS do konca pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem JPEG
+     * lub nie zawiera danych obrazu.
+     * */
+    public static byte[] digest(File src) throws IOException, ImageReadException {
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("digest", src);
+             FileChannel channel = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            long scanStart = ExifSegment.findScanStart(channel);
+            ExifMetrics.phase(ExifMetrics.Phase.VERIFY);
+            MessageDigest digest = newDigest();
+            long count = channel.size() - scanStart;
+            for (long done = 0; done < count; ) {
+                long window = Math.min(WINDOW, count - done);
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, scanStart + done, window));
+                done += window;
+            }
+            ExifMetrics.bytesRead(count);
+            operation.succeeded();
+            return digest.digest();
+        }
+    }
+
+    /**
+     * Publiczna i statyczna metoda sprawdzajaca, czy dane obrazu obu
+     * plikow sa identyczne.
+     *
+     * @param src Plik zrodlowy.
+     * @param dest Plik utworzony z pliku zrodlowego.
+     * @return Zwraca {@code true} jesli skroty danych obrazu sa rowne.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli ktorys z plikow nie jest poprawnym
+     * plikiem JPEG.
+     * */
+    public static boolean verify(File src, File dest) throws IOException, ImageReadException {
+        return MessageDigest.isEqual(digest(src), digest(dest));
+    }
+
+    /**
+     * Publiczna i statyczna metoda sprawdzajaca rownolegle wiele par plikow.
+     *
+     * @param pairs Mapa plikow zrodlowych na pliki z nich utworzone.
+     * @param threads Liczba watkow obliczajacych skroty.
+     * @return Zwraca pliki zrodlowe, ktorych dane obrazu roznia sie od
+     * danych pliku utworzonego lub ktorych nie udalo sie odczytac,
+     * w kolejnosci mapy.
+     * @throws InterruptedException Jesli watek zostal przerwany podczas oczekiwania.
+     * */
+    public static List<File> verifyAll(Map<File, File> pairs, int threads) throws InterruptedException {
+        List<File> sources = new ArrayList<>(pairs.keySet());
+        List<Callable<Boolean>> tasks = new ArrayList<>(sources.size());
+        for (File src : sources) {
+            tasks.add(() -> verify(src, pairs.get(src)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = executor.invokeAll(tasks);
+            List<File> mismatched = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                boolean equal;
+                try {
+                    equal = results.get(i).get();
+                } catch (ExecutionException e) {
+                    equal = false;
+                }
+                if (!equal) {
+                    mismatched.add(sources.get(i));
+                }
+            }
+            return mismatched;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda sprawdzajaca, czy dane obrazu pliku
+     * docelowego maja podany skrot.
+     *
+     * @param expected Skrot danych obrazu pliku zrodlowego.
+     * @param dest Plik docelowy.
+     * @throws IOException Jesli dane obrazu roznia sie lub wystapil blad z odczytem pliku.
+     * @throws ImageReadException Jesli plik docelowy nie jest poprawnym plikiem JPEG.
+     * */
+    static void check(byte[] expected, File dest) throws IOException, ImageReadException {
+        ExifMetrics.phase(ExifMetrics.Phase.VERIFY);
+        if (!MessageDigest.isEqual(expected, digest(dest))) {
+            throw new IOException("Image data of " + dest + " differs from the source file.");
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda tworzaca nowy skrot danych obrazu.
+     * */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available.", e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Klasa odczytujaca i zapisujaca blok eXIf pliku PNG. Bloki pliku sa
+ * przegladane przez odczyt samych naglowkow (dlugosc i typ), wiec dane
+ * obrazu (bloki IDAT) nie sa odczytywane. Zapis dziala tak jak
+ * w {@link JpegExifRewriter}: nowy blok jest zapisywany w miejscu
+ * pierwszego bloku eXIf (lub przed pierwszym blokiem IDAT), a pozostale
+ * fragmenty pliku sa kopiowane metoda {@link FileChannel#transferTo}.
+ * */
+final class PngExifRewriter {
+    /**
+     * Sygnatura pliku PNG.
+     * */
+    static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    /**
+     * Typ bloku z danymi EXIF.
+     * */
+    private static final byte[] EXIF = "eXIf".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDAT = "IDAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Liczba bajtow naglowka bloku (dlugosc i typ).
+     * */
+    private static final int CHUNK_HEADER_LENGTH = 8;
+    /**
+     * Liczba bajtow sumy kontrolnej CRC na koncu bloku.
+     * */
+    private static final int CRC_LENGTH = 4;
+
+    private PngExifRewriter() {
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wyszukujaca bloki eXIf pliku PNG.
+     * Dane bloku moga byc poprzedzone naglowkiem EXIF znanym z plikow
+     * JPEG, ktory jest wtedy pomijany.
+     *
+     * @param channel Kanal pliku PNG.
+     * @return Zwraca bloki w kolejnosci wystepowania w pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem PNG.
+     * */
+    static List<ExifSegment> findAll(FileChannel channel) throws IOException, ImageReadException {
+        return findAll(channel, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wyszukujaca bloki eXIf pliku PNG,
+     * ktorych dane nie sa dluzsze niz podany limit. Dane bloku sa
+     * odczytywane dopiero po sprawdzeniu jego dlugosci.
+     *
+     * @param channel Kanal pliku PNG.
+     * @param maxLength Najwieksza dopuszczalna dlugosc danych bloku w bajtach.
+     * @return Zwraca bloki w kolejnosci wystepowania w pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem PNG
+     * lub blok eXIf jest dluzszy niz limit.
+     * */
+    static List<ExifSegment> findAll(FileChannel channel, long maxLength) throws IOException, ImageReadException {
+        List<ExifSegment> segments = new ArrayList<>(1);
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_LENGTH);
+        long position = SIGNATURE.length;
+        while (position + CHUNK_HEADER_LENGTH + CRC_LENGTH <= channel.size()) {
+            header.clear();
+            ExifSegment.readFully(channel, header, position);
+            long length = chunkLength(channel, header, position);
+            if (isType(header, EXIF)) {
+                if (length > Integer.MAX_VALUE - CHUNK_HEADER_LENGTH - CRC_LENGTH) {
+                    throw new ImageReadException("PNG eXIf chunk too large at offset " + position + ".");
+                }
+                if (length > maxLength) {
+                    throw new ImageReadException("PNG eXIf chunk at offset " + position + " exceeds the limit of "
+                            + maxLength + " bytes.");
+                }
+                ByteBuffer data = ByteBuffer.allocate((int) length);
+                ExifSegment.readFully(channel, data, position + CHUNK_HEADER_LENGTH);
+                int skip = hasExifHeader(data.array()) ? ExifSegment.EXIF_HEADER.length : 0;
+                segments.add(new ExifSegment(position, (int) length + CHUNK_HEADER_LENGTH + CRC_LENGTH,
+                        CHUNK_HEADER_LENGTH + skip, Arrays.copyOfRange(data.array(), skip, data.capacity())));
+            } else if (isType(header, IEND)) {
+                break;
+            }
+            position += CHUNK_HEADER_LENGTH + length + CRC_LENGTH;
+        }
+        return segments;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wyznaczajaca miejsce nowego bloku eXIf
+     * w pliku, ktory go nie zawiera: pozycje pierwszego bloku IDAT, a jesli
+     * go nie ma, bloku IEND.
+     *
+     * @param channel Kanal pliku PNG.
+     * @return Zwraca pozycje w pliku dla nowego bloku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem PNG.
+     * */
+    static long findInsertPosition(FileChannel channel) throws IOException, ImageReadException {
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_LENGTH);
+        long position = SIGNATURE.length;
+        while (position + CHUNK_HEADER_LENGTH + CRC_LENGTH <= channel.size()) {
+            header.clear();
+            ExifSegment.readFully(channel, header, position);
+            long length = chunkLength(channel, header, position);
+            if (isType(header, IDAT) || isType(header, IEND)) {
+                return position;
+            }
+            position += CHUNK_HEADER_LENGTH + length + CRC_LENGTH;
+        }
+        throw new ImageReadException("No image data found.");
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plik docelowy z blokami eXIf
+     * zastapionymi nowym blokiem lub bez nich.
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param segments Bloki eXIf pliku zrodlowego.
+     * @param tiffData Dane TIFF nowego bloku lub {@code null}
+     *                 jesli bloki maja zostac jedynie usuniete.
+     * @param dest Plik docelowy.
+     * @param sync Czy utrwalic dane pliku docelowego ({@link FileChannel#force}).
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli plik zrodlowy nie jest poprawnym plikiem PNG.
+     * */
+    static void rewrite(FileChannel in, List<ExifSegment> segments, byte[] tiffData, Path dest, boolean sync)
+            throws IOException, ImageReadException {
+        ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+        long position = segments.isEmpty() ? findInsertPosition(in) : segments.get(0).getOffset();
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            JpegExifRewriter.transfer(in, 0, position, out);
+            if (tiffData != null) {
+                writeChunk(out, tiffData);
+            }
+            for (ExifSegment segment : segments) {
+                JpegExifRewriter.transfer(in, position, segment.getOffset() - position, out);
+                position = segment.getEndOffset();
+            }
+            JpegExifRewriter.transfer(in, position, in.size() - position, out);
+            ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+            if (sync) {
+                out.force(true);
+            }
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca sume kontrolna bloku eXIf,
+     * ktorego dane TIFF zostaly zmienione w pliku bez zmiany ich dlugosci.
+     *
+     * @param channel Kanal pliku PNG otwarty do zapisu.
+     * @param segment Zmieniony blok.
+     * @param tiffData Nowe dane TIFF bloku.
+     * @throws IOException W przypadku wystapienia bledu z zapisem pliku.
+     * */
+    static void updateCrc(FileChannel channel, ExifSegment segment, byte[] tiffData) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(EXIF);
+        if (segment.getTiffOffset() - segment.getOffset() > CHUNK_HEADER_LENGTH) {
+            crc.update(ExifSegment.EXIF_HEADER);
+        }
+        crc.update(tiffData);
+        ByteBuffer trailer = ByteBuffer.allocate(CRC_LENGTH).putInt((int) crc.getValue()).flip();
+        long position = segment.getEndOffset() - CRC_LENGTH;
+        while (trailer.hasRemaining()) {
+            position += channel.write(trailer, position);
+        }
+        ExifMetrics.bytesWritten(CRC_LENGTH);
+    }
+
+    private static void writeChunk(FileChannel out, byte[] tiffData) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(EXIF);
+        crc.update(tiffData);
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_LENGTH).putInt(tiffData.length).put(EXIF).flip();
+        ByteBuffer trailer = ByteBuffer.allocate(CRC_LENGTH).putInt((int) crc.getValue()).flip();
+        ByteBuffer[] buffers = { header, ByteBuffer.wrap(tiffData), trailer };
+        while (trailer.hasRemaining()) {
+            out.write(buffers);
+        }
+        ExifMetrics.bytesWritten(CHUNK_HEADER_LENGTH + tiffData.length + CRC_LENGTH);
+    }
+
+    private static long chunkLength(FileChannel channel, ByteBuffer header, long position)
+            throws IOException, ImageReadException {
+        long length = header.getInt(0) & 0xFFFFFFFFL;
+        if (position + CHUNK_HEADER_LENGTH + length + CRC_LENGTH > channel.size()) {
+            throw new ImageReadException("Invalid PNG chunk length at offset " + position + ".");
+        }
+        return length;
+    }
+
+    private static boolean isType(ByteBuffer header, byte[] type) {
+        for (int i = 0; i < type.length; i++) {
+            if (header.get(4 + i) != type[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda sprawdzajaca, czy dane bloku zaczynaja
+     * sie naglowkiem EXIF, po ktorym nastepuja dane TIFF.
+     * */
+    static boolean hasExifHeader(byte[] data) {
+        return data.length >= ExifSegment.EXIF_HEADER.length
+                && Arrays.equals(Arrays.copyOf(data, ExifSegment.EXIF_HEADER.length), ExifSegment.EXIF_HEADER);
+    }
+}
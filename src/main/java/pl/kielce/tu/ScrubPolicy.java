@@ -0,0 +1,125 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Klasa opisujaca, ktore metadane usuwa czyszczenie prywatnych danych
+ * (zob. {@link ExifEditor#scrubEXIFDataInPlace(java.io.File, ScrubPolicy)}).
+ * Polityka wskazuje pojedyncze znaczniki oraz cale katalogi (GPS, EXIF
+ * lub Interoperability), ktore sa odlaczane od katalogu nadrzednego.
+ * Pozostale znaczniki, m.in. orientacja, przestrzen barw i prawa
+ * autorskie, sa zachowywane.
+ * */
+public final class ScrubPolicy {
+    /**
+     * Polityka domyslna: katalog GPS, numery seryjne aparatu i obiektywu,
+     * wlasciciel aparatu, unikalny identyfikator zdjecia, nazwa komputera
+     * oraz dane producenta (MakerNote), ktore czesto zawieraja numer seryjny.
+     * */
+    public static final ScrubPolicy DEFAULT = new ScrubPolicy(
+            List.of(TiffDirectoryConstants.DIRECTORY_TYPE_GPS),
+            List.of(new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_EXIF, 0xA430),
+                    new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_EXIF, 0xA431),
+                    new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_EXIF, 0xA435),
+                    new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_EXIF, 0xA420),
+                    new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_EXIF, 0x927C),
+                    new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_ROOT, 0x013C),
+                    new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_ROOT, 0xC62F)));
+
+    /**
+     * Typy usuwanych katalogow.
+     * */
+    private final Set<Integer> directoryTypes;
+    /**
+     * Klucze usuwanych znacznikow.
+     * */
+    private final Set<TagKey> tags;
+
+    /**
+     * Konstruktor polityki.
+     *
+     * @param directoryTypes Typy usuwanych katalogow (GPS, EXIF lub Interoperability).
+     * @param tags Klucze usuwanych znacznikow.
+     * @throws IllegalArgumentException Jesli katalogu danego typu nie mozna usunac.
+     * */
+    public ScrubPolicy(Collection<Integer> directoryTypes, Collection<TagKey> tags) {
+        for (int type : directoryTypes) {
+            if (IfdLayout.pointerTag(type) == 0) {
+                throw new IllegalArgumentException("Can't remove directory " + type + ".");
+            }
+        }
+        this.directoryTypes = Collections.unmodifiableSet(new LinkedHashSet<>(directoryTypes));
+        this.tags = Collections.unmodifiableSet(new LinkedHashSet<>(tags));
+    }
+
+    /**
+     * Publiczna i statyczna metoda tworzaca polityke na podstawie listy
+     * rozdzielonej przecinkami. Elementem listy jest nazwa katalogu
+     * (np. "Gps"), klucz znacznika w postaci "Katalog:Znacznik"
+     * (np. "Exif:BodySerialNumber") lub slowo "default" oznaczajace
+     * elementy polityki {@link #DEFAULT}.
+     *
+     * @param text Lista elementow polityki.
+     * @return Zwraca polityke.
+     * @throws IllegalArgumentException Jesli ktoregos elementu nie rozpoznano.
+     * */
+    public static ScrubPolicy parse(String text) {
+        Set<Integer> directoryTypes = new LinkedHashSet<>();
+        Set<TagKey> tags = new LinkedHashSet<>();
+        for (String item : text.split(",")) {
+            item = item.trim();
+            if (item.equalsIgnoreCase("default")) {
+                directoryTypes.addAll(DEFAULT.directoryTypes);
+                tags.addAll(DEFAULT.tags);
+            } else if (item.indexOf(':') >= 0) {
+                tags.add(TagKey.parse(item));
+            } else if (!item.isEmpty()) {
+                directoryTypes.add(TagKey.parseDirectory(item));
+            }
+        }
+        if (directoryTypes.isEmpty() && tags.isEmpty()) {
+            throw new IllegalArgumentException("Empty scrub policy: " + text);
+        }
+        return new ScrubPolicy(directoryTypes, tags);
+    }
+
+    /**
+     * Publiczna metoda sprawdzajaca, czy polityka usuwa katalog danego typu.
+     *
+     * @param directoryType Typ katalogu.
+     * @return Zwraca {@code true} jesli katalog ma zostac usuniety.
+     * */
+    public boolean removesDirectory(int directoryType) {
+        return directoryTypes.contains(directoryType);
+    }
+
+    /**
+     * Publiczna metoda sprawdzajaca, czy polityka usuwa znacznik.
+     *
+     * @param key Klucz znacznika.
+     * @return Zwraca {@code true} jesli znacznik lub jego katalog ma zostac usuniety.
+     * */
+    public boolean removesTag(TagKey key) {
+        return tags.contains(key) || directoryTypes.contains(key.getDirectoryType());
+    }
+
+    /**
+     * @return Zwraca typy usuwanych katalogow.
+     * */
+    public Set<Integer> getDirectoryTypes() {
+        return directoryTypes;
+    }
+
+    /**
+     * @return Zwraca klucze usuwanych znacznikow.
+     * */
+    public Set<TagKey> getTags() {
+        return tags;
+    }
+}
@@ -0,0 +1,118 @@
+package pl.kielce.tu;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Klasa odbiorcy pomiarow przechowujaca liczniki i histogramy w pamieci
+ * procesu. Histogramy maja przedzialy o granicach bedacych potegami
+ * dwojki, wiec zapis pomiaru nie wymaga blokad ani alokacji, a percentyle
+ * sa wyznaczane z dokladnoscia do dwukrotnosci wartosci.
+ * */
+public class StatsSink implements MetricsSink {
+
+    /**
+     * Klasa histogramu o przedzialach [2^(i-1), 2^i).
+     * */
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(65);
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        /**
+         * Metoda zwracajaca gorna granice przedzialu, w ktorym znajduje sie
+         * podany percentyl (nie wieksza niz najwieksza zapisana wartosc).
+         * */
+        long percentile(double p) {
+            long total = count.sum();
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void increment(String counter, long delta) {
+        counters.computeIfAbsent(counter, name -> new LongAdder()).add(delta);
+    }
+
+    @Override
+    public void record(String histogram, long value) {
+        histograms.computeIfAbsent(histogram, name -> new Histogram()).record(value);
+    }
+
+    /**
+     * @param counter Nazwa licznika.
+     * @return Zwraca wartosc licznika lub 0, jesli licznik nie istnieje.
+     * */
+    public long getCounter(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * @param histogram Nazwa histogramu.
+     * @return Zwraca liczbe pomiarow zapisanych w histogramie.
+     * */
+    public long getCount(String histogram) {
+        Histogram h = histograms.get(histogram);
+        return h == null ? 0 : h.count.sum();
+    }
+
+    /**
+     * Publiczna metoda usuwajaca wszystkie liczniki i histogramy.
+     * */
+    public void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    /**
+     * Publiczna metoda tworzaca tekstowe zestawienie licznikow
+     * i histogramow posortowanych wedlug nazwy. Dla histogramow czasow
+     * (nazwy konczace sie na {@code .nanos}) wartosci sa podawane
+     * w milisekundach.
+     *
+     * @return Zwraca zestawienie, po jednym wierszu dla kazdej miary.
+     * */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            builder.append(String.format(Locale.ROOT, "%-28s %d%n", entry.getKey(), entry.getValue().sum()));
+        }
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = entry.getValue();
+            long count = h.count.sum();
+            double scale = entry.getKey().endsWith(".nanos") ? 1e6 : 1;
+            builder.append(String.format(Locale.ROOT,
+                    "%-28s count %d, mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                    entry.getKey(), count, count == 0 ? 0 : h.sum.sum() / scale / count,
+                    h.percentile(0.5) / scale, h.percentile(0.9) / scale, h.percentile(0.99) / scale,
+                    h.max.get() / scale));
+        }
+        return builder.toString();
+    }
+}
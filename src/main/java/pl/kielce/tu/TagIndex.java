@@ -0,0 +1,801 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Klasa trwalego indeksu znacznikow EXIF plikow z drzewa katalogow.
+ * Indeks sklada sie z katalogu plikow (sciezka, rozmiar, czas
+ * modyfikacji) oraz niezmiennych segmentow z wpisami (znacznik, wartosc,
+ * numer pliku) posortowanymi wedlug znacznika i wartosci i zapisanymi
+ * kolumnami. Segmenty sa mapowane do pamieci, a wpisy spelniajace
+ * warunek sa wyszukiwane binarnie, bez odczytu plikow graficznych.
+ * Aktualizacja odczytuje tylko pliki nowe lub zmienione (wedlug rozmiaru
+ * i czasu modyfikacji) i zapisuje ich wpisy w nowym segmencie. Wpisy
+ * usunietych lub zmienionych plikow sa pomijane przy wyszukiwaniu
+ * i usuwane podczas laczenia segmentow. Pliki segmentow, do ktorych nie
+ * odwoluje sie katalog (np. po przerwanej aktualizacji lub zmapowane
+ * jeszcze w chwili laczenia), sa usuwane przy otwarciu indeksu. Metody
+ * klasy nie moga byc wywolywane jednoczesnie z wielu watkow ani procesow.
+ * */
+public class TagIndex implements Closeable {
+    /**
+     * Nazwa pliku katalogu indeksu.
+     * */
+    private static final String CATALOG = "catalog.dat";
+    private static final int CATALOG_MAGIC = 0x45584943;
+    private static final int SEGMENT_MAGIC = 0x45584953;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER = 12;
+    /**
+     * Maksymalna liczba wpisow zapisywanych w jednym nowym segmencie.
+     * */
+    private static final int MAX_BUFFERED_POSTINGS = 1 << 20;
+    /**
+     * Liczba segmentow, powyzej ktorej segmenty sa laczone.
+     * */
+    private static final int MAX_SEGMENTS = 8;
+    /**
+     * Maksymalna dlugosc indeksowanej wartosci. Dla dluzszych wartosci
+     * zapisywana jest tylko obecnosc znacznika (pusta wartosc).
+     * */
+    public static final int MAX_VALUE_CHARS = 256;
+
+    /**
+     * Klasa opisujaca plik zapisany w indeksie.
+     * */
+    private static final class FileEntry {
+        final int id;
+        final long size;
+        final long lastModified;
+        final int postings;
+
+        FileEntry(int id, long size, long lastModified, int postings) {
+            this.id = id;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.postings = postings;
+        }
+    }
+
+    /**
+     * Klasa opisujaca wpis indeksu.
+     * */
+    private static final class Posting implements Comparable<Posting> {
+        final long key;
+        final String value;
+        final int fileId;
+
+        Posting(long key, String value, int fileId) {
+            this.key = key;
+            this.value = value;
+            this.fileId = fileId;
+        }
+
+        @Override
+        public int compareTo(Posting other) {
+            int result = Long.compare(key, other.key);
+            if (result == 0) {
+                result = value.compareTo(other.value);
+            }
+            return result != 0 ? result : Integer.compare(fileId, other.fileId);
+        }
+    }
+
+    /**
+     * Klasa warunku zapytania na wartosc znacznika. Porownanie jest
+     * liczbowe, gdy wartosc warunku i wartosc znacznika sa liczbami,
+     * a w przeciwnym przypadku tekstowe (co dla dat EXIF w postaci
+     * "RRRR:MM:DD GG:MM:SS" odpowiada porzadkowi chronologicznemu).
+     * */
+    public static final class Condition {
+        /**
+         * Operatory warunku.
+         * */
+        public enum Operator {
+            EXISTS, EQ, LT, LE, GT, GE
+        }
+
+        /**
+         * Typ katalogu IFD.
+         * */
+        private final int directoryType;
+        /**
+         * Znacznik lub {@code null} dla dowolnego znacznika katalogu.
+         * */
+        private final TagKey key;
+        private final Operator operator;
+        private final String value;
+        /**
+         * Wartosc warunku jako liczba lub {@code null}.
+         * */
+        private final Double number;
+
+        private Condition(int directoryType, TagKey key, Operator operator, String value) {
+            this.directoryType = directoryType;
+            this.key = key;
+            this.operator = operator;
+            this.value = value;
+            this.number = value == null ? null : parseNumber(value);
+        }
+
+        /**
+         * Publiczna i statyczna metoda tworzaca warunek z tekstu w postaci
+         * {@code Dir:Tag} (obecnosc znacznika), {@code Dir:*} (obecnosc
+         * dowolnego znacznika katalogu) lub {@code Dir:Tag<op>wartosc},
+         * gdzie {@code <op>} to jeden z operatorow {@code = < <= > >=}.
+         *
+         * @param text Tekst warunku.
+         * @return Zwraca warunek.
+         * @throws IllegalArgumentException Jesli tekst warunku jest niepoprawny.
+         * */
+        public static Condition parse(String text) {
+            int index = 0;
+            while (index < text.length() && "=<>".indexOf(text.charAt(index)) < 0) {
+                index++;
+            }
+            String keyText = text.substring(0, index).trim();
+            Operator operator = Operator.EXISTS;
+            String value = null;
+            if (index < text.length()) {
+                char first = text.charAt(index);
+                boolean orEqual = first != '=' && index + 1 < text.length() && text.charAt(index + 1) == '=';
+                switch (first) {
+                    case '<':
+                        operator = orEqual ? Operator.LE : Operator.LT;
+                        break;
+                    case '>':
+                        operator = orEqual ? Operator.GE : Operator.GT;
+                        break;
+                    default:
+                        operator = Operator.EQ;
+                }
+                value = text.substring(index + (orEqual ? 2 : 1));
+            }
+            if (keyText.endsWith(":*")) {
+                if (operator != Operator.EXISTS) {
+                    throw new IllegalArgumentException("Only existence can be queried for all tags: " + text);
+                }
+                int directoryType = TagKey.parse(keyText.substring(0, keyText.length() - 1) + "0x0").getDirectoryType();
+                return new Condition(directoryType, null, operator, null);
+            }
+            TagKey key = TagKey.parse(keyText);
+            return new Condition(key.getDirectoryType(), key, operator, value);
+        }
+
+        /**
+         * Pakietowa metoda sprawdzajaca, czy wartosc znacznika spelnia warunek.
+         * */
+        boolean matches(String text) {
+            if (operator == Operator.EXISTS) {
+                return true;
+            }
+            int result;
+            Double other = number == null ? null : parseNumber(text);
+            if (other != null) {
+                result = Double.compare(other, number);
+            } else {
+                result = text.compareTo(value);
+            }
+            switch (operator) {
+                case EQ:
+                    return result == 0;
+                case LT:
+                    return result < 0;
+                case LE:
+                    return result <= 0;
+                case GT:
+                    return result > 0;
+                default:
+                    return result >= 0;
+            }
+        }
+
+        private static Double parseNumber(String text) {
+            try {
+                return Double.valueOf(text.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Klasa segmentu indeksu zmapowanego do pamieci. Segment zawiera
+     * naglowek (znacznik, wersja, liczba wpisow) oraz kolumny: klucze
+     * znacznikow, polozenia wartosci w puli tekstow i numery plikow.
+     * Wpisy sa posortowane wedlug klucza, wartosci i numeru pliku.
+     * */
+    private static final class Segment {
+        final String name;
+        final MappedByteBuffer buffer;
+        final int rows;
+
+        Segment(Path dir, String name) throws IOException {
+            this.name = name;
+            try (FileChannel channel = FileChannel.open(dir.resolve(name), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.getInt(0) != SEGMENT_MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Invalid index segment: " + name);
+            }
+            rows = buffer.getInt(8);
+        }
+
+        long key(int row) {
+            return buffer.getLong(SEGMENT_HEADER + row * 8);
+        }
+
+        String value(int row) {
+            int offset = buffer.getInt(SEGMENT_HEADER + rows * 8 + row * 4);
+            int length = buffer.getInt(offset);
+            byte[] bytes = new byte[length];
+            buffer.get(offset + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int fileId(int row) {
+            return buffer.getInt(SEGMENT_HEADER + rows * 12 + row * 4);
+        }
+
+        /**
+         * @return Zwraca numer pierwszego wpisu o kluczu nie mniejszym niz podany.
+         * */
+        int lowerBound(long key) {
+            int low = 0;
+            int high = rows;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (key(middle) < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return Zwraca numer pierwszego wpisu w zakresie {@code [low, high)},
+         * ktorego wartosc jest wieksza (lub nie mniejsza) od podanej.
+         * */
+        int valueBound(int low, int high, String value, boolean inclusive) {
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int result = value(middle).compareTo(value);
+                if (inclusive ? result < 0 : result <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Katalog z plikami indeksu.
+     * */
+    private final Path dir;
+    /**
+     * Pliki zapisane w indeksie (sciezka bezwzgledna -> opis pliku).
+     * */
+    private final Map<String, FileEntry> files = new HashMap<>();
+    /**
+     * Segmenty indeksu.
+     * */
+    private final List<Segment> segments = new ArrayList<>();
+    private int nextFileId;
+    private int nextSegmentId;
+
+    private TagIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Publiczna i statyczna metoda otwierajaca indeks zapisany w podanym
+     * katalogu lub tworzaca pusty indeks, jesli katalog go nie zawiera.
+     * Pliki segmentow pominiete w katalogu indeksu sa usuwane.
+     *
+     * @param dir Katalog z plikami indeksu.
+     * @return Zwraca otwarty indeks.
+     * @throws IOException Jesli odczyt indeksu sie nie powiodl lub pliki
+     * indeksu sa niepoprawne.
+     * */
+    public static TagIndex open(Path dir) throws IOException {
+        TagIndex index = new TagIndex(dir);
+        Files.createDirectories(dir);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(CATALOG))))) {
+            if (in.readInt() != CATALOG_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Invalid index catalog in " + dir);
+            }
+            index.nextFileId = in.readInt();
+            index.nextSegmentId = in.readInt();
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                index.segments.add(new Segment(dir, in.readUTF()));
+            }
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                String path = in.readUTF();
+                index.files.put(path, new FileEntry(in.readInt(), in.readLong(), in.readLong(), in.readInt()));
+            }
+        } catch (NoSuchFileException e) {
+            // nowy indeks
+        }
+        index.deleteUnreferencedSegments();
+        return index;
+    }
+
+    /**
+     * Prywatna metoda usuwajaca pliki segmentow i kolumn tymczasowych,
+     * do ktorych nie odwoluje sie katalog indeksu.
+     * */
+    private void deleteUnreferencedSegments() throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (Segment segment : segments) {
+            referenced.add(segment.name);
+        }
+        List<String> unreferenced = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment-*")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (!referenced.contains(name)) {
+                    unreferenced.add(name);
+                }
+            }
+        }
+        deleteSegments(unreferenced);
+    }
+
+    /**
+     * Prywatna metoda usuwajaca pliki segmentow. Bledy sa pomijane:
+     * w systemie Windows nie mozna usunac pliku, ktory jest jeszcze
+     * zmapowany do pamieci, wiec taki plik zostanie usuniety przy
+     * kolejnym otwarciu indeksu.
+     * */
+    private void deleteSegments(List<String> names) {
+        for (String name : names) {
+            try {
+                Files.deleteIfExists(dir.resolve(name));
+            } catch (IOException e) {
+                // usuwany przy kolejnym otwarciu indeksu
+            }
+        }
+    }
+
+    /**
+     * Publiczna metoda aktualizujaca indeks dla plikow z podanego drzewa
+     * katalogow. Odczytywane sa tylko pliki nowe oraz takie, ktorych
+     * rozmiar lub czas modyfikacji sie zmienil, a pliki usuniete z drzewa
+     * sa usuwane z indeksu. Pliki, ktorych odczyt sie nie powiodl, sa
+     * zapisywane bez znacznikow i odczytywane ponownie dopiero po zmianie.
+     * Jesli aktualizacja sie nie powiedzie, zapisane juz nowe segmenty
+     * sa usuwane, a katalog indeksu pozostaje bez zmian.
+     *
+     * @param root Katalog glowny drzewa.
+     * @param filter Warunek wyboru plikow do indeksowania.
+     * @param threads Liczba watkow odczytujacych pliki.
+     * @return Zwraca podsumowanie: liczbe odczytanych plikow i bledow.
+     * @throws IOException W przypadku bledu przegladania drzewa lub zapisu indeksu.
+     * @throws InterruptedException Jesli watek zostal przerwany podczas oczekiwania.
+     * */
+    public BatchSummary update(Path root, Predicate<Path> filter, int threads) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        String prefix = root.toAbsolutePath().normalize().toString();
+        Set<String> seen = new HashSet<>();
+        Map<String, FileEntry> updated = new HashMap<>();
+        List<Posting> buffer = new ArrayList<>();
+        List<String> newSegments = new ArrayList<>();
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads * 4);
+        boolean saved = false;
+        try {
+            try (Stream<Path> paths = Files.walk(root)) {
+                Iterator<Path> iterator = paths.filter(Files::isRegularFile).filter(filter).iterator();
+                while (iterator.hasNext()) {
+                    Path file = iterator.next().toAbsolutePath().normalize();
+                    String path = file.toString();
+                    seen.add(path);
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    FileEntry entry = files.get(path);
+                    long lastModified = attributes.lastModifiedTime().toMillis();
+                    if (entry != null && entry.size == attributes.size() && entry.lastModified == lastModified) {
+                        continue;
+                    }
+                    int fileId = nextFileId++;
+                    inFlight.acquire();
+                    synchronized (buffer) {
+                        if (buffer.size() >= MAX_BUFFERED_POSTINGS) {
+                            newSegments.add(writeSegment(buffer));
+                            buffer.clear();
+                        }
+                    }
+                    executor.execute(() -> {
+                        try {
+                            List<Posting> postings = readPostings(file, fileId, succeeded, failed);
+                            synchronized (buffer) {
+                                updated.put(path, new FileEntry(fileId, attributes.size(), lastModified, postings.size()));
+                                buffer.addAll(postings);
+                            }
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+            } finally {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            boolean removed = files.keySet().removeIf(path -> isUnder(path, prefix) && !seen.contains(path));
+            if (!buffer.isEmpty()) {
+                newSegments.add(writeSegment(buffer));
+            }
+            if (removed || !updated.isEmpty()) {
+                files.putAll(updated);
+                for (String name : newSegments) {
+                    segments.add(new Segment(dir, name));
+                }
+                if (segments.size() > MAX_SEGMENTS || countPostings() > 2L * countLivePostings()) {
+                    compact();
+                } else {
+                    saveCatalog();
+                }
+            }
+            saved = true;
+        } finally {
+            if (!saved) {
+                deleteSegments(newSegments);
+            }
+        }
+        return new BatchSummary(succeeded.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    private static boolean isUnder(String path, String prefix) {
+        return path.startsWith(prefix) && (path.length() == prefix.length()
+                || path.charAt(prefix.length()) == File.separatorChar || prefix.endsWith(File.separator));
+    }
+
+    /**
+     * Prywatna i statyczna metoda tworzaca wpisy indeksu dla pol pliku.
+     * */
+    private static List<Posting> readPostings(Path file, int fileId, AtomicLong succeeded, AtomicLong failed) {
+        List<Posting> postings = new ArrayList<>();
+        try {
+            ExifMetadata metadata = ExifEditor.readEXIFMetadata(file.toFile());
+            for (int i = 0; i < metadata.size(); i++) {
+                String value = metadata.getValueText(i);
+                if (metadata.isPreview(i) || value.length() > MAX_VALUE_CHARS) {
+                    value = "";
+                }
+                postings.add(new Posting(key(metadata.getDirectoryType(i), metadata.getTag(i)), value, fileId));
+            }
+            succeeded.incrementAndGet();
+        } catch (IOException | ImageReadException | RuntimeException e) {
+            failed.incrementAndGet();
+        }
+        return postings;
+    }
+
+    private static long key(int directoryType, int tag) {
+        return ((long) directoryType << 32) | (tag & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Publiczna metoda wyszukujaca pliki spelniajace wszystkie warunki.
+     *
+     * @param conditions Warunki zapytania.
+     * @return Zwraca posortowane sciezki plikow spelniajacych warunki.
+     * */
+    public List<String> query(List<Condition> conditions) {
+        BitSet result = null;
+        for (Condition condition : conditions) {
+            BitSet matches = find(condition);
+            if (result == null) {
+                result = matches;
+            } else {
+                result.and(matches);
+            }
+        }
+        List<String> paths = new ArrayList<>();
+        if (result == null || result.isEmpty()) {
+            return paths;
+        }
+        for (Map.Entry<String, FileEntry> entry : files.entrySet()) {
+            if (result.get(entry.getValue().id)) {
+                paths.add(entry.getKey());
+            }
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /**
+     * Prywatna metoda wyznaczajaca numery plikow z wpisami spelniajacymi
+     * warunek. Dla kazdego segmentu wyszukiwany jest binarnie zakres
+     * wpisow znacznika, a dla warunkow tekstowych takze zakres wartosci.
+     * */
+    private BitSet find(Condition condition) {
+        BitSet matches = new BitSet();
+        long firstKey = condition.key != null ? key(condition.directoryType, condition.key.getTag())
+                : key(condition.directoryType, 0);
+        long lastKey = condition.key != null ? firstKey : key(condition.directoryType, -1);
+        for (Segment segment : segments) {
+            int low = segment.lowerBound(firstKey);
+            int high = segment.lowerBound(lastKey + 1);
+            boolean scan = condition.operator != Condition.Operator.EXISTS;
+            if (condition.number == null) {
+                switch (condition.operator) {
+                    case EQ:
+                        low = segment.valueBound(low, high, condition.value, true);
+                        high = segment.valueBound(low, high, condition.value, false);
+                        scan = false;
+                        break;
+                    case LT:
+                    case LE:
+                        high = segment.valueBound(low, high, condition.value, condition.operator == Condition.Operator.LT);
+                        scan = false;
+                        break;
+                    case GT:
+                    case GE:
+                        low = segment.valueBound(low, high, condition.value, condition.operator == Condition.Operator.GE);
+                        scan = false;
+                        break;
+                    default:
+                }
+            }
+            for (int row = low; row < high; row++) {
+                if (!scan || condition.matches(segment.value(row))) {
+                    matches.set(segment.fileId(row));
+                }
+            }
+        }
+        BitSet live = new BitSet();
+        for (FileEntry entry : files.values()) {
+            live.set(entry.id);
+        }
+        matches.and(live);
+        return matches;
+    }
+
+    /**
+     * Prywatna metoda zapisujaca posortowane wpisy jako nowy segment.
+     *
+     * @return Zwraca nazwe pliku segmentu.
+     * */
+    private String writeSegment(List<Posting> postings) throws IOException {
+        Collections.sort(postings);
+        return writeSegment(postings.iterator(), postings.size());
+    }
+
+    /**
+     * Prywatna metoda zapisujaca segment z posortowanych wpisow. Kolejne
+     * kolumny sa zapisywane do plikow tymczasowych i laczone w jeden plik.
+     * Jednakowe wartosci kolejnych wpisow sa zapisywane w puli tylko raz.
+     * */
+    private String writeSegment(Iterator<Posting> postings, int rows) throws IOException {
+        String name = String.format(Locale.ROOT, "segment-%06d.dat", nextSegmentId++);
+        Path[] columns = { dir.resolve(name + ".keys"), dir.resolve(name + ".values"),
+                dir.resolve(name + ".files"), dir.resolve(name + ".pool") };
+        int poolStart = SEGMENT_HEADER + rows * 16;
+        try (DataOutputStream keys = newOutput(columns[0]); DataOutputStream values = newOutput(columns[1]);
+             DataOutputStream fileIds = newOutput(columns[2]); DataOutputStream pool = newOutput(columns[3])) {
+            String previous = null;
+            int previousOffset = 0;
+            while (postings.hasNext()) {
+                Posting posting = postings.next();
+                keys.writeLong(posting.key);
+                if (!posting.value.equals(previous)) {
+                    byte[] bytes = posting.value.getBytes(StandardCharsets.UTF_8);
+                    previousOffset = poolStart + pool.size();
+                    pool.writeInt(bytes.length);
+                    pool.write(bytes);
+                    previous = posting.value;
+                }
+                values.writeInt(previousOffset);
+                fileIds.writeInt(posting.fileId);
+            }
+        }
+        Path segment = dir.resolve(name);
+        try (FileChannel out = FileChannel.open(segment, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream header = new DataOutputStream(Channels.newOutputStream(out));
+            header.writeInt(SEGMENT_MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(rows);
+            header.flush();
+            for (Path column : columns) {
+                try (FileChannel in = FileChannel.open(column, StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < in.size()) {
+                        position += in.transferTo(position, in.size() - position, out);
+                    }
+                }
+                Files.delete(column);
+            }
+            out.force(true);
+        }
+        return name;
+    }
+
+    private static DataOutputStream newOutput(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+    }
+
+    /**
+     * Publiczna metoda laczaca wszystkie segmenty w jeden segment bez
+     * wpisow usunietych i zmienionych plikow. Segmenty sa scalane
+     * strumieniowo, bez wczytywania wszystkich wpisow do pamieci.
+     * Poprzednie segmenty sa usuwane po zapisaniu katalogu indeksu.
+     *
+     * @throws IOException Jesli zapis indeksu sie nie powiodl.
+     * */
+    public void compact() throws IOException {
+        BitSet live = new BitSet();
+        for (FileEntry entry : files.values()) {
+            live.set(entry.id);
+        }
+        List<Segment> old = new ArrayList<>(segments);
+        segments.clear();
+        long rows = countLivePostings();
+        if (rows > 0) {
+            if (SEGMENT_HEADER + rows * 16 > Integer.MAX_VALUE) {
+                throw new IOException("Index segment too large.");
+            }
+            segments.add(new Segment(dir, writeSegment(merge(old, live), (int) rows)));
+        }
+        saveCatalog();
+        List<String> names = new ArrayList<>(old.size());
+        for (Segment segment : old) {
+            names.add(segment.name);
+        }
+        deleteSegments(names);
+    }
+
+    /**
+     * Prywatna i statyczna metoda zwracajaca wpisy segmentow w kolejnosci
+     * posortowanej, z pominieciem wpisow plikow spoza podanego zbioru.
+     * */
+    private static Iterator<Posting> merge(List<Segment> segments, BitSet live) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> {
+            Segment first = segments.get(a[0]);
+            Segment second = segments.get(b[0]);
+            int result = Long.compare(first.key(a[1]), second.key(b[1]));
+            if (result == 0) {
+                result = first.value(a[1]).compareTo(second.value(b[1]));
+            }
+            return result != 0 ? result : Integer.compare(first.fileId(a[1]), second.fileId(b[1]));
+        });
+        for (int i = 0; i < segments.size(); i++) {
+            advance(heads, segments, live, new int[] { i, -1 });
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Posting next() {
+                int[] head = heads.poll();
+                Segment segment = segments.get(head[0]);
+                Posting posting = new Posting(segment.key(head[1]), segment.value(head[1]), segment.fileId(head[1]));
+                advance(heads, segments, live, head);
+                return posting;
+            }
+        };
+    }
+
+    private static void advance(PriorityQueue<int[]> heads, List<Segment> segments, BitSet live, int[] head) {
+        Segment segment = segments.get(head[0]);
+        do {
+            head[1]++;
+        } while (head[1] < segment.rows && !live.get(segment.fileId(head[1])));
+        if (head[1] < segment.rows) {
+            heads.add(head);
+        }
+    }
+
+    private long countPostings() {
+        long rows = 0;
+        for (Segment segment : segments) {
+            rows += segment.rows;
+        }
+        return rows;
+    }
+
+    private long countLivePostings() {
+        long rows = 0;
+        for (FileEntry entry : files.values()) {
+            rows += entry.postings;
+        }
+        return rows;
+    }
+
+    /**
+     * Prywatna metoda zapisujaca katalog indeksu. Katalog jest zapisywany
+     * do pliku tymczasowego i przenoszony atomowo, wiec przerwany zapis
+     * nie uszkadza poprzedniej wersji indeksu.
+     * */
+    private void saveCatalog() throws IOException {
+        Path temp = dir.resolve(CATALOG + ".tmp");
+        try (DataOutputStream out = newOutput(temp)) {
+            out.writeInt(CATALOG_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nextFileId);
+            out.writeInt(nextSegmentId);
+            out.writeInt(segments.size());
+            for (Segment segment : segments) {
+                out.writeUTF(segment.name);
+            }
+            out.writeInt(files.size());
+            for (Map.Entry<String, FileEntry> entry : files.entrySet()) {
+                FileEntry file = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(file.id);
+                out.writeLong(file.size);
+                out.writeLong(file.lastModified);
+                out.writeInt(file.postings);
+            }
+        }
+        Files.move(temp, dir.resolve(CATALOG), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Zwraca liczbe plikow zapisanych w indeksie.
+     * */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * @return Zwraca liczbe segmentow indeksu.
+     * */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() {
+        segments.clear();
+        files.clear();
+    }
+}
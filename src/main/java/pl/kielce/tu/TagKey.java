@@ -0,0 +1,200 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.formats.tiff.TiffDirectory;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.GpsTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.MicrosoftTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffEpTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.taginfos.TagInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Klasa identyfikujaca znacznik EXIF przez typ katalogu IFD i numer
+ * znacznika. Sluzy jako klucz dla operacji modyfikujacych wybrane
+ * znaczniki, bez podawania wartosci wszystkich pozostalych.
+ * */
+public final class TagKey {
+    /**
+     * Najmniejszy i najwiekszy obslugiwany typ katalogu.
+     * */
+    private static final int MIN_DIRECTORY_TYPE = TiffDirectoryConstants.DIRECTORY_TYPE_MAKER_NOTES;
+    private static final int MAX_DIRECTORY_TYPE = TiffDirectoryConstants.DIRECTORY_TYPE_DIR_4;
+    /**
+     * Znane definicje znacznikow uzywane do rozpoznawania nazw.
+     * */
+    private static final List<TagInfo> KNOWN_TAGS;
+
+    static {
+        List<TagInfo> tags = new ArrayList<>();
+        tags.addAll(TiffTagConstants.ALL_TIFF_TAGS);
+        tags.addAll(ExifTagConstants.ALL_EXIF_TAGS);
+        tags.addAll(GpsTagConstants.ALL_GPS_TAGS);
+        tags.addAll(TiffEpTagConstants.ALL_TIFF_EP_TAGS);
+        tags.addAll(MicrosoftTagConstants.ALL_MICROSOFT_TAGS);
+        KNOWN_TAGS = Collections.unmodifiableList(tags);
+    }
+
+    /**
+     * Typ katalogu IFD (stale z {@link TiffDirectoryConstants}).
+     * */
+    private final int directoryType;
+    /**
+     * Numer znacznika.
+     * */
+    private final int tag;
+
+    /**
+     * Konstruktor klucza znacznika.
+     *
+     * @param directoryType Typ katalogu IFD.
+     * @param tag Numer znacznika.
+     * */
+    public TagKey(int directoryType, int tag) {
+        this.directoryType = directoryType;
+        this.tag = tag;
+    }
+
+    /**
+     * Publiczna i statyczna metoda tworzaca klucz dla pola odczytanego z pliku.
+     *
+     * @param field Pole odczytane z pliku.
+     * @return Zwraca klucz pola.
+     * */
+    public static TagKey of(TiffField field) {
+        return new TagKey(field.getDirectoryType(), field.getTag());
+    }
+
+    /**
+     * Publiczna i statyczna metoda tworzaca klucz na podstawie tekstu
+     * w postaci "Katalog:Znacznik", np. "Root:Artist" lub "Exif:0x9286".
+     * Nazwa katalogu odpowiada nazwie wyswietlanej w tabeli metadanych.
+     *
+     * @param text Tekst opisujacy znacznik.
+     * @return Zwraca klucz znacznika.
+     * @throws IllegalArgumentException Jesli katalogu lub znacznika nie rozpoznano.
+     * */
+    public static TagKey parse(String text) {
+        int separator = text.indexOf(':');
+        if (separator <= 0 || separator == text.length() - 1) {
+            throw new IllegalArgumentException("Invalid tag: " + text);
+        }
+        int directoryType = parseDirectory(text.substring(0, separator).trim());
+        String tagName = text.substring(separator + 1).trim();
+        return new TagKey(directoryType, parseTag(tagName, directoryType));
+    }
+
+    /**
+     * Pakietowa i statyczna metoda rozpoznajaca typ katalogu na podstawie
+     * jego nazwy wyswietlanej w tabeli metadanych lub numeru typu.
+     *
+     * @param name Nazwa lub numer typu katalogu.
+     * @return Zwraca typ katalogu.
+     * @throws IllegalArgumentException Jesli katalogu nie rozpoznano.
+     * */
+    static int parseDirectory(String name) {
+        for (int type = MIN_DIRECTORY_TYPE; type <= MAX_DIRECTORY_TYPE; type++) {
+            if (TiffDirectory.description(type).equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown directory: " + name);
+        }
+    }
+
+    private static int parseTag(String name, int directoryType) {
+        if (name.toLowerCase(Locale.ROOT).startsWith("0x")) {
+            try {
+                return Integer.parseInt(name.substring(2), 16);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid tag number: " + name);
+            }
+        }
+        TagInfo found = null;
+        for (TagInfo info : KNOWN_TAGS) {
+            if (info.name.equalsIgnoreCase(name)) {
+                if (info.directoryType != null && info.directoryType.directoryType == directoryType) {
+                    return info.tag;
+                }
+                if (found == null) {
+                    found = info;
+                }
+            }
+        }
+        if (found == null) {
+            throw new IllegalArgumentException("Unknown tag: " + name);
+        }
+        return found.tag;
+    }
+
+    /**
+     * Publiczna metoda sprawdzajaca, czy pole odpowiada kluczowi.
+     *
+     * @param field Pole odczytane z pliku.
+     * @return Zwraca {@code true} jesli typ katalogu i numer znacznika sie zgadzaja.
+     * */
+    public boolean matches(TiffField field) {
+        return field.getDirectoryType() == directoryType && field.getTag() == tag;
+    }
+
+    /**
+     * Pakietowa metoda wyszukujaca definicje znacznika. Preferowana jest
+     * definicja przypisana do katalogu klucza.
+     *
+     * @return Zwraca definicje znacznika lub {@code null} jesli numer
+     * znacznika nie jest znany.
+     * */
+    TagInfo findTagInfo() {
+        TagInfo found = null;
+        for (TagInfo info : KNOWN_TAGS) {
+            if (info.tag == tag) {
+                if (info.directoryType != null && info.directoryType.directoryType == directoryType) {
+                    return info;
+                }
+                if (found == null) {
+                    found = info;
+                }
+            }
+        }
+        return found;
+    }
+
+    public int getDirectoryType() {
+        return directoryType;
+    }
+
+    public int getTag() {
+        return tag;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TagKey)) {
+            return false;
+        }
+        TagKey other = (TagKey) o;
+        return directoryType == other.directoryType && tag == other.tag;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * directoryType + tag;
+    }
+
+    @Override
+    public String toString() {
+        return TiffDirectory.description(directoryType) + ":0x" + Integer.toHexString(tag);
+    }
+}
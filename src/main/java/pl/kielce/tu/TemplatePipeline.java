@@ -0,0 +1,308 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Klasa nanoszaca ten sam zestaw wartosci znacznikow (szablon) na
+ * wszystkie pliki drzewa katalogow. Przetwarzanie jest podzielone na
+ * trzy etapy wykonywane przez osobne grupy watkow: odczyt i dekodowanie
+ * segmentu EXIF, przygotowanie zmiany (bez dostepu do dysku) oraz zapis
+ * pliku wynikowego. Odczyt i zapis wykonuje podany silnik
+ * ({@link ExifEngine}), wiec obslugiwane sa wszystkie jego formaty,
+ * a utrwalanie danych, sprawdzanie danych obrazu i metryki dzialaja tak
+ * jak w pozostalych poleceniach. Etapy sa polaczone kolejkami
+ * o ograniczonej pojemnosci, wiec wolniejszy etap (zwykle zapis)
+ * wstrzymuje szybsze, a liczba plikow w pamieci jest ograniczona.
+ * Przerwanie dowolnego watku etapu zatrzymuje wszystkie etapy.
+ * Dla kazdego etapu zbierana jest liczba plikow, czas pracy
+ * i glebokosc kolejki wejsciowej.
+ * */
+public class TemplatePipeline {
+
+    /**
+     * Klasa opisujaca plik przekazywany miedzy etapami.
+     * */
+    private static final class Job {
+        final Path src;
+        ExifEngine.Parsed parsed;
+        ExifEditor.Update update;
+
+        Job(Path src) {
+            this.src = src;
+        }
+    }
+
+    /**
+     * Znacznik konca kolejki.
+     * */
+    private static final Job END = new Job(null);
+
+    /**
+     * Interfejs operacji wykonywanej przez etap na jednym pliku.
+     * */
+    private interface StageTask {
+        void process(Job job) throws IOException, ImageReadException, ImageWriteException;
+    }
+
+    /**
+     * Klasa etapu przetwarzania. Watki etapu pobieraja pliki z kolejki
+     * wejsciowej i przekazuja przetworzone pliki do kolejki wyjsciowej.
+     * Ostatni konczacy prace watek przekazuje znacznik konca dalej,
+     * a watek zakonczony w inny sposob zatrzymuje wszystkie etapy.
+     * */
+    private final class Stage {
+        final String name;
+        final int threads;
+        final BlockingQueue<Job> input;
+        final BlockingQueue<Job> output;
+        final StageTask task;
+        final List<Thread> workers = new ArrayList<>();
+        final AtomicInteger running;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong depthSum = new AtomicLong();
+        final AtomicLong maxDepth = new AtomicLong();
+
+        Stage(String name, int threads, BlockingQueue<Job> input, BlockingQueue<Job> output, StageTask task) {
+            this.name = name;
+            this.threads = threads;
+            this.input = input;
+            this.output = output;
+            this.task = task;
+            this.running = new AtomicInteger(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(new Thread(this::work, "template-" + name + "-" + i));
+            }
+        }
+
+        void start() {
+            workers.forEach(Thread::start);
+        }
+
+        private void work() {
+            boolean completed = false;
+            try {
+                while (true) {
+                    Job job = input.take();
+                    if (job == END) {
+                        input.put(END);
+                        break;
+                    }
+                    long depth = input.size();
+                    depthSum.addAndGet(depth);
+                    maxDepth.accumulateAndGet(depth, Math::max);
+                    long start = System.nanoTime();
+                    boolean done = false;
+                    try {
+                        task.process(job);
+                        done = true;
+                    } catch (IOException | ImageReadException | ImageWriteException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        err.println(job.src + ": " + e.getMessage());
+                    }
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                    processed.incrementAndGet();
+                    if (done && output != null) {
+                        output.put(job);
+                    }
+                }
+                if (running.decrementAndGet() == 0 && output != null) {
+                    output.put(END);
+                }
+                completed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // bez znacznika konca od tego watku pozostale etapy czekalyby bez konca
+                if (!completed) {
+                    cancel();
+                }
+            }
+        }
+
+        void join() throws InterruptedException {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        String stats(long elapsedNanos) {
+            long count = processed.get();
+            return String.format(Locale.ROOT,
+                    "%-9s %2d threads, %d files, %.1f files/s, busy %.1f%%, queue avg %.1f max %d/%d",
+                    name, threads, count, elapsedNanos <= 0 ? 0 : count * 1e9 / elapsedNanos,
+                    elapsedNanos <= 0 ? 0 : busyNanos.get() * 100.0 / elapsedNanos / threads,
+                    count == 0 ? 0 : (double) depthSum.get() / count, maxDepth.get(),
+                    input.remainingCapacity() + input.size());
+        }
+    }
+
+    /**
+     * Parametry przetwarzania.
+     * */
+    private final BatchOptions options;
+    /**
+     * Silnik odczytujacy i zapisujacy pliki.
+     * */
+    private final ExifEngine engine;
+    /**
+     * Strumien na komunikaty o bledach i statystyki.
+     * */
+    private final PrintStream err;
+    /**
+     * Licznik plikow zakonczonych bledem.
+     * */
+    private final AtomicLong failed = new AtomicLong();
+    /**
+     * Licznik zapisanych plikow.
+     * */
+    private final AtomicLong written = new AtomicLong();
+    /**
+     * Etapy ostatniego przetwarzania.
+     * */
+    private List<Stage> stages = new ArrayList<>();
+    /**
+     * Watek przegladajacy drzewo w ostatnim przetwarzaniu.
+     * */
+    private Thread walker;
+    /**
+     * Czy ostatnie przetwarzanie zostalo zatrzymane.
+     * */
+    private volatile boolean cancelled;
+
+    /**
+     * Konstruktor klasy nanoszacej szablon.
+     *
+     * @param options Parametry przetwarzania (szablon, katalog wynikowy,
+     *                liczba watkow etapow i pojemnosc kolejek).
+     * @param engine Silnik odczytujacy i zapisujacy pliki.
+     * @param err Strumien na komunikaty o bledach.
+     * */
+    public TemplatePipeline(BatchOptions options, ExifEngine engine, PrintStream err) {
+        this.options = options;
+        this.engine = engine;
+        this.err = err;
+    }
+
+    /**
+     * Publiczna metoda nanoszaca szablon na wszystkie pliki drzewa.
+     * Drzewo jest przegladane w watku wywolujacym, ktory czeka na miejsce
+     * w kolejce pierwszego etapu.
+     *
+     * @return Zwraca podsumowanie przetwarzania.
+     * @throws IOException W przypadku bledu podczas przegladania drzewa katalogow.
+     * @throws InterruptedException Jesli watek zostal przerwany podczas oczekiwania
+     * lub przetwarzanie zostalo zatrzymane przez przerwanie watku etapu.
+     * */
+    public BatchSummary process() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        walker = Thread.currentThread();
+        cancelled = false;
+        Map<TagKey, String> template = options.getTagValues();
+        int capacity = options.getMaxInFlight();
+        BlockingQueue<Job> paths = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Job> parsed = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Job> prepared = new ArrayBlockingQueue<>(capacity);
+        Stage read = new Stage("read", options.getReadThreads(), paths, parsed,
+                job -> job.parsed = engine.readExif(job.src.toFile()));
+        Stage transform = new Stage("transform", options.getTransformThreads(), parsed, prepared, job -> {
+            // zmiana pliku TIFF jest budowana podczas zapisu
+            if (job.parsed.format != ImageFormat.TIFF) {
+                job.update = ExifEditor.prepareUpdate(job.parsed.segment, job.parsed.exif, template);
+            }
+        });
+        Stage write = new Stage("write", options.getWriteThreads(), prepared, null, job -> {
+            Path dest = options.getOutputDir().resolve(options.getRoot().relativize(job.src));
+            Files.createDirectories(dest.getParent());
+            engine.writeUpdate(job.src.toFile(), job.parsed, job.update, template, dest.toFile());
+            written.incrementAndGet();
+        });
+        stages = List.of(read, transform, write);
+        stages.forEach(Stage::start);
+        try (Stream<Path> files = Files.walk(options.getRoot())) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).filter(options::accepts).iterator();
+            while (iterator.hasNext() && !cancelled) {
+                paths.put(new Job(iterator.next()));
+            }
+        } finally {
+            finish(paths);
+        }
+        if (cancelled) {
+            throw new InterruptedException("Template pipeline was stopped.");
+        }
+        return new BatchSummary(written.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Prywatna metoda konczaca przetwarzanie: przekazuje znacznik konca
+     * do pierwszego etapu (o ile przetwarzanie nie zostalo zatrzymane)
+     * i czeka na zakonczenie watkow wszystkich etapow.
+     * */
+    private void finish(BlockingQueue<Job> paths) throws InterruptedException {
+        try {
+            if (!cancelled) {
+                paths.put(END);
+            }
+        } finally {
+            if (cancelled) {
+                // przerwanie zatrzymujace przetwarzanie nie dotyczy oczekiwania na watki
+                Thread.interrupted();
+            }
+            for (Stage stage : stages) {
+                stage.join();
+            }
+        }
+    }
+
+    /**
+     * Prywatna metoda zatrzymujaca przetwarzanie: przerywa watki wszystkich
+     * etapow oraz watek przegladajacy drzewo, ktory moze czekac na miejsce
+     * w kolejce.
+     * */
+    private void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        for (Stage stage : stages) {
+            for (Thread worker : stage.workers) {
+                if (worker != Thread.currentThread()) {
+                    worker.interrupt();
+                }
+            }
+        }
+        walker.interrupt();
+    }
+
+    /**
+     * Publiczna metoda zwracajaca statystyki etapow ostatniego przetwarzania:
+     * liczbe watkow i plikow, przepustowosc, wykorzystanie watkow oraz
+     * srednia i maksymalna glebokosc kolejki wejsciowej.
+     *
+     * @param elapsedNanos Czas przetwarzania w nanosekundach.
+     * @return Zwraca statystyki, po jednym wierszu dla kazdego etapu.
+     * */
+    public String getStageStats(long elapsedNanos) {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : stages) {
+            builder.append(stage.stats(elapsedNanos)).append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+}
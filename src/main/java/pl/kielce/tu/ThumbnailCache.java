@@ -0,0 +1,184 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Klasa przechowujaca zdekodowane miniatury zapisane w metadanych EXIF
+ * plikow JPEG. Miniatura jest pobierana z katalogu IFD1 segmentu EXIF,
+ * wiec z pliku odczytywane sa tylko naglowki segmentow i sam segment
+ * z poczatku pliku, a obraz glowny nie jest dekodowany. Wpisy sa
+ * identyfikowane kanoniczna sciezka pliku i sprawdzane na podstawie
+ * rozmiaru i czasu ostatniej modyfikacji pliku. Rozmiar zdekodowanych
+ * miniatur jest ograniczony, a po przekroczeniu limitu usuwane sa
+ * najdawniej uzywane wpisy (LRU). Zapamietywany jest rowniez brak
+ * miniatury. Metody klasy moga byc wywolywane z wielu watkow.
+ * */
+public class ThumbnailCache {
+    /**
+     * Domyslny maksymalny rozmiar zdekodowanych miniatur w bajtach.
+     * */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Klasa opisujaca wpis z miniatura pliku (lub jej brakiem)
+     * i atrybutami pliku, dla ktorych zostala odczytana.
+     * */
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final BufferedImage image;
+        final long bytes;
+
+        Entry(long size, long lastModified, BufferedImage image) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.image = image;
+            this.bytes = image == null ? 64 : 64 + 4L * image.getWidth() * image.getHeight();
+        }
+    }
+
+    /**
+     * Maksymalny rozmiar zdekodowanych miniatur w bajtach.
+     * */
+    private final long maxBytes;
+    /**
+     * Wpisy w kolejnosci od najdawniej do ostatnio uzywanego.
+     * */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Konstruktor pamieci podrecznej z domyslnym limitem.
+     * */
+    public ThumbnailCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Konstruktor pamieci podrecznej.
+     *
+     * @param maxBytes Maksymalny rozmiar zdekodowanych miniatur w bajtach.
+     * */
+    public ThumbnailCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache limit must be positive.");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Publiczna metoda zwracajaca zdekodowana miniature pliku. Jesli plik
+     * nie zmienil sie od ostatniego odczytu, miniatura jest zwracana
+     * z pamieci podrecznej.
+     *
+     * @param src Plik JPEG z metadanymi EXIF.
+     * @return Zwraca miniature lub {@code null}, jesli plik jej nie zawiera.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem JPEG.
+     * */
+    public BufferedImage getThumbnail(File src) throws IOException, ImageReadException {
+        String path = src.getCanonicalPath();
+        BasicFileAttributes attributes = Files.readAttributes(src.toPath(), BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                hits++;
+                return entry.image;
+            }
+            misses++;
+        }
+        BufferedImage image = null;
+        try (ExifMetrics.Operation operation = ExifMetrics.begin("thumbnail", src)) {
+            byte[] data = readThumbnailData(src);
+            ExifMetrics.phase(ExifMetrics.Phase.PARSE);
+            if (data != null) {
+                image = ImageIO.read(new ByteArrayInputStream(data));
+            }
+            operation.succeeded();
+        }
+        put(path, new Entry(size, lastModified, image));
+        return image;
+    }
+
+    /**
+     * Publiczna i statyczna metoda odczytujaca dane miniatury JPEG z katalogu
+     * IFD1 segmentu EXIF pliku (zob. {@link ExifSegment#getThumbnailData()}).
+     * Format pliku jest rozpoznawany na podstawie jego zawartosci. Katalog
+     * IFD1 pliku TIFF opisuje kolejny obraz, a nie miniature, wiec dla
+     * plikow TIFF i nieobslugiwanych formatow miniatura nie jest odczytywana.
+     *
+     * @param src Plik JPEG, PNG lub WebP.
+     * @return Zwraca dane miniatury lub {@code null}, jesli plik jej nie zawiera.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem swojego formatu.
+     * */
+    public static byte[] readThumbnailData(File src) throws IOException, ImageReadException {
+        try (FileChannel channel = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            ImageFormat format = ImageFormat.sniff(channel);
+            ExifSegment segment;
+            if (format == ImageFormat.JPEG) {
+                segment = ExifSegment.find(channel);
+            } else if (format == ImageFormat.PNG || format == ImageFormat.WEBP) {
+                List<ExifSegment> segments = format == ImageFormat.PNG ? PngExifRewriter.findAll(channel)
+                        : WebpExifRewriter.findAll(channel);
+                segment = segments.isEmpty() ? null : segments.get(0);
+            } else {
+                return null;
+            }
+            return segment == null ? null : segment.getThumbnailData();
+        }
+    }
+
+    private synchronized void put(String path, Entry entry) {
+        Entry previous = entries.put(path, entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            bytes -= evicted.bytes;
+            evictions++;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
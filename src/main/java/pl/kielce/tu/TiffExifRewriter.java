@@ -0,0 +1,179 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.common.bytesource.ByteSourceFile;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.write.TiffImageWriterLossless;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Klasa odczytujaca i zapisujaca metadane pliku TIFF, w ktorym katalogi
+ * IFD opisuja zarowno obraz, jak i metadane. Odczyt dekoduje tylko
+ * lancuch katalogow IFD, bez danych obrazu. Zmiana istniejacych
+ * znacznikow jest zapisywana w kopii pliku przez nadpisanie bajtow
+ * wartosci (dluzsze wartosci sa dopisywane na koncu pliku). Dodanie
+ * znacznikow i usuniecie metadanych wymaga przebudowy katalogow, ktora
+ * wykonuje zapis bezstratny biblioteki commons-imaging na podstawie
+ * calego pliku wczytanego do pamieci.
+ * */
+final class TiffExifRewriter {
+    /**
+     * Znaczniki katalogow obrazu usuwane razem z metadanymi: opisy,
+     * informacje o aparacie i autorze, bloki XMP, IPTC i Photoshop oraz
+     * wskazania katalogow EXIF i GPS.
+     * */
+    private static final int[] METADATA_TAGS = {
+            0x010E, 0x010F, 0x0110, 0x0131, 0x0132, 0x013B, 0x013C, 0x8298,
+            0x02BC, 0x83BB, 0x8649, 0x8769, 0x8825
+    };
+
+    private TiffExifRewriter() {
+    }
+
+    /**
+     * Pakietowa i statyczna metoda odczytujaca katalogi IFD pliku TIFF.
+     *
+     * @param src Plik TIFF.
+     * @return Zwraca zdekodowane metadane.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem TIFF.
+     * */
+    static TiffImageMetadata read(File src) throws IOException, ImageReadException {
+        return ExifSegment.parse(new ByteSourceFile(src));
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plik docelowy ze zmienionymi
+     * znacznikami. Jesli wszystkie znaczniki istnieja w pliku, plik jest
+     * kopiowany metoda {@link FileChannel#transferTo}, a w kopii nadpisywane
+     * sa tylko bajty wartosci.
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param exif Metadane odczytane z pliku zrodlowego.
+     * @param tagValues Mapa kluczy zmienianych znacznikow na ich nowe wartosci.
+     * @param dest Plik docelowy.
+     * @param sync Czy utrwalic dane pliku docelowego ({@link FileChannel#force}).
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli odczyt wartosci pola sie nie powiodl.
+     * @throws ImageWriteException Jesli wartosci nie da sie zakodowac.
+     * */
+    static void writeTags(FileChannel in, TiffImageMetadata exif, Map<TagKey, String> tagValues, Path dest, boolean sync)
+            throws IOException, ImageReadException, ImageWriteException {
+        long size = in.size();
+        ExifPatcher.Plan plan = size <= Integer.MAX_VALUE ? ExifEditor.preparePlan(exif, (int) size, tagValues) : null;
+        if (plan == null) {
+            writeLossless(in, ExifEditor.applyDelta(exif, tagValues), dest, sync);
+            return;
+        }
+        writePlan(in, plan, dest, sync);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plik docelowy z nowymi
+     * wartosciami podanych pol. Plik jest kopiowany metoda
+     * {@link FileChannel#transferTo}, a w kopii nadpisywane sa tylko bajty
+     * wartosci (dluzsze wartosci sa dopisywane na koncu pliku).
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param exif Metadane odczytane z pliku zrodlowego.
+     * @param changed Mapa zmienionych pol na nowe wartosci.
+     * @param dest Plik docelowy.
+     * @param sync Czy utrwalic dane pliku docelowego ({@link FileChannel#force}).
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageWriteException Jesli wartosci nie da sie zakodowac
+     * lub typ ktoregos z pol nie jest obslugiwany.
+     * */
+    static void writeValues(FileChannel in, TiffImageMetadata exif, Map<TiffField, String> changed, Path dest, boolean sync)
+            throws IOException, ImageWriteException {
+        long size = in.size();
+        ExifPatcher.Plan plan = size <= Integer.MAX_VALUE ? ExifEditor.planChanges(exif, (int) size, changed) : null;
+        if (plan == null) {
+            throw new ImageWriteException("Can't patch tag values of a TIFF file.");
+        }
+        writePlan(in, plan, dest, sync);
+    }
+
+    private static void writePlan(FileChannel in, ExifPatcher.Plan plan, Path dest, boolean sync) throws IOException {
+        long size = in.size();
+        ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            JpegExifRewriter.transfer(in, 0, size, out);
+            ExifPatcher.apply(out, 0, size, plan);
+            ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+            if (sync) {
+                out.force(true);
+            }
+        }
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plik docelowy bez katalogow
+     * EXIF, GPS i Interoperability oraz bez znacznikow metadanych
+     * w katalogach obrazu. Znaczniki opisujace obraz sa zachowywane.
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param exif Metadane odczytane z pliku zrodlowego.
+     * @param dest Plik docelowy.
+     * @param sync Czy utrwalic dane pliku docelowego ({@link FileChannel#force}).
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageWriteException Jesli katalogow nie da sie zapisac.
+     * */
+    static void removeExif(FileChannel in, TiffImageMetadata exif, Path dest, boolean sync)
+            throws IOException, ImageWriteException {
+        TiffOutputSet source = exif.getOutputSet();
+        TiffOutputSet outputSet = new TiffOutputSet(source.byteOrder);
+        for (TiffOutputDirectory dir : source.getDirectories()) {
+            if (dir.type >= 0) {
+                for (int tag : METADATA_TAGS) {
+                    dir.removeField(tag);
+                }
+                outputSet.addDirectory(dir);
+            }
+        }
+        writeLossless(in, outputSet, dest, sync);
+    }
+
+    /**
+     * Prywatna i statyczna metoda zapisujaca plik docelowy z podanymi
+     * katalogami przy uzyciu {@link TiffImageWriterLossless}. Dane obrazu
+     * sa przenoszone bez zmian, a obszary dotychczasowych katalogow
+     * sa zerowane lub zastepowane nowymi katalogami.
+     * */
+    private static void writeLossless(FileChannel in, TiffOutputSet outputSet, Path dest, boolean sync)
+            throws IOException, ImageWriteException {
+        ExifMetrics.phase(ExifMetrics.Phase.BUILD);
+        if (in.size() > Integer.MAX_VALUE - 8) {
+            throw new ImageWriteException("TIFF file too large to rebuild its directories (" + in.size() + " bytes).");
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) in.size());
+        ExifSegment.readFully(in, data, 0);
+        ByteArrayOutputStream os = new ByteArrayOutputStream(data.capacity() + 1024);
+        new TiffImageWriterLossless(outputSet.byteOrder, data.array()).write(os, outputSet);
+        ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(os.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            ExifMetrics.bytesWritten(buffer.limit());
+            ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+            if (sync) {
+                out.force(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Klasa dzialajacego w tle procesu usuwajacego metadane EXIF z plikow
+ * umieszczanych w katalogu wejsciowym. Zmiany w drzewie katalogu sa
+ * obserwowane przez {@link WatchService}. Plik jest przetwarzany dopiero
+ * wtedy, gdy przez podany czas nie bylo dla niego zdarzen, a jego rozmiar
+ * i czas modyfikacji sie nie zmienily, co pozwala pominac pliki w trakcie
+ * zapisu. Pliki sa przetwarzane przez ograniczona pule watkow, a wynik
+ * jest zapisywany do pliku tymczasowego i przenoszony atomowo na miejsce
+ * docelowe. Przetworzone pliki sa zapisywane w dzienniku, wiec po
+ * ponownym uruchomieniu przetwarzane sa tylko pliki nowe i zmienione.
+ * */
+public class WatchDaemon implements Closeable {
+    /**
+     * Nazwa pliku dziennika w katalogu wynikowym.
+     * */
+    public static final String JOURNAL = ".exif-watch.journal";
+
+    /**
+     * Klasa opisujaca stan pliku: rozmiar i czas ostatniej modyfikacji.
+     * */
+    private static final class FileState {
+        final long size;
+        final long lastModified;
+
+        FileState(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static FileState of(BasicFileAttributes attributes) {
+            return new FileState(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) o;
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+        }
+    }
+
+    /**
+     * Klasa opisujaca wpis dziennika: stan pliku z chwili przetworzenia
+     * i wynik przetwarzania.
+     * */
+    private static final class Record {
+        final FileState state;
+        final boolean ok;
+
+        Record(FileState state, boolean ok) {
+            this.state = state;
+            this.ok = ok;
+        }
+
+        String toLine(String relative) {
+            return (ok ? "OK " : "FAIL ") + state.size + " " + state.lastModified + " " + relative;
+        }
+    }
+
+    /**
+     * Klasa opisujaca plik oczekujacy na przetworzenie.
+     * */
+    private static final class Pending {
+        long lastEvent;
+        FileState state;
+
+        Pending(long lastEvent) {
+            this.lastEvent = lastEvent;
+        }
+    }
+
+    /**
+     * Parametry przetwarzania.
+     * */
+    private final BatchOptions options;
+    /**
+     * Strumien na komunikaty o bledach.
+     * */
+    private final PrintStream err;
+    /**
+     * Czas bez zmian pliku w milisekundach, po ktorym plik jest przetwarzany.
+     * */
+    private final long debounceMillis;
+    /**
+     * Pliki przetworzone (sciezka wzgledna -> wpis dziennika).
+     * */
+    private final Map<String, Record> done = new ConcurrentHashMap<>();
+    /**
+     * Pliki oczekujace na przetworzenie. Dostep tylko z watku planujacego.
+     * */
+    private final Map<Path, Pending> pending = new HashMap<>();
+    /**
+     * Pliki aktualnie przetwarzane.
+     * */
+    private final Map<Path, Boolean> inProgress = new ConcurrentHashMap<>();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    /**
+     * Silnik utrwalajacy pliki wynikowe na dysku przed ich przeniesieniem.
+     * */
+    private final ExifEngine engine;
+    private WatchService watchService;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+    private Semaphore inFlight;
+    private Thread watcher;
+    private FileChannel journal;
+    private boolean closing;
+    private long start;
+
+    /**
+     * Konstruktor procesu obserwujacego katalog.
+     *
+     * @param options Parametry przetwarzania: katalog wejsciowy, katalog
+     *                wynikowy, liczba watkow i limit plikow przetwarzanych
+     *                jednoczesnie.
+     * @param err Strumien na komunikaty o bledach.
+     * */
+    public WatchDaemon(BatchOptions options, PrintStream err) {
+        this.options = options;
+        this.err = err;
+        this.debounceMillis = options.getDebounceMillis();
+        this.engine = new ExifEngine(options.getThreads(), true, options.isVerify());
+    }
+
+    /**
+     * Publiczna metoda uruchamiajaca obserwacje katalogu. Odczytuje dziennik,
+     * rejestruje katalogi drzewa i dodaje do kolejki pliki, ktore nie
+     * zostaly przetworzone lub zmienily sie od przetworzenia.
+     *
+     * @throws IOException Jesli odczyt dziennika lub rejestracja katalogow sie nie powiodla.
+     * */
+    public synchronized void start() throws IOException {
+        start = System.nanoTime();
+        Files.createDirectories(options.getOutputDir());
+        readJournal();
+        watchService = FileSystems.getDefault().newWatchService();
+        workers = Executors.newFixedThreadPool(options.getThreads());
+        inFlight = new Semaphore(options.getMaxInFlight());
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "watch-scheduler"));
+        registerAndScan(options.getRoot());
+        long period = Math.max(10, debounceMillis / 4);
+        scheduler.scheduleWithFixedDelay(this::dispatch, period, period, TimeUnit.MILLISECONDS);
+        watcher = new Thread(this::watch, "watch-events");
+        watcher.start();
+    }
+
+    /**
+     * Publiczna metoda czekajaca na zatrzymanie procesu metoda {@link #close()}.
+     *
+     * @return Zwraca podsumowanie przetwarzania.
+     * @throws InterruptedException Jesli watek zostal przerwany podczas oczekiwania.
+     * */
+    public BatchSummary awaitClose() throws InterruptedException {
+        closed.await();
+        return getSummary();
+    }
+
+    /**
+     * @return Zwraca liczbe przetworzonych plikow i bledow od uruchomienia.
+     * */
+    public BatchSummary getSummary() {
+        return new BatchSummary(succeeded.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Prywatna metoda watku odbierajacego zdarzenia. Zdarzenia plikow
+     * przekazywane sa do watku planujacego, nowe katalogi sa rejestrowane
+     * i przegladane, a po przepelnieniu kolejki zdarzen przegladane jest
+     * cale drzewo.
+     * */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        registerAndScan(options.getRoot());
+                        continue;
+                    }
+                    Path path = dir.resolve((Path) event.context());
+                    if (Files.isDirectory(path)) {
+                        registerAndScan(path);
+                    } else {
+                        touch(path);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // zatrzymanie procesu
+        } catch (IOException e) {
+            err.println("Watching " + options.getRoot() + " failed: " + e.getMessage());
+        }
+    }
+
+    private void registerAndScan(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (Files.isDirectory(path)) {
+                    path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } else {
+                    touch(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prywatna metoda zapisujaca zdarzenie pliku. Czas ostatniego zdarzenia
+     * jest aktualizowany w watku planujacym.
+     * */
+    private void touch(Path file) {
+        if (!options.accepts(file)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            scheduler.execute(() -> pending.computeIfAbsent(file, path -> new Pending(now)).lastEvent = now);
+        } catch (RejectedExecutionException e) {
+            // proces jest zatrzymywany, plik zostanie przetworzony po ponownym uruchomieniu
+        }
+    }
+
+    /**
+     * Prywatna metoda watku planujacego przekazujaca do puli watkow pliki,
+     * dla ktorych od podanego czasu nie bylo zdarzen, a ich stan sie nie
+     * zmienil od poprzedniego sprawdzenia. Pliki juz przetworzone w tym
+     * samym stanie sa pomijane. Jesli nie ma miejsca w limicie plikow
+     * przetwarzanych jednoczesnie, plik czeka do kolejnego sprawdzenia.
+     * */
+    private void dispatch() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Pending> entry = iterator.next();
+            Path file = entry.getKey();
+            Pending item = entry.getValue();
+            if (now - item.lastEvent < debounceMillis || inProgress.containsKey(file)) {
+                continue;
+            }
+            FileState state;
+            try {
+                state = FileState.of(Files.readAttributes(file, BasicFileAttributes.class));
+            } catch (NoSuchFileException e) {
+                iterator.remove();
+                continue;
+            } catch (IOException e) {
+                continue;
+            }
+            if (!state.equals(item.state)) {
+                item.state = state;
+                item.lastEvent = now;
+                continue;
+            }
+            Record record = done.get(relative(file));
+            if (record != null && state.equals(record.state)) {
+                iterator.remove();
+                continue;
+            }
+            if (!inFlight.tryAcquire()) {
+                return;
+            }
+            iterator.remove();
+            inProgress.put(file, Boolean.TRUE);
+            workers.execute(() -> {
+                try {
+                    process(file, state);
+                } finally {
+                    inProgress.remove(file);
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Prywatna metoda usuwajaca metadane z pliku. Wynik jest zapisywany do
+     * pliku tymczasowego w katalogu docelowym i przenoszony atomowo, wiec
+     * plik docelowy nigdy nie jest widoczny w stanie niekompletnym.
+     * */
+    private void process(Path file, FileState state) {
+        String relative = relative(file);
+        Path dest = options.getOutputDir().resolve(relative);
+        Path temp = dest.resolveSibling("." + dest.getFileName() + ".tmp");
+        boolean ok = false;
+        try {
+            Files.createDirectories(dest.getParent());
+            engine.removeExif(file.toFile(), temp.toFile());
+            Files.move(temp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ok = true;
+            succeeded.incrementAndGet();
+        } catch (IOException | ImageReadException | ImageWriteException | RuntimeException e) {
+            failed.incrementAndGet();
+            err.println(file + ": " + e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!state.equals(FileState.of(attributes))) {
+                touch(file);
+                return;
+            }
+            Record record = new Record(state, ok);
+            done.put(relative, record);
+            appendJournal(record.toLine(relative));
+        } catch (IOException e) {
+            err.println(file + ": " + e.getMessage());
+        }
+    }
+
+    private String relative(Path file) {
+        return options.getRoot().relativize(file).toString();
+    }
+
+    /**
+     * Prywatna metoda odczytujaca dziennik i zapisujaca go ponownie tylko
+     * z ostatnimi wpisami istniejacych plikow, z zachowaniem wyniku
+     * przetwarzania. Wiersz dziennika ma postac
+     * {@code <OK|FAIL> <rozmiar> <czas modyfikacji> <sciezka wzgledna>}.
+     * Niekompletny ostatni wiersz (po awarii) jest pomijany.
+     * */
+    private void readJournal() throws IOException {
+        Path path = options.getOutputDir().resolve(JOURNAL);
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ", 4);
+                if (parts.length == 4 && (parts[0].equals("OK") || parts[0].equals("FAIL"))) {
+                    try {
+                        done.put(parts[3], new Record(new FileState(Long.parseLong(parts[1]), Long.parseLong(parts[2])),
+                                parts[0].equals("OK")));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        done.keySet().removeIf(relative -> !Files.exists(options.getRoot().resolve(relative)));
+        Path temp = path.resolveSibling(JOURNAL + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Record> entry : done.entrySet()) {
+                writer.write(entry.getValue().toLine(entry.getKey()) + "\n");
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Prywatna metoda dopisujaca wiersz do dziennika. Wiersz jest zapisywany
+     * jednym wywolaniem i utrwalany na dysku przed zwroceniem sterowania.
+     * */
+    private synchronized void appendJournal(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+    }
+
+    /**
+     * Publiczna metoda zatrzymujaca obserwacje katalogu. Pliki, ktorych
+     * przetwarzanie sie rozpoczelo, sa przetwarzane do konca.
+     * */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (watchService == null || closing) {
+                return;
+            }
+            closing = true;
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+            }
+            scheduler.shutdownNow();
+            workers.shutdown();
+        }
+        try {
+            watcher.join();
+            scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                journal.close();
+            } catch (IOException ignored) {
+            }
+        }
+        closed.countDown();
+    }
+
+    /**
+     * @return Zwraca liczbe plikow zapisanych w dzienniku jako przetworzone.
+     * */
+    public int getDoneCount() {
+        return done.size();
+    }
+}
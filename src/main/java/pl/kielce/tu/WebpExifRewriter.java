@@ -0,0 +1,313 @@
+package pl.kielce.tu;
+
+import org.apache.commons.imaging.ImageReadException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Klasa odczytujaca i zapisujaca blok EXIF pliku WebP (kontener RIFF).
+ * Bloki pliku sa przegladane przez odczyt samych naglowkow, wiec dane
+ * obrazu nie sa odczytywane. Przy zapisie bloki pliku zrodlowego sa
+ * kopiowane metoda {@link FileChannel#transferTo}, a ponownie zapisywane
+ * sa tylko naglowek RIFF (nowa dlugosc pliku), blok VP8X (flaga EXIF)
+ * i sam blok EXIF. Plik w formacie prostym (bez bloku VP8X) otrzymuje
+ * przy dodaniu metadanych blok VP8X z wymiarami odczytanymi z naglowka
+ * danych obrazu.
+ * */
+final class WebpExifRewriter {
+    /**
+     * Liczba bajtow naglowka RIFF (znacznik, dlugosc i typ WEBP).
+     * */
+    private static final int RIFF_HEADER_LENGTH = 12;
+    /**
+     * Liczba bajtow naglowka bloku (typ i dlugosc).
+     * */
+    private static final int CHUNK_HEADER_LENGTH = 8;
+    /**
+     * Dlugosc danych bloku VP8X.
+     * */
+    private static final int VP8X_LENGTH = 10;
+    /**
+     * Flaga bloku VP8X oznaczajaca obecnosc bloku EXIF.
+     * */
+    private static final int EXIF_FLAG = 0x08;
+    /**
+     * Flaga bloku VP8X oznaczajaca obecnosc kanalu alfa.
+     * */
+    private static final int ALPHA_FLAG = 0x10;
+    private static final String EXIF = "EXIF";
+    private static final String VP8X = "VP8X";
+
+    /**
+     * Klasa opisujaca blok pliku.
+     * */
+    private static final class Chunk {
+        final String type;
+        final long offset;
+        /**
+         * Dlugosc danych bloku.
+         * */
+        final long size;
+        /**
+         * Dlugosc bloku razem z naglowkiem i bajtem wyrownania.
+         * */
+        final long length;
+        /**
+         * Liczba bajtow bloku obecnych w pliku (bez brakujacego bajtu
+         * wyrownania ostatniego bloku).
+         * */
+        final long available;
+
+        Chunk(String type, long offset, long size, long length, long available) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.length = length;
+            this.available = available;
+        }
+    }
+
+    private WebpExifRewriter() {
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wyszukujaca bloki EXIF pliku WebP.
+     * Dane bloku moga byc poprzedzone naglowkiem EXIF znanym z plikow
+     * JPEG, ktory jest wtedy pomijany.
+     *
+     * @param channel Kanal pliku WebP.
+     * @return Zwraca bloki w kolejnosci wystepowania w pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem WebP.
+     * */
+    static List<ExifSegment> findAll(FileChannel channel) throws IOException, ImageReadException {
+        return findAll(channel, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Pakietowa i statyczna metoda wyszukujaca bloki EXIF pliku WebP,
+     * ktorych dane nie sa dluzsze niz podany limit. Dane bloku sa
+     * odczytywane dopiero po sprawdzeniu jego dlugosci.
+     *
+     * @param channel Kanal pliku WebP.
+     * @param maxLength Najwieksza dopuszczalna dlugosc danych bloku w bajtach.
+     * @return Zwraca bloki w kolejnosci wystepowania w pliku.
+     * @throws IOException W przypadku wystapienia bledu z odczytem pliku.
+     * @throws ImageReadException Jesli plik nie jest poprawnym plikiem WebP
+     * lub blok EXIF jest dluzszy niz limit.
+     * */
+    static List<ExifSegment> findAll(FileChannel channel, long maxLength) throws IOException, ImageReadException {
+        List<ExifSegment> segments = new ArrayList<>(1);
+        for (Chunk chunk : chunks(channel)) {
+            if (chunk.type.equals(EXIF)) {
+                if (chunk.length > Integer.MAX_VALUE) {
+                    throw new ImageReadException("WebP EXIF chunk too large at offset " + chunk.offset + ".");
+                }
+                if (chunk.size > maxLength) {
+                    throw new ImageReadException("WebP EXIF chunk at offset " + chunk.offset + " exceeds the limit of "
+                            + maxLength + " bytes.");
+                }
+                ByteBuffer data = ByteBuffer.allocate((int) chunk.size);
+                ExifSegment.readFully(channel, data, chunk.offset + CHUNK_HEADER_LENGTH);
+                byte[] bytes = data.array();
+                int skip = PngExifRewriter.hasExifHeader(bytes) ? ExifSegment.EXIF_HEADER.length : 0;
+                segments.add(new ExifSegment(chunk.offset, (int) chunk.length, CHUNK_HEADER_LENGTH + skip,
+                        Arrays.copyOfRange(bytes, skip, bytes.length)));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Pakietowa i statyczna metoda zapisujaca plik docelowy z blokami EXIF
+     * zastapionymi nowym blokiem lub bez nich. Nowy blok jest zapisywany
+     * w miejscu pierwszego bloku EXIF, a jesli go nie ma, przed blokiem
+     * XMP lub na koncu pliku (zgodnie z kolejnoscia blokow formatu).
+     *
+     * @param in Kanal pliku zrodlowego.
+     * @param tiffData Dane TIFF nowego bloku lub {@code null}
+     *                 jesli bloki maja zostac jedynie usuniete.
+     * @param dest Plik docelowy.
+     * @param sync Czy utrwalic dane pliku docelowego ({@link FileChannel#force}).
+     * @throws IOException W przypadku wystapienia bledu z odczytem lub zapisem pliku.
+     * @throws ImageReadException Jesli plik zrodlowy nie jest poprawnym plikiem WebP.
+     * */
+    static void rewrite(FileChannel in, byte[] tiffData, Path dest, boolean sync) throws IOException, ImageReadException {
+        List<Chunk> chunks = chunks(in);
+        ExifMetrics.phase(ExifMetrics.Phase.REWRITE);
+        Chunk vp8x = null;
+        int insertIndex = -1;
+        long riffSize = 4;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            if (chunk.type.equals(EXIF)) {
+                insertIndex = insertIndex < 0 ? i : insertIndex;
+                continue;
+            }
+            if (chunk.type.equals(VP8X) && vp8x == null) {
+                vp8x = chunk;
+            }
+            riffSize += chunk.length;
+        }
+        if (insertIndex < 0) {
+            insertIndex = chunks.size();
+            for (int i = 0; i < chunks.size(); i++) {
+                if (chunks.get(i).type.equals("XMP ")) {
+                    insertIndex = i;
+                    break;
+                }
+            }
+        }
+        ByteBuffer header = null;
+        if (vp8x != null) {
+            header = ByteBuffer.allocate(CHUNK_HEADER_LENGTH + VP8X_LENGTH);
+            ExifSegment.readFully(in, header, vp8x.offset);
+        } else if (tiffData != null) {
+            header = createVp8x(in, chunks);
+            riffSize += header.capacity();
+        }
+        if (header != null) {
+            int flags = header.get(CHUNK_HEADER_LENGTH) & 0xFF;
+            header.put(CHUNK_HEADER_LENGTH, (byte) (tiffData == null ? flags & ~EXIF_FLAG : flags | EXIF_FLAG));
+        }
+        if (tiffData != null) {
+            riffSize += CHUNK_HEADER_LENGTH + tiffData.length + (tiffData.length & 1);
+        }
+        if (riffSize > 0xFFFFFFFFL) {
+            throw new IOException("WebP file too large.");
+        }
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer riff = ByteBuffer.allocate(RIFF_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            riff.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt((int) riffSize)
+                    .put("WEBP".getBytes(StandardCharsets.US_ASCII)).flip();
+            write(out, riff);
+            if (vp8x == null && header != null) {
+                write(out, header);
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                if (i == insertIndex && tiffData != null) {
+                    writeChunk(out, tiffData);
+                }
+                if (chunk.type.equals(EXIF)) {
+                    continue;
+                }
+                long position = chunk.offset;
+                if (chunk == vp8x) {
+                    write(out, header);
+                    position += header.capacity();
+                }
+                JpegExifRewriter.transfer(in, position, chunk.offset + chunk.available - position, out);
+                if (chunk.available < chunk.length) {
+                    write(out, ByteBuffer.allocate(1));
+                }
+            }
+            if (insertIndex == chunks.size() && tiffData != null) {
+                writeChunk(out, tiffData);
+            }
+            ExifMetrics.phase(ExifMetrics.Phase.FLUSH);
+            if (sync) {
+                out.force(true);
+            }
+        }
+    }
+
+    /**
+     * Prywatna i statyczna metoda tworzaca blok VP8X dla pliku w formacie
+     * prostym na podstawie naglowka bloku VP8 (obraz stratny) lub VP8L
+     * (obraz bezstratny).
+     * */
+    private static ByteBuffer createVp8x(FileChannel in, List<Chunk> chunks) throws IOException, ImageReadException {
+        int width = -1;
+        int height = -1;
+        int flags = 0;
+        for (Chunk chunk : chunks) {
+            ByteBuffer data = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+            if (chunk.type.equals("VP8 ") && chunk.available >= CHUNK_HEADER_LENGTH + 10) {
+                ExifSegment.readFully(in, data, chunk.offset + CHUNK_HEADER_LENGTH);
+                if ((data.get(3) & 0xFF) == 0x9D && (data.get(4) & 0xFF) == 0x01 && (data.get(5) & 0xFF) == 0x2A) {
+                    width = data.getShort(6) & 0x3FFF;
+                    height = data.getShort(8) & 0x3FFF;
+                }
+                break;
+            }
+            if (chunk.type.equals("VP8L") && chunk.available >= CHUNK_HEADER_LENGTH + 5) {
+                data.limit(5);
+                ExifSegment.readFully(in, data, chunk.offset + CHUNK_HEADER_LENGTH);
+                if (data.get(0) == 0x2F) {
+                    int bits = data.getInt(1);
+                    width = (bits & 0x3FFF) + 1;
+                    height = ((bits >>> 14) & 0x3FFF) + 1;
+                    flags = (bits >>> 28 & 1) != 0 ? ALPHA_FLAG : 0;
+                }
+                break;
+            }
+        }
+        if (width <= 0 || height <= 0) {
+            throw new ImageReadException("No WebP image header found.");
+        }
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_LENGTH + VP8X_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(VP8X.getBytes(StandardCharsets.US_ASCII)).putInt(VP8X_LENGTH).put((byte) flags).put(new byte[3]);
+        putInt24(header, width - 1);
+        putInt24(header, height - 1);
+        return header.flip();
+    }
+
+    private static void putInt24(ByteBuffer buffer, int value) {
+        buffer.put((byte) value).put((byte) (value >>> 8)).put((byte) (value >>> 16));
+    }
+
+    /**
+     * Prywatna i statyczna metoda odczytujaca naglowki wszystkich blokow
+     * pliku. Bloki sa ograniczone dlugoscia zapisana w naglowku RIFF.
+     * */
+    private static List<Chunk> chunks(FileChannel channel) throws IOException, ImageReadException {
+        ByteBuffer header = ByteBuffer.allocate(RIFF_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        ExifSegment.readFully(channel, header, 0);
+        long end = Math.min(channel.size(), CHUNK_HEADER_LENGTH + (header.getInt(4) & 0xFFFFFFFFL));
+        List<Chunk> chunks = new ArrayList<>();
+        long position = RIFF_HEADER_LENGTH;
+        while (position + CHUNK_HEADER_LENGTH <= end) {
+            header.clear().limit(CHUNK_HEADER_LENGTH);
+            ExifSegment.readFully(channel, header, position);
+            long size = header.getInt(4) & 0xFFFFFFFFL;
+            if (position + CHUNK_HEADER_LENGTH + size > end) {
+                throw new ImageReadException("Invalid WebP chunk length at offset " + position + ".");
+            }
+            String type = new String(header.array(), 0, 4, StandardCharsets.US_ASCII);
+            long length = CHUNK_HEADER_LENGTH + size + (size & 1);
+            chunks.add(new Chunk(type, position, size, length, Math.min(length, end - position)));
+            position += length;
+        }
+        return chunks;
+    }
+
+    private static void writeChunk(FileChannel out, byte[] tiffData) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(EXIF.getBytes(StandardCharsets.US_ASCII)).putInt(tiffData.length).flip();
+        ByteBuffer padding = ByteBuffer.allocate(tiffData.length & 1);
+        ByteBuffer[] buffers = { header, ByteBuffer.wrap(tiffData), padding };
+        while (buffers[1].hasRemaining() || padding.hasRemaining()) {
+            out.write(buffers);
+        }
+        ExifMetrics.bytesWritten(CHUNK_HEADER_LENGTH + tiffData.length + padding.capacity());
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        ExifMetrics.bytesWritten(buffer.limit());
+    }
+}
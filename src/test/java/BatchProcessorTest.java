@@ -0,0 +1,307 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.BatchOptions;
+import pl.kielce.tu.BatchProcessor;
+import pl.kielce.tu.BatchSummary;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifEngine;
+import pl.kielce.tu.ExifMetadata;
+import pl.kielce.tu.ExifMetrics;
+import pl.kielce.tu.StatsSink;
+import pl.kielce.tu.TagKey;
+import pl.kielce.tu.TemplatePipeline;
+import org.apache.commons.imaging.ImageReadException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class BatchProcessorTest {
+
+    @Test
+    public void parse_missingOutputDir() {
+        //given
+        String[] args = { "strip", "src/test/samples" };
+        //then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchOptions.parse(args));
+    }
+
+    @Test
+    public void parse_unknownCommand() {
+        //given
+        String[] args = { "rename", "src/test/samples" };
+        //then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchOptions.parse(args));
+    }
+
+    @Test
+    public void parse_outputDirInsideRoot() {
+        //given
+        String[] nested = { "strip", "--out", "src/test/samples/out", "src/test/samples" };
+        String[] same = { "scrub", "--out", "src/test/../test/samples", "src/test/samples" };
+        String[] sibling = { "strip", "--out", "src/test/samples-out", "src/test/samples" };
+        //then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchOptions.parse(nested));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BatchOptions.parse(same));
+        Assertions.assertEquals(Path.of("src/test/samples-out"), BatchOptions.parse(sibling).getOutputDir());
+    }
+
+    @Test
+    public void parse_applyTemplateOnly(@TempDir Path dir) throws Exception {
+        //given
+        Path template = dir.resolve("template.txt");
+        Files.write(template, List.of("# nothing to change yet"));
+        String[] templateOnly = { "apply", "--template", template.toString(), "--out", "out", "src/test/samples" };
+        String[] neither = { "apply", "--out", "out", "src/test/samples" };
+        //when
+        BatchOptions options = BatchOptions.parse(templateOnly);
+        IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BatchOptions.parse(neither));
+        //then
+        Assertions.assertTrue(options.getTagValues().isEmpty());
+        Assertions.assertTrue(e.getMessage().contains("--tag") && e.getMessage().contains("--template"), e.getMessage());
+    }
+
+    @Test
+    public void parse_extensions() {
+        //when
+        BatchOptions apply = BatchOptions.parse(new String[] { "apply", "--tag", "Root:Artist=X", "--out", "out",
+                "src/test/samples" });
+        BatchOptions diff = BatchOptions.parse(new String[] { "diff", "--against", "other", "src/test/samples" });
+        BatchOptions applyPng = BatchOptions.parse(new String[] { "apply", "--tag", "Root:Artist=X", "--out", "out",
+                "--ext", "png", "src/test/samples" });
+        //then
+        Assertions.assertTrue(apply.accepts(Path.of("a.JPG")));
+        Assertions.assertTrue(apply.accepts(Path.of("a.png")));
+        Assertions.assertTrue(apply.accepts(Path.of("a.webp")));
+        Assertions.assertTrue(diff.accepts(Path.of("a.tif")));
+        Assertions.assertFalse(diff.accepts(Path.of("a.txt")));
+        Assertions.assertTrue(applyPng.accepts(Path.of("a.png")));
+        Assertions.assertFalse(applyPng.accepts(Path.of("a.jpg")));
+    }
+
+    @Test
+    public void process_dump() throws Exception {
+        //given
+        BatchOptions options = BatchOptions.parse(new String[] { "dump", "--threads", "2", "src/test/samples" });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        //when
+        BatchSummary summary = new BatchProcessor(options, new PrintStream(out), new PrintStream(err)).process();
+        //then
+        Assertions.assertEquals(3, summary.getSucceeded());
+        Assertions.assertEquals(2, summary.getFailed());
+        Assertions.assertTrue(out.toString().contains("withExif.jpg\tRoot\t"));
+    }
+
+    @Test
+    public void process_set(@TempDir Path outDir) throws Exception {
+        //given
+        BatchOptions options = BatchOptions.parse(new String[] { "set", "--out", outDir.toString(),
+                "--tag", "Root:Model=Batch", "--ext", "jpg", "src/test/samples" });
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+        //when
+        new BatchProcessor(options, sink, sink).process();
+        //then
+        Path result = outDir.resolve("withExif.jpg");
+        Assertions.assertTrue(Files.exists(result));
+        boolean found = false;
+        for (Vector<String> row : ExifEditor.readEXIFDataFromFile(result.toFile())) {
+            if (row.get(0).equals("Root") && row.get(1).equals("Model")) {
+                Assertions.assertEquals("Batch", row.get(2));
+                found = true;
+            }
+        }
+        Assertions.assertTrue(found);
+    }
+
+    @Test
+    public void process_exportOrdered(@TempDir Path outDir) throws Exception {
+        //given
+        Path result = outDir.resolve("export.csv");
+        BatchOptions options = BatchOptions.parse(new String[] { "export", "--format", "csv", "--ordered",
+                "--output", result.toString(), "--threads", "3", "--max-in-flight", "2", "src/test/samples" });
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+        //when
+        BatchSummary summary = new BatchProcessor(options, sink, sink).process();
+        //then
+        List<String> lines = Files.readAllLines(result);
+        List<String> expected = new ArrayList<>();
+        expected.add("file,directory,tag,value");
+        try (Stream<Path> files = Files.walk(Path.of("src/test/samples"))) {
+            for (Path file : (Iterable<Path>) files.filter(options::accepts)::iterator) {
+                try {
+                    ExifMetadata metadata = ExifEditor.readEXIFMetadata(file.toFile());
+                    for (int i = 0; i < metadata.size(); i++) {
+                        expected.add(file + "," + metadata.getDirectoryName(i) + "," + metadata.getTagName(i)
+                                + "," + csv(metadata.getFullValueText(i)));
+                    }
+                } catch (ImageReadException ignored) {
+                }
+            }
+        }
+        Assertions.assertEquals(3, summary.getSucceeded());
+        Assertions.assertEquals(expected, lines);
+    }
+
+    @Test
+    public void process_exportFullValues(@TempDir Path dir) throws Exception {
+        //given
+        Path root = Files.createDirectory(dir.resolve("photos"));
+        Path result = dir.resolve("export.jsonl");
+        Files.copy(Path.of("src/test/samples/sample2.jpg"), root.resolve("sample2.jpg"));
+        ExifEditor.writeEXIFDataToFile(new File("src/test/samples/withExif.jpg"), root.resolve("long.jpg").toFile(),
+                Map.of(TagKey.parse("Root:ImageDescription"), "x".repeat(3000)));
+        BatchOptions options = BatchOptions.parse(new String[] { "export", "--output", result.toString(),
+                root.toString() });
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+        //when
+        BatchSummary summary = new BatchProcessor(options, sink, sink).process();
+        //then
+        Assertions.assertEquals(2, summary.getSucceeded());
+        List<String> lines = Files.readAllLines(result);
+        Assertions.assertTrue(lines.stream().anyMatch(line -> line.contains(
+                "\"tag\":\"ImageDescription\",\"value\":\"" + "x".repeat(3000) + "\"}")));
+        String makerNote = lines.stream().filter(line -> line.contains("\"tag\":\"MakerNote\"")).findFirst()
+                .orElseThrow();
+        Assertions.assertFalse(makerNote.contains("..."));
+        Assertions.assertEquals(1176, makerNote.split(", ").length);
+    }
+
+    @Test
+    public void process_applyTemplate(@TempDir Path dir) throws Exception {
+        //given
+        Path template = dir.resolve("template.txt");
+        Files.write(template, List.of("# shoot template", "Root:Artist=Jane Doe", "Root:Copyright=(c) 2026"));
+        Path outDir = dir.resolve("out");
+        BatchOptions options = BatchOptions.parse(new String[] { "apply", "--template", template.toString(),
+                "--out", outDir.toString(), "--read-threads", "1", "--transform-threads", "2",
+                "--write-threads", "2", "--max-in-flight", "1", "src/test/samples" });
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+        //when
+        BatchSummary summary = new BatchProcessor(options, sink, sink).process();
+        //then
+        Assertions.assertEquals(5, summary.getSucceeded());
+        for (String name : new String[] { "sample1.jpg", "withExif.jpg", "withoutExif.jpg" }) {
+            Vector<Vector<String>> rows = ExifEditor.readEXIFDataFromFile(outDir.resolve(name).toFile());
+            Assertions.assertTrue(rows.contains(new Vector<>(List.of("Root", "Artist", "Jane Doe"))), name);
+            Assertions.assertTrue(rows.contains(new Vector<>(List.of("Root", "Copyright", "(c) 2026"))), name);
+        }
+    }
+
+    @Test
+    public void process_applyThroughEngine(@TempDir Path dir) throws Exception {
+        //given
+        Path outDir = dir.resolve("out");
+        BatchOptions options = BatchOptions.parse(new String[] { "apply", "--tag", "Root:Artist=Engine",
+                "--out", outDir.toString(), "--verify", "--fsync", "src/test/samples" });
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+        StatsSink stats = ExifMetrics.getStats();
+        stats.reset();
+        //when
+        BatchSummary summary = new BatchProcessor(options, sink, sink).process();
+        //then
+        Assertions.assertEquals(5, summary.getSucceeded());
+        Assertions.assertEquals(5, stats.getCounter("read.count"));
+        Assertions.assertEquals(5, stats.getCounter("write.count"));
+        Assertions.assertEquals(0, stats.getCounter("write.errors"));
+        Assertions.assertEquals(5, stats.getCount("write.flush.nanos"));
+    }
+
+    @Test
+    public void process_applyMixedFormats(@TempDir Path dir) throws Exception {
+        //given
+        Path root = Files.createDirectory(dir.resolve("src"));
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        ImageIO.write(image, "png", root.resolve("image.png").toFile());
+        ImageIO.write(image, "tiff", root.resolve("image.tif").toFile());
+        Files.copy(Path.of("src/test/samples/withExif.jpg"), root.resolve("image.jpg"));
+        Path outDir = dir.resolve("out");
+        BatchOptions options = BatchOptions.parse(new String[] { "apply", "--tag", "Root:Artist=Mixed",
+                "--out", outDir.toString(), root.toString() });
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+        //when
+        BatchSummary summary = new BatchProcessor(options, sink, sink).process();
+        //then
+        Assertions.assertEquals(3, summary.getSucceeded());
+        Assertions.assertEquals(0, summary.getFailed());
+        for (String name : new String[] { "image.png", "image.tif", "image.jpg" }) {
+            Vector<Vector<String>> rows = ExifEditor.readEXIFDataFromFile(outDir.resolve(name).toFile());
+            Assertions.assertTrue(rows.contains(new Vector<>(List.of("Root", "Artist", "Mixed"))), name);
+        }
+    }
+
+    @Test
+    public void process_applyStopsWhenStageInterrupted(@TempDir Path dir) throws Exception {
+        //given
+        Path root = Files.createDirectory(dir.resolve("src"));
+        for (int i = 0; i < 200; i++) {
+            Files.copy(Path.of("src/test/samples/sample2.jpg"), root.resolve(i + ".jpg"));
+        }
+        BatchOptions options = BatchOptions.parse(new String[] { "apply", "--tag", "Root:Artist=Stop",
+                "--out", dir.resolve("out").toString(), "--threads", "1", "--max-in-flight", "1", root.toString() });
+        TemplatePipeline pipeline = new TemplatePipeline(options, new ExifEngine(1, false),
+                new PrintStream(new ByteArrayOutputStream()));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        //when
+        Future<BatchSummary> result = executor.submit(pipeline::process);
+        Thread writer = null;
+        while (writer == null) {
+            writer = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().equals("template-write-0")).findFirst().orElse(null);
+        }
+        writer.interrupt();
+        //then
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> result.get(30, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof InterruptedException, e.getCause().toString());
+        executor.shutdown();
+    }
+
+    @Test
+    public void process_diffTrees(@TempDir Path dir) throws Exception {
+        //given
+        Path before = Files.createDirectory(dir.resolve("before"));
+        Path after = Files.createDirectory(dir.resolve("after"));
+        for (String name : new String[] { "sample1.jpg", "sample2.jpg", "withExif.jpg" }) {
+            Files.copy(Path.of("src/test/samples", name), before.resolve(name));
+        }
+        Files.copy(before.resolve("sample1.jpg"), after.resolve("sample1.jpg"));
+        ExifEditor.writeEXIFDataToFile(before.resolve("withExif.jpg").toFile(), after.resolve("withExif.jpg").toFile(),
+                Map.of(TagKey.parse("Root:Model"), "Edited", TagKey.parse("Root:Artist"), "Auditor"));
+        Files.copy(Path.of("src/test/samples/withoutExif.jpg"), after.resolve("withoutExif.jpg"));
+        BatchOptions options = BatchOptions.parse(new String[] { "diff", "--against", after.toString(),
+                "--threads", "2", before.toString() });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+        //when
+        BatchSummary summary = new BatchProcessor(options, new PrintStream(out), sink).process();
+        //then
+        List<String> lines = new ArrayList<>(List.of(out.toString().split(System.lineSeparator())));
+        lines.sort(null);
+        Assertions.assertEquals(3, summary.getSucceeded());
+        Assertions.assertEquals(List.of(
+                "sample2.jpg\tONLY_IN\t" + before,
+                "withExif.jpg\tADDED\tRoot:Artist\t\tAuditor",
+                "withExif.jpg\tCHANGED\tRoot:Model\tDIGITALMAVICA\tEdited",
+                "withoutExif.jpg\tONLY_IN\t" + after), lines);
+    }
+
+    private static String csv(String value) {
+        return value.contains(",") ? "\"" + value + "\"" : value;
+    }
+}
@@ -1,10 +1,23 @@
 import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.JpegExifRewriter;
+import pl.kielce.tu.TagKey;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 
 public class ExifEditorTest {
@@ -48,4 +61,138 @@ public class ExifEditorTest {
         //then
         Assertions.assertThrows(IllegalArgumentException.class, () -> ExifEditor.writeEXIFDataToFile(src, null, tagValues));
     }
+
+    @Test
+    public void writeEXIFDataToFile_shorterValuePatchedInPlace(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        File dest = dir.resolve("patched.jpg").toFile();
+        Vector<String> tagValues = tagValues(src, "Model", "MAVICA");
+        //when
+        ExifEditor.writeEXIFDataToFile(src, dest, tagValues);
+        //then
+        Assertions.assertEquals(src.length(), dest.length());
+        Assertions.assertEquals(tagValues, tagValues(dest, null, null));
+    }
+
+    @Test
+    public void writeEXIFDataToFile_longerValueRewritten(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        File dest = dir.resolve("rewritten.jpg").toFile();
+        Vector<String> tagValues = tagValues(src, "Model", "DIGITAL MAVICA FD-95");
+        //when
+        ExifEditor.writeEXIFDataToFile(src, dest, tagValues);
+        //then
+        Assertions.assertEquals(tagValues, tagValues(dest, null, null));
+    }
+
+    @Test
+    public void writeEXIFDataToFile_largeValuesRoundTrip(@TempDir Path dir) throws Exception {
+        //given
+        File sample = new File("src/test/samples/sample1.jpg");
+        File src = dir.resolve("large.jpg").toFile();
+        File dest = dir.resolve("roundTrip.jpg").toFile();
+        TiffOutputSet outputSet = ((JpegImageMetadata) Imaging.getMetadata(sample)).getExif().getOutputSet();
+        outputSet.getOrCreateRootDirectory().removeField(TiffTagConstants.TIFF_TAG_IMAGE_DESCRIPTION);
+        outputSet.getOrCreateRootDirectory().add(TiffTagConstants.TIFF_TAG_IMAGE_DESCRIPTION, "x".repeat(3000));
+        outputSet.getOrCreateExifDirectory().removeField(ExifTagConstants.EXIF_TAG_USER_COMMENT);
+        outputSet.getOrCreateExifDirectory().add(ExifTagConstants.EXIF_TAG_USER_COMMENT, "c".repeat(2000));
+        JpegExifRewriter.updateExif(sample, src, outputSet);
+        Vector<String> tagValues = tagValues(src, "Model", "FD");
+        //when
+        ExifEditor.writeEXIFDataToFile(src, dest, tagValues);
+        //then
+        Assertions.assertTrue(tagValues.contains("x".repeat(3000)));
+        Assertions.assertTrue(tagValues.contains("'" + "c".repeat(2000) + "'"));
+        Assertions.assertEquals(tagValues, tagValues(dest, null, null));
+    }
+
+    @Test
+    public void patchEXIFDataInPlace_valueMovedIntoEntry(@TempDir Path dir) throws Exception {
+        //given
+        Path file = dir.resolve("copy.jpg");
+        Files.copy(Paths.get("src/test/samples/withExif.jpg"), file);
+        Vector<String> tagValues = tagValues(file.toFile(), "Model", "FD");
+        //when
+        boolean patched = ExifEditor.patchEXIFDataInPlace(file.toFile(), tagValues);
+        //then
+        Assertions.assertTrue(patched);
+        Assertions.assertEquals(tagValues, tagValues(file.toFile(), null, null));
+    }
+
+    @Test
+    public void patchEXIFDataInPlace_valueTooLong(@TempDir Path dir) throws Exception {
+        //given
+        Path file = dir.resolve("copy.jpg");
+        Files.copy(Paths.get("src/test/samples/withExif.jpg"), file);
+        byte[] before = Files.readAllBytes(file);
+        Vector<String> tagValues = tagValues(file.toFile(), "Make", "SONY CORPORATION");
+        //when
+        boolean patched = ExifEditor.patchEXIFDataInPlace(file.toFile(), tagValues);
+        //then
+        Assertions.assertFalse(patched);
+        Assertions.assertArrayEquals(before, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void writeEXIFDataToFile_sparseValues(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        File dest = dir.resolve("sparse.jpg").toFile();
+        Map<TagKey, String> tagValues = new HashMap<>();
+        tagValues.put(TagKey.parse("Root:Orientation"), "6");
+        tagValues.put(TagKey.parse("Exif:ExposureTime"), "1/250");
+        //when
+        ExifEditor.writeEXIFDataToFile(src, dest, tagValues);
+        //then
+        Vector<Vector<String>> expected = ExifEditor.readEXIFDataFromFile(src);
+        expected.get(3).set(2, "6");
+        expected.get(10).set(2, "1/250 (0.004)");
+        Assertions.assertEquals(src.length(), dest.length());
+        Assertions.assertEquals(expected, ExifEditor.readEXIFDataFromFile(dest));
+    }
+
+    @Test
+    public void writeEXIFDataToFile_sparseNewTag(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        File dest = dir.resolve("added.jpg").toFile();
+        Map<TagKey, String> tagValues = new HashMap<>();
+        tagValues.put(TagKey.parse("Root:Artist"), "John");
+        //when
+        ExifEditor.writeEXIFDataToFile(src, dest, tagValues);
+        //then
+        Vector<String> before = tagValues(src, null, null);
+        Vector<String> after = tagValues(dest, null, null);
+        Assertions.assertEquals(before.size() + 1, after.size());
+        Assertions.assertTrue(after.contains("John"));
+        Assertions.assertTrue(after.contains("DIGITALMAVICA"));
+    }
+
+    @Test
+    public void writeEXIFDataToFile_sparseNewTagOddLength(@TempDir Path dir) throws Exception {
+        //given
+        Map<TagKey, String> tagValues = new HashMap<>();
+        tagValues.put(TagKey.parse("Root:Artist"), "Jane Doe");
+        for (String name : new String[] { "withExif.jpg", "sample1.jpg" }) {
+            File src = new File("src/test/samples/" + name);
+            File dest = dir.resolve(name).toFile();
+            //when
+            ExifEditor.writeEXIFDataToFile(src, dest, tagValues);
+            //then
+            Vector<String> before = tagValues(src, null, null);
+            Vector<String> after = tagValues(dest, null, null);
+            Assertions.assertEquals(before.size() + 1, after.size(), name);
+            Assertions.assertTrue(after.contains("Jane Doe"), name);
+        }
+    }
+
+    private static Vector<String> tagValues(File file, String tagName, String newValue) throws Exception {
+        Vector<String> tagValues = new Vector<>();
+        for (Vector<String> row : ExifEditor.readEXIFDataFromFile(file)) {
+            tagValues.add(row.get(1).equals(tagName) && row.get(0).equals("Root") ? newValue : row.get(2));
+        }
+        return tagValues;
+    }
 }
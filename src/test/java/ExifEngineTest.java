@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifEngine;
+import pl.kielce.tu.ExifMetrics;
+import pl.kielce.tu.ExifSegment;
+import pl.kielce.tu.StatsSink;
+import pl.kielce.tu.TagKey;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ExifEngineTest {
+
+    @Test
+    public void sharedEngine_sameResultsWithBoundedBuffers(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/sample2.jpg");
+        Map<TagKey, String> tagValues = Map.of(TagKey.parse("Root:Artist"), "Shared engine");
+        File expectedStripped = dir.resolve("expectedStripped.jpg").toFile();
+        File expectedTagged = dir.resolve("expectedTagged.jpg").toFile();
+        ExifEditor.removeEXIFDataFromFile(src, expectedStripped);
+        ExifEditor.writeEXIFDataToFile(src, expectedTagged, tagValues);
+        ExifEngine engine = new ExifEngine(2, true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        //when
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            int n = i;
+            futures.add(executor.submit(() -> {
+                engine.removeExif(src, dir.resolve("stripped" + n + ".jpg").toFile());
+                engine.writeTags(src, dir.resolve("tagged" + n + ".jpg").toFile(), tagValues);
+                return engine.readMetadata(src, part -> { }).size();
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        //then
+        Assertions.assertTrue(engine.getAllocatedBuffers() <= 2);
+        for (int i = 0; i < 64; i++) {
+            Assertions.assertArrayEquals(Files.readAllBytes(expectedStripped.toPath()),
+                    Files.readAllBytes(dir.resolve("stripped" + i + ".jpg")));
+            Assertions.assertArrayEquals(Files.readAllBytes(expectedTagged.toPath()),
+                    Files.readAllBytes(dir.resolve("tagged" + i + ".jpg")));
+        }
+    }
+
+    @Test
+    public void readMetadata_scanDataNotRead(@TempDir Path dir) throws Exception {
+        //given
+        BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        File plain = dir.resolve("plain.jpg").toFile();
+        ImageIO.write(image, "jpg", plain);
+        File src = dir.resolve("tagged.jpg").toFile();
+        ExifEditor.writeEXIFDataToFile(plain, src, Map.of(TagKey.parse("Root:Artist"), "Header only"));
+        long scanStart;
+        try (FileChannel channel = FileChannel.open(src.toPath())) {
+            scanStart = ExifSegment.findScanStart(channel);
+        }
+        StatsSink stats = ExifMetrics.getStats();
+        stats.reset();
+        //when
+        new ExifEngine(1, false).readMetadata(src, part -> { });
+        //then
+        Assertions.assertTrue(scanStart < 1024);
+        Assertions.assertTrue(src.length() > ExifEngine.BUFFER_SIZE);
+        Assertions.assertEquals(1, stats.getCounter("read.count"));
+        Assertions.assertTrue(stats.getCounter("read.bytesRead") <= 4096, stats.dump());
+    }
+}
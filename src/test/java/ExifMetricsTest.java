@@ -0,0 +1,71 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifMetrics;
+import pl.kielce.tu.StatsSink;
+import pl.kielce.tu.TagKey;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+public class ExifMetricsTest {
+
+    @Test
+    public void stats_countersAndPhases(@TempDir Path dir) throws Exception {
+        //given
+        StatsSink stats = ExifMetrics.getStats();
+        stats.reset();
+        File src = new File("src/test/samples/sample1.jpg");
+        File dest = dir.resolve("dest.jpg").toFile();
+        //when
+        ExifEditor.readEXIFDataFromFile(src);
+        ExifEditor.writeEXIFDataToFile(src, dest, Map.of(TagKey.parse("Root:Model"), "A much longer camera model name"));
+        Assertions.assertThrows(Exception.class, () -> ExifEditor.readEXIFMetadata(new File("src/test/samples/withoutExif.jpg")));
+        //then
+        Assertions.assertEquals(2, stats.getCounter("read.count"));
+        Assertions.assertEquals(1, stats.getCounter("read.errors"));
+        Assertions.assertTrue(stats.getCounter("read.bytesRead") > 0);
+        Assertions.assertTrue(stats.getCounter("read.fields") > 0);
+        Assertions.assertEquals(2, stats.getCount("read.nanos"));
+        Assertions.assertEquals(1, stats.getCounter("write.count"));
+        Assertions.assertEquals(0, stats.getCounter("write.errors"));
+        Assertions.assertEquals(dest.length(), stats.getCounter("write.bytesWritten"));
+        for (String phase : new String[] { "open", "parse", "build", "rewrite", "flush" }) {
+            Assertions.assertEquals(1, stats.getCount("write." + phase + ".nanos"), phase);
+        }
+        Assertions.assertTrue(stats.dump().contains("write.rewrite.nanos"));
+    }
+
+    @Test
+    public void jfr_operationEventRecorded(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/sample2.jpg");
+        Path recordingFile = dir.resolve("recording.jfr");
+        //when
+        try (Recording recording = new Recording()) {
+            recording.enable("pl.kielce.tu.ExifOperation");
+            recording.enable("pl.kielce.tu.ExifPhase");
+            recording.start();
+            ExifEditor.removeEXIFDataFromFile(src, dir.resolve("stripped.jpg").toFile());
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        //then
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        RecordedEvent operation = events.stream()
+                .filter(event -> event.getEventType().getName().equals("pl.kielce.tu.ExifOperation"))
+                .findFirst().orElseThrow();
+        Assertions.assertEquals("remove", operation.getString("operation"));
+        Assertions.assertEquals(src.getPath(), operation.getString("path"));
+        Assertions.assertTrue(operation.getBoolean("success"));
+        Assertions.assertEquals(dir.resolve("stripped.jpg").toFile().length(), operation.getLong("bytesWritten"));
+        Assertions.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("pl.kielce.tu.ExifPhase")
+                && "rewrite".equals(event.getString("phase"))));
+    }
+}
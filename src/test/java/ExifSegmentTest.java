@@ -0,0 +1,73 @@
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import pl.kielce.tu.ExifSegment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class ExifSegmentTest {
+
+    @Test
+    public void find_withExif() throws IOException, ImageReadException {
+        //given
+        FileChannel channel = FileChannel.open(Paths.get("src/test/samples/withExif.jpg"), StandardOpenOption.READ);
+        //when
+        ExifSegment segment;
+        try (channel) {
+            segment = ExifSegment.find(channel);
+        }
+        //then
+        Assertions.assertNotNull(segment);
+        Assertions.assertEquals(20, segment.getOffset());
+        Assertions.assertEquals(3493, segment.getLength());
+        Assertions.assertEquals(segment.getLength() - 10, segment.getTiffData().length);
+    }
+
+    @Test
+    public void find_withoutExif() throws IOException, ImageReadException {
+        //given
+        FileChannel channel = FileChannel.open(Paths.get("src/test/samples/withoutExif.jpg"), StandardOpenOption.READ);
+        //when
+        ExifSegment segment;
+        try (channel) {
+            segment = ExifSegment.find(channel);
+        }
+        //then
+        Assertions.assertNull(segment);
+    }
+
+    @Test
+    public void find_notJpeg() throws IOException {
+        //given
+        try (FileChannel channel = FileChannel.open(Paths.get("src/test/samples/notSupportedExt.txt"), StandardOpenOption.READ)) {
+            //then
+            Assertions.assertFalse(ExifSegment.isJpeg(channel));
+            Assertions.assertThrows(ImageReadException.class, () -> ExifSegment.find(channel));
+        }
+    }
+
+    @Test
+    public void parse_sameFieldsAsImaging() throws IOException, ImageReadException {
+        //given
+        File src = new File("src/test/samples/sample1.jpg");
+        TiffImageMetadata expected = ((JpegImageMetadata) Imaging.getMetadata(src)).getExif();
+        //when
+        TiffImageMetadata result;
+        try (FileChannel channel = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            result = ExifSegment.find(channel).parse();
+        }
+        //then
+        Assertions.assertEquals(expected.getAllFields().size(), result.getAllFields().size());
+        for (int i = 0; i < expected.getAllFields().size(); i++) {
+            Assertions.assertEquals(expected.getAllFields().get(i).getValueDescription(),
+                    result.getAllFields().get(i).getValueDescription());
+        }
+    }
+}
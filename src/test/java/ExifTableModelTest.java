@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifMetadata;
+import pl.kielce.tu.ExifTableModel;
+import pl.kielce.tu.TagKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+public class ExifTableModelTest {
+
+    @Test
+    public void getValueAt_sameAsRows() throws Exception {
+        //given
+        File src = new File("src/test/samples/sample1.jpg");
+        ExifTableModel model = new ExifTableModel();
+        //when
+        model.setMetadata(ExifEditor.readEXIFMetadata(src));
+        //then
+        Vector<Vector<String>> rows = ExifEditor.readEXIFDataFromFile(src);
+        Assertions.assertEquals(rows.size(), model.getRowCount());
+        for (int i = 0; i < rows.size(); i++) {
+            for (int j = 0; j < 3; j++) {
+                Assertions.assertEquals(rows.get(i).get(j), model.getValueAt(i, j));
+            }
+        }
+    }
+
+    @Test
+    public void appendMetadata_directoriesPublishedInOrder() throws Exception {
+        //given
+        File src = new File("src/test/samples/sample1.jpg");
+        ExifTableModel model = new ExifTableModel();
+        List<Integer> partSizes = new ArrayList<>();
+        //when
+        ExifMetadata full = ExifEditor.readEXIFMetadata(src, part -> {
+            partSizes.add(part.size());
+            model.appendMetadata(part);
+        });
+        //then
+        Assertions.assertTrue(partSizes.size() > 1);
+        Assertions.assertEquals(full.size(), model.getRowCount());
+        Assertions.assertEquals(full.toRows(), model.getMetadata().toRows());
+    }
+
+    @Test
+    public void getChanges_onlyEditedValues() throws Exception {
+        //given
+        ExifTableModel model = new ExifTableModel();
+        model.setMetadata(ExifEditor.readEXIFMetadata(new File("src/test/samples/withExif.jpg")));
+        //when
+        model.setValueAt("FD", 2, ExifTableModel.VALUE_COLUMN);
+        model.setValueAt(model.getValueAt(1, ExifTableModel.VALUE_COLUMN), 1, ExifTableModel.VALUE_COLUMN);
+        //then
+        Assertions.assertEquals(Map.of(TagKey.parse("Root:Model"), "FD"), model.getChanges());
+        Assertions.assertEquals("FD", model.getValueAt(2, ExifTableModel.VALUE_COLUMN));
+    }
+
+    @Test
+    public void getFullValueText_largeValueReadFromFile() throws Exception {
+        //given
+        ExifTableModel model = new ExifTableModel();
+        model.setMetadata(ExifEditor.readEXIFMetadata(new File("src/test/samples/sample2.jpg")));
+        int row = findRow(model, "MakerNote");
+        String preview = (String) model.getValueAt(row, ExifTableModel.VALUE_COLUMN);
+        //when
+        String full = model.getFullValueText(row);
+        //then
+        Assertions.assertTrue(model.getMetadata().isPreview(row));
+        Assertions.assertTrue(preview.endsWith("... (1176)"));
+        Assertions.assertTrue(full.startsWith(preview.substring(0, preview.lastIndexOf("..."))));
+        Assertions.assertFalse(full.contains("..."));
+        Assertions.assertEquals(1176, full.split(", ").length);
+        model.setValueAt(full, row, ExifTableModel.VALUE_COLUMN);
+        Assertions.assertTrue(model.getChanges().isEmpty());
+    }
+
+    @Test
+    public void getFullValueText_fileChanged(@TempDir Path dir) throws Exception {
+        //given
+        File src = dir.resolve("sample2.jpg").toFile();
+        Files.copy(Path.of("src/test/samples/sample2.jpg"), src.toPath());
+        ExifTableModel model = new ExifTableModel();
+        model.setMetadata(ExifEditor.readEXIFMetadata(src));
+        int row = findRow(model, "MakerNote");
+        //when
+        Assertions.assertTrue(src.setLastModified(src.lastModified() - 10000));
+        //then
+        Assertions.assertThrows(IOException.class, () -> model.getFullValueText(row));
+    }
+
+    private static int findRow(ExifTableModel model, String tagName) {
+        for (int i = 0; i < model.getRowCount(); i++) {
+            if (tagName.equals(model.getValueAt(i, 1))) {
+                return i;
+            }
+        }
+        throw new AssertionError(tagName);
+    }
+}
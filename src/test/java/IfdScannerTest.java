@@ -0,0 +1,109 @@
+import org.apache.commons.imaging.ImageReadException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifMetadata;
+import pl.kielce.tu.IfdScanner;
+import pl.kielce.tu.TagKey;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+public class IfdScannerTest {
+
+    @Test
+    public void stream_sameEntriesAsMetadata() throws Exception {
+        //given
+        File src = new File("src/test/samples/sample1.jpg");
+        ExifMetadata metadata = ExifEditor.readEXIFMetadata(src);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < metadata.size(); i++) {
+            expected.add(metadata.getKey(i).toString());
+        }
+        //when
+        List<String> actual = IfdScanner.open(src, IfdScanner.Limits.DEFAULT).stream()
+                .map(entry -> entry.getKey().toString()).collect(Collectors.toList());
+        //then
+        Assertions.assertEquals(expected.stream().sorted().collect(Collectors.toList()),
+                actual.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void find_stopsAtFirstMatch() throws Exception {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        TagKey model = TagKey.parse("Root:Model");
+        IfdScanner scanner = IfdScanner.open(src, IfdScanner.Limits.DEFAULT);
+        //when
+        Optional<IfdScanner.Entry> entry = scanner.stream().filter(e -> e.getKey().equals(model)).findFirst();
+        //then
+        Assertions.assertTrue(entry.isPresent());
+        Assertions.assertEquals("DIGITALMAVICA", entry.get().toField().getStringValue().trim());
+        Assertions.assertTrue(scanner.getEntriesRead() < ExifEditor.readEXIFMetadata(src).size());
+        Assertions.assertEquals("DIGITALMAVICA", IfdScanner.find(src, model, IfdScanner.Limits.DEFAULT)
+                .getStringValue().trim());
+        Assertions.assertNull(IfdScanner.find(src, TagKey.parse("Gps:GPSLatitude"), IfdScanner.Limits.DEFAULT));
+    }
+
+    @Test
+    public void next_detectsOffsetCycle(@TempDir Path dir) throws Exception {
+        //given
+        File src = createTiff(dir, 1, 8);
+        IfdScanner scanner = IfdScanner.open(src, IfdScanner.Limits.DEFAULT);
+        //when
+        IfdScanner.Entry first = scanner.next();
+        //then
+        Assertions.assertEquals(0x0100, first.getTag());
+        Assertions.assertThrows(ImageReadException.class, scanner::next);
+        Assertions.assertThrows(UncheckedIOException.class,
+                () -> IfdScanner.open(src, IfdScanner.Limits.DEFAULT).stream().count());
+    }
+
+    @Test
+    public void next_enforcesLimits(@TempDir Path dir) throws Exception {
+        //given
+        File src = createTiff(dir, 1000, 0);
+        IfdScanner entryLimited = IfdScanner.open(src, new IfdScanner.Limits(1 << 20, 10, 2));
+        IfdScanner byteLimited = IfdScanner.open(src, new IfdScanner.Limits(8 + 2 + 12 * 5, 4096, 2));
+        IfdScanner unlimited = IfdScanner.open(src, IfdScanner.Limits.DEFAULT);
+        //when
+        for (int i = 0; i < 10; i++) {
+            entryLimited.next();
+        }
+        for (int i = 0; i < 5; i++) {
+            byteLimited.next();
+        }
+        //then
+        Assertions.assertThrows(ImageReadException.class, entryLimited::next);
+        Assertions.assertThrows(ImageReadException.class, byteLimited::next);
+        Assertions.assertEquals(8 + 2 + 12 * 5, byteLimited.getBytesRead());
+        Assertions.assertEquals(1000, unlimited.stream().count());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new IfdScanner.Limits(-1, 0, 0));
+    }
+
+    /**
+     * Tworzy plik TIFF z jednym katalogiem IFD0 zawierajacym podana
+     * liczbe wpisow ImageWidth i wskazujacym na podany nastepny katalog.
+     * */
+    private static File createTiff(Path dir, int entries, int nextDirectory) throws Exception {
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 12 * entries + 4).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        tiff.putShort((short) entries);
+        for (int i = 0; i < entries; i++) {
+            tiff.putShort((short) 0x0100).putShort((short) 3).putInt(1).putInt(i);
+        }
+        tiff.putInt(nextDirectory);
+        File file = dir.resolve("crafted.tif").toFile();
+        Files.write(file.toPath(), tiff.array());
+        return file;
+    }
+}
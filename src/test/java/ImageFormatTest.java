@@ -0,0 +1,207 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifMetadata;
+import pl.kielce.tu.ImageFormat;
+import pl.kielce.tu.TagKey;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+public class ImageFormatTest {
+
+    @Test
+    public void of_detectsFormatFromContent(@TempDir Path dir) throws Exception {
+        //given
+        File renamed = dir.resolve("photo.png").toFile();
+        Files.copy(Path.of("src/test/samples/sample1.jpg"), renamed.toPath());
+        //when
+        ImageFormat jpeg = ImageFormat.of(renamed);
+        ImageFormat png = ImageFormat.of(createImage(dir, "png"));
+        ImageFormat tiff = ImageFormat.of(createImage(dir, "tiff"));
+        ImageFormat webp = ImageFormat.of(createWebp(dir));
+        ImageFormat unknown = ImageFormat.of(new File("src/test/samples/notSupportedExt.txt"));
+        //then
+        Assertions.assertEquals(ImageFormat.JPEG, jpeg);
+        Assertions.assertFalse(jpeg.hasExtension(renamed.getName()));
+        Assertions.assertEquals(ImageFormat.PNG, png);
+        Assertions.assertEquals(ImageFormat.TIFF, tiff);
+        Assertions.assertEquals(ImageFormat.WEBP, webp);
+        Assertions.assertNull(unknown);
+    }
+
+    @Test
+    public void png_writeReadAndRemove(@TempDir Path dir) throws Exception {
+        //given
+        File src = createImage(dir, "png");
+        File tagged = dir.resolve("tagged.png").toFile();
+        File retagged = dir.resolve("retagged.png").toFile();
+        File stripped = dir.resolve("stripped.png").toFile();
+        //when
+        ExifEditor.writeEXIFDataToFile(src, tagged, Map.of(TagKey.parse("Root:Artist"), "Png"));
+        ExifEditor.writeEXIFDataToFile(tagged, retagged, Map.of(TagKey.parse("Root:Artist"), "Png2"));
+        ExifEditor.removeEXIFDataFromFile(retagged, stripped);
+        //then
+        Assertions.assertEquals("Png", valueOf(tagged, "Root:Artist"));
+        Assertions.assertEquals("Png2", valueOf(retagged, "Root:Artist"));
+        assertSamePixels(src, retagged);
+        Assertions.assertArrayEquals(Files.readAllBytes(src.toPath()), Files.readAllBytes(stripped.toPath()));
+    }
+
+    @Test
+    public void webp_writeReadAndRemove(@TempDir Path dir) throws Exception {
+        //given
+        File src = createWebp(dir);
+        File tagged = dir.resolve("tagged.webp").toFile();
+        File stripped = dir.resolve("stripped.webp").toFile();
+        //when
+        ExifEditor.writeEXIFDataToFile(src, tagged, Map.of(TagKey.parse("Root:Artist"), "WebP"));
+        ExifEditor.removeEXIFDataFromFile(tagged, stripped);
+        //then
+        Assertions.assertEquals("WebP", valueOf(tagged, "Root:Artist"));
+        ByteBuffer result = ByteBuffer.wrap(Files.readAllBytes(tagged.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        Assertions.assertEquals(result.capacity() - 8, result.getInt(4));
+        Assertions.assertEquals("VP8X", new String(result.array(), 12, 4, StandardCharsets.US_ASCII));
+        Assertions.assertEquals(0x08 | 0x10, result.get(20));
+        Assertions.assertEquals(2, result.get(24) + 1);
+        Assertions.assertEquals(3, result.get(27) + 1);
+        ByteBuffer clean = ByteBuffer.wrap(Files.readAllBytes(stripped.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        Assertions.assertEquals(clean.capacity() - 8, clean.getInt(4));
+        Assertions.assertEquals(0x10, clean.get(20));
+        Assertions.assertFalse(new String(clean.array(), StandardCharsets.US_ASCII).contains("EXIF"));
+        Assertions.assertThrows(Exception.class, () -> ExifEditor.readEXIFMetadata(stripped));
+    }
+
+    @Test
+    public void tiff_writeReadAndRemove(@TempDir Path dir) throws Exception {
+        //given
+        File src = createImage(dir, "tiff");
+        File tagged = dir.resolve("tagged.tif").toFile();
+        File patched = dir.resolve("patched.tif").toFile();
+        File stripped = dir.resolve("stripped.tif").toFile();
+        //when
+        ExifEditor.writeEXIFDataToFile(src, tagged, Map.of(TagKey.parse("Root:Artist"), "Tiff artist",
+                TagKey.parse("Exif:ImageUniqueID"), "Private comment"));
+        ExifEditor.writeEXIFDataToFile(tagged, patched, Map.of(TagKey.parse("Root:Artist"), "Tiff"));
+        ExifEditor.removeEXIFDataFromFile(patched, stripped);
+        //then
+        Assertions.assertEquals("Tiff artist", valueOf(tagged, "Root:Artist"));
+        Assertions.assertEquals("Tiff", valueOf(patched, "Root:Artist"));
+        Assertions.assertEquals(tagged.length(), patched.length());
+        assertSamePixels(src, patched);
+        assertSamePixels(src, stripped);
+        Assertions.assertNull(valueOf(stripped, "Root:Artist"));
+        Assertions.assertFalse(new String(Files.readAllBytes(stripped.toPath()), StandardCharsets.US_ASCII)
+                .contains("Private comment"));
+    }
+
+    @Test
+    public void vectorApi_writeAndPatchPngAndTiff(@TempDir Path dir) throws Exception {
+        //given
+        File png = dir.resolve("tagged.png").toFile();
+        File tiff = dir.resolve("tagged.tif").toFile();
+        ExifEditor.writeEXIFDataToFile(createImage(dir, "png"), png, Map.of(TagKey.parse("Root:Artist"), "Png artist"));
+        ExifEditor.writeEXIFDataToFile(createImage(dir, "tiff"), tiff, Map.of(TagKey.parse("Root:Artist"), "Tiff artist"));
+        File pngCopy = dir.resolve("copy.png").toFile();
+        File tiffCopy = dir.resolve("copy.tif").toFile();
+        long pngLength = png.length();
+        long tiffLength = tiff.length();
+        //when
+        ExifEditor.writeEXIFDataToFile(png, pngCopy, artist(png, "Png artist copy"));
+        ExifEditor.writeEXIFDataToFile(tiff, tiffCopy, artist(tiff, "Tiff artist copy"));
+        boolean pngPatched = ExifEditor.patchEXIFDataInPlace(png, artist(png, "Png"));
+        boolean tiffPatched = ExifEditor.patchEXIFDataInPlace(tiff, artist(tiff, "Tiff"));
+        //then
+        Assertions.assertEquals("Png artist copy", valueOf(pngCopy, "Root:Artist"));
+        Assertions.assertEquals("Tiff artist copy", valueOf(tiffCopy, "Root:Artist"));
+        Assertions.assertTrue(pngPatched);
+        Assertions.assertTrue(tiffPatched);
+        Assertions.assertEquals("Png", valueOf(png, "Root:Artist"));
+        Assertions.assertEquals("Tiff", valueOf(tiff, "Root:Artist"));
+        Assertions.assertEquals(pngLength, png.length());
+        Assertions.assertEquals(tiffLength, tiff.length());
+        assertValidExifChunk(Files.readAllBytes(pngCopy.toPath()));
+        assertValidExifChunk(Files.readAllBytes(png.toPath()));
+        assertSamePixels(tiffCopy, tiff);
+    }
+
+    private static Vector<String> artist(File file, String artist) throws Exception {
+        Vector<String> tagValues = new Vector<>();
+        for (Vector<String> row : ExifEditor.readEXIFDataFromFile(file)) {
+            tagValues.add(row.get(1).equals("Artist") ? artist : row.get(2));
+        }
+        return tagValues;
+    }
+
+    private static void assertValidExifChunk(byte[] png) {
+        ByteBuffer buffer = ByteBuffer.wrap(png);
+        for (int position = 8; position + 12 <= png.length; ) {
+            int length = buffer.getInt(position);
+            if (new String(png, position + 4, 4, StandardCharsets.US_ASCII).equals("eXIf")) {
+                CRC32 crc = new CRC32();
+                crc.update(png, position + 4, 4 + length);
+                Assertions.assertEquals((int) crc.getValue(), buffer.getInt(position + 8 + length));
+                return;
+            }
+            position += 12 + length;
+        }
+        Assertions.fail("No eXIf chunk found.");
+    }
+
+    private static String valueOf(File file, String key) throws Exception {
+        ExifMetadata metadata = ExifEditor.readEXIFMetadata(file);
+        for (int i = 0; i < metadata.size(); i++) {
+            if (metadata.getKey(i).equals(TagKey.parse(key))) {
+                return metadata.getValueText(i);
+            }
+        }
+        return null;
+    }
+
+    private static void assertSamePixels(File expected, File actual) throws Exception {
+        BufferedImage first = ImageIO.read(expected);
+        BufferedImage second = ImageIO.read(actual);
+        Assertions.assertEquals(first.getWidth(), second.getWidth());
+        for (int y = 0; y < first.getHeight(); y++) {
+            for (int x = 0; x < first.getWidth(); x++) {
+                Assertions.assertEquals(first.getRGB(x, y), second.getRGB(x, y));
+            }
+        }
+    }
+
+    private static File createImage(Path dir, String format) throws Exception {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 6) << 16 | (y * 8) << 8 | (x + y));
+            }
+        }
+        File file = dir.resolve("image." + format).toFile();
+        Assertions.assertTrue(ImageIO.write(image, format, file));
+        return file;
+    }
+
+    /**
+     * Tworzy plik WebP w formacie prostym z blokiem VP8L obrazu 2x3
+     * z kanalem alfa (dane obrazu nie sa dekodowane przez testy).
+     * */
+    private static File createWebp(Path dir) throws Exception {
+        ByteBuffer file = ByteBuffer.allocate(12 + 8 + 10).order(ByteOrder.LITTLE_ENDIAN);
+        file.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(4 + 8 + 10).put("WEBP".getBytes(StandardCharsets.US_ASCII));
+        file.put("VP8L".getBytes(StandardCharsets.US_ASCII)).putInt(9).put((byte) 0x2F)
+                .putInt((2 - 1) | (3 - 1) << 14 | 1 << 28).put(new byte[] { 1, 2, 3, 4, 0 });
+        File webp = dir.resolve("image.webp").toFile();
+        Files.write(webp.toPath(), file.array());
+        return webp;
+    }
+}
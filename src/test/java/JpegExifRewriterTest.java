@@ -0,0 +1,81 @@
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifSegment;
+import pl.kielce.tu.JpegExifRewriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class JpegExifRewriterTest {
+
+    @Test
+    public void removeExif_sameAsExifRewriter(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        File dest = dir.resolve("stripped.jpg").toFile();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new ExifRewriter().removeExifMetadata(src, expected);
+        //when
+        JpegExifRewriter.removeExif(src, dest);
+        //then
+        Assertions.assertArrayEquals(expected.toByteArray(), Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    public void updateExif_keepsImageData(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/sample1.jpg");
+        File dest = dir.resolve("updated.jpg").toFile();
+        TiffOutputSet outputSet = ((JpegImageMetadata) Imaging.getMetadata(src)).getExif().getOutputSet();
+        outputSet.getOrCreateRootDirectory().removeField(TiffTagConstants.TIFF_TAG_ARTIST);
+        outputSet.getOrCreateRootDirectory().add(TiffTagConstants.TIFF_TAG_ARTIST, "Rewriter");
+        //when
+        JpegExifRewriter.updateExif(src, dest, outputSet);
+        //then
+        byte[] source = Files.readAllBytes(src.toPath());
+        byte[] result = Files.readAllBytes(dest.toPath());
+        Assertions.assertArrayEquals(Arrays.copyOfRange(source, scanStart(src), source.length),
+                Arrays.copyOfRange(result, scanStart(dest), result.length));
+        Assertions.assertEquals("Rewriter", ((JpegImageMetadata) Imaging.getMetadata(dest)).getExif()
+                .getFieldValue(TiffTagConstants.TIFF_TAG_ARTIST)[0]);
+    }
+
+    @Test
+    public void updateExif_insertsSegment(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/withoutExif.jpg");
+        File dest = dir.resolve("inserted.jpg").toFile();
+        TiffOutputSet outputSet = new TiffOutputSet();
+        outputSet.getOrCreateRootDirectory().add(TiffTagConstants.TIFF_TAG_ARTIST, "Inserted");
+        //when
+        JpegExifRewriter.updateExif(src, dest, outputSet);
+        //then
+        Assertions.assertEquals("Inserted", ExifEditor.readEXIFDataFromFile(dest).get(0).get(2));
+    }
+
+    @Test
+    public void removeExif_sameFile() {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        //then
+        Assertions.assertThrows(IOException.class, () -> JpegExifRewriter.removeExif(src, src));
+    }
+
+    private static int scanStart(File file) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return (int) ExifSegment.findScanStart(channel);
+        }
+    }
+}
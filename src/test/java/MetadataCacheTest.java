@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.MetadataCache;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Vector;
+
+public class MetadataCacheTest {
+
+    @Test
+    public void readEXIFDataFromFile_hitReturnsCopy() throws Exception {
+        //given
+        MetadataCache cache = new MetadataCache();
+        File src = new File("src/test/samples/withExif.jpg");
+        cache.readEXIFDataFromFile(src).get(0).set(2, "changed");
+        //when
+        Vector<Vector<String>> metadata = cache.readEXIFDataFromFile(src);
+        //then
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+        Assertions.assertEquals(ExifEditor.readEXIFDataFromFile(src), metadata);
+    }
+
+    @Test
+    public void readEXIFDataFromFile_modifiedFileReloaded(@TempDir Path dir) throws Exception {
+        //given
+        MetadataCache cache = new MetadataCache();
+        Path file = dir.resolve("copy.jpg");
+        Files.copy(Paths.get("src/test/samples/withExif.jpg"), file);
+        cache.readEXIFDataFromFile(file.toFile());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 5000));
+        //when
+        cache.readEXIFDataFromFile(file.toFile());
+        //then
+        Assertions.assertEquals(0, cache.getHits());
+        Assertions.assertEquals(2, cache.getMisses());
+        Assertions.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void readEXIFDataFromFile_patchedFileReloaded(@TempDir Path dir) throws Exception {
+        //given
+        MetadataCache cache = new MetadataCache();
+        Path file = dir.resolve("copy.jpg");
+        Files.copy(Paths.get("src/test/samples/withExif.jpg"), file);
+        Vector<String> tagValues = new Vector<>();
+        for (Vector<String> row : cache.readEXIFDataFromFile(file.toFile())) {
+            tagValues.add(row.get(1).equals("Model") && row.get(0).equals("Root") ? "FD" : row.get(2));
+        }
+        FileTime modified = Files.getLastModifiedTime(file);
+        long length = Files.size(file);
+        //when
+        Assertions.assertTrue(ExifEditor.patchEXIFDataInPlace(file.toFile(), tagValues));
+        Files.setLastModifiedTime(file, modified);
+        Vector<Vector<String>> metadata = cache.readEXIFDataFromFile(file.toFile());
+        //then
+        Assertions.assertEquals(length, Files.size(file));
+        Assertions.assertEquals(0, cache.getHits());
+        Assertions.assertEquals(2, cache.getMisses());
+        Assertions.assertEquals(ExifEditor.readEXIFDataFromFile(file.toFile()), metadata);
+        Assertions.assertTrue(metadata.stream().anyMatch(row -> row.get(2).equals("FD")));
+    }
+
+    @Test
+    public void readEXIFDataFromFile_leastRecentlyUsedEvicted() throws Exception {
+        //given
+        MetadataCache cache = new MetadataCache(2, Long.MAX_VALUE);
+        File first = new File("src/test/samples/withExif.jpg");
+        File second = new File("src/test/samples/sample1.jpg");
+        File third = new File("src/test/samples/sample2.jpg");
+        cache.readEXIFDataFromFile(first);
+        cache.readEXIFDataFromFile(second);
+        cache.readEXIFDataFromFile(first);
+        //when
+        cache.readEXIFDataFromFile(third);
+        cache.readEXIFDataFromFile(first);
+        //then
+        Assertions.assertEquals(1, cache.getEvictions());
+        Assertions.assertEquals(2, cache.getHits());
+        cache.readEXIFDataFromFile(second);
+        Assertions.assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void readEXIFDataFromFile_byteLimit() throws Exception {
+        //given
+        MetadataCache cache = new MetadataCache(10, 1);
+        //when
+        cache.readEXIFDataFromFile(new File("src/test/samples/withExif.jpg"));
+        //then
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(0, cache.getEstimatedBytes());
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+}
@@ -0,0 +1,86 @@
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifSegment;
+import pl.kielce.tu.MetadataDiff;
+import pl.kielce.tu.TagKey;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class MetadataDiffTest {
+
+    @Test
+    public void compare_changedAndAddedTags(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        File copy = dir.resolve("edited.jpg").toFile();
+        ExifEditor.writeEXIFDataToFile(src, copy, Map.of(TagKey.parse("Root:Model"), "Edited",
+                TagKey.parse("Root:Artist"), "Auditor"));
+        //when
+        List<MetadataDiff.Change> changes = MetadataDiff.compare(src, copy);
+        //then
+        Assertions.assertEquals(2, changes.size());
+        Assertions.assertEquals("CHANGED\tRoot:Model\tDIGITALMAVICA\tEdited", changes.get(0).toString());
+        Assertions.assertEquals("ADDED\tRoot:Artist\t\tAuditor", changes.get(1).toString());
+        Assertions.assertTrue(MetadataDiff.compare(src, src).isEmpty());
+    }
+
+    @Test
+    public void compare_pngAndTiff(@TempDir Path dir) throws Exception {
+        //given
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        Map<TagKey, String> tagValues = Map.of(TagKey.parse("Root:Artist"), "Auditor");
+        List<List<MetadataDiff.Change>> changes = new ArrayList<>();
+        for (String format : new String[] { "png", "tiff" }) {
+            File plain = dir.resolve("plain." + format).toFile();
+            File tagged = dir.resolve("tagged." + format).toFile();
+            File retagged = dir.resolve("retagged." + format).toFile();
+            ImageIO.write(image, format, plain);
+            ExifEditor.writeEXIFDataToFile(plain, tagged, tagValues);
+            ExifEditor.writeEXIFDataToFile(tagged, retagged, Map.of(TagKey.parse("Root:Artist"), "Editor"));
+            //when
+            changes.add(MetadataDiff.compare(tagged, retagged));
+            Assertions.assertTrue(MetadataDiff.compare(tagged, tagged).isEmpty());
+        }
+        //then
+        for (List<MetadataDiff.Change> formatChanges : changes) {
+            Assertions.assertEquals(1, formatChanges.size(), formatChanges.toString());
+            Assertions.assertEquals("CHANGED\tRoot:Artist\tAuditor\tEditor", formatChanges.get(0).toString());
+        }
+    }
+
+    @Test
+    public void compare_changePastDisplayedItems(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/sample1.jpg");
+        File copy = dir.resolve("copy.jpg").toFile();
+        byte[] bytes = Files.readAllBytes(src.toPath());
+        long makerNote;
+        try (FileChannel channel = FileChannel.open(src.toPath())) {
+            ExifSegment segment = ExifSegment.find(channel);
+            TiffField field = segment.parse().findField(ExifTagConstants.EXIF_TAG_MAKER_NOTE);
+            Assertions.assertTrue(field.getCount() > 200);
+            makerNote = segment.getTiffOffset() + field.getOffset();
+        }
+        bytes[(int) makerNote + 200] ^= 0x01;
+        Files.write(copy.toPath(), bytes);
+        //when
+        List<MetadataDiff.Change> changes = MetadataDiff.compare(src, copy);
+        //then
+        Assertions.assertEquals(1, changes.size());
+        Assertions.assertEquals(MetadataDiff.Kind.CHANGED, changes.get(0).getKind());
+        Assertions.assertEquals("Exif:MakerNote", changes.get(0).getName());
+        Assertions.assertNotEquals(changes.get(0).getOldValue(), changes.get(0).getNewValue());
+    }
+}
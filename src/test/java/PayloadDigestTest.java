@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifEngine;
+import pl.kielce.tu.ExifMetadata;
+import pl.kielce.tu.PayloadDigest;
+import pl.kielce.tu.TagKey;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PayloadDigestTest {
+
+    @Test
+    public void digest_sameAfterWriteAndRemove(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/sample1.jpg");
+        File tagged = dir.resolve("tagged.jpg").toFile();
+        File stripped = dir.resolve("stripped.jpg").toFile();
+        //when
+        ExifEditor.writeEXIFDataToFile(src, tagged, Map.of(TagKey.parse("Root:Artist"), "Digest"));
+        ExifEditor.removeEXIFDataFromFile(src, stripped);
+        //then
+        Assertions.assertEquals(32, PayloadDigest.digest(src).length);
+        Assertions.assertTrue(PayloadDigest.verify(src, tagged));
+        Assertions.assertTrue(PayloadDigest.verify(src, stripped));
+        Assertions.assertFalse(PayloadDigest.verify(src, new File("src/test/samples/sample2.jpg")));
+    }
+
+    @Test
+    public void verifyAll_reportsChangedImageData(@TempDir Path dir) throws Exception {
+        //given
+        File first = new File("src/test/samples/sample1.jpg");
+        File second = new File("src/test/samples/withExif.jpg");
+        File third = new File("src/test/samples/sample2.jpg");
+        File firstCopy = dir.resolve("first.jpg").toFile();
+        File secondCopy = dir.resolve("second.jpg").toFile();
+        ExifEditor.removeEXIFDataFromFile(first, firstCopy);
+        byte[] data = Files.readAllBytes(second.toPath());
+        data[data.length - 3] ^= 1;
+        Files.write(secondCopy.toPath(), data);
+        Map<File, File> pairs = new LinkedHashMap<>();
+        pairs.put(first, firstCopy);
+        pairs.put(second, secondCopy);
+        pairs.put(third, new File("src/test/samples/notSupportedExt.txt"));
+        //when
+        List<File> mismatched = PayloadDigest.verifyAll(pairs, 2);
+        //then
+        Assertions.assertEquals(List.of(second, third), mismatched);
+    }
+
+    @Test
+    public void engine_verifiesWhileWriting(@TempDir Path dir) throws Exception {
+        //given
+        File src = new File("src/test/samples/withExif.jpg");
+        ExifEngine engine = new ExifEngine(1, false, true);
+        File stripped = dir.resolve("stripped.jpg").toFile();
+        File tagged = dir.resolve("tagged.jpg").toFile();
+        //when
+        engine.removeExif(src, stripped);
+        engine.writeTags(src, tagged, Map.of(TagKey.parse("Root:Model"), "Verified"));
+        //then
+        ExifMetadata metadata = ExifEditor.readEXIFMetadata(tagged);
+        String model = null;
+        for (int i = 0; i < metadata.size(); i++) {
+            if (metadata.getKey(i).equals(TagKey.parse("Root:Model"))) {
+                model = metadata.getValueText(i);
+            }
+        }
+        Assertions.assertTrue(PayloadDigest.verify(src, stripped));
+        Assertions.assertEquals("Verified", model);
+    }
+}
@@ -0,0 +1,176 @@
+import org.apache.commons.imaging.ImageReadException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.ExifMetadata;
+import pl.kielce.tu.ExifSegment;
+import pl.kielce.tu.ScrubPolicy;
+import pl.kielce.tu.TagKey;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+public class ScrubPolicyTest {
+
+    @Test
+    public void scrubInPlace_removesPrivateTagsOnly(@TempDir Path dir) throws Exception {
+        //given
+        File file = dir.resolve("private.jpg").toFile();
+        ExifEditor.writeEXIFDataToFile(new File("src/test/samples/sample1.jpg"), file, privateTags());
+        Set<TagKey> before = keys(file);
+        byte[] original = Files.readAllBytes(file.toPath());
+        //when
+        boolean inPlace = ExifEditor.scrubEXIFDataInPlace(file, ScrubPolicy.DEFAULT);
+        //then
+        Assertions.assertTrue(inPlace);
+        Set<TagKey> after = keys(file);
+        Assertions.assertTrue(before.contains(TagKey.parse("Gps:GPSMapDatum")));
+        Assertions.assertTrue(before.contains(TagKey.parse("Exif:MakerNote")));
+        for (TagKey key : before) {
+            Assertions.assertEquals(!ScrubPolicy.DEFAULT.removesTag(key) && key.getTag() != 0x8825,
+                    after.contains(key), key.toString());
+        }
+        Assertions.assertTrue(after.contains(TagKey.parse("Root:Orientation")));
+        Assertions.assertTrue(after.contains(TagKey.parse("Root:Copyright")));
+        Assertions.assertTrue(after.contains(TagKey.parse("Exif:0xA001")));
+        byte[] scrubbed = Files.readAllBytes(file.toPath());
+        Assertions.assertEquals(original.length, scrubbed.length);
+        String text = new String(scrubbed, StandardCharsets.ISO_8859_1);
+        Assertions.assertFalse(text.contains("SECRET-DATUM"));
+        Assertions.assertFalse(text.contains("SN-0123456789"));
+        Assertions.assertTrue(text.contains("Public copyright"));
+        int scanStart = scanStart(file);
+        Assertions.assertArrayEquals(Arrays.copyOfRange(original, scanStart, original.length),
+                Arrays.copyOfRange(scrubbed, scanStart, scrubbed.length));
+        Assertions.assertTrue(ExifEditor.scrubEXIFDataInPlace(file, ScrubPolicy.DEFAULT));
+        Assertions.assertArrayEquals(scrubbed, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void scrubFromFile_pngKeepsValidChunk(@TempDir Path dir) throws Exception {
+        //given
+        BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        File plain = dir.resolve("plain.png").toFile();
+        ImageIO.write(image, "png", plain);
+        File src = dir.resolve("private.png").toFile();
+        File dest = dir.resolve("scrubbed.png").toFile();
+        ExifEditor.writeEXIFDataToFile(plain, src, privateTags());
+        //when
+        ExifEditor.scrubEXIFDataFromFile(src, dest, ScrubPolicy.parse("Gps,Exif:0xA431"));
+        //then
+        Assertions.assertEquals(src.length(), dest.length());
+        Set<TagKey> after = keys(dest);
+        Assertions.assertFalse(after.contains(TagKey.parse("Gps:GPSMapDatum")));
+        Assertions.assertFalse(after.contains(TagKey.parse("Exif:0xA431")));
+        Assertions.assertTrue(after.contains(TagKey.parse("Root:Copyright")));
+        assertValidExifChunk(Files.readAllBytes(dest.toPath()));
+        Assertions.assertEquals(20, ImageIO.read(dest).getWidth());
+    }
+
+    @Test
+    public void parse_policy() {
+        //when
+        ScrubPolicy policy = ScrubPolicy.parse("default, Exif:Artist ,Interoperability");
+        //then
+        Assertions.assertTrue(policy.getTags().containsAll(ScrubPolicy.DEFAULT.getTags()));
+        Assertions.assertTrue(policy.removesTag(TagKey.parse("Gps:GPSLatitude")));
+        Assertions.assertTrue(policy.removesTag(TagKey.parse("Exif:Artist")));
+        Assertions.assertTrue(policy.removesDirectory(-4));
+        Assertions.assertFalse(policy.removesTag(TagKey.parse("Root:Orientation")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ScrubPolicy.parse("Root"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ScrubPolicy.parse(" , "));
+    }
+
+    @Test
+    public void scrubInPlace_withoutExif(@TempDir Path dir) throws Exception {
+        //given
+        File clean = dir.resolve("clean.jpg").toFile();
+        Files.copy(Path.of("src/test/samples/withoutExif.jpg"), clean.toPath());
+        byte[] original = Files.readAllBytes(clean.toPath());
+        //when
+        boolean inPlace = ExifEditor.scrubEXIFDataInPlace(clean, ScrubPolicy.DEFAULT);
+        //then
+        Assertions.assertTrue(inPlace);
+        Assertions.assertArrayEquals(original, Files.readAllBytes(clean.toPath()));
+        Assertions.assertThrows(ImageReadException.class, () -> ExifEditor.scrubEXIFDataInPlace(
+                new File("src/test/samples/notSupportedExt.txt"), ScrubPolicy.DEFAULT));
+    }
+
+    @Test
+    public void scrubInPlace_failedRewriteRemovesTempFile(@TempDir Path dir) throws Exception {
+        //given
+        File file = dir.resolve("twice.jpg").toFile();
+        byte[] original = Files.readAllBytes(Path.of("src/test/samples/withExif.jpg"));
+        ExifSegment segment;
+        try (FileChannel channel = FileChannel.open(Path.of("src/test/samples/withExif.jpg"))) {
+            segment = ExifSegment.find(channel);
+        }
+        int end = (int) segment.getEndOffset();
+        ByteBuffer twice = ByteBuffer.allocate(original.length + segment.getLength())
+                .put(original, 0, end)
+                .put(original, (int) segment.getOffset(), segment.getLength())
+                .put(original, end, original.length - end);
+        Files.write(file.toPath(), twice.array());
+        byte[] before = Files.readAllBytes(file.toPath());
+        Path temp = Files.createDirectory(dir.resolve(".twice.jpg.tmp"));
+        //when
+        Assertions.assertThrows(IOException.class, () -> ExifEditor.scrubEXIFDataInPlace(file, ScrubPolicy.DEFAULT));
+        //then
+        Assertions.assertFalse(Files.exists(temp));
+        Assertions.assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+    }
+
+    private static Map<TagKey, String> privateTags() {
+        Map<TagKey, String> tags = new LinkedHashMap<>();
+        tags.put(TagKey.parse("Gps:GPSMapDatum"), "SECRET-DATUM");
+        tags.put(TagKey.parse("Gps:GPSLatitudeRef"), "N");
+        tags.put(TagKey.parse("Exif:0xA431"), "SN-0123456789");
+        tags.put(TagKey.parse("Root:Copyright"), "Public copyright");
+        return tags;
+    }
+
+    private static Set<TagKey> keys(File file) throws Exception {
+        ExifMetadata metadata = ExifEditor.readEXIFMetadata(file);
+        Set<TagKey> keys = new HashSet<>();
+        for (int i = 0; i < metadata.size(); i++) {
+            keys.add(metadata.getKey(i));
+        }
+        return keys;
+    }
+
+    private static int scanStart(File file) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return (int) ExifSegment.findScanStart(channel);
+        }
+    }
+
+    private static void assertValidExifChunk(byte[] png) {
+        ByteBuffer buffer = ByteBuffer.wrap(png);
+        for (int position = 8; position + 12 <= png.length; ) {
+            int length = buffer.getInt(position);
+            String type = new String(png, position + 4, 4, StandardCharsets.US_ASCII);
+            if (type.equals("eXIf")) {
+                CRC32 crc = new CRC32();
+                crc.update(png, position + 4, 4 + length);
+                Assertions.assertEquals((int) crc.getValue(), buffer.getInt(position + 8 + length));
+                return;
+            }
+            position += 12 + length;
+        }
+        Assertions.fail("No eXIf chunk found.");
+    }
+}
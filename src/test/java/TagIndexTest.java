@@ -0,0 +1,97 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.BatchSummary;
+import pl.kielce.tu.ExifEditor;
+import pl.kielce.tu.TagIndex;
+import pl.kielce.tu.TagKey;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TagIndexTest {
+
+    @Test
+    public void query_equalityAndRange(@TempDir Path dir) throws Exception {
+        //given
+        Path samples = Path.of("src/test/samples").toAbsolutePath();
+        try (TagIndex index = TagIndex.open(dir)) {
+            index.update(samples, file -> file.toString().endsWith(".jpg"), 2);
+        }
+        //when
+        try (TagIndex index = TagIndex.open(dir)) {
+            List<String> canon = index.query(List.of(TagIndex.Condition.parse("Root:Make=Canon")));
+            List<String> dated = index.query(List.of(TagIndex.Condition.parse("Exif:DateTimeOriginal>=2003:01:01"),
+                    TagIndex.Condition.parse("Exif:DateTimeOriginal<2005")));
+            List<String> resolution = index.query(List.of(TagIndex.Condition.parse("Root:XResolution>100")));
+            //then
+            Assertions.assertEquals(List.of(samples.resolve("sample1.jpg").toString(),
+                    samples.resolve("sample2.jpg").toString()), canon);
+            Assertions.assertEquals(List.of(samples.resolve("sample1.jpg").toString()), dated);
+            Assertions.assertEquals(List.of(samples.resolve("sample1.jpg").toString()), resolution);
+            Assertions.assertTrue(index.query(List.of(TagIndex.Condition.parse("Gps:*"))).isEmpty());
+        }
+    }
+
+    @Test
+    public void update_onlyChangedFilesRead(@TempDir Path dir) throws Exception {
+        //given
+        Path root = Files.createDirectory(dir.resolve("photos"));
+        Path indexDir = dir.resolve("index");
+        for (String name : new String[] { "sample1.jpg", "sample2.jpg", "withExif.jpg" }) {
+            Files.copy(Path.of("src/test/samples", name), root.resolve(name));
+        }
+        TagIndex index = TagIndex.open(indexDir);
+        index.update(root, file -> true, 2);
+        File changed = root.resolve("withExif.jpg").toFile();
+        File edited = dir.resolve("edited.jpg").toFile();
+        ExifEditor.writeEXIFDataToFile(changed, edited, Map.of(TagKey.parse("Root:Model"), "Indexed"));
+        Files.move(edited.toPath(), changed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(root.resolve("sample2.jpg"));
+        //when
+        BatchSummary summary = index.update(root, file -> true, 2);
+        //then
+        Assertions.assertEquals(1, summary.getSucceeded());
+        Assertions.assertEquals(2, index.getFileCount());
+        Assertions.assertEquals(List.of(changed.getAbsolutePath()),
+                index.query(List.of(TagIndex.Condition.parse("Root:Model=Indexed"))));
+        Assertions.assertTrue(index.query(List.of(TagIndex.Condition.parse("Root:Model=DIGITALMAVICA"))).isEmpty());
+        Assertions.assertEquals(1, index.query(List.of(TagIndex.Condition.parse("Root:Make=Canon"))).size());
+        index.compact();
+        Assertions.assertEquals(1, index.getSegmentCount());
+        Assertions.assertEquals(1, segmentFiles(indexDir).size());
+        Assertions.assertEquals(List.of(changed.getAbsolutePath()),
+                TagIndex.open(indexDir).query(List.of(TagIndex.Condition.parse("Root:Model=Indexed"))));
+    }
+
+    @Test
+    public void open_deletesUnreferencedSegments(@TempDir Path dir) throws Exception {
+        //given
+        Path samples = Path.of("src/test/samples").toAbsolutePath();
+        try (TagIndex index = TagIndex.open(dir)) {
+            index.update(samples, file -> file.toString().endsWith(".jpg"), 2);
+        }
+        List<Path> referenced = segmentFiles(dir);
+        Files.write(dir.resolve("segment-000099.dat"), new byte[16]);
+        Files.write(dir.resolve("segment-000100.dat.keys"), new byte[16]);
+        //when
+        try (TagIndex index = TagIndex.open(dir)) {
+            //then
+            Assertions.assertEquals(referenced, segmentFiles(dir));
+            Assertions.assertEquals(2, index.query(List.of(TagIndex.Condition.parse("Root:Make=Canon"))).size());
+        }
+    }
+
+    private static List<Path> segmentFiles(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("segment-")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
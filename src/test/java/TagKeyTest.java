@@ -0,0 +1,34 @@
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import pl.kielce.tu.TagKey;
+
+public class TagKeyTest {
+
+    @Test
+    public void parse_tagName() {
+        //when
+        TagKey key = TagKey.parse("Root:Artist");
+        //then
+        Assertions.assertEquals(new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_ROOT,
+                TiffTagConstants.TIFF_TAG_ARTIST.tag), key);
+    }
+
+    @Test
+    public void parse_tagNumber() {
+        //when
+        TagKey key = TagKey.parse("exif:0x9286");
+        //then
+        Assertions.assertEquals(new TagKey(TiffDirectoryConstants.DIRECTORY_TYPE_EXIF,
+                ExifTagConstants.EXIF_TAG_USER_COMMENT.tag), key);
+    }
+
+    @Test
+    public void parse_unknownTag() {
+        //then
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TagKey.parse("Root:NoSuchTag"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TagKey.parse("Artist"));
+    }
+}
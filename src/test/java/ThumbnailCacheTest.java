@@ -0,0 +1,43 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import pl.kielce.tu.ThumbnailCache;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+public class ThumbnailCacheTest {
+
+    @Test
+    public void readThumbnailData_fromIfd1() throws Exception {
+        //when
+        byte[] data = ThumbnailCache.readThumbnailData(new File("src/test/samples/sample1.jpg"));
+        //then
+        Assertions.assertEquals(5448, data.length);
+        Assertions.assertEquals((byte) 0xFF, data[0]);
+        Assertions.assertEquals((byte) 0xD8, data[1]);
+        Assertions.assertNull(ThumbnailCache.readThumbnailData(new File("src/test/samples/sample2.jpg")));
+    }
+
+    @Test
+    public void getThumbnail_cachedAndEvicted() throws Exception {
+        //given
+        File first = new File("src/test/samples/sample1.jpg");
+        File second = new File("src/test/samples/withExif.jpg");
+        ThumbnailCache probe = new ThumbnailCache();
+        BufferedImage image = probe.getThumbnail(first);
+        ThumbnailCache cache = new ThumbnailCache(probe.getEstimatedBytes() + 64);
+        //when
+        cache.getThumbnail(first);
+        BufferedImage cached = cache.getThumbnail(first);
+        BufferedImage none = cache.getThumbnail(new File("src/test/samples/sample2.jpg"));
+        cache.getThumbnail(second);
+        //then
+        Assertions.assertEquals(160, image.getWidth());
+        Assertions.assertEquals(image.getHeight(), cached.getHeight());
+        Assertions.assertNull(none);
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(3, cache.getMisses());
+        Assertions.assertTrue(cache.getEvictions() >= 1);
+        Assertions.assertTrue(cache.getEstimatedBytes() <= probe.getEstimatedBytes() + 64);
+    }
+}
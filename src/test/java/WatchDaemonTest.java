@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.kielce.tu.BatchOptions;
+import pl.kielce.tu.ExifSegment;
+import pl.kielce.tu.WatchDaemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class WatchDaemonTest {
+
+    @Test
+    public void watch_stripsNewFilesAndResumesFromJournal(@TempDir Path dir) throws Exception {
+        //given
+        Path ingest = Files.createDirectory(dir.resolve("ingest"));
+        Path out = dir.resolve("out");
+        BatchOptions options = BatchOptions.parse(new String[] { "watch", "--out", out.toString(),
+                "--threads", "2", "--debounce", "100", ingest.toString() });
+        PrintStream err = new PrintStream(new ByteArrayOutputStream());
+        Files.copy(Path.of("src/test/samples/sample1.jpg"), ingest.resolve("sample1.jpg"));
+        //when
+        WatchDaemon daemon = new WatchDaemon(options, err);
+        daemon.start();
+        Files.createDirectory(ingest.resolve("sub"));
+        Files.copy(Path.of("src/test/samples/withExif.jpg"), ingest.resolve("sub/withExif.jpg"));
+        awaitFile(out.resolve("sample1.jpg"));
+        awaitFile(out.resolve("sub/withExif.jpg"));
+        daemon.close();
+        Files.copy(Path.of("src/test/samples/sample2.jpg"), ingest.resolve("sample2.jpg"));
+        WatchDaemon restarted = new WatchDaemon(options, err);
+        restarted.start();
+        awaitFile(out.resolve("sample2.jpg"));
+        restarted.close();
+        //then
+        Assertions.assertEquals(2, daemon.getSummary().getSucceeded());
+        Assertions.assertEquals(1, restarted.getSummary().getSucceeded());
+        Assertions.assertEquals(3, restarted.getDoneCount());
+        for (String name : new String[] { "sample1.jpg", "sub/withExif.jpg", "sample2.jpg" }) {
+            try (FileChannel channel = FileChannel.open(out.resolve(name), StandardOpenOption.READ)) {
+                Assertions.assertNull(ExifSegment.find(channel));
+            }
+        }
+    }
+
+    @Test
+    public void start_compactionKeepsFailedEntries(@TempDir Path dir) throws Exception {
+        //given
+        Path ingest = Files.createDirectory(dir.resolve("ingest"));
+        Path out = Files.createDirectory(dir.resolve("out"));
+        Path broken = Files.write(ingest.resolve("broken.jpg"), new byte[] { 1, 2, 3 });
+        long lastModified = Files.getLastModifiedTime(broken).toMillis();
+        Files.write(out.resolve(WatchDaemon.JOURNAL), List.of("OK 3 " + lastModified + " removed.jpg",
+                "FAIL 3 " + lastModified + " broken.jpg"));
+        BatchOptions options = BatchOptions.parse(new String[] { "watch", "--out", out.toString(),
+                ingest.toString() });
+        WatchDaemon daemon = new WatchDaemon(options, new PrintStream(new ByteArrayOutputStream()));
+        //when
+        daemon.start();
+        daemon.close();
+        //then
+        Assertions.assertEquals(List.of("FAIL 3 " + lastModified + " broken.jpg"),
+                Files.readAllLines(out.resolve(WatchDaemon.JOURNAL)));
+    }
+
+    private static void awaitFile(Path file) throws InterruptedException {
+        for (int i = 0; i < 200 && !Files.exists(file); i++) {
+            Thread.sleep(50);
+        }
+        Assertions.assertTrue(Files.exists(file), file + " was not created");
+    }
+}